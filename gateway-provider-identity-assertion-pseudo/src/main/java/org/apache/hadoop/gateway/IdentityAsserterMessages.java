@@ -28,4 +28,7 @@ public interface IdentityAsserterMessages {
   @Message( level = MessageLevel.WARN, text = "Skipping unencodable parameter {0}={1}, {2}: {3}" )
   void skippingUnencodableParameter( String name, String value, String encoding, @StackTrace( level = MessageLevel.DEBUG ) Exception e );
 
+  @Message( level = MessageLevel.WARN, text = "Unable to read form parameters: {0}" )
+  void unableToReadFormParameters( @StackTrace( level = MessageLevel.DEBUG ) Exception e );
+
 }
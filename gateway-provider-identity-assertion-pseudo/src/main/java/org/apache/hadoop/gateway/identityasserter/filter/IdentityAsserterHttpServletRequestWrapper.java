@@ -31,8 +31,6 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -47,6 +45,15 @@ public class IdentityAsserterHttpServletRequestWrapper extends HttpServletReques
   
   String username = null;
 
+  // The rewritten parameters and their encodings are computed once and shared by all of the parameter
+  // methods since downstream filters and the url rewriter call them repeatedly.  The form body is parsed
+  // once too, for both the parameter methods and the rewritten input stream.
+  private Map<String, String[]> queryParams = null;
+  private Map<String, String[]> params = null;
+  private Map<String, String[]> formParams = null;
+  private String queryString = null;
+  private byte[] formBody = null;
+
   public IdentityAsserterHttpServletRequestWrapper( HttpServletRequest request, String principal ) {
     super(request);
     username = principal;
@@ -54,10 +61,8 @@ public class IdentityAsserterHttpServletRequestWrapper extends HttpServletReques
 
   @Override
   public String getParameter(String name) {
-    if (name.equals(PRINCIPAL_PARAM)) {
-      return username;
-    }
-    return super.getParameter(name);
+    String[] v = getParams().get(name);
+    return v == null ? null : v[0];
   }
   
   @SuppressWarnings("rawtypes")
@@ -66,80 +71,116 @@ public class IdentityAsserterHttpServletRequestWrapper extends HttpServletReques
     return getParams();
   }
 
-  @SuppressWarnings({ "unchecked", "rawtypes" })
+  @SuppressWarnings("rawtypes")
   @Override
   public Enumeration getParameterNames() {
-    Map<String, String[]> params = getParams();
-    Enumeration<String> e = Collections.enumeration((Collection<String>) params);
-
-    return e;
+    return Collections.enumeration(getParams().keySet());
   }
 
   @Override
   public String[] getParameterValues(String name) {
-    Map<String, String[]> params = getParams();
-
-    return params.get(name);
+    return getParams().get(name);
   }
 
-  private Map<String, String[]> getParams( String qString ) {
-    Map<String, String[]> params = null;
-    if (getMethod().equals("GET")) {
-      if (qString != null && qString.length() > 0) {
-        params = parseQueryString(qString);
-      }
-      else {
-        params = new HashMap<String, String[]>();
+  /**
+   * Returns the parameters of the query string followed by those of a form body, with the principal parameter
+   * replaced.  The map is built once per request and can't be modified.
+   */
+  private Map<String, String[]> getParams() {
+    if (params == null) {
+      Map<String, String[]> merged = new HashMap<String, String[]>( getQueryParams() );
+      try {
+        for (Map.Entry<String, String[]> entry : getFormParams().entrySet()) {
+          String[] query = merged.get(entry.getKey());
+          if (query == null) {
+            merged.put(entry.getKey(), entry.getValue());
+          } else {
+            String[] values = new String[query.length + entry.getValue().length];
+            System.arraycopy(query, 0, values, 0, query.length);
+            System.arraycopy(entry.getValue(), 0, values, query.length, entry.getValue().length);
+            merged.put(entry.getKey(), values);
+          }
+        }
+      } catch (IOException e) {
+        // As the container does, leave out the form parameters if the body can't be read.
+        log.unableToReadFormParameters(e);
       }
+      setPrincipal(merged);
+      params = Collections.unmodifiableMap(merged);
     }
-    else {
-      if (qString == null || qString.length() == 0) {
-        return null;
-      }
-      else {
-        params = parseQueryString(qString);
-      }
-    }  
     return params;
   }
 
-  private Map<String, String[]> getParams() {
-    return getParams( super.getQueryString() );
+  /**
+   * Returns the parameters of the query string with the principal parameter replaced.
+   */
+  private Map<String, String[]> getQueryParams() {
+    if (queryParams == null) {
+      Map<String, String[]> rewritten = parseParams( super.getQueryString() );
+      setPrincipal(rewritten);
+      queryParams = Collections.unmodifiableMap(rewritten);
+    }
+    return queryParams;
   }
-  
-  @Override
-  public String getQueryString() {
-    String q = null;
-    Map<String, String[]> params = getParams();
 
-    if (params == null) {
-      params = new HashMap<String, String[]>();
+  /**
+   * Returns the parameters of a form body, or an empty map if the body isn't a form.
+   */
+  private Map<String, String[]> getFormParams() throws IOException {
+    if (formParams == null) {
+      if (isForm()) {
+        formParams = parseParams( IOUtils.toString( super.getInputStream(), getEncoding() ) );
+      } else {
+        formParams = Collections.emptyMap();
+      }
     }
-    
-    ArrayList<String> al = new ArrayList<String>();
-    al.add(username);
-    String[] a = { "" };
+    return formParams;
+  }
 
+  private void setPrincipal(Map<String, String[]> map) {
     if ("true".equals(System.getProperty(GatewayConfig.HADOOP_KERBEROS_SECURED))) {
-      params.put(DOAS_PRINCIPAL_PARAM, al.toArray(a));
+      map.put(DOAS_PRINCIPAL_PARAM, new String[]{ username });
     } else {
-      params.put(PRINCIPAL_PARAM, al.toArray(a));
+      map.put(PRINCIPAL_PARAM, new String[]{ username });
     }
-    
+  }
+
+  private boolean isForm() {
+    String contentType = getContentType();
+    return contentType != null && contentType.startsWith( "application/x-www-form-urlencoded" );
+  }
+
+  /**
+   * Parses a query string or form body into a new modifiable map.
+   */
+  private static Map<String, String[]> parseParams( String qString ) {
+    if (qString == null || qString.length() == 0) {
+      return new HashMap<String, String[]>();
+    }
+    return new HashMap<String, String[]>( parseQueryString(qString) );
+  }
+
+  private String getEncoding() {
     String encoding = getCharacterEncoding();
     if (encoding == null) {
       encoding = Charset.defaultCharset().name();
     }
-    q = urlEncode(params, encoding);
-    return q;
+    return encoding;
+  }
+  
+  @Override
+  public String getQueryString() {
+    if (queryString == null) {
+      queryString = urlEncode(getQueryParams(), getEncoding());
+    }
+    return queryString;
   }
 
   @Override
   public int getContentLength() {
     int len;
-    String contentType = getContentType();
     // If the content type is a form we might rewrite the body so default it to -1.
-    if( contentType != null && contentType.startsWith( "application/x-www-form-urlencoded" ) ) {
+    if( isForm() ) {
       len = -1;
     } else {
       len = super.getContentLength();
@@ -149,17 +190,13 @@ public class IdentityAsserterHttpServletRequestWrapper extends HttpServletReques
 
   @Override
   public ServletInputStream getInputStream() throws java.io.IOException {
-    String contentType = getContentType();
-    if( contentType != null && contentType.startsWith( "application/x-www-form-urlencoded" ) ) {
-      String encoding = getCharacterEncoding();
-      if( encoding == null ) {
-        encoding = Charset.defaultCharset().name();
+    if( isForm() ) {
+      if( formBody == null ) {
+        String body = urlEncode( getFormParams(), getEncoding() );
+        // ASCII is OK here because the urlEncode about should have already escaped
+        formBody = body.getBytes( "US-ASCII" );
       }
-      String body = IOUtils.toString( super.getInputStream(), encoding );
-      Map<String, String[]> params = getParams( body );
-      body = urlEncode( params, encoding );
-      // ASCII is OK here because the urlEncode about should have already escaped
-      return new ServletInputStreamWrapper( new ByteArrayInputStream( body.getBytes( "US-ASCII" ) ) );
+      return new ServletInputStreamWrapper( new ByteArrayInputStream( formBody ) );
     } else {
       return super.getInputStream();
     }
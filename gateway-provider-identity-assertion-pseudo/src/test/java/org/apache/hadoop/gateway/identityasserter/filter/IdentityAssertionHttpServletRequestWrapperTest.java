@@ -27,12 +27,17 @@ import org.junit.experimental.categories.Category;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
 
 @Category( { UnitTests.class, FastTests.class } )
 public class IdentityAssertionHttpServletRequestWrapperTest {
@@ -204,6 +209,76 @@ public class IdentityAssertionHttpServletRequestWrapperTest {
     assertThat( output, not( containsString( "input-user" ) ) );
   }
 
+  @Test
+  public void testParametersParsedOnce() {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setQueryString( "param=value&user.name=input-user" );
+
+    IdentityAsserterHttpServletRequestWrapper wrapper
+        = new IdentityAsserterHttpServletRequestWrapper( request, "output-user" );
+
+    Map params = wrapper.getParameterMap();
+    assertThat( wrapper.getParameterMap(), sameInstance( params ) );
+    assertThat( wrapper.getQueryString(), sameInstance( wrapper.getQueryString() ) );
+    assertThat( wrapper.getParameterValues( "param" ), is( new String[]{ "value" } ) );
+    assertThat( wrapper.getParameterValues( "user.name" ), is( new String[]{ "output-user" } ) );
+    assertThat( wrapper.getParameter( "param" ), is( "value" ) );
+    assertThat( wrapper.getParameter( "user.name" ), is( "output-user" ) );
+    assertThat( wrapper.getParameter( "missing" ), nullValue() );
+    assertThat( Collections.list( wrapper.getParameterNames() ).size(), is( 2 ) );
+    try {
+      params.put( "user.name", new String[]{ "input-user" } );
+      fail( "Expected the parameter map to be unmodifiable" );
+    } catch( UnsupportedOperationException e ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testFormParametersInPostMethod() throws IOException {
+    String inputBody = "jar=%2Ftmp%2Fhadoop-examples.jar&arg=input&arg=output&user.name=input-user";
+
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setQueryString( "op=RUN&arg=first" );
+    request.setInputStream( new MockServletInputStream( new ByteArrayInputStream( inputBody.getBytes( "UTF-8" ) ) ) );
+    request.setCharacterEncoding( "UTF-8" );
+    request.setContentType( "application/x-www-form-urlencoded" );
+    request.setMethod("POST");
+
+    IdentityAsserterHttpServletRequestWrapper wrapper
+        = new IdentityAsserterHttpServletRequestWrapper( request, "output-user" );
+
+    assertThat( wrapper.getParameter( "jar" ), is( "/tmp/hadoop-examples.jar" ) );
+    assertThat( wrapper.getParameter( "op" ), is( "RUN" ) );
+    // Query string values come before those of the body.
+    assertThat( wrapper.getParameterValues( "arg" ), is( new String[]{ "first", "input", "output" } ) );
+    assertThat( wrapper.getParameterValues( "user.name" ), is( new String[]{ "output-user" } ) );
+    assertThat( (String[])wrapper.getParameterMap().get( "jar" ), is( new String[]{ "/tmp/hadoop-examples.jar" } ) );
+    assertThat( Collections.list( wrapper.getParameterNames() ).size(), is( 4 ) );
+
+    // The body parsed for the parameters is still forwarded and the query string doesn't pick up its parameters.
+    String outputBody = IOUtils.toString( wrapper.getInputStream(), wrapper.getCharacterEncoding() );
+    assertThat( outputBody, containsString( "jar=%2Ftmp%2Fhadoop-examples.jar" ) );
+    assertThat( outputBody, containsString( "arg=input&arg=output" ) );
+    assertThat( wrapper.getQueryString(), not( containsString( "jar" ) ) );
+  }
+
+  @Test
+  public void testEmptyFormBody() throws IOException {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setInputStream( new MockServletInputStream( new ByteArrayInputStream( new byte[0] ) ) );
+    request.setCharacterEncoding( "UTF-8" );
+    request.setContentType( "application/x-www-form-urlencoded" );
+    request.setMethod("POST");
+
+    IdentityAsserterHttpServletRequestWrapper wrapper
+        = new IdentityAsserterHttpServletRequestWrapper( request, "output-user" );
+
+    String outputBody = IOUtils.toString( wrapper.getInputStream(), wrapper.getCharacterEncoding() );
+    assertThat( outputBody, is( "" ) );
+    assertThat( wrapper.getQueryString(), is( "user.name=output-user" ) );
+  }
+
   @Test
   public void testUrlEncode() {
     String s;
@@ -24,7 +24,6 @@ import org.apache.hadoop.gateway.filter.rewrite.spi.UrlRewriteStepProcessor;
 import org.apache.hadoop.gateway.filter.rewrite.spi.UrlRewriteStepStatus;
 import org.apache.hadoop.gateway.services.GatewayServices;
 import org.apache.hadoop.gateway.services.security.CryptoService;
-import org.apache.hadoop.gateway.services.security.EncryptionResult;
 import org.apache.hadoop.gateway.util.urltemplate.Builder;
 import org.apache.hadoop.gateway.util.urltemplate.Query;
 import org.apache.hadoop.gateway.util.urltemplate.Template;
@@ -36,10 +35,18 @@ import java.util.StringTokenizer;
 
 public class SecureQueryDecryptProcessor implements UrlRewriteStepProcessor<SecureQueryDecryptDescriptor> {
 
+  /**
+   * Context parameter that, when true, also accepts query strings encrypted in the unauthenticated format used
+   * before tokens.  Off unless the secure-query provider enables it, see
+   * {@link SecureQueryDeploymentContributor#ACCEPT_LEGACY_TOKENS_PARAM}.
+   */
+  public static final String ACCEPT_LEGACY_TOKENS_PARAM = "secure-query.accept.legacy.tokens";
+
   private static final String ENCRYPTED_PARAMETER_NAME = "_";
 
   private String clusterName;
   private CryptoService cryptoService;
+  private boolean acceptLegacyTokens;
 
   @Override
   public String getType() {
@@ -51,6 +58,8 @@ public class SecureQueryDecryptProcessor implements UrlRewriteStepProcessor<Secu
     clusterName = environment.getAttribute( GatewayServices.GATEWAY_CLUSTER_ATTRIBUTE );
     GatewayServices services = environment.getAttribute(GatewayServices.GATEWAY_SERVICES_ATTRIBUTE);
     cryptoService = (CryptoService) services.getService(GatewayServices.CRYPTO_SERVICE);
+    List<String> values = environment.resolve( ACCEPT_LEGACY_TOKENS_PARAM );
+    acceptLegacyTokens = values != null && !values.isEmpty() && "true".equalsIgnoreCase( values.get( 0 ).trim() );
   }
 
   @Override
@@ -63,6 +72,9 @@ public class SecureQueryDecryptProcessor implements UrlRewriteStepProcessor<Secu
     if( query != null ) {
       String value = query.getFirstValue().getPattern();
       value = decode( value );
+      if( value == null ) {
+        return UrlRewriteStepStatus.FAILURE;
+      }
       StringTokenizer outerParser = new StringTokenizer( value, "&" );
       while( outerParser.hasMoreTokens() ) {
         String pair = outerParser.nextToken();
@@ -92,12 +104,7 @@ public class SecureQueryDecryptProcessor implements UrlRewriteStepProcessor<Secu
 
   private String decode( String string ) throws UnsupportedEncodingException {
     byte[] bytes = Base64.decodeBase64( string );
-    EncryptionResult result = EncryptionResult.fromByteArray(bytes);
-    byte[] clear = cryptoService.decryptForCluster(clusterName, 
-        "encryptQueryString", 
-        result.cipher, 
-        result.iv, 
-        result.salt);
+    byte[] clear = cryptoService.decryptTokenForCluster(clusterName, "encryptQueryString", bytes, acceptLegacyTokens);
     if (clear != null) {
       return new String(clear);
     }
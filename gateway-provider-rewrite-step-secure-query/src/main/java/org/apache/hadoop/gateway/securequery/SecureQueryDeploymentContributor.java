@@ -27,6 +27,7 @@ import org.apache.hadoop.gateway.topology.Provider;
 import org.apache.hadoop.gateway.topology.Service;
 
 import java.util.List;
+import java.util.Map;
 
 public class SecureQueryDeploymentContributor
     extends ProviderDeploymentContributorBase
@@ -34,6 +35,12 @@ public class SecureQueryDeploymentContributor
 
   public static final String PROVIDER_ROLE_NAME = "secure-query";
   public static final String PROVIDER_IMPL_NAME = "default";
+
+  /**
+   * Provider param that, when true, keeps accepting URLs encrypted before authenticated tokens were introduced.
+   * Those can be forged or tampered with so it should only be enabled while such URLs are still in circulation.
+   */
+  public static final String ACCEPT_LEGACY_TOKENS_PARAM = "accept.legacy.tokens";
   private AliasService as;
 
   @Override
@@ -65,6 +72,11 @@ public class SecureQueryDeploymentContributor
   @Override
   public void contributeProvider( DeploymentContext context, Provider provider ) {
     if( provider.isEnabled() ) {
+      Map<String,String> params = provider.getParams();
+      if( params != null && "true".equalsIgnoreCase( params.get( ACCEPT_LEGACY_TOKENS_PARAM ) ) ) {
+        context.getWebAppDescriptor().createContextParam()
+            .paramName( SecureQueryDecryptProcessor.ACCEPT_LEGACY_TOKENS_PARAM ).paramValue( "true" );
+      }
 //      UrlRewriteRulesDescriptor rules = context.getDescriptor( REWRITE_ROLE_NAME );
 //      if( rules != null ) {
 //        HostmapFunctionDescriptor func = rules.addFunction( HostmapFunctionDescriptor.FUNCTION_NAME );
@@ -17,11 +17,14 @@
  */
 package org.apache.hadoop.gateway.securequery;
 
+import org.apache.commons.codec.binary.Base64;
 import org.apache.hadoop.gateway.filter.rewrite.api.UrlRewriteEnvironment;
 import org.apache.hadoop.gateway.filter.rewrite.spi.UrlRewriteContext;
+import org.apache.hadoop.gateway.filter.rewrite.spi.UrlRewriteStepStatus;
 import org.apache.hadoop.gateway.services.GatewayServices;
 import org.apache.hadoop.gateway.services.security.AliasService;
 import org.apache.hadoop.gateway.services.security.CryptoService;
+import org.apache.hadoop.gateway.services.security.EncryptionResult;
 import org.apache.hadoop.gateway.services.security.impl.DefaultCryptoService;
 import org.apache.hadoop.gateway.util.urltemplate.Params;
 import org.apache.hadoop.gateway.util.urltemplate.Parser;
@@ -108,4 +111,55 @@ public class SecureQueryEncryptDecryptProcessorTest {
     assertThat( query, nullValue() );
   }
 
+  @Test
+  public void testLegacyTokenRejectedUnlessEnabled() throws Exception {
+    AliasService as = EasyMock.createNiceMock( AliasService.class );
+    String secret = "sdkjfhsdkjfhsdfs";
+    EasyMock.expect( as.getPasswordFromAliasForCluster("test-cluster-name", "encryptQueryString")).andReturn( secret.toCharArray() ).anyTimes();
+    EasyMock.replay( as );
+    CryptoService cryptoService = new DefaultCryptoService();
+    ((DefaultCryptoService)cryptoService).setAliasService(as);
+
+    // The unauthenticated salt, IV and cipher text format used before tokens.
+    EncryptionResult legacy = cryptoService.encryptForCluster( "test-cluster-name", "encryptQueryString",
+        "query-param-name=query-param-value".getBytes( "UTF-8" ) );
+    Template legacyTemplate = Parser.parse(
+        "http://host:0/path/file?_=" + Base64.encodeBase64URLSafeString( legacy.toByteAray() ) );
+
+    Capture<Template> decTemplate = new Capture<Template>();
+    assertThat( decryptLegacy( cryptoService, legacyTemplate, null, decTemplate ), is( UrlRewriteStepStatus.FAILURE ) );
+    assertThat( decTemplate.hasCaptured(), is( false ) );
+
+    decTemplate = new Capture<Template>();
+    assertThat( decryptLegacy( cryptoService, legacyTemplate, "false", decTemplate ), is( UrlRewriteStepStatus.FAILURE ) );
+    assertThat( decTemplate.hasCaptured(), is( false ) );
+
+    decTemplate = new Capture<Template>();
+    assertThat( decryptLegacy( cryptoService, legacyTemplate, "true", decTemplate ), is( UrlRewriteStepStatus.SUCCESS ) );
+    Query query = decTemplate.getValue().getQuery().get( "query-param-name" );
+    assertThat( query.getFirstValue().getPattern(), is( "query-param-value" ) );
+  }
+
+  private UrlRewriteStepStatus decryptLegacy(
+      CryptoService cryptoService, Template template, String acceptLegacy, Capture<Template> decTemplate )
+      throws Exception {
+    GatewayServices gatewayServices = EasyMock.createNiceMock( GatewayServices.class );
+    EasyMock.expect( gatewayServices.getService( GatewayServices.CRYPTO_SERVICE ) ).andReturn( cryptoService );
+    UrlRewriteEnvironment decEnvironment = EasyMock.createNiceMock( UrlRewriteEnvironment.class );
+    EasyMock.expect( decEnvironment.getAttribute( GatewayServices.GATEWAY_SERVICES_ATTRIBUTE ) ).andReturn( gatewayServices ).anyTimes();
+    EasyMock.expect( decEnvironment.getAttribute( GatewayServices.GATEWAY_CLUSTER_ATTRIBUTE ) ).andReturn( "test-cluster-name" ).anyTimes();
+    EasyMock.expect( decEnvironment.resolve( SecureQueryDecryptProcessor.ACCEPT_LEGACY_TOKENS_PARAM ) )
+        .andReturn( acceptLegacy == null ? null : Arrays.asList( acceptLegacy ) ).anyTimes();
+    Params decParams = EasyMock.createNiceMock( Params.class );
+    UrlRewriteContext decContext = EasyMock.createNiceMock( UrlRewriteContext.class );
+    EasyMock.expect( decContext.getCurrentUrl() ).andReturn( template );
+    EasyMock.expect( decContext.getParameters() ).andReturn( decParams );
+    decContext.setCurrentUrl( EasyMock.capture( decTemplate ) );
+    EasyMock.replay( gatewayServices, decEnvironment, decParams, decContext );
+
+    SecureQueryDecryptProcessor decProcessor = new SecureQueryDecryptProcessor();
+    decProcessor.initialize( decEnvironment, new SecureQueryDecryptDescriptor() );
+    return decProcessor.process( decContext );
+  }
+
 }
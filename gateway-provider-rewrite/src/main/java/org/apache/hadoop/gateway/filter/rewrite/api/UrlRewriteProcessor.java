@@ -102,6 +102,8 @@ public class UrlRewriteProcessor implements UrlRewriter {
         LOG.failedToInitializeRewriteRules( e );
       }
     }
+    inbound.compile();
+    outbound.compile();
   }
 
   public void destroy() {
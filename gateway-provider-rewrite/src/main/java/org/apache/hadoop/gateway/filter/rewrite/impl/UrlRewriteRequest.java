@@ -28,9 +28,9 @@ import org.apache.hadoop.gateway.filter.rewrite.api.UrlRewriteStreamFilterFactor
 import org.apache.hadoop.gateway.filter.rewrite.api.UrlRewriter;
 import org.apache.hadoop.gateway.filter.rewrite.i18n.UrlRewriteMessages;
 import org.apache.hadoop.gateway.i18n.messages.MessagesFactory;
-import org.apache.hadoop.gateway.util.urltemplate.Parser;
 import org.apache.hadoop.gateway.util.urltemplate.Resolver;
 import org.apache.hadoop.gateway.util.urltemplate.Template;
+import org.apache.hadoop.gateway.util.urltemplate.TemplateCache;
 
 import javax.activation.MimeType;
 import javax.servlet.FilterConfig;
@@ -84,7 +84,7 @@ public class UrlRewriteRequest extends GatewayRequestWrapper implements Resolver
       urlString.append( queryString );
     }
     try {
-      urlTemplate = Parser.parse( urlString.toString() );
+      urlTemplate = TemplateCache.getDefault().parse( urlString.toString() );
     } catch( URISyntaxException e ) {
       LOG.failedToParseValueForUrlRewrite( urlString.toString() );
       // Shouldn't be possible given that the URL is constructed from parts of an existing URL.
@@ -145,7 +145,7 @@ public class UrlRewriteRequest extends GatewayRequestWrapper implements Resolver
 
   private String rewriteValue( UrlRewriter rewriter, String value, String rule ) {
     try {
-      Template input = Parser.parse( value );
+      Template input = TemplateCache.getDefault().parse( value );
       Template output = rewriter.rewrite( this, input, UrlRewriter.Direction.IN, rule );
       value = output.toString();
     } catch( URISyntaxException e ) {
@@ -28,8 +28,8 @@ import org.apache.hadoop.gateway.filter.rewrite.i18n.UrlRewriteMessages;
 import org.apache.hadoop.gateway.i18n.messages.MessagesFactory;
 import org.apache.hadoop.gateway.util.Urls;
 import org.apache.hadoop.gateway.util.urltemplate.Params;
-import org.apache.hadoop.gateway.util.urltemplate.Parser;
 import org.apache.hadoop.gateway.util.urltemplate.Template;
+import org.apache.hadoop.gateway.util.urltemplate.TemplateCache;
 import org.apache.hadoop.io.IOUtils;
 
 import javax.activation.MimeType;
@@ -100,7 +100,7 @@ public class UrlRewriteResponse extends GatewayResponseWrapper implements Params
 
   private String rewriteValue( String value, String rule ) {
     try {
-      Template input = Parser.parse( value );
+      Template input = TemplateCache.getDefault().parse( value );
       Template output = rewriter.rewrite( this, input, UrlRewriter.Direction.OUT, rule );
       if( output != null ) {
         value = output.toString();
@@ -37,14 +37,15 @@ import org.apache.hadoop.gateway.i18n.messages.MessagesFactory;
 import org.apache.hadoop.gateway.security.GroupPrincipal;
 import org.apache.hadoop.gateway.security.ImpersonatedPrincipal;
 import org.apache.hadoop.gateway.security.PrimaryPrincipal;
-import org.apache.hadoop.gateway.util.IpAddressValidator;
+import org.apache.hadoop.gateway.util.IpAddressAcl;
 import org.apache.hadoop.gateway.util.urltemplate.Template;
 
 import java.io.IOException;
 import java.security.AccessController;
 import java.security.Principal;
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 public class AclsAuthorizationFilter implements Filter {
   private static AclsAuthorizationMessages log = MessagesFactory.get( AclsAuthorizationMessages.class );
@@ -52,13 +53,16 @@ public class AclsAuthorizationFilter implements Filter {
           AuditConstants.KNOX_SERVICE_NAME, AuditConstants.KNOX_COMPONENT_NAME );
 
   private String resourceRole = null;
-  private ArrayList<String> users;
-  private ArrayList<String> groups;
+  private Set<String> users;
+  private Set<String> groups;
   private boolean anyUser = true;
   private boolean anyGroup = true;
-  private IpAddressValidator ipv = null;
+  private IpAddressAcl ipAcl = null;
+  private boolean unrestricted = false;
 
   private String aclProcessingMode = null;
+  private boolean orMode = false;
+  private boolean andMode = false;
 
   
   @Override
@@ -73,6 +77,8 @@ public class AclsAuthorizationFilter implements Filter {
       }
     }
     log.aclProcessingMode(aclProcessingMode);
+    orMode = aclProcessingMode.equals("OR");
+    andMode = aclProcessingMode.equals("AND");
     String acls = getInitParameter(filterConfig, resourceRole + ".acl");
     parseAcls(acls);
   }
@@ -81,6 +87,8 @@ public class AclsAuthorizationFilter implements Filter {
     return filterConfig.getInitParameter(paramName.toLowerCase());
   }
 
+  // The acls are compiled once into hashed sets and an ip address trie so that each request
+  // costs one lookup per principal rather than a scan of the acls for each of them.
   private void parseAcls(String acls) {
     if (acls != null) {
       String[] parts = acls.split(";");
@@ -101,14 +109,17 @@ public class AclsAuthorizationFilter implements Filter {
     }
     else {
       log.noAclsFoundForResource(resourceRole);
-      users = new ArrayList<String>();
-      groups = new ArrayList<String>();
-      ipv = new IpAddressValidator(null);
+      users = Collections.emptySet();
+      groups = Collections.emptySet();
+      ipAcl = IpAddressAcl.compile(null);
+      // before enforcing acls check whether there are no acls defined
+      // which would mean that there are no restrictions
+      unrestricted = true;
     }
   }
 
   private void parseUserAcls(String[] parts) {
-    users = new ArrayList<String>();
+    users = new HashSet<String>();
     Collections.addAll(users, parts[0].split(","));
     if (!users.contains("*")) {
       anyUser = false;
@@ -116,7 +127,7 @@ public class AclsAuthorizationFilter implements Filter {
   }
 
   private void parseGroupAcls(String[] parts) {
-    groups = new ArrayList<String>();
+    groups = new HashSet<String>();
     Collections.addAll(groups, parts[1].split(","));
     if (!groups.contains("*")) {
       anyGroup = false;
@@ -124,7 +135,7 @@ public class AclsAuthorizationFilter implements Filter {
   }
 
   private void parseIpAddressAcls(String[] parts) {
-    ipv = new IpAddressValidator(parts[2]);
+    ipAcl = IpAddressAcl.compile(parts[2]);
   }
 
   public void destroy() {
@@ -150,33 +161,38 @@ public class AclsAuthorizationFilter implements Filter {
       ServletResponse response, FilterChain chain) {
     HttpServletRequest req = (HttpServletRequest) request;
     
-    // before enforcing acls check whether there are no acls defined 
-    // which would mean that there are no restrictions
-    if (users.size() == 0 && groups.size() == 0 && ipv.getIPAddresses().size() == 0) {
+    if (unrestricted) {
       return true;
     }
+    if (!orMode && !andMode) {
+      return false;
+    }
 
     boolean userAccess = false;
     boolean groupAccess = false;
     boolean ipAddrAccess = false;
     
     Subject subject = Subject.getSubject(AccessController.getContext());
-    Principal primaryPrincipal = (Principal)subject.getPrincipals(PrimaryPrincipal.class).toArray()[0];
+    Principal primaryPrincipal = subject.getPrincipals(PrimaryPrincipal.class).iterator().next();
     log.primaryPrincipal(primaryPrincipal.getName());
-    Object[] impersonations = subject.getPrincipals(ImpersonatedPrincipal.class).toArray();
-    if (impersonations.length > 0) {
-      log.impersonatedPrincipal(((Principal)impersonations[0]).getName());
-      userAccess = checkUserAcls((Principal)impersonations[0]);
+    Set<ImpersonatedPrincipal> impersonations = subject.getPrincipals(ImpersonatedPrincipal.class);
+    if (!impersonations.isEmpty()) {
+      Principal impersonation = impersonations.iterator().next();
+      log.impersonatedPrincipal(impersonation.getName());
+      userAccess = checkUserAcls(impersonation);
       log.impersonatedPrincipalHasAccess(userAccess);
     }
     else {
       userAccess = checkUserAcls(primaryPrincipal);
       log.primaryPrincipalHasAccess(userAccess);
     }
-    Object[] groups = subject.getPrincipals(GroupPrincipal.class).toArray();
-    if (groups.length > 0) {
-//      System.out.println("GroupPrincipal: " + ((Principal)groups[0]).getName());
-      groupAccess = checkGroupAcls(groups);
+    if (andMode && !userAccess) {
+      return false;
+    }
+
+    Set<GroupPrincipal> groupPrincipals = subject.getPrincipals(GroupPrincipal.class);
+    if (!groupPrincipals.isEmpty()) {
+      groupAccess = checkGroupAcls(groupPrincipals);
       log.groupPrincipalHasAccess(groupAccess);
     }
     else {
@@ -184,73 +200,59 @@ public class AclsAuthorizationFilter implements Filter {
       // it true if there is an anyGroup acl
       // for AND mode and acls like *;*;127.0.0.* we need to
       // make it pass
-      if (anyGroup && aclProcessingMode.equals("AND")) {
+      if (anyGroup && andMode) {
         groupAccess = true;
       }
     }
+    if (andMode && !groupAccess) {
+      return false;
+    }
+
     log.remoteIPAddress(req.getRemoteAddr());
     ipAddrAccess = checkRemoteIpAcls(req.getRemoteAddr());
     log.remoteIPAddressHasAccess(ipAddrAccess);
     
-    if (aclProcessingMode.equals("OR")) {
+    if (orMode) {
       // need to interpret '*' as excluded for OR semantics
       // to make sense and not grant access to everyone by mistake.
       // exclusion in OR is equivalent to denied
       // so, let's set each one that contains '*' to false.
       if (anyUser) userAccess = false;
       if (anyGroup) groupAccess = false;
-      if (ipv.allowsAnyIP()) ipAddrAccess = false;
+      if (ipAcl.allowsAnyIP()) ipAddrAccess = false;
       
       return (userAccess || groupAccess || ipAddrAccess);
     }
-    else if (aclProcessingMode.equals("AND")) {
-      return (userAccess && groupAccess && ipAddrAccess);
-    }
-    return false;
+    return (userAccess && groupAccess && ipAddrAccess);
   }
 
   private boolean checkRemoteIpAcls(String remoteAddr) {
-    boolean allowed = false;
     if (remoteAddr == null) {
       return false;
     }
-    allowed = ipv.validateIpAddress(remoteAddr);
-    return allowed;
+    return ipAcl.matches(remoteAddr);
   }
 
   private boolean checkUserAcls(Principal user) {
-    boolean allowed = false;
     if (user == null) {
       return false;
     }
-    if (anyUser) {
-      allowed = true;
-    }
-    else {
-      if (users.contains(user.getName())) {
-        allowed = true;
-      }
-    }
-    return allowed;
+    return anyUser || users.contains(user.getName());
   }
 
-  private boolean checkGroupAcls(Object[] userGroups) {
-    boolean allowed = false;
+  private boolean checkGroupAcls(Set<? extends Principal> userGroups) {
     if (userGroups == null) {
       return false;
     }
     if (anyGroup) {
-      allowed = true;
+      return true;
     }
-    else {
-      for (int i = 0; i < userGroups.length; i++) {
-        if (groups.contains(((Principal)userGroups[i]).getName())) {
-          allowed = true;
-          break;
-        }
+    for (Principal group : userGroups) {
+      if (groups.contains(group.getName())) {
+        return true;
       }
     }
-    return allowed;
+    return false;
   }
 
   private void sendUnauthorized(HttpServletResponse res) {
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.filter;
+
+import org.apache.hadoop.gateway.security.GroupPrincipal;
+import org.apache.hadoop.gateway.security.ImpersonatedPrincipal;
+import org.apache.hadoop.gateway.security.PrimaryPrincipal;
+import org.apache.hadoop.test.category.FastTests;
+import org.apache.hadoop.test.category.UnitTests;
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.security.auth.Subject;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.security.PrivilegedExceptionAction;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@Category( { UnitTests.class, FastTests.class } )
+public class AclsAuthorizationFilterTest {
+
+  private static final String LOCAL = "127.0.0.1";
+  private static final String REMOTE = "10.0.0.1";
+
+  // Each row is the acl mode, the acls, the primary principal, the impersonated principal, the comma separated
+  // groups, the remote address and whether access is granted.  A null mode defaults to AND.
+  private static final Object[][] DECISIONS = {
+      // No acls for the resource means no restrictions in either mode.
+      { "AND", null, "guest", null, null, REMOTE, true },
+      { "OR", null, "guest", null, null, REMOTE, true },
+
+      // AND requires the user, a group and the address to match.
+      { null, "guest;*;*", "guest", null, null, REMOTE, true },
+      { "AND", "guest;*;*", "other", null, null, REMOTE, false },
+      { "AND", "*;admin;*", "other", null, "users,admin", REMOTE, true },
+      { "AND", "*;admin;*", "other", null, "users", REMOTE, false },
+      { "AND", "*;admin;*", "other", null, null, REMOTE, false },
+      { "AND", "*;*;127.0.0.1", "other", null, null, LOCAL, true },
+      { "AND", "*;*;127.0.0.1", "other", null, null, REMOTE, false },
+      { "AND", "*;*;*", "other", null, "users", REMOTE, true },
+      { "AND", "guest;admin;127.0.0.1", "guest", null, "admin", LOCAL, true },
+      { "AND", "guest;admin;127.0.0.1", "other", null, "admin", LOCAL, false },
+      { "AND", "guest;admin;127.0.0.1", "guest", null, "users", LOCAL, false },
+      { "AND", "guest;admin;127.0.0.1", "guest", null, "admin", REMOTE, false },
+
+      // OR requires any one of the user, a group or the address to match.
+      { "OR", "guest;admin;127.0.0.1", "guest", null, "users", REMOTE, true },
+      { "OR", "guest;admin;127.0.0.1", "other", null, "admin", REMOTE, true },
+      { "OR", "guest;admin;127.0.0.1", "other", null, "users", LOCAL, true },
+      { "OR", "guest;admin;127.0.0.1", "other", null, "users", REMOTE, false },
+      { "OR", "guest;admin;127.0.0.1", "other", null, null, REMOTE, false },
+
+      // In OR mode a * never grants access on its own.
+      { "OR", "*;admin;127.0.0.1", "other", null, "users", REMOTE, false },
+      { "OR", "guest;*;127.0.0.1", "other", null, "users", REMOTE, false },
+      { "OR", "guest;admin;*", "other", null, "users", REMOTE, false },
+      { "OR", "*;*;*", "guest", null, "admin", LOCAL, false },
+      { "OR", "*;admin;*", "other", null, "admin", REMOTE, true },
+
+      // The user acl applies to the impersonated principal rather than the primary one.
+      { "AND", "alice;*;*", "alice", "bob", null, REMOTE, false },
+      { "AND", "alice;*;*", "bob", "alice", null, REMOTE, true },
+      { "OR", "alice;admin;127.0.0.1", "alice", "bob", null, REMOTE, false },
+      { "OR", "alice;admin;127.0.0.1", "bob", "alice", null, REMOTE, true },
+
+      // An unknown mode denies everything.
+      { "XOR", "guest;*;*", "guest", null, null, REMOTE, false },
+  };
+
+  @Test
+  public void testDecisionTable() throws Exception {
+    for( Object[] row : DECISIONS ) {
+      FilterConfig config = createConfig( (String)row[ 0 ], null, (String)row[ 1 ] );
+      boolean granted = isGranted( config, (String)row[ 2 ], (String)row[ 3 ], (String)row[ 4 ], (String)row[ 5 ] );
+      assertThat( Arrays.toString( row ), granted, is( row[ 6 ] ) );
+    }
+  }
+
+  @Test
+  public void testResourceModeOverridesDefaultMode() throws Exception {
+    FilterConfig config = createConfig( "AND", "OR", "guest;admin;127.0.0.1" );
+    assertThat( isGranted( config, "guest", null, "users", REMOTE ), is( true ) );
+    config = createConfig( "OR", "AND", "guest;admin;127.0.0.1" );
+    assertThat( isGranted( config, "guest", null, "users", REMOTE ), is( false ) );
+  }
+
+  private static FilterConfig createConfig( String mode, String resourceMode, String acls ) {
+    FilterConfig config = EasyMock.createNiceMock( FilterConfig.class );
+    EasyMock.expect( config.getInitParameter( "resource.role" ) ).andReturn( "KNOX" ).anyTimes();
+    EasyMock.expect( config.getInitParameter( "acl.mode" ) ).andReturn( mode ).anyTimes();
+    EasyMock.expect( config.getInitParameter( "knox.acl.mode" ) ).andReturn( resourceMode ).anyTimes();
+    EasyMock.expect( config.getInitParameter( "knox.acl" ) ).andReturn( acls ).anyTimes();
+    EasyMock.replay( config );
+    return config;
+  }
+
+  private static boolean isGranted( FilterConfig config, String user, String impersonated, String groups, String address )
+      throws Exception {
+    final AclsAuthorizationFilter filter = new AclsAuthorizationFilter();
+    filter.init( config );
+
+    Subject subject = new Subject();
+    subject.getPrincipals().add( new PrimaryPrincipal( user ) );
+    if( impersonated != null ) {
+      subject.getPrincipals().add( new ImpersonatedPrincipal( impersonated ) );
+    }
+    if( groups != null ) {
+      for( String group : groups.split( "," ) ) {
+        subject.getPrincipals().add( new GroupPrincipal( group ) );
+      }
+    }
+
+    final HttpServletRequest request = EasyMock.createNiceMock( HttpServletRequest.class );
+    EasyMock.expect( request.getRemoteAddr() ).andReturn( address ).anyTimes();
+    EasyMock.expect( request.getAttribute( AbstractGatewayFilter.SOURCE_REQUEST_CONTEXT_URL_ATTRIBUTE_NAME ) )
+        .andReturn( "https://localhost:8443/gateway/sandbox/webhdfs/v1/" ).anyTimes();
+    final HttpServletResponse response = EasyMock.createNiceMock( HttpServletResponse.class );
+    EasyMock.replay( request, response );
+    final boolean[] granted = { false };
+    final FilterChain chain = new FilterChain() {
+      @Override
+      public void doFilter( ServletRequest request, ServletResponse response ) {
+        granted[ 0 ] = true;
+      }
+    };
+
+    Subject.doAs( subject, new PrivilegedExceptionAction<Object>() {
+      @Override
+      public Object run() throws Exception {
+        filter.doFilter( request, response, chain );
+        return null;
+      }
+    } );
+    return granted[ 0 ];
+  }
+
+}
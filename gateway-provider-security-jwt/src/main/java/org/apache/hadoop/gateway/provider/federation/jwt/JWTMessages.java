@@ -34,4 +34,7 @@ public interface JWTMessages {
 
   @Message( level = MessageLevel.INFO, text = "Expected Bearer token is missing." )
   void missingBearerToken();
+
+  @Message( level = MessageLevel.INFO, text = "Unable to parse the token: {0}" )
+  void unableToParseToken( String reason );
 }
@@ -17,6 +17,8 @@
  */
 package org.apache.hadoop.gateway.provider.federation.jwt.filter;
 
+import org.apache.hadoop.gateway.i18n.messages.MessagesFactory;
+import org.apache.hadoop.gateway.provider.federation.jwt.JWTMessages;
 import org.apache.hadoop.gateway.services.GatewayServices;
 import org.apache.hadoop.gateway.services.security.token.JWTokenAuthority;
 import org.apache.hadoop.gateway.services.security.token.impl.JWTToken;
@@ -40,14 +42,26 @@ import java.util.Set;
 
 public class JWTFederationFilter implements Filter {
 
+  private static JWTMessages log = MessagesFactory.get( JWTMessages.class );
   private static final String BEARER = "Bearer ";
-  
+  public static final String TOKEN_CACHE_SIZE_PARAM = "token.cache.size";
+  public static final int DEFAULT_TOKEN_CACHE_SIZE = 1024;
+
   private JWTokenAuthority authority = null;
+  private VerifiedTokenCache cache = null;
 
   @Override
   public void init( FilterConfig filterConfig ) throws ServletException {
     GatewayServices services = (GatewayServices) filterConfig.getServletContext().getAttribute(GatewayServices.GATEWAY_SERVICES_ATTRIBUTE);
     authority = (JWTokenAuthority) services.getService(GatewayServices.TOKEN_SERVICE);
+    int cacheSize = DEFAULT_TOKEN_CACHE_SIZE;
+    String cacheSizeStr = filterConfig.getInitParameter(TOKEN_CACHE_SIZE_PARAM);
+    if (cacheSizeStr != null) {
+      cacheSize = Integer.parseInt(cacheSizeStr.trim());
+    }
+    if (cacheSize > 0) {
+      cache = new VerifiedTokenCache(cacheSize);
+    }
   }
 
   public void destroy() {
@@ -59,17 +73,16 @@ public class JWTFederationFilter implements Filter {
     if (header != null && header.startsWith(BEARER)) {
       // what follows the bearer designator should be the JWT token being used to request or as an access token
       String wireToken = header.substring(BEARER.length());
-      JWTToken token = JWTToken.parseToken(wireToken);
-      boolean verified = authority.verifyToken(token);
-      if (verified) {
-        // TODO: validate expiration
+      JWTToken token = getVerifiedToken(wireToken);
+      if (token != null) {
         // confirm that audience matches intended target - which for this filter must be HSSO
-        if (token.getAudience().equals("HSSO")) {
+        if ("HSSO".equals(token.getAudience())) {
           // TODO: verify that the user requesting access to the service/resource is authorized for it - need scopes?
           Subject subject = createSubjectFromToken(token);
           continueWithEstablishedSecurityContext(subject, (HttpServletRequest)request, (HttpServletResponse)response, chain);
         }
         else {
+          log.failedToValidateAudience();
           ((HttpServletResponse) response).sendError(HttpServletResponse.SC_UNAUTHORIZED);
           return; //break filter chain
         }
@@ -82,11 +95,59 @@ public class JWTFederationFilter implements Filter {
     else {
       // no token provided in header
       // TODO: may have to check cookie and url as well before sending error
+      log.missingBearerToken();
       ((HttpServletResponse) response).sendError(HttpServletResponse.SC_UNAUTHORIZED);
       return; //break filter chain
     }
   }
-  
+
+  /**
+   * Returns the parsed token if its signature is valid and it has not expired, otherwise null.
+   * Tokens that were already verified are taken from the cache without checking their signature again,
+   * but their expiry is still checked on every use.
+   */
+  JWTToken getVerifiedToken(String wireToken) {
+    long now = System.currentTimeMillis();
+    String hash = null;
+    if (cache != null) {
+      hash = VerifiedTokenCache.hash(wireToken);
+      JWTToken token = cache.get(hash, now);
+      if (token != null) {
+        return token;
+      }
+    }
+    JWTToken token;
+    try {
+      token = JWTToken.parseToken(wireToken);
+    } catch (IllegalArgumentException e) {
+      log.unableToParseToken(e.getMessage());
+      return null;
+    }
+    if (!authority.verifyToken(token)) {
+      log.failedToVerifyTokenSignature();
+      return null;
+    }
+    long expires = getExpires(token);
+    if (expires <= now) {
+      log.tokenHasExpired();
+      return null;
+    }
+    if (cache != null) {
+      cache.put(hash, token, expires, now);
+    }
+    return token;
+  }
+
+  private static long getExpires(JWTToken token) {
+    try {
+      String expires = token.getExpires();
+      return expires == null ? 0 : Long.parseLong(expires);
+    } catch (RuntimeException e) {
+      // a token without a valid expiry is treated as expired
+      return 0;
+    }
+  }
+
   private void continueWithEstablishedSecurityContext(Subject subject, final HttpServletRequest request, final HttpServletResponse response, final FilterChain chain) throws IOException, ServletException {
     try {
       Subject.doAs(
@@ -0,0 +1,44 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.provider.federation.jwt.filter;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.gateway.services.security.token.impl.JWTToken;
+import org.apache.hadoop.gateway.util.ExpiringCache;
+
+/**
+ * A bounded cache of tokens whose signature has already been verified, keyed by a hash of the wire token.
+ * <p>
+ * Clients commonly present the same bearer token on every request of a job so a cache hit saves the signature
+ * verification.  Entries are only usable until the expiry of their token.  Only the hash of the token is kept
+ * as key so the cache never holds a usable bearer token by itself.
+ */
+class VerifiedTokenCache extends ExpiringCache<String, JWTToken> {
+
+  VerifiedTokenCache(int maxEntries) {
+    super(maxEntries);
+  }
+
+  /**
+   * Returns the hash used to identify a wire token in the cache.
+   */
+  static String hash(String wireToken) {
+    return DigestUtils.sha256Hex(wireToken);
+  }
+
+}
@@ -19,6 +19,7 @@ package org.apache.hadoop.gateway.provider.federation;
 
 import junit.framework.TestCase;
 
+import org.apache.hadoop.gateway.services.security.token.impl.JWTClaims;
 import org.apache.hadoop.gateway.services.security.token.impl.JWTToken;
 import org.junit.Test;
 
@@ -54,4 +55,69 @@ public class JWTTokenTest extends TestCase {
     assertEquals(token.getPrincipal(), "john.doe@example.com");
     assertEquals(token.getAudience(), "https://login.example.com");
   }
+
+  @Test
+  public void testTokenCreationEscapesClaims() throws Exception {
+    String principal = "john\", \"prn\": \"admin";
+    JWTToken token = new JWTToken("RS256", new String[] { "gateway", principal, "HSSO", "1363360913" });
+    assertEquals("{\"alg\":\"RS256\"}", token.header);
+    assertEquals(principal, token.getPrincipal());
+    assertEquals(principal, JWTToken.parseToken(token.getPayloadToSign() + ".c2ln").getPrincipal());
+  }
+
+  @Test
+  public void testTokenCreationWithoutAudience() throws Exception {
+    JWTToken token = new JWTToken("RS256", new String[] { "gateway", "guest", null, null });
+    assertEquals("{\"iss\":\"gateway\",\"prn\":\"guest\"}", token.claims);
+    assertNull(token.getAudience());
+    assertNull(token.getExpires());
+    assertEquals("guest", JWTToken.parseToken(token.getPayloadToSign() + ".c2ln").getPrincipal());
+  }
+
+  @Test
+  public void testClaimsParsedOnce() throws Exception {
+    JWTClaims claims = JWTClaims.parse("{\"iss\": \"gateway\", \"prn\": \"guest\", \"aud\": \"HSSO\", \"exp\": 1363360913, \"scope\": \"read\", \"roles\": [\"a\", \"b\"], \"nested\": {\"x\": 1}}");
+    assertEquals("gateway", claims.getIssuer());
+    assertEquals("guest", claims.getPrincipal());
+    assertEquals("HSSO", claims.getAudience());
+    assertEquals("1363360913", claims.getExpires());
+    assertEquals("read", claims.getClaim("scope"));
+    assertNull(claims.getClaim("roles"));
+    assertNull(claims.getClaim("missing"));
+    assertEquals(5, claims.getClaims().size());
+  }
+
+  @Test
+  public void testInvalidClaimsRejected() throws Exception {
+    String[] invalid = {
+        "[]",
+        "{\"prn\": \"a\", \"prn\": \"b\"}",
+        "{'prn': 'guest'}",
+        "{\"prn\": \"guest\"} {}",
+        "{\"prn\": \"guest\"" };
+    for (String json : invalid) {
+      try {
+        JWTClaims.parse(json);
+        fail("Expected invalid claims to be rejected: " + json);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testMalformedTokenRejected() throws Exception {
+    try {
+      JWTToken.parseToken("abc.def");
+      fail("Expected token with two parts to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      JWTToken.parseToken(JWT_TOKEN + ".extra");
+      fail("Expected token with four parts to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
 }
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.provider.federation.jwt.filter;
+
+import org.apache.hadoop.gateway.services.GatewayServices;
+import org.apache.hadoop.gateway.services.security.token.JWTokenAuthority;
+import org.apache.hadoop.gateway.services.security.token.impl.JWTToken;
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class JWTFederationFilterTest {
+
+  @Test
+  public void testTokenWithoutAudienceRejected() throws Exception {
+    long expires = System.currentTimeMillis() + 60000;
+    JWTToken token = new JWTToken("RS256", new String[]{ "gateway", "guest", null, Long.toString(expires) });
+    token.setSignaturePayload(new byte[]{ 1 });
+    verifyResponse(token, HttpServletResponse.SC_UNAUTHORIZED);
+  }
+
+  @Test
+  public void testTokenForOtherAudienceRejected() throws Exception {
+    long expires = System.currentTimeMillis() + 60000;
+    JWTToken token = new JWTToken("RS256", new String[]{ "gateway", "guest", "other", Long.toString(expires) });
+    token.setSignaturePayload(new byte[]{ 1 });
+    verifyResponse(token, HttpServletResponse.SC_UNAUTHORIZED);
+  }
+
+  @Test
+  public void testTokenForHSSOAccepted() throws Exception {
+    long expires = System.currentTimeMillis() + 60000;
+    JWTToken token = new JWTToken("RS256", new String[]{ "gateway", "guest", "HSSO", Long.toString(expires) });
+    token.setSignaturePayload(new byte[]{ 1 });
+    verifyResponse(token, 0);
+  }
+
+  // Runs the token through the filter, the status is the error expected or 0 if the chain should continue.
+  private void verifyResponse(JWTToken token, int status) throws Exception {
+    JWTokenAuthority authority = EasyMock.createNiceMock(JWTokenAuthority.class);
+    EasyMock.expect(authority.verifyToken(EasyMock.anyObject(JWTToken.class))).andReturn(true).anyTimes();
+    GatewayServices services = EasyMock.createNiceMock(GatewayServices.class);
+    EasyMock.expect(services.getService(GatewayServices.TOKEN_SERVICE)).andReturn(authority).anyTimes();
+    ServletContext context = EasyMock.createNiceMock(ServletContext.class);
+    EasyMock.expect(context.getAttribute(GatewayServices.GATEWAY_SERVICES_ATTRIBUTE)).andReturn(services).anyTimes();
+    FilterConfig config = EasyMock.createNiceMock(FilterConfig.class);
+    EasyMock.expect(config.getServletContext()).andReturn(context).anyTimes();
+
+    HttpServletRequest request = EasyMock.createNiceMock(HttpServletRequest.class);
+    EasyMock.expect(request.getHeader("Authorization")).andReturn("Bearer " + token.toString()).anyTimes();
+    HttpServletResponse response = EasyMock.createMock(HttpServletResponse.class);
+    FilterChain chain = EasyMock.createMock(FilterChain.class);
+    if (status == 0) {
+      chain.doFilter(request, response);
+      EasyMock.expectLastCall();
+    } else {
+      response.sendError(status);
+      EasyMock.expectLastCall();
+    }
+    EasyMock.replay(authority, services, context, config, request, response, chain);
+
+    JWTFederationFilter filter = new JWTFederationFilter();
+    filter.init(config);
+    filter.doFilter(request, response, chain);
+
+    EasyMock.verify(response, chain);
+  }
+
+}
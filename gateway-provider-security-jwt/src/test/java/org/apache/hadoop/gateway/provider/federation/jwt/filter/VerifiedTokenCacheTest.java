@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.provider.federation.jwt.filter;
+
+import org.apache.hadoop.gateway.services.security.token.impl.JWTToken;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class VerifiedTokenCacheTest {
+
+  private static JWTToken createToken(String principal, long expires) {
+    return new JWTToken("RS256", new String[]{ "gateway", principal, "HSSO", Long.toString(expires) });
+  }
+
+  @Test
+  public void testHitUntilExpiry() {
+    VerifiedTokenCache cache = new VerifiedTokenCache(16);
+    long now = 1000000L;
+    JWTToken token = createToken("guest", now + 100);
+    String hash = VerifiedTokenCache.hash(token.getPayloadToSign());
+    assertNull(cache.get(hash, now));
+    cache.put(hash, token, now + 100, now);
+    assertSame(token, cache.get(hash, now + 99));
+    assertNull(cache.get(hash, now + 100));
+    assertNull(cache.get(hash, now));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(3, cache.getMissCount());
+  }
+
+  @Test
+  public void testExpiredTokenNotCached() {
+    VerifiedTokenCache cache = new VerifiedTokenCache(16);
+    long now = 1000000L;
+    JWTToken token = createToken("guest", now);
+    String hash = VerifiedTokenCache.hash("token");
+    cache.put(hash, token, now, now);
+    assertNull(cache.get(hash, now - 1));
+  }
+
+  @Test
+  public void testHashDistinguishesTokens() {
+    assertEquals(VerifiedTokenCache.hash("a.b.c"), VerifiedTokenCache.hash("a.b.c"));
+    assertFalse(VerifiedTokenCache.hash("a.b.c").equals(VerifiedTokenCache.hash("a.b.d")));
+  }
+
+}
@@ -19,19 +19,19 @@ package org.apache.hadoop.gateway.preauth.filter;
 
 import javax.servlet.http.HttpServletRequest;
 
-import org.apache.hadoop.gateway.util.IpAddressValidator;
+import org.apache.hadoop.gateway.util.IpAddressAcl;
 
 /**
  *
  */
 class IPValidator implements PreAuthValidator {
-  private IpAddressValidator ipv = null;
+  private IpAddressAcl acl = null;
   
   /**
    * @param initParameter
    */
   public IPValidator(String ipParam) {
-    ipv = new IpAddressValidator(ipParam);
+    acl = IpAddressAcl.compile(ipParam);
   }
 
   /* (non-Javadoc)
@@ -41,6 +41,6 @@ class IPValidator implements PreAuthValidator {
   public boolean validate(HttpServletRequest request)
       throws PreAuthValidationException {
     
-    return ipv.validateIpAddress(request.getRemoteAddr());
+    return acl.matches(request.getRemoteAddr());
   }
 }
\ No newline at end of file
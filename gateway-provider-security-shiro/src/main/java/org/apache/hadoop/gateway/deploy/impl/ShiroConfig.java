@@ -49,7 +49,7 @@ public class ShiroConfig {
     }
   }
 
-  private void addNameValueToSection(String name, String value, String sectionName) {
+  void addNameValueToSection(String name, String value, String sectionName) {
     Map<String, String> section = sections.get(sectionName);
     if (section == null) {
       section = new LinkedHashMap<String, String>();
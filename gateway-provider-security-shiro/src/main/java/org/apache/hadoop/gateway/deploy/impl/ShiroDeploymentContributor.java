@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.gateway.deploy.impl;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -36,7 +37,14 @@ public class ShiroDeploymentContributor extends ProviderDeploymentContributorBas
   private static final String SHIRO_FILTER_CLASSNAME = "org.apache.shiro.web.servlet.ShiroFilter";
   private static final String POST_FILTER_CLASSNAME = "org.apache.hadoop.gateway.filter.ShiroSubjectIdentityAdapter";
   private static final String COOKIE_FILTER_CLASSNAME = "org.apache.hadoop.gateway.filter.ResponseCookieFilter";
+  private static final String SESSION_FILTER_CLASSNAME = "org.apache.hadoop.gateway.filter.StatelessSessionFilter";
   private static final String SESSION_TIMEOUT = "sessionTimeout";
+  private static final String SESSION_MODE = "sessionMode";
+  private static final String SESSION_MODE_STATELESS = "stateless";
+  private static final String SESSION_COOKIE_NAME = "sessionCookieName";
+  private static final String SESSION_SECRET_ALIAS = "sessionSecretAlias";
+  private static final String SESSION_ENCRYPTION = "sessionEncryption";
+  private static final String SESSION_SUBJECT_FACTORY_CLASSNAME = "org.apache.hadoop.gateway.filter.StatelessSessionSubjectFactory";
   private static final int DEFAULT_SESSION_TIMEOUT = 30; // 30min
 
   @Override
@@ -76,7 +84,13 @@ public class ShiroDeploymentContributor extends ProviderDeploymentContributorBas
 	  // accomplished through the DeploymentContext as well. The JBoss shrinkwrap API can be
 	  // used to write the asset to the war.
     String clusterName = context.getTopology().getName();
-    String config = new ShiroConfig( provider, clusterName ).toString();
+    ShiroConfig shiroConfig = new ShiroConfig( provider, clusterName );
+    if( SESSION_MODE_STATELESS.equalsIgnoreCase( params.get( SESSION_MODE ) ) ) {
+      // subjects of requests with a session cookie are restored by the subject factory and still authorized by shiro
+      shiroConfig.addNameValueToSection( "statelessSessionSubjectFactory", SESSION_SUBJECT_FACTORY_CLASSNAME, "main" );
+      shiroConfig.addNameValueToSection( "securityManager.subjectFactory", "$statelessSessionSubjectFactory", "main" );
+    }
+    String config = shiroConfig.toString();
     if( config != null ) {
       context.getWebArchive().addAsWebInfResource( new StringAsset( config ), "shiro.ini" );
     }
@@ -93,6 +107,20 @@ public class ShiroDeploymentContributor extends ProviderDeploymentContributorBas
 	// You may also need to do some additional processing of the response in order to not return cookies or other
 	// filter specifics that are not needed for integration with Knox. Below we do that in the pre-processing filter.
     resource.addFilter().name( "Pre" + getName() ).role( getRole() ).impl( COOKIE_FILTER_CLASSNAME ).params( params );
+    // Optionally keep sessions in a signed cookie, read ahead of shiro, so that any gateway of a cluster accepts them.
+    if( SESSION_MODE_STATELESS.equalsIgnoreCase( provider.getParams().get( SESSION_MODE ) ) ) {
+      List<FilterParamDescriptor> sessionParams = new ArrayList<FilterParamDescriptor>();
+      if( params != null ) {
+        sessionParams.addAll( params );
+      }
+      for( String name : new String[]{ SESSION_TIMEOUT, SESSION_COOKIE_NAME, SESSION_SECRET_ALIAS, SESSION_ENCRYPTION } ) {
+        String value = provider.getParams().get( name );
+        if( value != null ) {
+          sessionParams.add( resource.createFilterParam().name( name ).value( value ) );
+        }
+      }
+      resource.addFilter().name( "Session" + getName() ).role( getRole() ).impl( SESSION_FILTER_CLASSNAME ).params( sessionParams );
+    }
     resource.addFilter().name( getName() ).role( getRole() ).impl( SHIRO_FILTER_CLASSNAME ).params( params );
     resource.addFilter().name( "Post" + getName() ).role( getRole() ).impl( POST_FILTER_CLASSNAME ).params( params );
   }
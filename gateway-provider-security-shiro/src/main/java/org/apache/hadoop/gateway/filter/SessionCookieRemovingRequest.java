@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * Hides the stateless session cookie from everything behind the session filter, in particular from the
+ * dispatch that copies the request headers to the service.  The session is a gateway credential that a
+ * service could otherwise replay against the gateway.
+ */
+class SessionCookieRemovingRequest extends HttpServletRequestWrapper {
+
+  private static final String COOKIE_HEADER = "Cookie";
+
+  private final String cookieName;
+
+  SessionCookieRemovingRequest( HttpServletRequest request, String cookieName ) {
+    super( request );
+    this.cookieName = cookieName;
+  }
+
+  @Override
+  public Cookie[] getCookies() {
+    Cookie[] cookies = super.getCookies();
+    if( cookies == null ) {
+      return null;
+    }
+    List<Cookie> kept = new ArrayList<Cookie>( cookies.length );
+    for( Cookie cookie : cookies ) {
+      if( !cookieName.equals( cookie.getName() ) ) {
+        kept.add( cookie );
+      }
+    }
+    return kept.size() == cookies.length ? cookies : kept.toArray( new Cookie[ kept.size() ] );
+  }
+
+  @Override
+  public String getHeader( String name ) {
+    if( !COOKIE_HEADER.equalsIgnoreCase( name ) ) {
+      return super.getHeader( name );
+    }
+    Enumeration<String> values = getHeaders( name );
+    return values.hasMoreElements() ? values.nextElement() : null;
+  }
+
+  @Override
+  public Enumeration<String> getHeaders( String name ) {
+    Enumeration<String> values = super.getHeaders( name );
+    if( values == null || !COOKIE_HEADER.equalsIgnoreCase( name ) ) {
+      return values;
+    }
+    List<String> kept = new ArrayList<String>();
+    while( values.hasMoreElements() ) {
+      String value = removeSessionCookie( values.nextElement() );
+      if( value != null ) {
+        kept.add( value );
+      }
+    }
+    return Collections.enumeration( kept );
+  }
+
+  @Override
+  public Enumeration<String> getHeaderNames() {
+    Enumeration<String> names = super.getHeaderNames();
+    if( names == null ) {
+      return null;
+    }
+    List<String> kept = new ArrayList<String>();
+    while( names.hasMoreElements() ) {
+      String name = names.nextElement();
+      if( !COOKIE_HEADER.equalsIgnoreCase( name ) || getHeaders( name ).hasMoreElements() ) {
+        kept.add( name );
+      }
+    }
+    return Collections.enumeration( kept );
+  }
+
+  /**
+   * Returns the cookie header value without the session cookie or null if nothing else is left.
+   */
+  private String removeSessionCookie( String header ) {
+    if( header == null || !header.contains( cookieName ) ) {
+      return header;
+    }
+    StringBuilder kept = new StringBuilder( header.length() );
+    for( String pair : header.split( ";" ) ) {
+      String trimmed = pair.trim();
+      int equals = trimmed.indexOf( '=' );
+      String name = equals < 0 ? trimmed : trimmed.substring( 0, equals ).trim();
+      if( trimmed.length() > 0 && !cookieName.equals( name ) ) {
+        if( kept.length() > 0 ) {
+          kept.append( "; " );
+        }
+        kept.append( trimmed );
+      }
+    }
+    return kept.length() == 0 ? null : kept.toString();
+  }
+
+}
@@ -19,6 +19,7 @@ package org.apache.hadoop.gateway.filter;
 
 import java.io.IOException;
 import java.security.Principal;
+import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.util.HashSet;
 import java.util.Set;
@@ -30,6 +31,8 @@ import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.hadoop.gateway.audit.api.Action;
 import org.apache.hadoop.gateway.audit.api.ActionOutcome;
@@ -41,6 +44,7 @@ import org.apache.hadoop.gateway.audit.log4j.audit.AuditConstants;
 import org.apache.hadoop.gateway.security.GroupPrincipal;
 import org.apache.hadoop.gateway.security.PrimaryPrincipal;
 import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.session.Session;
 import org.apache.shiro.subject.Subject;
 
 public class ShiroSubjectIdentityAdapter implements Filter {
@@ -61,6 +65,26 @@ public class ShiroSubjectIdentityAdapter implements Filter {
 
   public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) 
       throws IOException, ServletException {
+
+    // shiro has authorized the principal of a stateless session cookie, the session carries the groups
+    StatelessSession session = StatelessSessionFilter.getSession(request);
+    if (session != null) {
+      try {
+        doAs(request, chain, response, session.getPrincipal(), session.getGroups());
+      } catch (PrivilegedActionException e) {
+        Throwable t = e.getCause();
+        if (t instanceof IOException) {
+          throw (IOException) t;
+        } else if (t instanceof ServletException) {
+          throw (ServletException) t;
+        } else {
+          throw new ServletException(t);
+        }
+      } finally {
+        stopShiroSession();
+      }
+      return;
+    }
     
     Subject subject = SecurityUtils.getSubject();
     
@@ -74,6 +98,54 @@ public class ShiroSubjectIdentityAdapter implements Filter {
     SecurityUtils.getSubject().execute(callableChain);
   }
   
+  private static void doAs(final ServletRequest request, final FilterChain chain, final ServletResponse response,
+      final String principal, final Set<String> userGroups) throws PrivilegedActionException {
+    PrivilegedExceptionAction<Void> action = new PrivilegedExceptionAction<Void>() {
+      @Override
+      public Void run() throws Exception {
+        chain.doFilter( request, response );
+        return null;
+      }
+    };
+    HashSet emptySet = new HashSet();
+    Set<Principal> principals = new HashSet<Principal>();
+    Principal p = new PrimaryPrincipal(principal);
+    principals.add(p);
+    auditService.createContext().setUsername( principal );
+    String sourceUri = (String)request.getAttribute( AbstractGatewayFilter.SOURCE_REQUEST_CONTEXT_URL_ATTRIBUTE_NAME );
+    auditor.audit( Action.AUTHENTICATION , sourceUri, ResourceType.URI, ActionOutcome.SUCCESS );
+
+    if (userGroups != null) {
+      for (String userRole : userGroups) {
+        Principal gp = new GroupPrincipal(userRole);
+        principals.add(gp);
+      }
+      auditor.audit( Action.AUTHENTICATION , sourceUri, ResourceType.URI, ActionOutcome.SUCCESS, "Groups: " + userGroups );
+    }
+    
+    // TODO: add groups through extended JndiLdapRealm implementation once Jira KNOX-4 is resolved
+    
+//    The newly constructed Sets check whether this Subject has been set read-only 
+//    before permitting subsequent modifications. The newly created Sets also prevent 
+//    illegal modifications by ensuring that callers have sufficient permissions.
+//
+//    To modify the Principals Set, the caller must have AuthPermission("modifyPrincipals"). 
+//    To modify the public credential Set, the caller must have AuthPermission("modifyPublicCredentials"). 
+//    To modify the private credential Set, the caller must have AuthPermission("modifyPrivateCredentials").
+    javax.security.auth.Subject subject = new javax.security.auth.Subject(true, principals, emptySet, emptySet);
+    javax.security.auth.Subject.doAs( subject, action );
+  }
+
+  /**
+   * The session cookie replaces the servlet container session that shiro created for the request.
+   */
+  private static void stopShiroSession() {
+    Session session = SecurityUtils.getSubject().getSession(false);
+    if (session != null) {
+      session.stop();
+    }
+  }
+
   private class CallableChain implements Callable<Void> {
     private FilterChain chain = null;
     ServletRequest request = null;
@@ -87,45 +159,23 @@ public class ShiroSubjectIdentityAdapter implements Filter {
 
     @Override
     public Void call() throws Exception {
-      PrivilegedExceptionAction<Void> action = new PrivilegedExceptionAction<Void>() {
-        @Override
-        public Void run() throws Exception {
-          chain.doFilter( request, response );
-          return null;
-        }
-      };
       Subject shiroSubject = SecurityUtils.getSubject();
       final String principal = (String) shiroSubject.getPrincipal();
-      HashSet emptySet = new HashSet();
-      Set<Principal> principals = new HashSet<Principal>();
-      Principal p = new PrimaryPrincipal(principal);
-      principals.add(p);
-      auditService.createContext().setUsername( principal );
-      String sourceUri = (String)request.getAttribute( AbstractGatewayFilter.SOURCE_REQUEST_CONTEXT_URL_ATTRIBUTE_NAME );
-      auditor.audit( Action.AUTHENTICATION , sourceUri, ResourceType.URI, ActionOutcome.SUCCESS );
-      
       // map ldap groups saved in session to Java Subject GroupPrincipal(s)
-      if (SecurityUtils.getSubject().getSession().getAttribute(SUBJECT_USER_GROUPS) != null) {
-        Set<String> userRoles = (Set<String>)SecurityUtils.getSubject().getSession().getAttribute(SUBJECT_USER_GROUPS);
-        for (String userRole : userRoles) {
-          Principal gp = new GroupPrincipal(userRole);
-          principals.add(gp);
+      Set<String> userGroups = (Set<String>)shiroSubject.getSession().getAttribute(SUBJECT_USER_GROUPS);
+
+      boolean stateless = StatelessSessionFilter.isStateless(request);
+      if (stateless) {
+        StatelessSessionFilter.issueSession((HttpServletRequest) request, (HttpServletResponse) response,
+            principal, userGroups);
+      }
+      try {
+        doAs(request, chain, response, principal, userGroups);
+      } finally {
+        if (stateless) {
+          stopShiroSession();
         }
-        auditor.audit( Action.AUTHENTICATION , sourceUri, ResourceType.URI, ActionOutcome.SUCCESS, "Groups: " + userRoles );
       }
-      
-      // TODO: add groups through extended JndiLdapRealm implementation once Jira KNOX-4 is resolved
-      
-//      The newly constructed Sets check whether this Subject has been set read-only 
-//      before permitting subsequent modifications. The newly created Sets also prevent 
-//      illegal modifications by ensuring that callers have sufficient permissions.
-//
-//      To modify the Principals Set, the caller must have AuthPermission("modifyPrincipals"). 
-//      To modify the public credential Set, the caller must have AuthPermission("modifyPublicCredentials"). 
-//      To modify the private credential Set, the caller must have AuthPermission("modifyPrivateCredentials").
-      javax.security.auth.Subject subject = new javax.security.auth.Subject(true, principals, emptySet, emptySet);
-      javax.security.auth.Subject.doAs( subject, action );
-      
       return null;
     }
     
@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.filter;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The state of an authenticated session kept by the client in a cookie rather than by the gateway.
+ */
+public final class StatelessSession {
+
+  private final String principal;
+  private final Set<String> groups;
+  private final long expires;
+
+  public StatelessSession( String principal, Set<String> groups, long expires ) {
+    this.principal = principal;
+    this.groups = groups == null
+        ? Collections.<String>emptySet()
+        : Collections.unmodifiableSet( new LinkedHashSet<String>( groups ) );
+    this.expires = expires;
+  }
+
+  public String getPrincipal() {
+    return principal;
+  }
+
+  public Set<String> getGroups() {
+    return groups;
+  }
+
+  /**
+   * Returns the time in milliseconds since the epoch after which the session must not be used.
+   */
+  public long getExpires() {
+    return expires;
+  }
+
+  public boolean isExpired( long now ) {
+    return now >= expires;
+  }
+
+}
@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.hadoop.gateway.services.security.CryptoService;
+
+/**
+ * Converts a {@link StatelessSession} to and from a cookie value.
+ * <p>
+ * The session is serialized into a compact binary form.  By default the cookie carries that form followed by an
+ * HMAC-SHA256 of it, keyed with the password of an alias, so any gateway with the same alias password can check
+ * that the cookie was issued by a gateway and has not been changed.  When encryption is enabled the serialized
+ * session is instead protected by {@link CryptoService#encryptTokenForCluster}, which both encrypts and
+ * authenticates it with keys derived from the same alias, so the principal and groups are not visible to the
+ * client either.
+ */
+class StatelessSessionCodec {
+
+  /**
+   * Browsers limit a cookie to about 4k, sessions with more groups than fit are not issued.
+   */
+  static final int MAX_COOKIE_LENGTH = 4000;
+
+  private static final byte VERSION = 1;
+  private static final String MAC_ALGORITHM = "HmacSHA256";
+  private static final byte[] MAC_KEY_LABEL = "knox-stateless-session".getBytes( Charset.forName( "UTF-8" ) );
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  private final SecretKeySpec macKey;
+  private final CryptoService cryptoService;
+  private final String clusterName;
+  private final String alias;
+  private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>();
+
+  /**
+   * Creates a codec that signs sessions with a key derived from the password.
+   */
+  StatelessSessionCodec( char[] password ) throws GeneralSecurityException {
+    this( password, null, null, null );
+  }
+
+  /**
+   * Creates a codec that encrypts sessions using the crypto service with the alias of the cluster
+   * or, if the crypto service is null, signs them with a key derived from the password.
+   */
+  StatelessSessionCodec( char[] password, CryptoService cryptoService, String clusterName, String alias )
+      throws GeneralSecurityException {
+    this.macKey = deriveMacKey( password );
+    this.cryptoService = cryptoService;
+    this.clusterName = clusterName;
+    this.alias = alias;
+  }
+
+  boolean isEncrypted() {
+    return cryptoService != null;
+  }
+
+  /**
+   * Returns the cookie value for the session or null if the session does not fit in a cookie.
+   */
+  String encode( StatelessSession session ) throws GeneralSecurityException {
+    byte[] payload = serialize( session );
+    String value;
+    if( cryptoService != null ) {
+      byte[] token = cryptoService.encryptTokenForCluster( clusterName, alias, payload );
+      if( token == null ) {
+        throw new GeneralSecurityException( "Unable to encrypt session for cluster " + clusterName );
+      }
+      value = Base64.encodeBase64URLSafeString( token );
+    } else {
+      value = Base64.encodeBase64URLSafeString( payload ) + "." + Base64.encodeBase64URLSafeString( mac( payload ) );
+    }
+    return value.length() > MAX_COOKIE_LENGTH ? null : value;
+  }
+
+  /**
+   * Returns the session of a cookie value or null if the value was not issued with the same key or has expired.
+   */
+  StatelessSession decode( String value, long now ) {
+    if( value == null || value.length() == 0 || value.length() > MAX_COOKIE_LENGTH ) {
+      return null;
+    }
+    byte[] payload;
+    if( cryptoService != null ) {
+      // only authenticated tokens are accepted, their tag is checked before anything else is read
+      payload = cryptoService.decryptTokenForCluster( clusterName, alias, Base64.decodeBase64( value ) );
+    } else {
+      int dot = value.indexOf( '.' );
+      if( dot <= 0 || dot != value.lastIndexOf( '.' ) ) {
+        return null;
+      }
+      payload = Base64.decodeBase64( value.substring( 0, dot ) );
+      byte[] signature = Base64.decodeBase64( value.substring( dot + 1 ) );
+      try {
+        if( !MessageDigest.isEqual( signature, mac( payload ) ) ) {
+          return null;
+        }
+      } catch( GeneralSecurityException e ) {
+        return null;
+      }
+    }
+    if( payload == null ) {
+      return null;
+    }
+    StatelessSession session = deserialize( payload );
+    return session == null || session.isExpired( now ) ? null : session;
+  }
+
+  private byte[] mac( byte[] payload ) throws GeneralSecurityException {
+    Mac mac = macs.get();
+    if( mac == null ) {
+      mac = Mac.getInstance( MAC_ALGORITHM );
+      mac.init( macKey );
+      macs.set( mac );
+    }
+    return mac.doFinal( payload );
+  }
+
+  private static SecretKeySpec deriveMacKey( char[] password ) throws GeneralSecurityException {
+    ByteBuffer buffer = UTF8.encode( CharBuffer.wrap( password ) );
+    byte[] secret = new byte[ buffer.remaining() ];
+    buffer.get( secret );
+    Arrays.fill( buffer.array(), (byte)0 );
+    try {
+      Mac mac = Mac.getInstance( MAC_ALGORITHM );
+      mac.init( new SecretKeySpec( secret, MAC_ALGORITHM ) );
+      return new SecretKeySpec( mac.doFinal( MAC_KEY_LABEL ), MAC_ALGORITHM );
+    } finally {
+      Arrays.fill( secret, (byte)0 );
+    }
+  }
+
+  private static byte[] serialize( StatelessSession session ) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream( 128 );
+      DataOutputStream out = new DataOutputStream( bytes );
+      out.writeByte( VERSION );
+      out.writeLong( session.getExpires() );
+      out.writeUTF( session.getPrincipal() );
+      out.writeShort( session.getGroups().size() );
+      for( String group : session.getGroups() ) {
+        out.writeUTF( group );
+      }
+      out.flush();
+      return bytes.toByteArray();
+    } catch( IOException e ) {
+      // only thrown for names longer than 64k which could never fit in a cookie anyway
+      throw new IllegalArgumentException( e );
+    }
+  }
+
+  private static StatelessSession deserialize( byte[] payload ) {
+    ByteArrayInputStream bytes = new ByteArrayInputStream( payload );
+    DataInputStream in = new DataInputStream( bytes );
+    try {
+      if( in.readByte() != VERSION ) {
+        return null;
+      }
+      long expires = in.readLong();
+      String principal = in.readUTF();
+      int count = in.readUnsignedShort();
+      Set<String> groups = new LinkedHashSet<String>();
+      for( int i = 0; i < count; i++ ) {
+        groups.add( in.readUTF() );
+      }
+      if( bytes.available() != 0 ) {
+        return null;
+      }
+      return new StatelessSession( principal, groups, expires );
+    } catch( IOException e ) {
+      return null;
+    }
+  }
+
+}
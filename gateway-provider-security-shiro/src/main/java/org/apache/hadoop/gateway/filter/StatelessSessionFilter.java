@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.filter;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Set;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.hadoop.gateway.services.GatewayServices;
+import org.apache.hadoop.gateway.services.security.AliasService;
+import org.apache.hadoop.gateway.services.security.CryptoService;
+
+/**
+ * Keeps authenticated sessions in a signed, and optionally encrypted, cookie instead of the servlet container's
+ * session so that any gateway sharing the session secret can accept the session and no session state is kept
+ * by the gateway.
+ * <p>
+ * The filter runs in front of the Shiro filter.  For a request with a valid session cookie
+ * {@link StatelessSessionSubjectFactory} creates the Shiro subject as authenticated, Shiro still authorizes the
+ * request, and {@link ShiroSubjectIdentityAdapter} takes the principal and groups from the cookie.  Otherwise,
+ * or if the request carries explicit credentials, the request is authenticated by Shiro as usual and
+ * {@link ShiroSubjectIdentityAdapter} issues a new session cookie.  The session cookie is removed from the
+ * request so that it is never dispatched to a service.
+ * The secret is the password of a cluster alias, generated when missing.  For sessions to be accepted by all
+ * gateways of a cluster the alias must have the same password on all of them.
+ */
+public class StatelessSessionFilter extends AbstractGatewayFilter {
+
+  public static final String COOKIE_NAME_PARAM = "sessionCookieName";
+  public static final String SECRET_ALIAS_PARAM = "sessionSecretAlias";
+  public static final String ENCRYPTION_PARAM = "sessionEncryption";
+  public static final String TIMEOUT_PARAM = "sessionTimeout";
+
+  public static final String DEFAULT_COOKIE_NAME = "KNOX_SESSION";
+  public static final String DEFAULT_SECRET_ALIAS = "gateway.session.secret";
+  public static final int DEFAULT_TIMEOUT = 30; // minutes
+
+  private static final String SESSION_ATTRIBUTE = StatelessSessionFilter.class.getName() + ".session";
+  private static final String FILTER_ATTRIBUTE = StatelessSessionFilter.class.getName() + ".filter";
+  private static final String AUTHORIZATION_HEADER = "Authorization";
+
+  private String cookieName;
+  private long timeout;
+  private StatelessSessionCodec codec;
+
+  @Override
+  public void init( FilterConfig filterConfig ) throws ServletException {
+    super.init( filterConfig );
+    cookieName = getParam( filterConfig, COOKIE_NAME_PARAM, DEFAULT_COOKIE_NAME );
+    String alias = getParam( filterConfig, SECRET_ALIAS_PARAM, DEFAULT_SECRET_ALIAS );
+    boolean encrypted = Boolean.parseBoolean( getParam( filterConfig, ENCRYPTION_PARAM, "false" ) );
+    int minutes = Integer.parseInt( getParam( filterConfig, TIMEOUT_PARAM, String.valueOf( DEFAULT_TIMEOUT ) ) );
+    timeout = ( minutes > 0 ? minutes : DEFAULT_TIMEOUT ) * 60L * 1000L;
+
+    GatewayServices services = (GatewayServices)filterConfig.getServletContext().getAttribute(
+        GatewayServices.GATEWAY_SERVICES_ATTRIBUTE );
+    String clusterName = (String)filterConfig.getServletContext().getAttribute(
+        GatewayServices.GATEWAY_CLUSTER_ATTRIBUTE );
+    if( services == null || clusterName == null ) {
+      throw new ServletException( "Gateway services are not available for stateless sessions" );
+    }
+    AliasService aliasService = (AliasService)services.getService( GatewayServices.ALIAS_SERVICE );
+    char[] password = aliasService.getPasswordFromAliasForCluster( clusterName, alias, true );
+    if( password == null ) {
+      throw new ServletException( "No password for stateless session alias " + alias );
+    }
+    try {
+      if( encrypted ) {
+        CryptoService cryptoService = (CryptoService)services.getService( GatewayServices.CRYPTO_SERVICE );
+        codec = new StatelessSessionCodec( password, cryptoService, clusterName, alias );
+      } else {
+        codec = new StatelessSessionCodec( password );
+      }
+    } catch( GeneralSecurityException e ) {
+      throw new ServletException( e );
+    }
+  }
+
+  @Override
+  protected void doFilter( HttpServletRequest request, HttpServletResponse response, FilterChain chain )
+      throws IOException, ServletException {
+    request.setAttribute( FILTER_ATTRIBUTE, this );
+    String value = getCookieValue( request );
+    if( value == null ) {
+      chain.doFilter( request, response );
+      return;
+    }
+    // explicit credentials take precedence, the client is authenticated again and gets a new session
+    StatelessSession session = request.getHeader( AUTHORIZATION_HEADER ) == null
+        ? codec.decode( value, System.currentTimeMillis() ) : null;
+    if( session != null ) {
+      request.setAttribute( SESSION_ATTRIBUTE, session );
+      // like a container session an active session does not time out, renew it once half of it has passed
+      if( session.getExpires() - System.currentTimeMillis() < timeout / 2 ) {
+        issue( request, response, session.getPrincipal(), session.getGroups() );
+      }
+    }
+    chain.doFilter( new SessionCookieRemovingRequest( request, cookieName ), response );
+  }
+
+  /**
+   * Returns the session of the request if it carried a valid session cookie.
+   */
+  public static StatelessSession getSession( ServletRequest request ) {
+    return (StatelessSession)request.getAttribute( SESSION_ATTRIBUTE );
+  }
+
+  /**
+   * Returns true if sessions of the request are kept in cookies rather than in the servlet container.
+   */
+  public static boolean isStateless( ServletRequest request ) {
+    return request.getAttribute( FILTER_ATTRIBUTE ) != null;
+  }
+
+  /**
+   * Adds a session cookie for the principal and groups to the response if sessions are kept in cookies.
+   * Does nothing if the session does not fit into a cookie, the client is then authenticated again.
+   */
+  public static void issueSession( HttpServletRequest request, HttpServletResponse response,
+      String principal, Set<String> groups ) throws ServletException {
+    StatelessSessionFilter filter = (StatelessSessionFilter)request.getAttribute( FILTER_ATTRIBUTE );
+    if( filter != null ) {
+      filter.issue( request, response, principal, groups );
+    }
+  }
+
+  private void issue( HttpServletRequest request, HttpServletResponse response,
+      String principal, Set<String> groups ) throws ServletException {
+    String value;
+    try {
+      value = codec.encode( new StatelessSession( principal, groups, System.currentTimeMillis() + timeout ) );
+    } catch( GeneralSecurityException e ) {
+      throw new ServletException( e );
+    }
+    if( value != null ) {
+      Cookie cookie = new Cookie( cookieName, value );
+      String path = request.getContextPath();
+      cookie.setPath( path == null || path.length() == 0 ? "/" : path );
+      cookie.setHttpOnly( true );
+      cookie.setSecure( request.isSecure() );
+      response.addCookie( cookie );
+    }
+  }
+
+  private String getCookieValue( HttpServletRequest request ) {
+    Cookie[] cookies = request.getCookies();
+    if( cookies != null ) {
+      for( Cookie cookie : cookies ) {
+        if( cookieName.equals( cookie.getName() ) ) {
+          return cookie.getValue();
+        }
+      }
+    }
+    return null;
+  }
+
+  private static String getParam( FilterConfig config, String name, String defaultValue ) {
+    String value = config.getInitParameter( name );
+    return value == null || value.trim().length() == 0 ? defaultValue : value.trim();
+  }
+
+}
@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.filter;
+
+import javax.servlet.ServletRequest;
+
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.subject.SubjectContext;
+import org.apache.shiro.web.mgt.DefaultWebSubjectFactory;
+import org.apache.shiro.web.subject.WebSubjectContext;
+
+/**
+ * Creates the Shiro subject of a request carrying a valid stateless session cookie as already authenticated
+ * with the principal of the session.  Shiro's filter chain, including URL authorization such as roles[] and
+ * perms[], then runs as usual against that subject, only the authentication is taken from the cookie.
+ * <p>
+ * Configured by the Shiro provider in the generated shiro.ini when sessions are kept in cookies.
+ */
+public class StatelessSessionSubjectFactory extends DefaultWebSubjectFactory {
+
+  /**
+   * The realm name of restored principals, realms fall back to the primary principal for unknown realms.
+   */
+  public static final String REALM_NAME = "StatelessSession";
+
+  @Override
+  public Subject createSubject( SubjectContext context ) {
+    // subjects created by a login carry authentication info and must not be replaced by the session
+    if( context instanceof WebSubjectContext && context.getAuthenticationInfo() == null ) {
+      ServletRequest request = ( (WebSubjectContext)context ).resolveServletRequest();
+      StatelessSession session = request == null ? null : StatelessSessionFilter.getSession( request );
+      if( session != null ) {
+        context.setPrincipals( new SimplePrincipalCollection( session.getPrincipal(), REALM_NAME ) );
+        context.setAuthenticated( true );
+      }
+    }
+    return super.createSubject( context );
+  }
+
+}
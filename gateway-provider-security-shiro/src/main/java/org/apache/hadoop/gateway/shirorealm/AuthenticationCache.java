@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.shirorealm;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.apache.hadoop.gateway.util.ExpiringCache;
+
+/**
+ * A cache of recently successful authentications so that clients sending their credentials with every request,
+ * rather than keeping a session, do not cause a bind against the directory for each request.
+ * <p>
+ * Passwords are never kept.  For each user only a slow, salted hash of the user name and password is kept,
+ * computed with a salt chosen randomly for each cache, and an authentication is only answered from the cache when
+ * the presented password produces the same hash.  Entries expire after a short time and are removed as soon as a
+ * bind for the user fails.
+ */
+class AuthenticationCache {
+
+  private static final int ITERATIONS = 4096;
+  private static final int HASH_BITS = 256;
+  private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  private final ExpiringCache<String,byte[]> cache;
+  private final long timeToLive;
+  private final byte[] salt;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  AuthenticationCache( int maxEntries, long timeToLive ) {
+    this.cache = new ExpiringCache<String,byte[]>( maxEntries );
+    this.timeToLive = timeToLive;
+    this.salt = new byte[ 16 ];
+    new SecureRandom().nextBytes( salt );
+  }
+
+  /**
+   * Returns true if the user recently authenticated with the same password.
+   */
+  boolean verify( String userName, char[] password ) {
+    byte[] hash = cache.get( userName );
+    if( hash != null && MessageDigest.isEqual( hash, hash( userName, password ) ) ) {
+      hits.incrementAndGet();
+      return true;
+    }
+    misses.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Records a successful authentication of the user with the password.
+   */
+  void put( String userName, char[] password ) {
+    cache.put( userName, hash( userName, password ), System.currentTimeMillis() + timeToLive );
+  }
+
+  /**
+   * Forgets the user, for example because a bind with the credentials of the user failed.
+   */
+  void invalidate( String userName ) {
+    cache.remove( userName );
+  }
+
+  long getHitCount() {
+    return hits.get();
+  }
+
+  long getMissCount() {
+    return misses.get();
+  }
+
+  private byte[] hash( String userName, char[] password ) {
+    byte[] name = userName.getBytes( UTF8 );
+    byte[] userSalt = Arrays.copyOf( salt, salt.length + name.length );
+    System.arraycopy( name, 0, userSalt, salt.length, name.length );
+    PBEKeySpec spec = new PBEKeySpec( password, userSalt, ITERATIONS, HASH_BITS );
+    try {
+      return SecretKeyFactory.getInstance( ALGORITHM ).generateSecret( spec ).getEncoded();
+    } catch( GeneralSecurityException e ) {
+      // Every Java SE platform provides PBKDF2WithHmacSHA1.
+      throw new IllegalStateException( e );
+    } finally {
+      spec.clearPassword();
+    }
+  }
+
+}
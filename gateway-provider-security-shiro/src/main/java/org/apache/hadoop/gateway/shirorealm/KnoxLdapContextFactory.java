@@ -28,6 +28,7 @@ import org.apache.hadoop.gateway.GatewayServer;
 import org.apache.hadoop.gateway.services.GatewayServices;
 import org.apache.hadoop.gateway.services.security.AliasService;
 import org.apache.shiro.realm.ldap.JndiLdapContextFactory;
+import org.apache.shiro.util.Destroyable;
 
 /**
  * An extension of {@link JndiLdapContextFactory} that allows a different authentication mechanism
@@ -35,13 +36,36 @@ import org.apache.shiro.realm.ldap.JndiLdapContextFactory;
  * compared to regular authentication.
  * 
  * <p>
+ * The factory can also keep pools of connections, one for system-level contexts and one for the contexts used
+ * to authenticate users, so that logins do not open a new connection to the directory each time.
+ * Pooling is enabled in <tt>shiro.ini</tt>, or through the equivalent ShiroProvider parameters, with:
+ * <pre>
+ * ldapRealm.contextFactory.pooled=true
+ * ldapRealm.contextFactory.systemPoolMaxSize=8
+ * ldapRealm.contextFactory.userPoolMaxSize=16
+ * ldapRealm.contextFactory.poolIdleTimeout=300000
+ * ldapRealm.contextFactory.poolValidationInterval=30000
+ * ldapRealm.contextFactory.poolMaxWait=5000
+ * </pre>
+ * <p>
  * See {@link IsisLdapRealm} for typical configuration within <tt>shiro.ini</tt>.
  */
-public class KnoxLdapContextFactory extends JndiLdapContextFactory {
+public class KnoxLdapContextFactory extends JndiLdapContextFactory implements Destroyable {
+
+    private static final String SUN_CONNECTION_POOLING_PROPERTY = "com.sun.jndi.ldap.connect.pool";
 
     private String systemAuthenticationMechanism = "simple";
     private String clusterName = "";
 
+    private boolean pooled = false;
+    private int systemPoolMaxSize = 8;
+    private int userPoolMaxSize = 16;
+    private long poolIdleTimeout = 5 * 60 * 1000;
+    private long poolValidationInterval = 30 * 1000;
+    private long poolMaxWait = 5 * 1000;
+    private LdapContextPool systemPool;
+    private LdapContextPool userPool;
+
     public KnoxLdapContextFactory() {
       setAuthenticationMechanism("simple");
     }
@@ -49,10 +73,114 @@ public class KnoxLdapContextFactory extends JndiLdapContextFactory {
     @SuppressWarnings({ "unchecked", "rawtypes" })
     @Override
     protected LdapContext createLdapContext(Hashtable env) throws NamingException {
-        if(getSystemUsername() != null && getSystemUsername().equals(env.get(Context.SECURITY_PRINCIPAL))) {
+        boolean system = getSystemUsername() != null && getSystemUsername().equals(env.get(Context.SECURITY_PRINCIPAL));
+        if(system) {
             env.put(Context.SECURITY_AUTHENTICATION, getSystemAuthenticationMechanism());
         }
-        return super.createLdapContext(env);
+        if(!pooled) {
+            return super.createLdapContext(env);
+        }
+        // the pools replace the connection pooling of the JNDI provider
+        env.remove(SUN_CONNECTION_POOLING_PROPERTY);
+        // only contexts bound with the system credentials may come from the system pool, anyone else,
+        // including the system user with other credentials, is bound again on a connection from the user pool
+        boolean systemCredentials = system && getSystemPassword() != null
+            && getSystemPassword().equals(env.get(Context.SECURITY_CREDENTIALS));
+        return getPool(systemCredentials).borrow(env);
+    }
+
+    private synchronized LdapContextPool getPool(boolean system) {
+        LdapContextPool.Connector connector = new LdapContextPool.Connector() {
+            @Override
+            public LdapContext connect(Hashtable<?,?> env) throws NamingException {
+                return KnoxLdapContextFactory.super.createLdapContext(env);
+            }
+        };
+        if(system) {
+            if(systemPool == null) {
+                systemPool = new LdapContextPool(getUrl() + " (system)", connector, false,
+                    systemPoolMaxSize, poolIdleTimeout, poolValidationInterval, poolMaxWait);
+            }
+            return systemPool;
+        } else {
+            if(userPool == null) {
+                userPool = new LdapContextPool(getUrl() + " (user)", connector, true,
+                    userPoolMaxSize, poolIdleTimeout, poolValidationInterval, poolMaxWait);
+            }
+            return userPool;
+        }
+    }
+
+    /**
+     * Closes the pooled connections that are not in use.  Shiro calls this when the topology is undeployed.
+     */
+    @Override
+    public synchronized void destroy() {
+        if(systemPool != null) {
+            systemPool.close();
+            systemPool = null;
+        }
+        if(userPool != null) {
+            userPool.close();
+            userPool = null;
+        }
+    }
+
+    public boolean isPooled() {
+        return pooled;
+    }
+
+    public void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    public int getSystemPoolMaxSize() {
+        return systemPoolMaxSize;
+    }
+
+    public void setSystemPoolMaxSize(int systemPoolMaxSize) {
+        this.systemPoolMaxSize = systemPoolMaxSize;
+    }
+
+    public int getUserPoolMaxSize() {
+        return userPoolMaxSize;
+    }
+
+    public void setUserPoolMaxSize(int userPoolMaxSize) {
+        this.userPoolMaxSize = userPoolMaxSize;
+    }
+
+    public long getPoolIdleTimeout() {
+        return poolIdleTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds after which an idle pooled connection is closed.  Zero keeps them open.
+     */
+    public void setPoolIdleTimeout(long poolIdleTimeout) {
+        this.poolIdleTimeout = poolIdleTimeout;
+    }
+
+    public long getPoolValidationInterval() {
+        return poolValidationInterval;
+    }
+
+    /**
+     * Sets the time in milliseconds a pooled system connection may be idle before it is checked when reused.
+     */
+    public void setPoolValidationInterval(long poolValidationInterval) {
+        this.poolValidationInterval = poolValidationInterval;
+    }
+
+    public long getPoolMaxWait() {
+        return poolMaxWait;
+    }
+
+    /**
+     * Sets the time in milliseconds to wait for a connection when all pooled connections are in use.
+     */
+    public void setPoolMaxWait(long poolMaxWait) {
+        this.poolMaxWait = poolMaxWait;
     }
 
     public String getSystemAuthenticationMechanism() {
@@ -19,6 +19,7 @@
 
 package org.apache.hadoop.gateway.shirorealm;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -35,18 +36,28 @@ import javax.naming.InvalidNameException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
 import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import javax.naming.ldap.Rdn;
 
 import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.authc.AuthenticationInfo;
+import org.apache.shiro.authc.AuthenticationToken;
+import org.apache.shiro.authc.UsernamePasswordToken;
 import org.apache.shiro.authz.AuthorizationInfo;
 import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.apache.shiro.realm.ldap.JndiLdapContextFactory;
 import org.apache.shiro.realm.ldap.JndiLdapRealm;
 import org.apache.shiro.realm.ldap.LdapContextFactory;
 import org.apache.shiro.realm.ldap.LdapUtils;
 import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.util.Destroyable;
 import org.apache.shiro.util.StringUtils;
 
 /**
@@ -94,10 +105,25 @@ import org.apache.shiro.util.StringUtils;
  *    admin_role = *
  * 
  * securityManager.realms = $ldapRealm
+ *
+ * # optional server side group search, see setGroupSearchMode
+ * ldapRealm.groupSearchMode = filter
+ * ldapRealm.groupSearchPageSize = 500
+ * ldapRealm.dynamicGroupObjectClass = groupOfUrls
+ *
+ * # optional group cache, disabled by default, times in milliseconds
+ * # while enabled a change to a user's groups is only seen once the cached entry expires
+ * ldapRealm.groupCacheTimeToLive = 300000
+ * ldapRealm.groupCacheNegativeTimeToLive = 60000
+ * ldapRealm.groupCacheMaxSize = 10000
+ *
+ * # optional authentication cache for clients that send credentials with every request, disabled by default
+ * ldapRealm.authenticationCacheTimeToLive = 60000
+ * ldapRealm.authenticationCacheMaxSize = 1000
  * 
  * </pre>
  */
-public class KnoxLdapRealm extends JndiLdapRealm {
+public class KnoxLdapRealm extends JndiLdapRealm implements Destroyable {
 
     private static final String MEMBER_SUBSTITUTION_TOKEN = "{0}";
     private final static SearchControls SUBTREE_SCOPE = new SearchControls();
@@ -107,6 +133,13 @@ public class KnoxLdapRealm extends JndiLdapRealm {
     private final static String  SUBJECT_USER_GROUPS = "subject.userGroups";
 
     private final static String  MEMBER_URL = "memberUrl";
+
+    /** Lists all groups under the search base and checks the membership of each in the gateway. */
+    public final static String GROUP_SEARCH_MODE_ENUMERATE = "enumerate";
+    /** Searches only for the groups whose member attribute holds the user DN. */
+    public final static String GROUP_SEARCH_MODE_FILTER = "filter";
+    /** Reads the groups from the memberOf attribute of the user entry. */
+    public final static String GROUP_SEARCH_MODE_MEMBER_OF = "memberOf";
    
     static {
         SUBTREE_SCOPE.setSearchScope(SearchControls.SUBTREE_SCOPE);
@@ -130,8 +163,70 @@ public class KnoxLdapRealm extends JndiLdapRealm {
     
     private boolean authorizationEnabled;
 
+    private String groupSearchMode = GROUP_SEARCH_MODE_ENUMERATE;
+    private int groupSearchPageSize = 500;
+    private String memberOfAttribute = "memberOf";
+    private String dynamicGroupObjectClass;
+
+    private long groupCacheTimeToLive = 0;
+    private long groupCacheNegativeTimeToLive = 60 * 1000;
+    private int groupCacheMaxSize = 10000;
+    private volatile LdapGroupCache groupCache;
+
+    private long authenticationCacheTimeToLive = 0;
+    private int authenticationCacheMaxSize = 1000;
+    private volatile AuthenticationCache authenticationCache;
+
     public KnoxLdapRealm() {
     }
+
+    /**
+     * Binds as the user unless the same user recently authenticated with the same password.
+     * A failed bind removes the user from the authentication cache.
+     */
+    @Override
+    protected AuthenticationInfo queryForAuthenticationInfo(AuthenticationToken token,
+        LdapContextFactory ldapContextFactory) throws NamingException {
+      AuthenticationCache cache = getLdapAuthenticationCache();
+      if (cache == null || !(token instanceof UsernamePasswordToken)) {
+        return super.queryForAuthenticationInfo(token, ldapContextFactory);
+      }
+      UsernamePasswordToken upToken = (UsernamePasswordToken) token;
+      String username = upToken.getUsername();
+      char[] password = upToken.getPassword();
+      if (username == null || password == null || password.length == 0) {
+        return super.queryForAuthenticationInfo(token, ldapContextFactory);
+      }
+      if (cache.verify(username, password)) {
+        return createAuthenticationInfo(token, getLdapPrincipal(token), token.getCredentials(), null);
+      }
+      AuthenticationInfo info;
+      try {
+        info = super.queryForAuthenticationInfo(token, ldapContextFactory);
+      } catch (AuthenticationException e) {
+        cache.invalidate(username);
+        throw e;
+      }
+      cache.put(username, password);
+      return info;
+    }
+
+    private AuthenticationCache getLdapAuthenticationCache() {
+      if (authenticationCacheTimeToLive <= 0 || authenticationCacheMaxSize <= 0) {
+        return null;
+      }
+      AuthenticationCache cache = authenticationCache;
+      if (cache == null) {
+        synchronized (this) {
+          cache = authenticationCache;
+          if (cache == null) {
+            cache = new AuthenticationCache(authenticationCacheMaxSize, authenticationCacheTimeToLive);
+            authenticationCache = cache;
+          }
+        }
+      }
+      return cache;
+    }
     
     /**
      * Get groups from LDAP.
@@ -163,32 +258,39 @@ public class KnoxLdapRealm extends JndiLdapRealm {
         final LdapContextFactory ldapContextFactory) throws NamingException {
         final String username = (String) getAvailablePrincipal(principals);
 
-        LdapContext systemLdapCtx = null;
         try {
-            systemLdapCtx = ldapContextFactory.getSystemLdapContext();
-            return rolesFor(username, systemLdapCtx, ldapContextFactory);
+            return rolesFor(username, ldapContextFactory);
         } catch (AuthenticationException ex) {
             // principal was not authenticated on LDAP
             return Collections.emptySet();
-        } finally {
-            LdapUtils.closeContext(systemLdapCtx);
         }
     }
 
-    private Set<String> rolesFor(final String userName, final LdapContext ldapCtx, 
-        final LdapContextFactory ldapContextFactory) throws NamingException {
-        final Set<String> roleNames = new HashSet();
-        final Set<String> groupNames = new HashSet();
-        
-        // ldapsearch -h localhost -p 33389 -D uid=guest,ou=people,dc=hadoop,dc=apache,dc=org -w  guest-password 
-        //       -b dc=hadoop,dc=apache,dc=org -s sub '(objectclass=*)'
-        final NamingEnumeration<SearchResult> searchResultEnum = ldapCtx.search(searchBase, "objectClass="+groupObjectClass, SUBTREE_SCOPE);
-        
-        while (searchResultEnum.hasMore()) { // searchResults contains all the groups in search scope
-            final SearchResult group = searchResultEnum.next();
-            addRoleIfMember(userName, group, roleNames, groupNames, ldapContextFactory);
+    private Set<String> rolesFor(final String userName, final LdapContextFactory ldapContextFactory)
+        throws NamingException {
+        final Set<String> groupNames;
+        LdapGroupCache cache = getGroupCache(ldapContextFactory);
+        if (cache != null) {
+          groupNames = cache.get(userName, new LdapGroupCache.Loader() {
+            @Override
+            public Set<String> load(String user) throws NamingException {
+              return groupNamesFor(user, ldapContextFactory);
+            }
+          });
+        } else {
+          groupNames = groupNamesFor(userName, ldapContextFactory);
         }
-        
+
+        final Set<String> roleNames = new HashSet<String>();
+        for (String groupName : groupNames) {
+          String roleName = roleNameFor(groupName);
+          if (roleName != null) {
+            roleNames.add(roleName);
+          } else {
+            roleNames.add(groupName);
+          }
+        }
+
         // save role names and group names in session so that they can be easily looked up outside of this object
         SecurityUtils.getSubject().getSession().setAttribute(SUBJECT_USER_ROLES, roleNames);
         SecurityUtils.getSubject().getSession().setAttribute(SUBJECT_USER_GROUPS, groupNames);
@@ -196,47 +298,232 @@ public class KnoxLdapRealm extends JndiLdapRealm {
         return roleNames;
     }
 
-  private void addRoleIfMember(final String userName, final SearchResult group,
-      final Set<String> roleNames, final Set<String> groupNames,
+    /**
+     * Returns the group cache shared with other realms using the same directory in the same way
+     * or null if group caching is disabled.
+     */
+    private LdapGroupCache getGroupCache(final LdapContextFactory ldapContextFactory) {
+      if (groupCacheTimeToLive <= 0 || groupCacheMaxSize <= 0) {
+        return null;
+      }
+      LdapGroupCache cache = groupCache;
+      if (cache == null) {
+        synchronized (this) {
+          cache = groupCache;
+          if (cache == null) {
+            String directory;
+            if (ldapContextFactory instanceof JndiLdapContextFactory) {
+              JndiLdapContextFactory jndiLdapContextFactory = (JndiLdapContextFactory) ldapContextFactory;
+              directory = jndiLdapContextFactory.getUrl() + "|" + jndiLdapContextFactory.getSystemUsername();
+            } else {
+              directory = ldapContextFactory.getClass().getName() + "@" + System.identityHashCode(ldapContextFactory);
+            }
+            String key = directory + "|" + groupSearchMode + "|" + dynamicGroupObjectClass + "|" + searchBase + "|" + groupObjectClass + "|" + memberAttribute + "|"
+                + groupIdAttribute + "|" + memberAttributeValuePrefix + MEMBER_SUBSTITUTION_TOKEN + memberAttributeValueSuffix;
+            cache = LdapGroupCache.getInstance(key, groupCacheMaxSize, groupCacheTimeToLive, groupCacheNegativeTimeToLive);
+            groupCache = cache;
+          }
+        }
+      }
+      return cache;
+    }
+
+    /**
+     * Gives up this realm's use of the shared group cache, which is dropped once no realm uses it.
+     */
+    private synchronized void releaseGroupCache() {
+      LdapGroupCache cache = groupCache;
+      groupCache = null;
+      if (cache != null) {
+        LdapGroupCache.release(cache);
+      }
+    }
+
+    /**
+     * Releases the shared group cache.  Shiro calls this when the topology is undeployed.
+     */
+    @Override
+    public void destroy() {
+      releaseGroupCache();
+    }
+
+    private Set<String> groupNamesFor(final String userName, final LdapContextFactory ldapContextFactory)
+        throws NamingException {
+      LdapContext systemLdapCtx = null;
+      try {
+        systemLdapCtx = ldapContextFactory.getSystemLdapContext();
+        return groupNamesFor(userName, systemLdapCtx, ldapContextFactory);
+      } finally {
+        LdapUtils.closeContext(systemLdapCtx);
+      }
+    }
+
+    private Set<String> groupNamesFor(final String userName, final LdapContext ldapCtx,
+        final LdapContextFactory ldapContextFactory) throws NamingException {
+        final Set<String> groupNames = new HashSet<String>();
+        String userDn = memberAttributeValuePrefix + userName + memberAttributeValueSuffix;
+
+        if (GROUP_SEARCH_MODE_FILTER.equalsIgnoreCase(groupSearchMode) && !memberAttribute.equalsIgnoreCase(MEMBER_URL)) {
+          // let the directory find the groups listing the user as a member, typically with an index lookup
+          String filter = "(&(objectClass={0})(" + memberAttribute + "={1}))";
+          searchGroups(ldapCtx, filter, new Object[] { groupObjectClass, userDn }, groupNames, null, null);
+          addDynamicGroups(userName, ldapCtx, groupNames, ldapContextFactory);
+        } else if (GROUP_SEARCH_MODE_MEMBER_OF.equalsIgnoreCase(groupSearchMode)) {
+          addGroupsFromMemberOf(userDn, ldapCtx, groupNames);
+          addDynamicGroups(userName, ldapCtx, groupNames, ldapContextFactory);
+        } else {
+          // ldapsearch -h localhost -p 33389 -D uid=guest,ou=people,dc=hadoop,dc=apache,dc=org -w  guest-password 
+          //       -b dc=hadoop,dc=apache,dc=org -s sub '(objectclass=*)'
+          searchGroups(ldapCtx, "(objectClass={0})", new Object[] { groupObjectClass }, groupNames,
+              userName, ldapContextFactory);
+        }
+
+        return groupNames;
+    }
+
+    /**
+     * Evaluates the groups of the dynamic group object class, if one is configured, in addition to the static
+     * groups found by the directory.
+     */
+    private void addDynamicGroups(final String userName, final LdapContext ldapCtx, final Set<String> groupNames,
+        final LdapContextFactory ldapContextFactory) throws NamingException {
+      if (dynamicGroupObjectClass != null) {
+        searchGroups(ldapCtx, "(objectClass={0})", new Object[] { dynamicGroupObjectClass }, groupNames,
+            userName, ldapContextFactory);
+      }
+    }
+
+    /**
+     * Searches for groups under the search base, one page at a time if the directory supports paged results.
+     * If a user name is given the membership of the user is checked for each group found, otherwise all of the
+     * groups found are added.
+     */
+    private void searchGroups(final LdapContext ldapCtx, final String filter, final Object[] filterArgs,
+        final Set<String> groupNames, final String userName, final LdapContextFactory ldapContextFactory)
+        throws NamingException {
+      SearchControls controls = new SearchControls();
+      controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+      if (userName == null) {
+        controls.setReturningAttributes(new String[] { groupIdAttribute });
+      }
+      byte[] cookie = null;
+      try {
+        do {
+          if (groupSearchPageSize > 0) {
+            setPagedResultsControl(ldapCtx, cookie);
+          }
+          NamingEnumeration<SearchResult> searchResultEnum = ldapCtx.search(searchBase, filter, filterArgs, controls);
+          try {
+            while (searchResultEnum.hasMore()) {
+              final SearchResult group = searchResultEnum.next();
+              if (userName == null) {
+                addGroupName(group.getAttributes().get(groupIdAttribute), groupNames);
+              } else {
+                addGroupIfMember(userName, group, groupNames, ldapContextFactory);
+              }
+            }
+          } finally {
+            searchResultEnum.close();
+          }
+          cookie = groupSearchPageSize > 0 ? getPagedResultsCookie(ldapCtx) : null;
+        } while (cookie != null && cookie.length > 0);
+      } finally {
+        if (groupSearchPageSize > 0) {
+          ldapCtx.setRequestControls(null);
+        }
+      }
+    }
+
+    private void setPagedResultsControl(final LdapContext ldapCtx, final byte[] cookie) throws NamingException {
+      try {
+        ldapCtx.setRequestControls(new Control[] {
+            new PagedResultsControl(groupSearchPageSize, cookie, Control.NONCRITICAL) });
+      } catch (IOException e) {
+        NamingException ne = new NamingException("Failed to create paged results control");
+        ne.setRootCause(e);
+        throw ne;
+      }
+    }
+
+    private static byte[] getPagedResultsCookie(final LdapContext ldapCtx) throws NamingException {
+      Control[] controls = ldapCtx.getResponseControls();
+      if (controls != null) {
+        for (Control control : controls) {
+          if (control instanceof PagedResultsResponseControl) {
+            return ((PagedResultsResponseControl) control).getCookie();
+          }
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Adds the groups listed in the memberOf attribute of the user entry that are under the search base.
+     */
+    private void addGroupsFromMemberOf(final String userDn, final LdapContext ldapCtx, final Set<String> groupNames)
+        throws NamingException {
+      Attributes attributes = ldapCtx.getAttributes(new LdapName(userDn), new String[] { memberOfAttribute });
+      Attribute memberOf = attributes.get(memberOfAttribute);
+      if (memberOf == null) {
+        return;
+      }
+      LdapName base = searchBase == null ? null : new LdapName(searchBase);
+      NamingEnumeration<?> values = memberOf.getAll();
+      try {
+        while (values.hasMore()) {
+          LdapName groupDn = new LdapName(values.next().toString());
+          if (base != null && !groupDn.startsWith(base)) {
+            continue;
+          }
+          Rdn rdn = groupDn.getRdn(groupDn.size() - 1);
+          if (rdn.getType().equalsIgnoreCase(groupIdAttribute)) {
+            groupNames.add(rdn.getValue().toString());
+          } else {
+            Attributes group = ldapCtx.getAttributes(groupDn, new String[] { groupIdAttribute });
+            addGroupName(group.get(groupIdAttribute), groupNames);
+          }
+        }
+      } finally {
+        values.close();
+      }
+    }
+
+    private static void addGroupName(final Attribute attribute, final Set<String> groupNames) throws NamingException {
+      if (attribute != null && attribute.get() != null) {
+        groupNames.add(attribute.get().toString());
+      }
+    }
+
+  private void addGroupIfMember(final String userName, final SearchResult group,
+      final Set<String> groupNames,
       final LdapContextFactory ldapContextFactory) throws NamingException {
    
     String userDn = memberAttributeValuePrefix + userName + memberAttributeValueSuffix;
     Attribute attribute = group.getAttributes().get(getGroupIdAttribute()); 
     String groupName = attribute.get().toString();
+    // dynamic groups searched in addition to server side filtering always list their members by URL
+    String memberAttr = GROUP_SEARCH_MODE_ENUMERATE.equalsIgnoreCase(groupSearchMode) ? memberAttribute : MEMBER_URL;
     
     final NamingEnumeration<? extends Attribute> attributeEnum = group
         .getAttributes().getAll();
     while (attributeEnum.hasMore()) {
       final Attribute attr = attributeEnum.next();
-      if (!memberAttribute.equalsIgnoreCase(attr.getID())) {
+      if (!memberAttr.equalsIgnoreCase(attr.getID())) {
         continue;
       }
       final NamingEnumeration<?> e = attr.getAll();
       while (e.hasMore()) {
         String attrValue = e.next().toString();
-        if (memberAttribute.equalsIgnoreCase(MEMBER_URL)) {
+        if (memberAttr.equalsIgnoreCase(MEMBER_URL)) {
           boolean dynamicGroupMember = isUserMemberOfDynamicGroup(userDn, 
               attrValue, // memberUrl value
               ldapContextFactory);
           if (dynamicGroupMember) {
             groupNames.add(groupName);
-            String roleName = roleNameFor(groupName);
-            if (roleName != null) {
-              roleNames.add(roleName);
-            } else {
-              roleNames.add(groupName);
-            }
           }
         } else {
           if (userDn.equals(attrValue)) {
-         
             groupNames.add(groupName);
-            String roleName = roleNameFor(groupName);
-            if (roleName != null) {
-              roleNames.add(roleName);
-            } else {
-              roleNames.add(groupName);
-            }
             break;
           }
         }
@@ -326,6 +613,115 @@ public class KnoxLdapRealm extends JndiLdapRealm {
     public void setAuthorizationEnabled(boolean authorizationEnabled) {
       this.authorizationEnabled = authorizationEnabled;
     }
+
+    public String getGroupSearchMode() {
+      return groupSearchMode;
+    }
+
+    /**
+     * Sets how the groups of a user are found: "enumerate" (the default) lists every group under the search base
+     * and checks membership in the gateway, "filter" lets the directory search for the groups having the user
+     * as a member and "memberOf" reads the groups from the memberOf attribute of the user entry.
+     * The filter mode falls back to enumerating when the member attribute is memberUrl.
+     */
+    public void setGroupSearchMode(String groupSearchMode) {
+      if (!GROUP_SEARCH_MODE_ENUMERATE.equalsIgnoreCase(groupSearchMode)
+          && !GROUP_SEARCH_MODE_FILTER.equalsIgnoreCase(groupSearchMode)
+          && !GROUP_SEARCH_MODE_MEMBER_OF.equalsIgnoreCase(groupSearchMode)) {
+        throw new IllegalArgumentException("Unknown group search mode: " + groupSearchMode);
+      }
+      this.groupSearchMode = groupSearchMode;
+    }
+
+    public int getGroupSearchPageSize() {
+      return groupSearchPageSize;
+    }
+
+    /**
+     * Sets the number of groups requested per page when searching.  Zero disables paged results.
+     */
+    public void setGroupSearchPageSize(int groupSearchPageSize) {
+      this.groupSearchPageSize = groupSearchPageSize;
+    }
+
+    public String getMemberOfAttribute() {
+      return memberOfAttribute;
+    }
+
+    public void setMemberOfAttribute(String memberOfAttribute) {
+      this.memberOfAttribute = memberOfAttribute;
+    }
+
+    public String getDynamicGroupObjectClass() {
+      return dynamicGroupObjectClass;
+    }
+
+    /**
+     * Sets the object class of dynamic groups, such as groupOfUrls, whose memberUrl values are evaluated in
+     * addition to the groups found in the filter and memberOf search modes.  Dynamic groups are not evaluated
+     * in those modes unless this is set.
+     */
+    public void setDynamicGroupObjectClass(String dynamicGroupObjectClass) {
+      this.dynamicGroupObjectClass = dynamicGroupObjectClass;
+    }
+
+    public long getGroupCacheTimeToLive() {
+      return groupCacheTimeToLive;
+    }
+
+    /**
+     * Sets how long in milliseconds the groups found for a user are used before they are searched again.
+     * Zero, the default, disables the group cache so every authorization sees the current groups.
+     */
+    public void setGroupCacheTimeToLive(long groupCacheTimeToLive) {
+      this.groupCacheTimeToLive = groupCacheTimeToLive;
+      releaseGroupCache();
+    }
+
+    public long getGroupCacheNegativeTimeToLive() {
+      return groupCacheNegativeTimeToLive;
+    }
+
+    /**
+     * Sets how long in milliseconds a user found in no groups is cached.  Zero disables caching of such users.
+     */
+    public void setGroupCacheNegativeTimeToLive(long groupCacheNegativeTimeToLive) {
+      this.groupCacheNegativeTimeToLive = groupCacheNegativeTimeToLive;
+      releaseGroupCache();
+    }
+
+    public int getGroupCacheMaxSize() {
+      return groupCacheMaxSize;
+    }
+
+    public void setGroupCacheMaxSize(int groupCacheMaxSize) {
+      this.groupCacheMaxSize = groupCacheMaxSize;
+      releaseGroupCache();
+    }
+
+    public long getAuthenticationCacheTimeToLive() {
+      return authenticationCacheTimeToLive;
+    }
+
+    /**
+     * Sets how long in milliseconds a successful authentication is remembered, so that a client sending the same
+     * credentials with every request causes one bind per user in that time.  The time should be short since
+     * password changes and locked accounts are only noticed once it has passed.  Zero, the default, disables the
+     * authentication cache.
+     */
+    public void setAuthenticationCacheTimeToLive(long authenticationCacheTimeToLive) {
+      this.authenticationCacheTimeToLive = authenticationCacheTimeToLive;
+      this.authenticationCache = null;
+    }
+
+    public int getAuthenticationCacheMaxSize() {
+      return authenticationCacheMaxSize;
+    }
+
+    public void setAuthenticationCacheMaxSize(int authenticationCacheMaxSize) {
+      this.authenticationCacheMaxSize = authenticationCacheMaxSize;
+      this.authenticationCache = null;
+    }
     
     private Map<String, List<String>> parsePermissionByRoleString(String permissionsByRoleStr) {
       Map<String,List<String>> perms = new HashMap<String, List<String>>();
@@ -0,0 +1,377 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.shirorealm;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.LdapContext;
+
+/**
+ * A pool of LDAP contexts, each holding its own connection to the directory.
+ * <p>
+ * Contexts are handed out wrapped so that closing them returns them to the pool.  A context that failed with a
+ * communication error is closed instead.  Pools of contexts used to authenticate users rebind each context with
+ * the credentials of the next user, which reuses the connection rather than opening a new one.  Pools of system
+ * contexts instead check that a context that has been idle for a while still works before handing it out.
+ * Contexts idle for longer than the idle timeout are closed by a background thread.
+ */
+class LdapContextPool {
+
+  /**
+   * Opens a new context for the environment.
+   */
+  interface Connector {
+    LdapContext connect( Hashtable<?,?> env ) throws NamingException;
+  }
+
+  private static final String[] VALIDATION_ATTRIBUTES = new String[]{ "objectClass" };
+  private static ScheduledExecutorService evictionExecutor;
+
+  private final String name;
+  private final Connector connector;
+  private final boolean rebind;
+  private final int maxSize;
+  private final long idleTimeout;
+  private final long validationInterval;
+  private final long maxWait;
+  private final LinkedList<Idle> idle = new LinkedList<Idle>();
+  private int open;
+  private boolean closed;
+  private ScheduledFuture<?> evictor;
+
+  /**
+   * @param rebind whether a context is rebound with the credentials of the environment each time it is borrowed
+   * @param maxSize the maximum number of contexts, idle or in use
+   * @param idleTimeout the time in milliseconds after which an idle context is closed, 0 to keep them open
+   * @param validationInterval the time in milliseconds a context may be idle before it is checked when borrowed
+   * @param maxWait the time in milliseconds to wait for a context when all of them are in use
+   */
+  LdapContextPool( String name, Connector connector, boolean rebind, int maxSize, long idleTimeout,
+      long validationInterval, long maxWait ) {
+    this.name = name;
+    this.connector = connector;
+    this.rebind = rebind;
+    this.maxSize = maxSize;
+    this.idleTimeout = idleTimeout;
+    this.validationInterval = validationInterval;
+    this.maxWait = maxWait;
+    if( idleTimeout > 0 ) {
+      scheduleEviction( this, Math.max( idleTimeout / 2, 1000 ) );
+    }
+  }
+
+  /**
+   * Returns a context for the environment.  The context must be closed to return it to the pool.
+   *
+   * @throws ServiceUnavailableException if no context became available within the maximum wait time
+   */
+  LdapContext borrow( Hashtable<?,?> env ) throws NamingException {
+    while( true ) {
+      Idle candidate = take();
+      if( candidate == null ) {
+        return wrap( create( env ) );
+      }
+      if( prepare( candidate, env ) ) {
+        return wrap( candidate.context );
+      }
+    }
+  }
+
+  /**
+   * Closes all idle contexts.  Contexts in use are closed when they are returned.
+   */
+  void close() {
+    List<Idle> contexts;
+    synchronized( this ) {
+      closed = true;
+      contexts = new ArrayList<Idle>( idle );
+      open -= idle.size();
+      idle.clear();
+      if( evictor != null ) {
+        evictor.cancel( false );
+      }
+      notifyAll();
+    }
+    for( Idle context : contexts ) {
+      closeQuietly( context.context );
+    }
+  }
+
+  synchronized int getOpenCount() {
+    return open;
+  }
+
+  synchronized int getIdleCount() {
+    return idle.size();
+  }
+
+  /**
+   * Takes the most recently used idle context or reserves room for a new one, waiting if the pool is full.
+   * Returns null if a new context should be created.
+   */
+  private synchronized Idle take() throws NamingException {
+    long deadline = System.currentTimeMillis() + maxWait;
+    while( !closed ) {
+      if( !idle.isEmpty() ) {
+        return idle.removeFirst();
+      }
+      if( open < maxSize ) {
+        open++;
+        return null;
+      }
+      long wait = deadline - System.currentTimeMillis();
+      if( wait <= 0 ) {
+        throw new ServiceUnavailableException( "No LDAP connection available in pool " + name );
+      }
+      try {
+        wait( wait );
+      } catch( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        throw new ServiceUnavailableException( "Interrupted waiting for an LDAP connection from pool " + name );
+      }
+    }
+    throw new ServiceUnavailableException( "LDAP connection pool " + name + " is closed" );
+  }
+
+  private LdapContext create( Hashtable<?,?> env ) throws NamingException {
+    try {
+      return connector.connect( env );
+    } catch( NamingException e ) {
+      discarded();
+      throw e;
+    } catch( RuntimeException e ) {
+      discarded();
+      throw e;
+    }
+  }
+
+  /**
+   * Readies an idle context for use.  Returns false if the context was broken and has been discarded.
+   */
+  private boolean prepare( Idle candidate, Hashtable<?,?> env ) throws NamingException {
+    LdapContext context = candidate.context;
+    try {
+      if( rebind ) {
+        rebind( context, env );
+      } else if( System.currentTimeMillis() - candidate.since >= validationInterval ) {
+        context.getAttributes( "", VALIDATION_ATTRIBUTES );
+      }
+      return true;
+    } catch( CommunicationException e ) {
+      discard( context );
+      return false;
+    } catch( ServiceUnavailableException e ) {
+      discard( context );
+      return false;
+    } catch( NamingException e ) {
+      discard( context );
+      if( rebind ) {
+        // the bind itself failed, for example because of invalid credentials
+        throw e;
+      }
+      return false;
+    }
+  }
+
+  private static void rebind( LdapContext context, Hashtable<?,?> env ) throws NamingException {
+    copy( env, context, Context.SECURITY_AUTHENTICATION );
+    copy( env, context, Context.SECURITY_PRINCIPAL );
+    copy( env, context, Context.SECURITY_CREDENTIALS );
+    context.reconnect( null );
+  }
+
+  private static void copy( Hashtable<?,?> env, LdapContext context, String name ) throws NamingException {
+    Object value = env.get( name );
+    if( value == null ) {
+      context.removeFromEnvironment( name );
+    } else {
+      context.addToEnvironment( name, value );
+    }
+  }
+
+  private void release( LdapContext context, boolean broken ) {
+    boolean keep;
+    synchronized( this ) {
+      keep = !broken && !closed;
+      if( keep ) {
+        idle.addFirst( new Idle( context, System.currentTimeMillis() ) );
+      } else {
+        open--;
+      }
+      notifyAll();
+    }
+    if( !keep ) {
+      closeQuietly( context );
+    }
+  }
+
+  private void discard( LdapContext context ) {
+    discarded();
+    closeQuietly( context );
+  }
+
+  private synchronized void discarded() {
+    open--;
+    notifyAll();
+  }
+
+  /**
+   * Closes the contexts that have been idle for longer than the idle timeout.
+   */
+  void evict() {
+    List<LdapContext> expired = new ArrayList<LdapContext>();
+    synchronized( this ) {
+      long now = System.currentTimeMillis();
+      Iterator<Idle> iterator = idle.descendingIterator();
+      while( iterator.hasNext() ) {
+        Idle candidate = iterator.next();
+        if( now - candidate.since <= idleTimeout ) {
+          break;
+        }
+        iterator.remove();
+        open--;
+        expired.add( candidate.context );
+      }
+      if( !expired.isEmpty() ) {
+        notifyAll();
+      }
+    }
+    for( LdapContext context : expired ) {
+      closeQuietly( context );
+    }
+  }
+
+  private LdapContext wrap( final LdapContext context ) {
+    return (LdapContext)Proxy.newProxyInstance( LdapContext.class.getClassLoader(), new Class<?>[]{ LdapContext.class },
+        new PooledContext( context ) );
+  }
+
+  private static void closeQuietly( LdapContext context ) {
+    try {
+      context.close();
+    } catch( NamingException e ) {
+      // the context is being discarded anyway
+    }
+  }
+
+  private static synchronized void scheduleEviction( LdapContextPool pool, long period ) {
+    if( evictionExecutor == null ) {
+      evictionExecutor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+        @Override
+        public Thread newThread( Runnable runnable ) {
+          Thread thread = new Thread( runnable, "ldap-connection-evictor" );
+          thread.setDaemon( true );
+          return thread;
+        }
+      } );
+    }
+    // The task only holds a weak reference so that pools of undeployed topologies can be collected.
+    final WeakReference<LdapContextPool> reference = new WeakReference<LdapContextPool>( pool );
+    final ScheduledFuture<?>[] future = new ScheduledFuture<?>[ 1 ];
+    synchronized( pool ) {
+      future[ 0 ] = evictionExecutor.scheduleWithFixedDelay( new Runnable() {
+        @Override
+        public void run() {
+          LdapContextPool target = reference.get();
+          if( target == null ) {
+            future[ 0 ].cancel( false );
+          } else {
+            target.evict();
+          }
+        }
+      }, period, period, TimeUnit.MILLISECONDS );
+      pool.evictor = future[ 0 ];
+    }
+  }
+
+  private static final class Idle {
+
+    private final LdapContext context;
+    private final long since;
+
+    private Idle( LdapContext context, long since ) {
+      this.context = context;
+      this.since = since;
+    }
+
+  }
+
+  private final class PooledContext implements InvocationHandler {
+
+    private final LdapContext context;
+    private volatile boolean broken;
+    private boolean released;
+
+    private PooledContext( LdapContext context ) {
+      this.context = context;
+    }
+
+    @Override
+    public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+      String methodName = method.getName();
+      if( "close".equals( methodName ) && method.getParameterTypes().length == 0 ) {
+        synchronized( this ) {
+          if( released ) {
+            return null;
+          }
+          released = true;
+        }
+        release( context, broken );
+        return null;
+      } else if( "equals".equals( methodName ) && method.getParameterTypes().length == 1 ) {
+        return proxy == args[ 0 ];
+      } else if( "hashCode".equals( methodName ) && method.getParameterTypes().length == 0 ) {
+        return System.identityHashCode( proxy );
+      }
+      synchronized( this ) {
+        if( released ) {
+          throw new NamingException( "LDAP context has been returned to pool " + name );
+        }
+      }
+      try {
+        return method.invoke( context, args );
+      } catch( InvocationTargetException e ) {
+        Throwable cause = e.getCause();
+        if( cause instanceof CommunicationException || cause instanceof ServiceUnavailableException ) {
+          broken = true;
+        }
+        throw cause;
+      }
+    }
+
+  }
+
+}
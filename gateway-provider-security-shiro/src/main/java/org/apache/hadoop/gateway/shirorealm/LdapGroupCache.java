@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.shirorealm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.naming.NamingException;
+
+import org.apache.hadoop.gateway.util.ExpiringCache;
+
+/**
+ * A cache of the groups of users looked up in a directory.
+ * <p>
+ * The caches are shared by all realms that search the same directory in the same way, so the sessions of all
+ * topologies using the same LDAP server benefit from each other's lookups.  Entries are used until their time
+ * to live has passed.  Once half of that time has passed the next use of an entry reloads it in the background
+ * so active users do not wait for a group search.  Users without any groups are cached as well but for a
+ * separate, usually shorter, time.  A shared cache is dropped once every realm using it has released it.
+ */
+class LdapGroupCache {
+
+  /**
+   * Looks up the groups of a user in the directory.
+   */
+  interface Loader {
+    Set<String> load( String userName ) throws NamingException;
+  }
+
+  private static final Map<String,LdapGroupCache> CACHES = new HashMap<String,LdapGroupCache>();
+  private static Executor refreshExecutor;
+
+  private final ExpiringCache<String,Entry> cache;
+  private final long timeToLive;
+  private final long negativeTimeToLive;
+  private final Executor executor;
+  // Guarded by the class lock and only used for shared caches.
+  private String key;
+  private int references;
+
+  LdapGroupCache( int maxEntries, long timeToLive, long negativeTimeToLive, Executor executor ) {
+    this.cache = new ExpiringCache<String,Entry>( maxEntries );
+    this.timeToLive = timeToLive;
+    this.negativeTimeToLive = negativeTimeToLive;
+    this.executor = executor;
+  }
+
+  /**
+   * Returns the cache shared by all realms with the same directory key, creating it if required.
+   * The key must identify both the directory and how groups are searched in it.  Each call must be matched
+   * by a call to {@link #release} once the caller no longer uses the cache.
+   */
+  static synchronized LdapGroupCache getInstance( String directoryKey, int maxEntries, long timeToLive, long negativeTimeToLive ) {
+    String key = directoryKey + "|" + maxEntries + "|" + timeToLive + "|" + negativeTimeToLive;
+    LdapGroupCache cache = CACHES.get( key );
+    if( cache == null ) {
+      cache = new LdapGroupCache( maxEntries, timeToLive, negativeTimeToLive, getRefreshExecutor() );
+      cache.key = key;
+      CACHES.put( key, cache );
+    }
+    cache.references++;
+    return cache;
+  }
+
+  /**
+   * Releases a cache returned by {@link #getInstance}.  The cache is dropped when its last user releases it.
+   */
+  static synchronized void release( LdapGroupCache cache ) {
+    if( cache.key != null && --cache.references == 0 ) {
+      CACHES.remove( cache.key );
+      cache.key = null;
+      cache.clear();
+    }
+  }
+
+  static synchronized int getInstanceCount() {
+    return CACHES.size();
+  }
+
+  /**
+   * Returns the groups of the user, loading them if they are not cached or have expired.
+   */
+  Set<String> get( String userName, Loader loader ) throws NamingException {
+    long now = System.currentTimeMillis();
+    Entry entry = cache.get( userName, now );
+    if( entry == null ) {
+      return load( userName, loader );
+    }
+    if( entry.refreshAt - now <= 0 && entry.refreshing.compareAndSet( false, true ) ) {
+      refresh( userName, loader );
+    }
+    return entry.groups;
+  }
+
+  void invalidate( String userName ) {
+    cache.remove( userName );
+  }
+
+  void clear() {
+    cache.clear();
+  }
+
+  long getHitCount() {
+    return cache.getHitCount();
+  }
+
+  long getMissCount() {
+    return cache.getMissCount();
+  }
+
+  private Set<String> load( String userName, Loader loader ) throws NamingException {
+    Set<String> groups = Collections.unmodifiableSet( new HashSet<String>( loader.load( userName ) ) );
+    long now = System.currentTimeMillis();
+    long ttl = groups.isEmpty() ? negativeTimeToLive : timeToLive;
+    if( ttl > 0 ) {
+      cache.put( userName, new Entry( groups, now + ttl / 2 ), now + ttl, now );
+    }
+    return groups;
+  }
+
+  private void refresh( final String userName, final Loader loader ) {
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          load( userName, loader );
+        } catch( NamingException e ) {
+          // Keep the current entry until it expires; the next use after that searches again.
+        } catch( RuntimeException e ) {
+          // As above.
+        }
+      }
+    };
+    // If the refresh queue is full the task is discarded and the entry is reloaded once it expires.
+    executor.execute( task );
+  }
+
+  private static Executor getRefreshExecutor() {
+    if( refreshExecutor == null ) {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor( 2, 2, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>( 1024 ), new ThreadFactory() {
+            @Override
+            public Thread newThread( Runnable runnable ) {
+              Thread thread = new Thread( runnable, "ldap-group-refresh" );
+              thread.setDaemon( true );
+              return thread;
+            }
+          }, new ThreadPoolExecutor.DiscardPolicy() );
+      executor.allowCoreThreadTimeOut( true );
+      refreshExecutor = executor;
+    }
+    return refreshExecutor;
+  }
+
+  private static final class Entry {
+
+    private final Set<String> groups;
+    private final long refreshAt;
+    private final AtomicBoolean refreshing = new AtomicBoolean( false );
+
+    private Entry( Set<String> groups, long refreshAt ) {
+      this.groups = groups;
+      this.refreshAt = refreshAt;
+    }
+
+  }
+
+}
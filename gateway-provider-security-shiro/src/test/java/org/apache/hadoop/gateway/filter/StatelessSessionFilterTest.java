@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.filter;
+
+import java.io.IOException;
+import java.security.AccessController;
+import java.security.Principal;
+import java.util.EnumSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.security.auth.Subject;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.hadoop.gateway.security.PrimaryPrincipal;
+import org.apache.hadoop.gateway.services.GatewayServices;
+import org.apache.hadoop.gateway.services.security.AliasService;
+import org.apache.shiro.web.env.EnvironmentLoader;
+import org.apache.shiro.web.env.EnvironmentLoaderListener;
+import org.apache.shiro.web.servlet.ShiroFilter;
+import org.easymock.EasyMock;
+import org.eclipse.jetty.testing.HttpTester;
+import org.eclipse.jetty.testing.ServletTester;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class StatelessSessionFilterTest {
+
+  private static final Pattern SESSION_COOKIE = Pattern.compile( StatelessSessionFilter.DEFAULT_COOKIE_NAME + "=([^;\r\n]+)" );
+
+  private ServletTester server;
+  private String lastResponse;
+
+  @Before
+  public void setUp() throws Exception {
+    AliasService aliasService = EasyMock.createNiceMock( AliasService.class );
+    EasyMock.expect( aliasService.getPasswordFromAliasForCluster( "sandbox", StatelessSessionFilter.DEFAULT_SECRET_ALIAS, true ) )
+        .andReturn( "session-secret".toCharArray() ).anyTimes();
+    GatewayServices services = EasyMock.createNiceMock( GatewayServices.class );
+    EasyMock.expect( services.getService( GatewayServices.ALIAS_SERVICE ) ).andReturn( aliasService ).anyTimes();
+    EasyMock.replay( aliasService, services );
+
+    server = new ServletTester();
+    server.setContextPath( "/" );
+    server.getContext().setAttribute( GatewayServices.GATEWAY_SERVICES_ATTRIBUTE, services );
+    server.getContext().setAttribute( GatewayServices.GATEWAY_CLUSTER_ATTRIBUTE, "sandbox" );
+    server.getContext().setInitParameter( EnvironmentLoader.CONFIG_LOCATIONS_PARAM,
+        "classpath:" + StatelessSessionFilterTest.class.getName().replace( '.', '/' ) + "/shiro.ini" );
+    server.getContext().addEventListener( new EnvironmentLoaderListener() );
+    server.addFilter( StatelessSessionFilter.class, "/*", EnumSet.of( DispatcherType.REQUEST ) );
+    server.addFilter( ShiroFilter.class, "/*", EnumSet.of( DispatcherType.REQUEST ) );
+    server.addFilter( ShiroSubjectIdentityAdapter.class, "/*", EnumSet.of( DispatcherType.REQUEST ) );
+    server.addServlet( EchoServlet.class, "/" );
+    server.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop();
+  }
+
+  @Test
+  public void testCookieUserLackingRoleIsRejected() throws Exception {
+    String cookie = login( "guest", "guest-password" );
+
+    HttpTester response = get( "/resource", cookie, null );
+    assertEquals( 200, response.getStatus() );
+    assertEquals( "guest", principal( response ) );
+
+    // the cookie authenticates but shiro still authorizes the request, shiro 1.2 rejects with a 401
+    assertEquals( 401, get( "/admin/resource", cookie, null ).getStatus() );
+
+    String adminCookie = login( "admin", "admin-password" );
+    response = get( "/admin/resource", adminCookie, null );
+    assertEquals( 200, response.getStatus() );
+    assertEquals( "admin", principal( response ) );
+  }
+
+  @Test
+  public void testInvalidCookieIsNotAccepted() throws Exception {
+    String cookie = login( "guest", "guest-password" );
+    String forged = cookie.substring( 0, cookie.indexOf( '.' ) ) + ".AAAA";
+    assertEquals( 401, get( "/resource", forged, null ).getStatus() );
+    assertEquals( 401, get( "/resource", "garbage", null ).getStatus() );
+  }
+
+  @Test
+  public void testSessionCookieIsNotDispatched() throws Exception {
+    String cookie = login( "guest", "guest-password" );
+    HttpTester request = request( "/resource", null );
+    request.setHeader( "Cookie", "other=1; " + StatelessSessionFilter.DEFAULT_COOKIE_NAME + "=" + cookie + "; more=2" );
+    HttpTester response = new HttpTester();
+    response.parse( server.getResponses( request.generate() ) );
+    assertEquals( 200, response.getStatus() );
+    assertEquals( "guest\nother=1; more=2\n2", response.getContent() );
+
+    response = get( "/resource", cookie, null );
+    assertEquals( "guest\nnull\n0", response.getContent() );
+  }
+
+  @Test
+  public void testExplicitCredentialsTakePrecedence() throws Exception {
+    String cookie = login( "guest", "guest-password" );
+
+    HttpTester response = get( "/admin/resource", cookie, basic( "admin", "admin-password" ) );
+    assertEquals( 200, response.getStatus() );
+    assertEquals( "admin", principal( response ) );
+    assertNotNull( sessionCookie() );
+
+    assertEquals( 401, get( "/resource", cookie, basic( "guest", "wrong-password" ) ).getStatus() );
+  }
+
+  private String login( String user, String password ) throws Exception {
+    HttpTester response = get( "/resource", null, basic( user, password ) );
+    assertEquals( 200, response.getStatus() );
+    assertEquals( user, principal( response ) );
+    String cookie = sessionCookie();
+    assertNotNull( "No session cookie issued", cookie );
+    return cookie;
+  }
+
+  private HttpTester get( String uri, String cookie, String authorization ) throws Exception {
+    HttpTester request = request( uri, authorization );
+    if( cookie != null ) {
+      request.setHeader( "Cookie", StatelessSessionFilter.DEFAULT_COOKIE_NAME + "=" + cookie );
+    }
+    lastResponse = server.getResponses( request.generate() );
+    HttpTester response = new HttpTester();
+    response.parse( lastResponse );
+    return response;
+  }
+
+  private static HttpTester request( String uri, String authorization ) {
+    HttpTester request = new HttpTester();
+    request.setMethod( "GET" );
+    request.setURI( uri );
+    request.setVersion( "HTTP/1.1" );
+    request.setHeader( "Host", "localhost" );
+    if( authorization != null ) {
+      request.setHeader( "Authorization", authorization );
+    }
+    return request;
+  }
+
+  private static String basic( String user, String password ) throws Exception {
+    return "Basic " + Base64.encodeBase64String( ( user + ":" + password ).getBytes( "UTF-8" ) ).trim();
+  }
+
+  private static String principal( HttpTester response ) {
+    return response.getContent().split( "\n" )[ 0 ];
+  }
+
+  // the response may also set the container's session cookie so the raw response is searched
+  private String sessionCookie() {
+    Matcher matcher = SESSION_COOKIE.matcher( lastResponse );
+    return matcher.find() ? matcher.group( 1 ) : null;
+  }
+
+  /**
+   * Stands in for the dispatch, returns the principal of the request, the cookies it would send to the service
+   * and how many cookies it sees.
+   */
+  public static class EchoServlet extends HttpServlet {
+
+    @Override
+    protected void doGet( HttpServletRequest request, HttpServletResponse response ) throws IOException {
+      Subject subject = Subject.getSubject( AccessController.getContext() );
+      String name = null;
+      for( Principal principal : subject.getPrincipals( PrimaryPrincipal.class ) ) {
+        name = principal.getName();
+      }
+      response.setContentType( "text/plain" );
+      response.getWriter().print( name + "\n" + request.getHeader( "Cookie" ) + "\n"
+          + ( request.getCookies() == null ? 0 : request.getCookies().length ) );
+    }
+
+  }
+
+}
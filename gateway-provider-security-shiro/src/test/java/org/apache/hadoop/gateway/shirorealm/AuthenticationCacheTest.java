@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.shirorealm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AuthenticationCacheTest {
+
+  @Test
+  public void testVerifySamePassword() {
+    AuthenticationCache cache = new AuthenticationCache( 16, 60000 );
+    assertFalse( cache.verify( "guest", "guest-password".toCharArray() ) );
+    cache.put( "guest", "guest-password".toCharArray() );
+    assertTrue( cache.verify( "guest", "guest-password".toCharArray() ) );
+    assertFalse( cache.verify( "guest", "wrong-password".toCharArray() ) );
+    assertFalse( cache.verify( "admin", "guest-password".toCharArray() ) );
+    assertEquals( 1, cache.getHitCount() );
+    assertEquals( 3, cache.getMissCount() );
+  }
+
+  @Test
+  public void testInvalidate() {
+    AuthenticationCache cache = new AuthenticationCache( 16, 60000 );
+    cache.put( "guest", "guest-password".toCharArray() );
+    cache.invalidate( "guest" );
+    assertFalse( cache.verify( "guest", "guest-password".toCharArray() ) );
+  }
+
+  @Test
+  public void testNewPasswordReplacesOld() {
+    AuthenticationCache cache = new AuthenticationCache( 16, 60000 );
+    cache.put( "guest", "old-password".toCharArray() );
+    cache.put( "guest", "new-password".toCharArray() );
+    assertFalse( cache.verify( "guest", "old-password".toCharArray() ) );
+    assertTrue( cache.verify( "guest", "new-password".toCharArray() ) );
+  }
+
+  @Test
+  public void testExpiry() throws InterruptedException {
+    AuthenticationCache cache = new AuthenticationCache( 16, 50 );
+    cache.put( "guest", "guest-password".toCharArray() );
+    assertTrue( cache.verify( "guest", "guest-password".toCharArray() ) );
+    Thread.sleep( 100 );
+    assertFalse( cache.verify( "guest", "guest-password".toCharArray() ) );
+  }
+
+}
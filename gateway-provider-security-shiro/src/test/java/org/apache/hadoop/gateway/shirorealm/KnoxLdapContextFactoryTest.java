@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.shirorealm;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import javax.naming.AuthenticationException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.Attributes;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.directory.server.protocol.shared.transport.Transport;
+import org.apache.hadoop.gateway.security.ldap.SimpleLdapDirectoryServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class KnoxLdapContextFactoryTest {
+
+  private static final String GUEST_DN = "uid=guest,ou=people,dc=hadoop,dc=apache,dc=org";
+
+  private static int port;
+  private static SimpleLdapDirectoryServer ldap;
+
+  @BeforeClass
+  public static void setupSuite() throws Exception {
+    port = findFreePort();
+    // the default users come from the gateway-test-ldap jar so they have to be copied to a file
+    File ldif = File.createTempFile( "users", ".ldif" );
+    ldif.deleteOnExit();
+    FileUtils.copyURLToFile( ClassLoader.getSystemResource( "users.ldif" ), ldif );
+    ldap = new SimpleLdapDirectoryServer(
+        "dc=hadoop,dc=apache,dc=org",
+        ldif,
+        new Transport[]{ new TcpTransport( port ) } );
+    ldap.start();
+  }
+
+  @AfterClass
+  public static void cleanupSuite() throws Exception {
+    if( ldap != null ) {
+      ldap.stop( true );
+    }
+  }
+
+  private static int findFreePort() throws IOException {
+    ServerSocket socket = new ServerSocket( 0 );
+    int port = socket.getLocalPort();
+    socket.close();
+    return port;
+  }
+
+  @Test
+  public void testPooledContexts() throws Exception {
+    KnoxLdapContextFactory factory = new KnoxLdapContextFactory();
+    factory.setUrl( "ldap://localhost:" + port );
+    factory.setSystemUsername( GUEST_DN );
+    factory.setSystemPassword( "guest-password" );
+    factory.setPooled( true );
+    factory.setSystemPoolMaxSize( 2 );
+    factory.setUserPoolMaxSize( 2 );
+    factory.setPoolMaxWait( 100 );
+    try {
+      for( int i = 0; i < 5; i++ ) {
+        LdapContext context = factory.getSystemLdapContext();
+        Attributes attributes = context.getAttributes( GUEST_DN, new String[]{ "uid" } );
+        assertEquals( "guest", attributes.get( "uid" ).get() );
+        context.close();
+      }
+
+      for( int i = 0; i < 5; i++ ) {
+        factory.getLdapContext( (Object)GUEST_DN, "guest-password" ).close();
+      }
+
+      try {
+        factory.getLdapContext( (Object)GUEST_DN, "wrong-password" );
+        fail( "Expected AuthenticationException" );
+      } catch( AuthenticationException e ) {
+        // expected
+      }
+      // a failed bind must not affect later logins
+      factory.getLdapContext( (Object)GUEST_DN, "guest-password" ).close();
+
+      // more concurrent contexts than the pool allows wait and then fail
+      LdapContext one = factory.getSystemLdapContext();
+      LdapContext two = factory.getSystemLdapContext();
+      try {
+        factory.getSystemLdapContext();
+        fail( "Expected the system pool to be exhausted" );
+      } catch( ServiceUnavailableException e ) {
+        // expected
+      }
+      one.close();
+      two.close();
+    } finally {
+      factory.destroy();
+    }
+  }
+
+}
@@ -19,11 +19,153 @@
 
 package org.apache.hadoop.gateway.shirorealm;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.directory.server.protocol.shared.transport.Transport;
+import org.apache.hadoop.gateway.security.ldap.SimpleLdapDirectoryServer;
+import org.apache.hadoop.test.TestUtils;
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
 public class KnoxLdapRealmTest {
-  
+
+  private static final String GUEST_DN = "uid=guest,ou=people,dc=hadoop,dc=apache,dc=org";
+
+  private static int port;
+  private static SimpleLdapDirectoryServer ldap;
+
+  private KnoxLdapContextFactory contextFactory;
+
+  @BeforeClass
+  public static void setupSuite() throws Exception {
+    port = findFreePort();
+    ldap = new SimpleLdapDirectoryServer(
+        "dc=hadoop,dc=apache,dc=org",
+        new File( TestUtils.getResourceUrl( KnoxLdapRealmTest.class, "users.ldif" ).toURI() ),
+        new Transport[]{ new TcpTransport( port ) } );
+    ldap.start();
+  }
+
+  @AfterClass
+  public static void cleanupSuite() throws Exception {
+    if( ldap != null ) {
+      ldap.stop( true );
+    }
+  }
+
+  @After
+  public void cleanup() {
+    ThreadContext.remove();
+    if( contextFactory != null ) {
+      contextFactory.destroy();
+      contextFactory = null;
+    }
+  }
+
+  private static int findFreePort() throws IOException {
+    ServerSocket socket = new ServerSocket( 0 );
+    int port = socket.getLocalPort();
+    socket.close();
+    return port;
+  }
+
+  private KnoxLdapRealm createRealm(String groupSearchMode) {
+    contextFactory = new KnoxLdapContextFactory();
+    contextFactory.setUrl("ldap://localhost:" + port);
+    contextFactory.setSystemUsername(GUEST_DN);
+    contextFactory.setSystemPassword("guest-password");
+    KnoxLdapRealm realm = new KnoxLdapRealm();
+    realm.setContextFactory(contextFactory);
+    realm.setUserDnTemplate("uid={0},ou=people,dc=hadoop,dc=apache,dc=org");
+    realm.setSearchBase("ou=groups,dc=hadoop,dc=apache,dc=org");
+    realm.setMemberAttributeValueTemplate("uid={0},ou=people,dc=hadoop,dc=apache,dc=org");
+    realm.setAuthorizationEnabled(true);
+    realm.setGroupSearchMode(groupSearchMode);
+    // the group cache is opt in so every lookup goes to the directory
+    assertEquals(0, realm.getGroupCacheTimeToLive());
+    // the realm keeps the roles in the session of the current subject
+    ThreadContext.bind(new DefaultSecurityManager(realm));
+    return realm;
+  }
+
+  private static Set<String> rolesOf(KnoxLdapRealm realm, String user) throws Exception {
+    AuthorizationInfo info = realm.queryForAuthorizationInfo(
+        new SimplePrincipalCollection(user, realm.getName()), realm.getContextFactory());
+    Collection<String> roles = info.getRoles();
+    return roles == null ? new HashSet<String>() : new HashSet<String>(roles);
+  }
+
+  private static Set<String> set(String... values) {
+    return new HashSet<String>(Arrays.asList(values));
+  }
+
+  @Test
+  public void testEnumerateGroupRoles() throws Exception {
+    KnoxLdapRealm realm = createRealm(KnoxLdapRealm.GROUP_SEARCH_MODE_ENUMERATE);
+    assertEquals(set("analyst", "scientist"), rolesOf(realm, "sam"));
+    assertEquals(set("analyst"), rolesOf(realm, "tom"));
+    assertEquals(set(), rolesOf(realm, "guest"));
+  }
+
+  @Test
+  public void testFilterGroupRoles() throws Exception {
+    KnoxLdapRealm realm = createRealm(KnoxLdapRealm.GROUP_SEARCH_MODE_FILTER);
+    assertEquals(set("analyst", "scientist"), rolesOf(realm, "sam"));
+    assertEquals(set("analyst"), rolesOf(realm, "tom"));
+    assertEquals(set(), rolesOf(realm, "guest"));
+  }
+
+  @Test
+  public void testMemberOfGroupRoles() throws Exception {
+    KnoxLdapRealm realm = createRealm(KnoxLdapRealm.GROUP_SEARCH_MODE_MEMBER_OF);
+    // see users.ldif, the group DNs are kept in seeAlso
+    realm.setMemberOfAttribute("seeAlso");
+    assertEquals(set("analyst", "scientist"), rolesOf(realm, "sam"));
+    assertEquals(set("analyst"), rolesOf(realm, "tom"));
+    assertEquals(set(), rolesOf(realm, "guest"));
+  }
+
+  @Test
+  public void testFilterGroupsSpanningSeveralPages() throws Exception {
+    KnoxLdapRealm realm = createRealm(KnoxLdapRealm.GROUP_SEARCH_MODE_FILTER);
+    realm.setGroupSearchPageSize(2);
+    assertEquals(set("team1", "team2", "team3", "team4", "team5"), rolesOf(realm, "pat"));
+    assertEquals(set("analyst", "scientist"), rolesOf(realm, "sam"));
+  }
+
+  @Test
+  public void testEnumeratedGroupsSpanningSeveralPages() throws Exception {
+    KnoxLdapRealm realm = createRealm(KnoxLdapRealm.GROUP_SEARCH_MODE_ENUMERATE);
+    realm.setGroupSearchPageSize(2);
+    assertEquals(set("team1", "team2", "team3", "team4", "team5"), rolesOf(realm, "pat"));
+    assertEquals(set("analyst", "scientist"), rolesOf(realm, "sam"));
+  }
+
+  @Test
+  public void testGroupCacheReleasedWhenDestroyed() throws Exception {
+    int count = LdapGroupCache.getInstanceCount();
+    KnoxLdapRealm realm = createRealm(KnoxLdapRealm.GROUP_SEARCH_MODE_FILTER);
+    realm.setGroupCacheTimeToLive(60000);
+    assertEquals(set("analyst"), rolesOf(realm, "tom"));
+    assertEquals(count + 1, LdapGroupCache.getInstanceCount());
+    realm.destroy();
+    assertEquals(count, LdapGroupCache.getInstanceCount());
+  }
+
   @Test
   public void setGetSearchBase() {
     KnoxLdapRealm realm = new KnoxLdapRealm();
@@ -44,6 +186,30 @@ public class KnoxLdapRealmTest {
     realm.setMemberAttribute("member");
     assertEquals(realm.getMemberAttribute(), "member");
   }
+
+  @Test
+  public void setGetGroupSearchMode() {
+    KnoxLdapRealm realm = new KnoxLdapRealm();
+    assertEquals(realm.getGroupSearchMode(), KnoxLdapRealm.GROUP_SEARCH_MODE_ENUMERATE);
+    realm.setGroupSearchMode("filter");
+    assertEquals(realm.getGroupSearchMode(), "filter");
+    realm.setGroupSearchMode("memberOf");
+    assertEquals(realm.getGroupSearchMode(), "memberOf");
+    try {
+      realm.setGroupSearchMode("unknown");
+      fail("Expected an unknown group search mode to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void setGetDynamicGroupObjectClass() {
+    KnoxLdapRealm realm = new KnoxLdapRealm();
+    assertNull(realm.getDynamicGroupObjectClass());
+    realm.setDynamicGroupObjectClass("groupOfUrls");
+    assertEquals(realm.getDynamicGroupObjectClass(), "groupOfUrls");
+  }
   
   
 }
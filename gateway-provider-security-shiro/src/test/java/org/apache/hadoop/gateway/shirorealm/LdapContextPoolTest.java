@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.shirorealm;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.LdapContext;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class LdapContextPoolTest {
+
+  /**
+   * Creates fake contexts that count the operations performed on them.
+   */
+  private static class FakeConnector implements LdapContextPool.Connector {
+    private final AtomicInteger connects = new AtomicInteger();
+    private final AtomicInteger binds = new AtomicInteger();
+    private final AtomicInteger closes = new AtomicInteger();
+    private volatile boolean failing;
+
+    @Override
+    public LdapContext connect( Hashtable<?,?> env ) throws NamingException {
+      connects.incrementAndGet();
+      final Hashtable<Object,Object> environment = new Hashtable<Object,Object>( env );
+      return (LdapContext)Proxy.newProxyInstance( LdapContext.class.getClassLoader(), new Class<?>[]{ LdapContext.class },
+          new InvocationHandler() {
+            @Override
+            public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+              String name = method.getName();
+              if( failing && !"close".equals( name ) ) {
+                throw new CommunicationException( "connection lost" );
+              }
+              if( "addToEnvironment".equals( name ) ) {
+                return environment.put( args[ 0 ], args[ 1 ] );
+              } else if( "removeFromEnvironment".equals( name ) ) {
+                return environment.remove( args[ 0 ] );
+              } else if( "reconnect".equals( name ) ) {
+                binds.incrementAndGet();
+                if( "wrong".equals( environment.get( Context.SECURITY_CREDENTIALS ) ) ) {
+                  throw new AuthenticationException( "invalid credentials" );
+                }
+                return null;
+              } else if( "getAttributes".equals( name ) ) {
+                return new BasicAttributes();
+              } else if( "close".equals( name ) ) {
+                closes.incrementAndGet();
+                return null;
+              }
+              return null;
+            }
+          } );
+    }
+  }
+
+  private static Hashtable<String,String> env( String user, String password ) {
+    Hashtable<String,String> env = new Hashtable<String,String>();
+    env.put( Context.SECURITY_AUTHENTICATION, "simple" );
+    env.put( Context.SECURITY_PRINCIPAL, user );
+    env.put( Context.SECURITY_CREDENTIALS, password );
+    return env;
+  }
+
+  @Test
+  public void testContextsReused() throws NamingException {
+    FakeConnector connector = new FakeConnector();
+    LdapContextPool pool = new LdapContextPool( "test", connector, false, 4, 0, 60000, 1000 );
+    for( int i = 0; i < 10; i++ ) {
+      LdapContext context = pool.borrow( env( "system", "password" ) );
+      context.close();
+      context.close();
+    }
+    assertEquals( 1, connector.connects.get() );
+    assertEquals( 0, connector.closes.get() );
+    assertEquals( 1, pool.getIdleCount() );
+    pool.close();
+    assertEquals( 1, connector.closes.get() );
+    assertEquals( 0, pool.getOpenCount() );
+  }
+
+  @Test
+  public void testUserContextsRebound() throws NamingException {
+    FakeConnector connector = new FakeConnector();
+    LdapContextPool pool = new LdapContextPool( "test", connector, true, 4, 0, 60000, 1000 );
+    pool.borrow( env( "guest", "guest-password" ) ).close();
+    pool.borrow( env( "admin", "admin-password" ) ).close();
+    assertEquals( 1, connector.connects.get() );
+    assertEquals( 1, connector.binds.get() );
+    try {
+      pool.borrow( env( "guest", "wrong" ) );
+      fail( "Expected invalid credentials to fail" );
+    } catch( AuthenticationException e ) {
+      // expected
+    }
+    assertEquals( 0, pool.getOpenCount() );
+    assertEquals( 1, connector.closes.get() );
+  }
+
+  @Test
+  public void testBrokenContextsDiscarded() throws NamingException {
+    FakeConnector connector = new FakeConnector();
+    LdapContextPool pool = new LdapContextPool( "test", connector, false, 4, 0, 0, 1000 );
+    LdapContext context = pool.borrow( env( "system", "password" ) );
+    connector.failing = true;
+    try {
+      context.getAttributes( "" );
+      fail( "Expected a communication failure" );
+    } catch( CommunicationException e ) {
+      // expected
+    }
+    context.close();
+    assertEquals( 0, pool.getOpenCount() );
+    assertEquals( 1, connector.closes.get() );
+
+    connector.failing = false;
+    pool.borrow( env( "system", "password" ) ).close();
+    assertEquals( 2, connector.connects.get() );
+    // an idle context that fails validation is replaced by a new one
+    connector.failing = true;
+    LdapContext replacement = pool.borrow( env( "system", "password" ) );
+    assertEquals( 3, connector.connects.get() );
+    assertEquals( 2, connector.closes.get() );
+    assertEquals( 1, pool.getOpenCount() );
+    connector.failing = false;
+    replacement.close();
+    assertEquals( 1, pool.getIdleCount() );
+  }
+
+  @Test
+  public void testMaxSize() throws NamingException {
+    FakeConnector connector = new FakeConnector();
+    LdapContextPool pool = new LdapContextPool( "test", connector, false, 2, 0, 60000, 50 );
+    LdapContext one = pool.borrow( env( "system", "password" ) );
+    LdapContext two = pool.borrow( env( "system", "password" ) );
+    try {
+      pool.borrow( env( "system", "password" ) );
+      fail( "Expected the pool to be exhausted" );
+    } catch( ServiceUnavailableException e ) {
+      // expected
+    }
+    one.close();
+    pool.borrow( env( "system", "password" ) ).close();
+    two.close();
+    assertEquals( 2, connector.connects.get() );
+  }
+
+  @Test
+  public void testIdleContextsEvicted() throws Exception {
+    FakeConnector connector = new FakeConnector();
+    LdapContextPool pool = new LdapContextPool( "test", connector, false, 4, 20, 60000, 1000 );
+    pool.borrow( env( "system", "password" ) ).close();
+    Thread.sleep( 50 );
+    pool.evict();
+    assertEquals( 0, pool.getIdleCount() );
+    assertEquals( 0, pool.getOpenCount() );
+    assertEquals( 1, connector.closes.get() );
+    pool.close();
+  }
+
+}
@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.shirorealm;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LdapGroupCacheTest {
+
+  private static final Executor SAME_THREAD = new Executor() {
+    @Override
+    public void execute( Runnable command ) {
+      command.run();
+    }
+  };
+
+  private static class CountingLoader implements LdapGroupCache.Loader {
+    private final AtomicInteger loads = new AtomicInteger();
+    private volatile Set<String> groups;
+    CountingLoader( String... groups ) {
+      this.groups = new HashSet<String>();
+      Collections.addAll( this.groups, groups );
+    }
+    @Override
+    public Set<String> load( String userName ) throws NamingException {
+      loads.incrementAndGet();
+      return groups;
+    }
+  }
+
+  @Test
+  public void testGroupsCached() throws NamingException {
+    LdapGroupCache cache = new LdapGroupCache( 16, 60000, 60000, SAME_THREAD );
+    CountingLoader loader = new CountingLoader( "admin", "analyst" );
+    for( int i = 0; i < 10; i++ ) {
+      assertEquals( 2, cache.get( "guest", loader ).size() );
+    }
+    assertEquals( 1, loader.loads.get() );
+    assertEquals( 9, cache.getHitCount() );
+    assertEquals( 1, cache.getMissCount() );
+    cache.invalidate( "guest" );
+    cache.get( "guest", loader );
+    assertEquals( 2, loader.loads.get() );
+  }
+
+  @Test
+  public void testNegativeCaching() throws NamingException {
+    LdapGroupCache cache = new LdapGroupCache( 16, 60000, 60000, SAME_THREAD );
+    CountingLoader loader = new CountingLoader();
+    assertTrue( cache.get( "nobody", loader ).isEmpty() );
+    assertTrue( cache.get( "nobody", loader ).isEmpty() );
+    assertEquals( 1, loader.loads.get() );
+
+    cache = new LdapGroupCache( 16, 60000, 0, SAME_THREAD );
+    cache.get( "nobody", loader );
+    cache.get( "nobody", loader );
+    assertEquals( 3, loader.loads.get() );
+  }
+
+  @Test
+  public void testBackgroundRefresh() throws Exception {
+    LdapGroupCache cache = new LdapGroupCache( 16, 200, 200, SAME_THREAD );
+    CountingLoader loader = new CountingLoader( "admin" );
+    cache.get( "guest", loader );
+    Thread.sleep( 120 );
+    loader.groups = Collections.singleton( "analyst" );
+    // Past half of the time to live the cached groups are returned and refreshed.
+    assertEquals( Collections.singleton( "admin" ), cache.get( "guest", loader ) );
+    assertEquals( 2, loader.loads.get() );
+    assertEquals( Collections.singleton( "analyst" ), cache.get( "guest", loader ) );
+    assertEquals( 2, loader.loads.get() );
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    LdapGroupCache cache = new LdapGroupCache( 16, 20, 20, SAME_THREAD );
+    CountingLoader loader = new CountingLoader( "admin" );
+    cache.get( "guest", loader );
+    Thread.sleep( 50 );
+    cache.get( "guest", loader );
+    assertEquals( 2, loader.loads.get() );
+  }
+
+  @Test
+  public void testSharedByDirectory() {
+    LdapGroupCache one = LdapGroupCache.getInstance( "ldap://localhost:33389|groups", 100, 1000, 1000 );
+    LdapGroupCache two = LdapGroupCache.getInstance( "ldap://localhost:33389|groups", 100, 1000, 1000 );
+    LdapGroupCache three = LdapGroupCache.getInstance( "ldap://otherhost:33389|groups", 100, 1000, 1000 );
+    assertTrue( one == two );
+    assertTrue( one != three );
+    LdapGroupCache.release( one );
+    LdapGroupCache.release( two );
+    LdapGroupCache.release( three );
+  }
+
+  @Test
+  public void testDroppedWhenReleasedByAllUsers() throws Exception {
+    int count = LdapGroupCache.getInstanceCount();
+    LdapGroupCache one = LdapGroupCache.getInstance( "ldap://releasehost:33389|groups", 100, 1000, 1000 );
+    LdapGroupCache two = LdapGroupCache.getInstance( "ldap://releasehost:33389|groups", 100, 1000, 1000 );
+    assertEquals( count + 1, LdapGroupCache.getInstanceCount() );
+    CountingLoader loader = new CountingLoader( "admin" );
+    one.get( "guest", loader );
+
+    LdapGroupCache.release( one );
+    assertEquals( count + 1, LdapGroupCache.getInstanceCount() );
+    two.get( "guest", loader );
+    assertEquals( 1, loader.loads.get() );
+
+    LdapGroupCache.release( two );
+    assertEquals( count, LdapGroupCache.getInstanceCount() );
+    LdapGroupCache three = LdapGroupCache.getInstance( "ldap://releasehost:33389|groups", 100, 1000, 1000 );
+    assertTrue( three != one );
+    LdapGroupCache.release( three );
+  }
+
+}
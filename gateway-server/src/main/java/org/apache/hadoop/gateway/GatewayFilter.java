@@ -24,6 +24,7 @@ import org.apache.hadoop.gateway.audit.api.AuditService;
 import org.apache.hadoop.gateway.audit.api.AuditServiceFactory;
 import org.apache.hadoop.gateway.audit.api.Auditor;
 import org.apache.hadoop.gateway.audit.api.CorrelationContext;
+import org.apache.hadoop.gateway.audit.api.CorrelationService;
 import org.apache.hadoop.gateway.audit.api.CorrelationServiceFactory;
 import org.apache.hadoop.gateway.audit.api.ResourceType;
 import org.apache.hadoop.gateway.audit.log4j.audit.AuditConstants;
@@ -33,6 +34,7 @@ import org.apache.hadoop.gateway.i18n.resources.ResourcesFactory;
 import org.apache.hadoop.gateway.util.urltemplate.Matcher;
 import org.apache.hadoop.gateway.util.urltemplate.Parser;
 import org.apache.hadoop.gateway.util.urltemplate.Template;
+import org.apache.hadoop.gateway.util.urltemplate.TemplateCache;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -53,18 +55,14 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
 
 /**
  *
  */
 public class GatewayFilter implements Filter {
 
-  private static final FilterChain EMPTY_CHAIN = new FilterChain() {
-    public void doFilter( ServletRequest servletRequest, ServletResponse servletResponse ) throws IOException, ServletException {
-    }
-  };
-  
+  public static final String FILTER_TIMER_PARAM = "filterTimer";
+
   private static final GatewayMessages LOG = MessagesFactory.get( GatewayMessages.class );
   private static final GatewayResources RES = ResourcesFactory.get( GatewayResources.class );
   private static AuditService auditService = AuditServiceFactory.getAuditService();
@@ -73,17 +71,49 @@ public class GatewayFilter implements Filter {
       AuditConstants.KNOX_COMPONENT_NAME );
 
   private Set<Holder> holders;
+  private List<Chain> chainList;
   private Matcher<Chain> chains;
   private FilterConfig config;
+  private volatile FilterTimer timer;
 
   public GatewayFilter() {
     holders = new HashSet<Holder>();
+    chainList = new ArrayList<Chain>();
     chains = new Matcher<Chain>();
   }
 
   @Override
   public void init( FilterConfig filterConfig ) throws ServletException {
     this.config = filterConfig;
+    chains.compile();
+    String timerClass = filterConfig.getInitParameter( FILTER_TIMER_PARAM );
+    if( timerClass != null && timer == null ) {
+      timer = createTimer( timerClass );
+    }
+    for( Chain chain : chainList ) {
+      chain.compile();
+    }
+  }
+
+  public FilterTimer getFilterTimer() {
+    return timer;
+  }
+
+  public void setFilterTimer( FilterTimer timer ) {
+    this.timer = timer;
+  }
+
+  private static FilterTimer createTimer( String className ) {
+    try {
+      ClassLoader loader = Thread.currentThread().getContextClassLoader();
+      if( loader == null ) {
+        loader = GatewayFilter.class.getClassLoader();
+      }
+      return (FilterTimer)loader.loadClass( className ).newInstance();
+    } catch( Exception e ) {
+      LOG.failedToCreateFilterTimer( className, e );
+      return null;
+    }
   }
 
   @Override
@@ -102,7 +132,7 @@ public class GatewayFilter implements Filter {
 
     Template pathTemplate;
     try {
-      pathTemplate = Parser.parse( path );
+      pathTemplate = TemplateCache.getDefault().parse( path );
     } catch( URISyntaxException e ) {
       throw new ServletException( e );
     }
@@ -159,6 +189,9 @@ public class GatewayFilter implements Filter {
 
   @Override
   public void destroy() {
+    for( Chain chain : chainList ) {
+      chain.reset();
+    }
     for( Holder holder : holders ) {
       holder.destroy();
     }
@@ -171,8 +204,10 @@ public class GatewayFilter implements Filter {
       chain = new Chain();
       chain.setResourceRole( holder.getResourceRole() );
       chains.add( holder.template, chain );
+      chainList.add( chain );
     }
     chain.chain.add( holder );
+    chain.reset();
   }
 
   public void addFilter( String path, String name, Filter filter, Map<String,String> params, String resourceRole ) throws URISyntaxException {
@@ -191,35 +226,52 @@ public class GatewayFilter implements Filter {
   }
   
   private void assignCorrelationRequestId() {
-    CorrelationContext correlationContext = CorrelationServiceFactory.getCorrelationService().createContext();
-    correlationContext.setRequestId( UUID.randomUUID().toString() );
+    CorrelationService correlationService = CorrelationServiceFactory.getCorrelationService();
+    CorrelationContext correlationContext = correlationService.createContext();
+    correlationContext.setRequestId( correlationService.createRequestId() );
   }
 
   private class Chain implements FilterChain {
 
     private List<Holder> chain;
     private String resourceRole; 
+    private volatile Compiled compiled;
 
     private Chain() {
       this.chain = new ArrayList<Holder>();
     }
 
-    private Chain( List<Holder> chain ) {
-      this.chain = chain;
-    }
-
     public void doFilter( ServletRequest servletRequest, ServletResponse servletResponse ) throws IOException, ServletException {
-      if( chain != null && !chain.isEmpty() ) {
-        chain.get( 0 ).doFilter( servletRequest, servletResponse, subChain() );
+      Compiled c = compiled;
+      if( c == null ) {
+        c = compile();
+      }
+      if( c.filters.length > 0 ) {
+        new Cursor( c, resourceRole ).doFilter( servletRequest, servletResponse );
       }
     }
 
-    private FilterChain subChain() {
-      if( chain != null && chain.size() > 1 ) {
-        return new Chain( chain.subList( 1, chain.size() ) );
-      } else {
-        return EMPTY_CHAIN;
+    // Resolves each holder to its initialized filter so that requests don't go through the holders.
+    // A filter that fails to initialize is left behind its holder, which tries to initialize it again on each
+    // request until it succeeds.
+    private synchronized Compiled compile() {
+      Compiled c = compiled;
+      if( c == null ) {
+        Filter[] filters = new Filter[ chain.size() ];
+        String[] names = new String[ chain.size() ];
+        for( int i = 0; i < filters.length; i++ ) {
+          Holder holder = chain.get( i );
+          filters[ i ] = holder.getInitializedInstance();
+          names[ i ] = holder.getFilterName();
+        }
+        c = new Compiled( filters, names );
+        compiled = c;
       }
+      return c;
+    }
+
+    private synchronized void reset() {
+      compiled = null;
     }
 
     private String getResourceRole() {
@@ -232,6 +284,52 @@ public class GatewayFilter implements Filter {
 
   }
 
+  private static class Compiled {
+
+    private final Filter[] filters;
+    private final String[] names;
+
+    private Compiled( Filter[] filters, String[] names ) {
+      this.filters = filters;
+      this.names = names;
+    }
+
+  }
+
+  // Walks a compiled chain for a single request.  The position is restored when a filter returns so that a filter
+  // invoking the rest of the chain more than once sees the same filters each time.
+  private class Cursor implements FilterChain {
+
+    private final Compiled chain;
+    private final String resourceRole;
+    private int position;
+
+    private Cursor( Compiled chain, String resourceRole ) {
+      this.chain = chain;
+      this.resourceRole = resourceRole;
+      this.position = 0;
+    }
+
+    public void doFilter( ServletRequest servletRequest, ServletResponse servletResponse ) throws IOException, ServletException {
+      int index = position;
+      Filter[] filters = chain.filters;
+      if( index < filters.length ) {
+        FilterTimer t = timer;
+        long start = ( t == null ) ? 0 : System.nanoTime();
+        position = index + 1;
+        try {
+          filters[ index ].doFilter( servletRequest, servletResponse, this );
+        } finally {
+          position = index;
+          if( t != null ) {
+            t.filterCompleted( resourceRole, chain.names[ index ], System.nanoTime() - start );
+          }
+        }
+      }
+    }
+
+  }
+
   private class Holder implements Filter, FilterConfig {
 //    private String path;
     private Template template;
@@ -332,14 +430,26 @@ public class GatewayFilter implements Filter {
       return clazz;
     }
 
-    private Filter getInstance() throws ServletException {
+    private Filter getInitializedInstance() {
+      try {
+        return getInstance();
+      } catch( ServletException e ) {
+        LOG.failedToInitializeFilter( name, e );
+        return this;
+      }
+    }
+
+    // Synchronized since a holder left in a compiled chain may be initializing its filter for concurrent requests.
+    private synchronized Filter getInstance() throws ServletException {
       if( instance == null ) {
         try {
           if( clazz == null ) {
             clazz = getClazz();
           }
-          instance = clazz.newInstance();
-          instance.init( this );
+          // Only keep the instance once it has initialized so that a failure is retried.
+          Filter filter = clazz.newInstance();
+          filter.init( this );
+          instance = filter;
         } catch( Exception e ) {
           throw new ServletException( e );
         }
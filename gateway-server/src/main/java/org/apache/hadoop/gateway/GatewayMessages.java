@@ -270,9 +270,21 @@ public interface GatewayMessages {
   @Message( level = MessageLevel.DEBUG, text = "Dispatch response status: {0}, Location: {1}" )
   void dispatchResponseCreatedStatusCode( int statusCode, String location );
 
+  @Message( level = MessageLevel.DEBUG, text = "Created dispatch connection pool {0} with max total connections {1} and max connections per route {2}" )
+  void createdDispatchConnectionPool( String name, int maxTotal, int maxPerRoute );
+
+  @Message( level = MessageLevel.DEBUG, text = "Shutdown dispatch connection pool {0}" )
+  void shutdownDispatchConnectionPool( String name );
+
   @Message( level = MessageLevel.ERROR, text = "Failed to decrypt cipher text for cluster {0}: due to inability to retrieve the password." )
   void failedToDecryptCipherForClusterNullPassword(String clusterName);
 
+  @Message( level = MessageLevel.WARN, text = "Failed to decrypt token for cluster {0}: unknown key id {1}." )
+  void unknownTokenKeyForCluster( String clusterName, int keyId );
+
+  @Message( level = MessageLevel.WARN, text = "Failed to decrypt token for cluster {0}: not a token." )
+  void notATokenForCluster( String clusterName );
+
   @Message( level = MessageLevel.DEBUG, text = "Gateway services have not been initialized." )
   void gatewayServicesNotInitialized();
 
@@ -297,4 +309,10 @@ public interface GatewayMessages {
 
   @Message( level = MessageLevel.WARN, text = "Failed to match path {0}" )
   void failedToMatchPath( String path );
+
+  @Message( level = MessageLevel.WARN, text = "Failed to initialize filter {0} when deployed, it will be initialized on first use: {1}" )
+  void failedToInitializeFilter( String name, @StackTrace( level = MessageLevel.DEBUG ) Exception e );
+
+  @Message( level = MessageLevel.ERROR, text = "Failed to create filter timer {0}: {1}" )
+  void failedToCreateFilterTimer( String className, @StackTrace( level = MessageLevel.DEBUG ) Exception e );
 }
@@ -19,8 +19,11 @@ package org.apache.hadoop.gateway;
 
 import org.apache.hadoop.gateway.audit.api.Action;
 import org.apache.hadoop.gateway.audit.api.ActionOutcome;
+import org.apache.hadoop.gateway.audit.api.AuditContext;
 import org.apache.hadoop.gateway.audit.api.AuditServiceFactory;
 import org.apache.hadoop.gateway.audit.api.Auditor;
+import org.apache.hadoop.gateway.audit.api.CorrelationContext;
+import org.apache.hadoop.gateway.audit.api.CorrelationServiceFactory;
 import org.apache.hadoop.gateway.audit.api.ResourceType;
 import org.apache.hadoop.gateway.audit.log4j.audit.AuditConstants;
 import org.apache.hadoop.gateway.descriptor.GatewayDescriptor;
@@ -30,6 +33,8 @@ import org.apache.hadoop.gateway.i18n.messages.MessagesFactory;
 import org.apache.hadoop.gateway.i18n.resources.ResourcesFactory;
 import org.apache.hadoop.gateway.services.GatewayServices;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.Filter;
 import javax.servlet.FilterConfig;
 import javax.servlet.Servlet;
@@ -126,8 +131,13 @@ public class GatewayServlet implements Servlet {
       ((HttpServletResponse)servletResponse).setStatus( HttpServletResponse.SC_SERVICE_UNAVAILABLE );
     }
     String requestUri = (String)servletRequest.getAttribute( AbstractGatewayFilter.SOURCE_REQUEST_CONTEXT_URL_ATTRIBUTE_NAME );
-    int status = ((HttpServletResponse)servletResponse).getStatus();
-    auditor.audit( Action.ACCESS, requestUri, ResourceType.URI, ActionOutcome.SUCCESS, res.responseStatus( status ) );
+    if( servletRequest.isAsyncStarted() ) {
+      // The response status isn't known until an async dispatch completes.
+      servletRequest.getAsyncContext().addListener( new AsyncAccessAuditListener( requestUri ) );
+    } else {
+      int status = ((HttpServletResponse)servletResponse).getStatus();
+      auditor.audit( Action.ACCESS, requestUri, ResourceType.URI, ActionOutcome.SUCCESS, res.responseStatus( status ) );
+    }
   }
 
   @Override
@@ -172,6 +182,41 @@ public class GatewayServlet implements Servlet {
     return filter;
   }
 
+  private static class AsyncAccessAuditListener implements AsyncListener {
+
+    private String requestUri;
+    private CorrelationContext correlationContext;
+    private AuditContext auditContext;
+
+    private AsyncAccessAuditListener( String requestUri ) {
+      this.requestUri = requestUri;
+      this.correlationContext = CorrelationServiceFactory.getCorrelationService().getContext();
+      this.auditContext = AuditServiceFactory.getAuditService().getContext();
+    }
+
+    @Override
+    public void onComplete( AsyncEvent event ) throws IOException {
+      int status = ((HttpServletResponse)event.getSuppliedResponse()).getStatus();
+      auditor.audit( correlationContext, auditContext, Action.ACCESS, requestUri, ResourceType.URI,
+          ActionOutcome.SUCCESS, res.responseStatus( status ) );
+    }
+
+    @Override
+    public void onTimeout( AsyncEvent event ) throws IOException {
+    }
+
+    @Override
+    public void onError( AsyncEvent event ) throws IOException {
+      auditor.audit( correlationContext, auditContext, Action.ACCESS, requestUri, ResourceType.URI,
+          ActionOutcome.FAILURE, null );
+    }
+
+    @Override
+    public void onStartAsync( AsyncEvent event ) throws IOException {
+    }
+
+  }
+
   private class FilterConfigAdapter implements FilterConfig {
 
     private ServletConfig config;
@@ -312,5 +312,10 @@ public class GatewayConfigImpl extends Configuration implements GatewayConfig {
   public String getKerberosLoginConfig() {
     return get( KRB5_LOGIN_CONFIG );
   }
+
+  @Override
+  public String getFilterTimer() {
+    return get( FILTER_TIMER );
+  }
   
 }
@@ -19,6 +19,7 @@ package org.apache.hadoop.gateway.deploy;
 
 import org.apache.hadoop.gateway.GatewayMessages;
 import org.apache.hadoop.gateway.GatewayResources;
+import org.apache.hadoop.gateway.GatewayFilter;
 import org.apache.hadoop.gateway.GatewayServlet;
 import org.apache.hadoop.gateway.config.GatewayConfig;
 import org.apache.hadoop.gateway.descriptor.GatewayDescriptor;
@@ -178,7 +179,8 @@ public abstract class DeploymentFactory {
     WebAppDescriptor wad = context.getWebAppDescriptor();
     String servletName = context.getTopology().getName();
     String servletClass = GatewayServlet.class.getName();
-    wad.createServlet().servletName( servletName ).servletClass( servletClass );
+    // Async support allows dispatches to release the container thread while waiting on the backend.
+    wad.createServlet().servletName( servletName ).servletClass( servletClass ).asyncSupported( true );
     wad.createServletMapping().servletName( servletName ).urlPattern( "/*" );
     if (gatewayServices != null) {
       gatewayServices.initializeContribution(context);
@@ -317,6 +319,14 @@ public abstract class DeploymentFactory {
           .paramName( GatewayServlet.GATEWAY_DESCRIPTOR_LOCATION_PARAM )
           .paramValue( GatewayServlet.GATEWAY_DESCRIPTOR_LOCATION_DEFAULT );
 
+      // Pass the optional filter timer on to the gateway filter which reads the servlet's init params.
+      String filterTimer = context.getGatewayConfig().getFilterTimer();
+      if( filterTimer != null ) {
+        servlet.createInitParam()
+            .paramName( GatewayFilter.FILTER_TIMER_PARAM )
+            .paramValue( filterTimer );
+      }
+
       if (gatewayServices != null) {
         gatewayServices.finalizeContribution(context);
       }
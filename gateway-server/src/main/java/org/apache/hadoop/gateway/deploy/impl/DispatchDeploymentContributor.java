@@ -22,12 +22,16 @@ import org.apache.hadoop.gateway.deploy.ProviderDeploymentContributorBase;
 import org.apache.hadoop.gateway.descriptor.FilterDescriptor;
 import org.apache.hadoop.gateway.descriptor.FilterParamDescriptor;
 import org.apache.hadoop.gateway.descriptor.ResourceDescriptor;
+import org.apache.hadoop.gateway.dispatch.AsyncHttpClientDispatch;
 import org.apache.hadoop.gateway.dispatch.HttpClientDispatch;
+import org.apache.hadoop.gateway.dispatch.HttpClientPool;
 import org.apache.hadoop.gateway.topology.Provider;
 import org.apache.hadoop.gateway.topology.Service;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 public class DispatchDeploymentContributor extends ProviderDeploymentContributorBase {
   
@@ -36,6 +40,25 @@ public class DispatchDeploymentContributor extends ProviderDeploymentContributor
   // Default global replay buffer size in KB
   public static final String DEFAULT_REPLAY_BUFFER_SIZE = "4";
 
+  // Setting this provider param to true selects the non-blocking dispatch.
+  public static final String ASYNC_PARAM = "async";
+
+  private static final List<String> CONNECTION_POOL_PARAMS = Arrays.asList(
+      HttpClientPool.MAX_TOTAL_CONNECTIONS_PARAM,
+      HttpClientPool.MAX_CONNECTIONS_PER_ROUTE_PARAM,
+      HttpClientPool.IDLE_CONNECTION_TIMEOUT_PARAM );
+
+  private static final List<String> ASYNC_PARAMS = createAsyncParams();
+
+  private static List<String> createAsyncParams() {
+    List<String> names = new ArrayList<String>( CONNECTION_POOL_PARAMS );
+    names.add( AsyncHttpClientDispatch.ASYNC_TIMEOUT_PARAM );
+    names.add( AsyncHttpClientDispatch.MAX_CONNECTIONS_PER_ADDRESS_PARAM );
+    names.add( AsyncHttpClientDispatch.PIPE_CAPACITY_PARAM );
+    names.add( AsyncHttpClientDispatch.REQUEST_BUFFER_SIZE_PARAM );
+    return names;
+  }
+
   @Override
   public String getRole() {
     return "dispatch";
@@ -57,11 +80,32 @@ public class DispatchDeploymentContributor extends ProviderDeploymentContributor
         }
       }
     }
-    FilterDescriptor filter = resource.addFilter().name( getName() ).role( getRole() ).impl( HttpClientDispatch.class );
+    boolean async = provider.getParams() != null && "true".equalsIgnoreCase( provider.getParams().get( ASYNC_PARAM ) );
+    FilterDescriptor filter = resource.addFilter().name( getName() ).role( getRole() )
+        .impl( async ? AsyncHttpClientDispatch.class : HttpClientDispatch.class );
     filter.param().name("replayBufferSize").value(replayBufferSize);
+    contributeProviderParams( filter, provider, service, async ? ASYNC_PARAMS : CONNECTION_POOL_PARAMS );
     if( context.getGatewayConfig().isHadoopKerberosSecured() ) {
       filter.param().name("kerberos").value("true");
     }
   }
 
+  // All of the dispatch filters of a service share one connection pool configured from the provider params.
+  static void contributeConnectionPoolParams( FilterDescriptor filter, Provider provider, Service service ) {
+    contributeProviderParams( filter, provider, service, CONNECTION_POOL_PARAMS );
+  }
+
+  private static void contributeProviderParams( FilterDescriptor filter, Provider provider, Service service, List<String> names ) {
+    filter.param().name( HttpClientPool.SERVICE_ROLE_PARAM ).value( service.getRole() );
+    Map<String,String> providerParams = provider.getParams();
+    if( providerParams != null ) {
+      for( String name : names ) {
+        String value = providerParams.get( name );
+        if( value != null ) {
+          filter.param().name( name ).value( value );
+        }
+      }
+    }
+  }
+
 }
@@ -19,6 +19,7 @@ package org.apache.hadoop.gateway.deploy.impl;
 
 import org.apache.hadoop.gateway.deploy.DeploymentContext;
 import org.apache.hadoop.gateway.deploy.ProviderDeploymentContributorBase;
+import org.apache.hadoop.gateway.descriptor.FilterDescriptor;
 import org.apache.hadoop.gateway.descriptor.FilterParamDescriptor;
 import org.apache.hadoop.gateway.descriptor.ResourceDescriptor;
 import org.apache.hadoop.gateway.dispatch.HdfsDispatch;
@@ -41,7 +42,8 @@ public class WebHdfsDispatchDeploymentContributor extends ProviderDeploymentCont
 
   @Override
   public void contributeFilter( DeploymentContext context, Provider provider, Service service, ResourceDescriptor resource, List<FilterParamDescriptor> params ) {
-    resource.addFilter().role( getRole() ).name( getName() ).impl( HdfsDispatch.class );
+    FilterDescriptor filter = resource.addFilter().role( getRole() ).name( getName() ).impl( HdfsDispatch.class );
+    DispatchDeploymentContributor.contributeConnectionPoolParams( filter, provider, service );
   }
 
 }
@@ -41,6 +41,7 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpOptions;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.params.AuthPolicy;
+import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.impl.auth.SPNegoSchemeFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
 
@@ -64,6 +65,8 @@ public class AppCookieManager {
 
   String appCookie;
 
+  private ClientConnectionManager connectionManager;
+
   /**
    * Utility method to excerise AppCookieManager directly
    * @param args element 0 of args should be a URL to hadoop service protected by SPengo
@@ -75,6 +78,15 @@ public class AppCookieManager {
   }
 
   public AppCookieManager() {
+    this( null );
+  }
+
+  /**
+   * @param connectionManager
+   *          the pooled connection manager shared with the dispatch, may be null
+   */
+  public AppCookieManager(ClientConnectionManager connectionManager) {
+    this.connectionManager = connectionManager;
   }
 
   /**
@@ -102,7 +114,8 @@ public class AppCookieManager {
       }
     }
 
-    DefaultHttpClient client = new DefaultHttpClient();
+    DefaultHttpClient client = connectionManager == null
+        ? new DefaultHttpClient() : new DefaultHttpClient(connectionManager);
     SPNegoSchemeFactory spNegoSF = new SPNegoSchemeFactory(
     /* stripPort */true);
     // spNegoSF.setSpengoGenerator(new BouncySpnegoTokenGenerator());
@@ -0,0 +1,507 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.dispatch;
+
+import org.apache.hadoop.gateway.GatewayMessages;
+import org.apache.hadoop.gateway.GatewayResources;
+import org.apache.hadoop.gateway.audit.api.Action;
+import org.apache.hadoop.gateway.audit.api.ActionOutcome;
+import org.apache.hadoop.gateway.audit.api.AuditContext;
+import org.apache.hadoop.gateway.audit.api.AuditService;
+import org.apache.hadoop.gateway.audit.api.AuditServiceFactory;
+import org.apache.hadoop.gateway.audit.api.Auditor;
+import org.apache.hadoop.gateway.audit.api.CorrelationContext;
+import org.apache.hadoop.gateway.audit.api.CorrelationService;
+import org.apache.hadoop.gateway.audit.api.CorrelationServiceFactory;
+import org.apache.hadoop.gateway.audit.api.ResourceType;
+import org.apache.hadoop.gateway.audit.log4j.audit.AuditConstants;
+import org.apache.hadoop.gateway.config.GatewayConfig;
+import org.apache.hadoop.gateway.i18n.messages.MessagesFactory;
+import org.apache.hadoop.gateway.i18n.resources.ResourcesFactory;
+import org.apache.hadoop.gateway.security.SubjectUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.InputStreamEntity;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpExchange;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import javax.security.auth.Subject;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A dispatch that releases the container thread while the backend service is processing the request.
+ * The request is sent via a non-blocking Jetty client and the servlet request is put into async mode.
+ * Once the backend response headers arrive the response is streamed back to the client on a container thread
+ * so that the response rewrite filters continue to work unchanged.  Servlet 3.0 has no non-blocking output so
+ * that thread is held with blocking writes until the whole response has been sent; only the time spent waiting
+ * for the backend to respond is freed.
+ * <p>
+ * Content received from the backend is handed to the streaming thread through a pipe holding up to
+ * {@link #PIPE_CAPACITY_PARAM} bytes.  While the pipe is full the client thread of the exchange stops reading
+ * from the backend, so a slow client throttles the backend rather than failing the request.
+ * <p>
+ * The request body is read on the container thread before the request is sent, so the client threads never
+ * block on a slow upload.  Bodies larger than {@link #REQUEST_BUFFER_SIZE_PARAM} bytes, and requests that can't
+ * be handled asynchronously, including SPNego authenticated requests to a Kerberos secured cluster, fall back to
+ * the blocking behavior of {@link HttpClientDispatch}.
+ */
+public class AsyncHttpClientDispatch extends HttpClientDispatch {
+
+  public static final String ASYNC_TIMEOUT_PARAM = "asyncTimeout";
+  public static final String MAX_CONNECTIONS_PER_ADDRESS_PARAM = "maxConnectionsPerAddress";
+  public static final String PIPE_CAPACITY_PARAM = "pipeCapacity";
+  public static final String REQUEST_BUFFER_SIZE_PARAM = "requestBufferSize";
+
+  private static final long DEFAULT_ASYNC_TIMEOUT = 5 * 60 * 1000; // 5 minutes
+  private static final int DEFAULT_MAX_CONNECTIONS_PER_ADDRESS = 1024;
+  private static final int DEFAULT_PIPE_CAPACITY = 8 * 1024 * 1024; // 8 MB
+  private static final int DEFAULT_REQUEST_BUFFER_SIZE = 256 * 1024; // 256 KB
+
+  private static final String SET_COOKIE = "Set-Cookie";
+  private static final String WWW_AUTHENTICATE = "WWW-Authenticate";
+  private static final String CONTENT_LENGTH = "Content-Length";
+  private static final String TRANSFER_ENCODING = "Transfer-Encoding";
+  private static final String CLIENT_ATTRIBUTE_NAME = AsyncHttpClientDispatch.class.getName() + ".client";
+
+  private static GatewayMessages LOG = MessagesFactory.get( GatewayMessages.class );
+  private static GatewayResources RES = ResourcesFactory.get( GatewayResources.class );
+  private static AuditService auditService = AuditServiceFactory.getAuditService();
+  private static CorrelationService correlationService = CorrelationServiceFactory.getCorrelationService();
+  private static Auditor auditor = auditService.getAuditor( AuditConstants.DEFAULT_AUDITOR_NAME,
+      AuditConstants.KNOX_SERVICE_NAME, AuditConstants.KNOX_COMPONENT_NAME );
+
+  private SharedClient sharedClient;
+  private long asyncTimeout = DEFAULT_ASYNC_TIMEOUT;
+  private int pipeCapacity = DEFAULT_PIPE_CAPACITY;
+  private int requestBufferSize = DEFAULT_REQUEST_BUFFER_SIZE;
+
+  @Override
+  public void init( FilterConfig filterConfig ) throws ServletException {
+    super.init( filterConfig );
+    String value = filterConfig.getInitParameter( ASYNC_TIMEOUT_PARAM );
+    if( value != null ) {
+      asyncTimeout = Long.parseLong( value.trim() );
+    }
+    value = filterConfig.getInitParameter( PIPE_CAPACITY_PARAM );
+    if( value != null ) {
+      pipeCapacity = Integer.parseInt( value.trim() );
+    }
+    value = filterConfig.getInitParameter( REQUEST_BUFFER_SIZE_PARAM );
+    if( value != null ) {
+      requestBufferSize = Integer.parseInt( value.trim() );
+    }
+    sharedClient = SharedClient.acquire( filterConfig );
+  }
+
+  @Override
+  public void destroy() {
+    if( sharedClient != null ) {
+      sharedClient.release();
+      sharedClient = null;
+    }
+    super.destroy();
+  }
+
+  @Override
+  protected void executeRequest(
+      HttpUriRequest outboundRequest,
+      HttpServletRequest inboundRequest,
+      HttpServletResponse outboundResponse )
+      throws IOException {
+    if( sharedClient == null
+        || !inboundRequest.isAsyncSupported()
+        || "true".equals( System.getProperty( GatewayConfig.HADOOP_KERBEROS_SECURED ) ) ) {
+      super.executeRequest( outboundRequest, inboundRequest, outboundResponse );
+    } else {
+      executeAsyncRequest( outboundRequest, inboundRequest, outboundResponse );
+    }
+  }
+
+  private void executeAsyncRequest(
+      HttpUriRequest outboundRequest,
+      HttpServletRequest inboundRequest,
+      HttpServletResponse outboundResponse )
+      throws IOException {
+    HttpEntity entity = null;
+    ByteArrayOutputStream content = null;
+    if( outboundRequest instanceof HttpEntityEnclosingRequest ) {
+      HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest)outboundRequest;
+      entity = enclosingRequest.getEntity();
+      if( entity != null ) {
+        InputStream stream = entity.getContent();
+        content = new ByteArrayOutputStream();
+        if( !bufferContent( stream, content, requestBufferSize ) ) {
+          // Too large to hold in memory so send it with the blocking dispatch, starting with what was already read.
+          InputStreamEntity remaining = new InputStreamEntity(
+              new SequenceInputStream( new ByteArrayInputStream( content.toByteArray() ), stream ),
+              entity.getContentLength() );
+          remaining.setContentType( entity.getContentType() );
+          remaining.setChunked( entity.isChunked() );
+          enclosingRequest.setEntity( remaining );
+          super.executeRequest( outboundRequest, inboundRequest, outboundResponse );
+          return;
+        }
+      }
+    }
+
+    LOG.dispatchRequest( outboundRequest.getMethod(), outboundRequest.getURI() );
+
+    AsyncExchange exchange = new AsyncExchange( sharedClient.client, outboundRequest, inboundRequest, outboundResponse );
+    exchange.setMethod( outboundRequest.getMethod() );
+    exchange.setURL( outboundRequest.getURI().toString() );
+    for( Header header : outboundRequest.getAllHeaders() ) {
+      if( entity != null && header.getName().equalsIgnoreCase( TRANSFER_ENCODING ) ) {
+        continue;
+      }
+      exchange.addRequestHeader( header.getName(), header.getValue() );
+    }
+    if( entity != null ) {
+      // The whole body has been read so the length is known even if the client sent it chunked.
+      exchange.setRequestHeader( CONTENT_LENGTH, Integer.toString( content.size() ) );
+      if( entity.getContentType() != null ) {
+        exchange.setRequestHeader( entity.getContentType().getName(), entity.getContentType().getValue() );
+      }
+      exchange.setRequestContent( new ByteArrayBuffer( content.toByteArray() ) );
+    }
+
+    // The timeout bounds the wait for the backend to respond.  It is cancelled once the response headers arrive
+    // so that a long download to a slow client isn't cut short, which is why the container timeout is disabled.
+    exchange.setTimeout( asyncTimeout );
+    AsyncContext asyncContext = inboundRequest.startAsync( inboundRequest, outboundResponse );
+    asyncContext.setTimeout( 0 );
+    asyncContext.addListener( exchange );
+    exchange.asyncContext = asyncContext;
+    try {
+      sharedClient.client.send( exchange );
+    } catch( IOException e ) {
+      exchange.onConnectionFailed( e );
+    }
+  }
+
+  // Reads the stream into the buffer.  Returns false without reading any further once more than limit bytes have been read.
+  private static boolean bufferContent( InputStream stream, ByteArrayOutputStream buffer, int limit ) throws IOException {
+    byte[] bytes = new byte[ 4096 ];
+    while( buffer.size() <= limit ) {
+      int count = stream.read( bytes, 0, Math.min( bytes.length, limit + 1 - buffer.size() ) );
+      if( count < 0 ) {
+        return true;
+      }
+      buffer.write( bytes, 0, count );
+    }
+    return false;
+  }
+
+  private class AsyncExchange extends HttpExchange implements AsyncListener {
+
+    private final HttpClient client;
+    private final HttpUriRequest outboundRequest;
+    private final HttpServletRequest inboundRequest;
+    private final HttpServletResponse outboundResponse;
+    private final CorrelationContext correlationContext;
+    private final AuditContext auditContext;
+    private final List<String[]> headers = new ArrayList<String[]>();
+    private final ResponseContentPipe pipe = new ResponseContentPipe( pipeCapacity );
+    private final AtomicBoolean responded = new AtomicBoolean( false );
+    private final AtomicBoolean completed = new AtomicBoolean( false );
+    private final Subject subject;
+    private AsyncContext asyncContext;
+    private int statusCode;
+
+    private AsyncExchange( HttpClient client, HttpUriRequest outboundRequest, HttpServletRequest inboundRequest, HttpServletResponse outboundResponse ) {
+      this.client = client;
+      this.outboundRequest = outboundRequest;
+      this.inboundRequest = inboundRequest;
+      this.outboundResponse = outboundResponse;
+      this.correlationContext = correlationService.getContext();
+      this.auditContext = auditService.getContext();
+      this.subject = SubjectUtils.getCurrentSubject();
+    }
+
+    private String getTargetUrl() {
+      return outboundRequest.getURI().toString();
+    }
+
+    @Override
+    protected void onResponseStatus( Buffer version, int status, Buffer reason ) throws IOException {
+      statusCode = status;
+      headers.clear();
+    }
+
+    @Override
+    protected void onResponseHeader( Buffer name, Buffer value ) throws IOException {
+      headers.add( new String[]{ name.toString(), value.toString() } );
+    }
+
+    @Override
+    protected void onResponseHeaderComplete() throws IOException {
+      cancelTimeout( client );
+      LOG.dispatchResponseStatusCode( statusCode );
+      auditor.audit( correlationContext, auditContext, Action.DISPATCH, getTargetUrl(), ResourceType.URI,
+          ActionOutcome.SUCCESS, RES.responseStatus( statusCode ) );
+      if( responded.compareAndSet( false, true ) ) {
+        asyncContext.start( new Runnable() {
+          @Override
+          public void run() {
+            runInContext( new Runnable() {
+              @Override
+              public void run() {
+                streamResponse();
+              }
+            } );
+          }
+        } );
+      }
+    }
+
+    @Override
+    protected void onResponseContent( Buffer content ) throws IOException {
+      try {
+        // Waits while the pipe is full which stops this connection being read until the client catches up.
+        pipe.write( content.asArray() );
+      } catch( IOException e ) {
+        LOG.failedToExecuteFilter( e );
+        pipe.fail( e );
+        cancel();
+      }
+    }
+
+    @Override
+    protected void onResponseComplete() throws IOException {
+      pipe.finish();
+    }
+
+    @Override
+    protected void onConnectionFailed( Throwable x ) {
+      fail( x );
+    }
+
+    @Override
+    protected void onException( Throwable x ) {
+      fail( x );
+    }
+
+    @Override
+    protected void onExpire() {
+      pipe.fail( new IOException( RES.dispatchConnectionError() ) );
+      if( responded.compareAndSet( false, true ) ) {
+        auditor.audit( correlationContext, auditContext, Action.DISPATCH, getTargetUrl(), ResourceType.URI,
+            ActionOutcome.UNAVAILABLE, null );
+        sendError( HttpServletResponse.SC_GATEWAY_TIMEOUT, null );
+      }
+    }
+
+    private void fail( Throwable x ) {
+      pipe.fail( x instanceof IOException ? (IOException)x : new IOException( x ) );
+      if( responded.compareAndSet( false, true ) ) {
+        // we do not want to expose back end host. port end points to clients, see JIRA KNOX-58
+        LOG.dispatchServiceConnectionException( outboundRequest.getURI(), x instanceof Exception ? (Exception)x : new Exception( x ) );
+        auditor.audit( correlationContext, auditContext, Action.DISPATCH, getTargetUrl(), ResourceType.URI,
+            ActionOutcome.FAILURE, null );
+        sendError( HttpServletResponse.SC_INTERNAL_SERVER_ERROR, RES.dispatchConnectionError() );
+      }
+    }
+
+    private void sendError( final int status, final String message ) {
+      asyncContext.start( new Runnable() {
+        @Override
+        public void run() {
+          runInContext( new Runnable() {
+            @Override
+            public void run() {
+              try {
+                if( message == null ) {
+                  outboundResponse.sendError( status );
+                } else {
+                  outboundResponse.sendError( status, message );
+                }
+              } catch( IOException e ) {
+                LOG.failedToExecuteFilter( e );
+              } finally {
+                complete();
+              }
+            }
+          } );
+        }
+      } );
+    }
+
+    // Runs the action with the correlation, audit and security context of the request that started the exchange.
+    private void runInContext( final Runnable action ) {
+      correlationService.attachContext( correlationContext );
+      auditService.attachContext( auditContext );
+      try {
+        if( subject == null ) {
+          action.run();
+        } else {
+          Subject.doAs( subject, new PrivilegedAction<Object>() {
+            @Override
+            public Object run() {
+              action.run();
+              return null;
+            }
+          } );
+        }
+      } finally {
+        auditService.detachContext();
+        correlationService.detachContext();
+      }
+    }
+
+    // Both the streaming thread and the container's error handling may try to complete the request.
+    private void complete() {
+      if( completed.compareAndSet( false, true ) ) {
+        asyncContext.complete();
+      }
+    }
+
+    // Runs on a container thread so that the request and response wrappers are used as they would be by the blocking dispatch.
+    private void streamResponse() {
+      try {
+        outboundResponse.setStatus( statusCode );
+        for( String[] header : headers ) {
+          String name = header[ 0 ];
+          if( name.equalsIgnoreCase( SET_COOKIE ) || name.equalsIgnoreCase( WWW_AUTHENTICATE ) ) {
+            continue;
+          }
+          if( name.equalsIgnoreCase( CONTENT_LENGTH ) ) {
+            // The content may be rewritten so the length might not match.
+            continue;
+          }
+          if( name.equalsIgnoreCase( "Content-Type" ) ) {
+            outboundResponse.setContentType( header[ 1 ] );
+          } else {
+            outboundResponse.addHeader( name, header[ 1 ] );
+          }
+        }
+        writeResponse( inboundRequest, outboundResponse, pipe );
+      } catch( IOException e ) {
+        pipe.abandon();
+        cancel();
+        LOG.failedToExecuteFilter( e );
+      } finally {
+        complete();
+      }
+    }
+
+    @Override
+    public void onTimeout( AsyncEvent event ) throws IOException {
+      // The container timeout is disabled, the wait for the backend is bounded by the exchange's timeout instead.
+      onError( event );
+    }
+
+    @Override
+    public void onError( AsyncEvent event ) throws IOException {
+      cancel();
+      pipe.abandon();
+      complete();
+    }
+
+    @Override
+    public void onComplete( AsyncEvent event ) throws IOException {
+    }
+
+    @Override
+    public void onStartAsync( AsyncEvent event ) throws IOException {
+    }
+
+  }
+
+  /**
+   * The non-blocking client is shared by all of the async dispatch filters of a topology and is stopped
+   * when the last of them is destroyed.
+   */
+  private static class SharedClient {
+
+    private final ServletContext context;
+    private final HttpClient client;
+    private int references;
+
+    private SharedClient( ServletContext context, HttpClient client ) {
+      this.context = context;
+      this.client = client;
+    }
+
+    private static SharedClient acquire( FilterConfig config ) throws ServletException {
+      ServletContext context = config.getServletContext();
+      synchronized( context ) {
+        SharedClient shared = (SharedClient)context.getAttribute( CLIENT_ATTRIBUTE_NAME );
+        if( shared == null ) {
+          HttpClient client = new HttpClient();
+          client.setConnectorType( HttpClient.CONNECTOR_SELECT_CHANNEL );
+          client.setMaxConnectionsPerAddress( getIntParam( config, MAX_CONNECTIONS_PER_ADDRESS_PARAM, DEFAULT_MAX_CONNECTIONS_PER_ADDRESS ) );
+          client.setIdleTimeout( getIntParam( config, HttpClientPool.IDLE_CONNECTION_TIMEOUT_PARAM, (int)HttpClientPool.DEFAULT_IDLE_CONNECTION_TIMEOUT ) );
+          QueuedThreadPool threads = new QueuedThreadPool();
+          threads.setName( "async-dispatch" );
+          threads.setDaemon( true );
+          client.setThreadPool( threads );
+          try {
+            client.start();
+          } catch( Exception e ) {
+            throw new ServletException( e );
+          }
+          shared = new SharedClient( context, client );
+          context.setAttribute( CLIENT_ATTRIBUTE_NAME, shared );
+        }
+        shared.references++;
+        return shared;
+      }
+    }
+
+    private void release() {
+      synchronized( context ) {
+        if( --references <= 0 ) {
+          context.removeAttribute( CLIENT_ATTRIBUTE_NAME );
+          try {
+            client.stop();
+          } catch( Exception e ) {
+            LOG.failedToExecuteFilter( e );
+          }
+        }
+      }
+    }
+
+    private static int getIntParam( FilterConfig config, String name, int defaultValue ) {
+      String value = config.getInitParameter( name );
+      return value == null ? defaultValue : Integer.parseInt( value.trim() );
+    }
+
+  }
+
+}
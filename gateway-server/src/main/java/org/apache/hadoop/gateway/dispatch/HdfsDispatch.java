@@ -28,7 +28,6 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.util.EntityUtils;
 import org.eclipse.jetty.http.HttpStatus;
 
@@ -58,7 +57,7 @@ public class HdfsDispatch extends HttpClientDispatch {
     auditor.audit( Action.DISPATCH, request.getRequestURI(), ResourceType.URI, ActionOutcome.UNAVAILABLE );
     if( "CREATE".equals( request.getParameter( "op" ) ) ) {
       HttpPut clientRequest = new HttpPut( requestUri );
-      HttpClient client = new DefaultHttpClient();
+      HttpClient client = createHttpClient();
       HttpResponse clientResponse = client.execute( clientRequest );
       EntityUtils.consume( clientResponse.getEntity() );
       if( clientResponse.getStatusLine().getStatusCode() == HttpStatus.TEMPORARY_REDIRECT_307 ) {
@@ -53,6 +53,7 @@ import org.apache.http.entity.ContentType;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
 
 /**
  *
@@ -76,11 +77,13 @@ public class HttpClientDispatch extends AbstractGatewayDispatch {
           AuditConstants.KNOX_SERVICE_NAME, AuditConstants.KNOX_COMPONENT_NAME );
   private static final int DEFAULT_REPLAY_BUFFER_SIZE =  4 * 1024; // 4K
 
-  private AppCookieManager appCookieManager = new AppCookieManager();
+  private AppCookieManager appCookieManager;
   
   private static final String REPLAY_BUFFER_SIZE_PARAM = "replayBufferSize";
   
   private int replayBufferSize = 0;
+
+  private HttpClientPool clientPool;
   
   @Override
   public void init( FilterConfig filterConfig ) throws ServletException {
@@ -89,6 +92,30 @@ public class HttpClientDispatch extends AbstractGatewayDispatch {
     if ( replayBufferSizeString != null ) {
       setReplayBufferSize(Integer.valueOf(replayBufferSizeString));
     }
+    clientPool = HttpClientPool.acquire( filterConfig );
+    appCookieManager = new AppCookieManager( clientPool.getConnectionManager() );
+  }
+
+  @Override
+  public void destroy() {
+    if( clientPool != null ) {
+      clientPool.release();
+      clientPool = null;
+    }
+    super.destroy();
+  }
+
+  /**
+   * Returns a client that uses the pooled connections of the service.
+   * A dispatch that has not been initialized falls back to an unpooled client.
+   */
+  protected DefaultHttpClient createHttpClient() {
+    HttpClientPool pool = clientPool;
+    if( pool != null ) {
+      return pool.createClient();
+    } else {
+      return new DefaultHttpClient();
+    }
   }
   
   protected void executeRequest(
@@ -97,7 +124,7 @@ public class HttpClientDispatch extends AbstractGatewayDispatch {
       HttpServletResponse outboundResponse )
           throws IOException {
     LOG.dispatchRequest( outboundRequest.getMethod(), outboundRequest.getURI() );
-    DefaultHttpClient client = new DefaultHttpClient();
+    DefaultHttpClient client = createHttpClient();
 
     HttpResponse inboundResponse = null;
     try {
@@ -138,32 +165,43 @@ public class HttpClientDispatch extends AbstractGatewayDispatch {
       
     }
 
-    // Copy the client respond header to the server respond.
-    outboundResponse.setStatus( inboundResponse.getStatusLine().getStatusCode() );
-    Header[] headers = inboundResponse.getAllHeaders();
-    for( Header header : headers ) {
-      String name = header.getName();
-      if (name.equals(SET_COOKIE) || name.equals(WWW_AUTHENTICATE)) {
-        continue;
+    // The connection is returned to the pool only if the response was fully consumed.
+    // Otherwise, whatever the failure, don't drain a partially streamed response, just drop the connection.
+    boolean consumed = false;
+    try {
+      // Copy the client respond header to the server respond.
+      outboundResponse.setStatus( inboundResponse.getStatusLine().getStatusCode() );
+      Header[] headers = inboundResponse.getAllHeaders();
+      for( Header header : headers ) {
+        String name = header.getName();
+        if (name.equals(SET_COOKIE) || name.equals(WWW_AUTHENTICATE)) {
+          continue;
+        }
+        String value = header.getValue();
+        outboundResponse.addHeader( name, value );
       }
-      String value = header.getValue();
-      outboundResponse.addHeader( name, value );
-    }
 
-    HttpEntity entity = inboundResponse.getEntity();
-    if( entity != null ) {
-      Header contentType = entity.getContentType();
-      if( contentType != null ) {
-        outboundResponse.setContentType( contentType.getValue() );
-      }
+      HttpEntity entity = inboundResponse.getEntity();
+      if( entity != null ) {
+        Header contentType = entity.getContentType();
+        if( contentType != null ) {
+          outboundResponse.setContentType( contentType.getValue() );
+        }
 //KM[ If this is set here it ends up setting the content length to the content returned from the server.
 // This length might not match if the the content is rewritten.
-//      long contentLength = entity.getContentLength();
-//      if( contentLength <= Integer.MAX_VALUE ) {
-//        outboundResponse.setContentLength( (int)contentLength );
-//      }
+//        long contentLength = entity.getContentLength();
+//        if( contentLength <= Integer.MAX_VALUE ) {
+//          outboundResponse.setContentLength( (int)contentLength );
+//        }
 //]
-      writeResponse( inboundRequest, outboundResponse, entity.getContent() );
+        writeResponse( inboundRequest, outboundResponse, entity.getContent() );
+        EntityUtils.consume( entity );
+      }
+      consumed = true;
+    } finally {
+      if( !consumed ) {
+        outboundRequest.abort();
+      }
     }
   }
 
@@ -183,10 +221,11 @@ public class HttpClientDispatch extends AbstractGatewayDispatch {
       Header[] wwwAuthHeaders = inboundResponse.getHeaders(WWW_AUTHENTICATE) ;
       if (wwwAuthHeaders != null && wwwAuthHeaders.length != 0 && 
           wwwAuthHeaders[0].getValue().trim().startsWith(NEGOTIATE)) {
+        // release the connection of the rejected attempt before retrying
+        EntityUtils.consume(inboundResponse.getEntity());
         appCookie = appCookieManager.getAppCookie(outboundRequest, true);
         outboundRequest.removeHeaders(COOKIE);
         outboundRequest.addHeader(new BasicHeader(COOKIE, appCookie));
-        client = new DefaultHttpClient();
         inboundResponse = client.execute(outboundRequest);
       } else {
         // no supported authentication type found
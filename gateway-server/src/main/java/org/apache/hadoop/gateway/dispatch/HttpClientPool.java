@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.dispatch;
+
+import org.apache.hadoop.gateway.GatewayMessages;
+import org.apache.hadoop.gateway.i18n.messages.MessagesFactory;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pooled outbound connection manager shared by all of the dispatch filters of a single service
+ * within a single topology.  Each topology is deployed as its own web application so the pools are
+ * registered in the servlet context and are shut down once the last dispatch filter using them is
+ * destroyed, which happens when the topology is undeployed or redeployed.
+ */
+public class HttpClientPool {
+
+  public static final String MAX_TOTAL_CONNECTIONS_PARAM = "maxTotalConnections";
+  public static final String MAX_CONNECTIONS_PER_ROUTE_PARAM = "maxConnectionsPerRoute";
+  public static final String IDLE_CONNECTION_TIMEOUT_PARAM = "idleConnectionTimeout";
+  public static final String SERVICE_ROLE_PARAM = "serviceRole";
+
+  public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 256;
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 64;
+  public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT = 30 * 1000; // 30 seconds
+
+  private static final String REGISTRY_ATTRIBUTE_NAME = HttpClientPool.class.getName() + ".registry";
+  private static final GatewayMessages LOG = MessagesFactory.get( GatewayMessages.class );
+
+  private final Registry registry;
+  private final String name;
+  private final PoolingClientConnectionManager connectionManager;
+  private final long idleConnectionTimeout;
+  private ScheduledFuture<?> evictor;
+  private int references;
+
+  private HttpClientPool( Registry registry, String name, int maxTotal, int maxPerRoute, long idleConnectionTimeout ) {
+    this.registry = registry;
+    this.name = name;
+    this.idleConnectionTimeout = idleConnectionTimeout;
+    this.connectionManager = new PoolingClientConnectionManager();
+    this.connectionManager.setMaxTotal( maxTotal );
+    this.connectionManager.setDefaultMaxPerRoute( maxPerRoute );
+    this.references = 0;
+  }
+
+  /**
+   * Returns the pool for the service of the dispatch filter, creating it if required.
+   * Every call must be balanced by a call to {@link #release()} when the filter is destroyed.
+   * The pool limits are taken from the init parameters of the first filter to acquire the pool.
+   */
+  public static HttpClientPool acquire( FilterConfig filterConfig ) {
+    String name = filterConfig.getInitParameter( SERVICE_ROLE_PARAM );
+    if( name == null ) {
+      name = filterConfig.getFilterName();
+    }
+    ServletContext context = filterConfig.getServletContext();
+    Registry registry;
+    synchronized( context ) {
+      registry = (Registry)context.getAttribute( REGISTRY_ATTRIBUTE_NAME );
+      if( registry == null ) {
+        registry = new Registry();
+        context.setAttribute( REGISTRY_ATTRIBUTE_NAME, registry );
+      }
+    }
+    return registry.acquire( name, filterConfig );
+  }
+
+  /**
+   * Creates a new client that uses the pooled connections.
+   * Clients are cheap to create once the connection manager is shared.
+   */
+  public DefaultHttpClient createClient() {
+    return new DefaultHttpClient( connectionManager );
+  }
+
+  public ClientConnectionManager getConnectionManager() {
+    return connectionManager;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void release() {
+    registry.release( this );
+  }
+
+  private void evictConnections() {
+    connectionManager.closeExpiredConnections();
+    connectionManager.closeIdleConnections( idleConnectionTimeout, TimeUnit.MILLISECONDS );
+  }
+
+  private static int getIntParam( FilterConfig config, String name, int defaultValue ) {
+    String value = config.getInitParameter( name );
+    return value == null ? defaultValue : Integer.parseInt( value.trim() );
+  }
+
+  private static long getLongParam( FilterConfig config, String name, long defaultValue ) {
+    String value = config.getInitParameter( name );
+    return value == null ? defaultValue : Long.parseLong( value.trim() );
+  }
+
+  private static class Registry {
+
+    private final Map<String,HttpClientPool> pools = new HashMap<String,HttpClientPool>();
+    private ScheduledExecutorService evictionExecutor;
+
+    private synchronized HttpClientPool acquire( String name, FilterConfig config ) {
+      HttpClientPool pool = pools.get( name );
+      if( pool == null ) {
+        int maxTotal = getIntParam( config, MAX_TOTAL_CONNECTIONS_PARAM, DEFAULT_MAX_TOTAL_CONNECTIONS );
+        int maxPerRoute = getIntParam( config, MAX_CONNECTIONS_PER_ROUTE_PARAM, DEFAULT_MAX_CONNECTIONS_PER_ROUTE );
+        long idleTimeout = getLongParam( config, IDLE_CONNECTION_TIMEOUT_PARAM, DEFAULT_IDLE_CONNECTION_TIMEOUT );
+        pool = new HttpClientPool( this, name, maxTotal, maxPerRoute, idleTimeout );
+        if( idleTimeout > 0 ) {
+          final HttpClientPool target = pool;
+          long period = Math.max( idleTimeout / 2, 1000 );
+          pool.evictor = getEvictionExecutor().scheduleWithFixedDelay( new Runnable() {
+            @Override
+            public void run() {
+              target.evictConnections();
+            }
+          }, period, period, TimeUnit.MILLISECONDS );
+        }
+        pools.put( name, pool );
+        LOG.createdDispatchConnectionPool( name, maxTotal, maxPerRoute );
+      }
+      pool.references++;
+      return pool;
+    }
+
+    private synchronized void release( HttpClientPool pool ) {
+      if( pools.get( pool.name ) == pool && --pool.references <= 0 ) {
+        pools.remove( pool.name );
+        if( pool.evictor != null ) {
+          pool.evictor.cancel( false );
+        }
+        pool.connectionManager.shutdown();
+        LOG.shutdownDispatchConnectionPool( pool.name );
+        if( pools.isEmpty() && evictionExecutor != null ) {
+          evictionExecutor.shutdownNow();
+          evictionExecutor = null;
+        }
+      }
+    }
+
+    private ScheduledExecutorService getEvictionExecutor() {
+      if( evictionExecutor == null ) {
+        evictionExecutor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+          @Override
+          public Thread newThread( Runnable runnable ) {
+            Thread thread = new Thread( runnable, "dispatch-connection-evictor" );
+            thread.setDaemon( true );
+            return thread;
+          }
+        } );
+      }
+      return evictionExecutor;
+    }
+
+  }
+
+}
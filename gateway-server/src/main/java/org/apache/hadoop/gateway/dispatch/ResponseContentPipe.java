@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.dispatch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+
+/**
+ * Hands response content received on the async client threads over to the thread streaming the response.
+ * The content buffered in the pipe is bounded.  A write that would exceed the bound waits until the consumer
+ * has caught up, which holds up only the client thread handling the exchange's connection.  That stops reading
+ * from the backend so a slow client throttles the backend through TCP flow control instead of failing.
+ */
+class ResponseContentPipe extends InputStream {
+
+  private final Object lock = new Object();
+  private final LinkedList<byte[]> chunks = new LinkedList<byte[]>();
+  private final long capacity;
+  private long buffered;
+  private IOException failure;
+  private boolean finished;
+  private boolean abandoned;
+  private byte[] chunk;
+  private int offset;
+
+  /**
+   * @param capacity the number of content bytes buffered for the consumer before the producer has to wait
+   */
+  ResponseContentPipe( long capacity ) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Called by the producer for each chunk of content.  Waits while the pipe is full, a single chunk larger than
+   * the capacity is accepted once the pipe is empty.
+   * Content is silently discarded once the consumer has abandoned the pipe.
+   * @throws InterruptedIOException if the producer is interrupted while waiting
+   */
+  void write( byte[] bytes ) throws IOException {
+    if( bytes.length == 0 ) {
+      return;
+    }
+    synchronized( lock ) {
+      while( !abandoned && buffered > 0 && buffered + bytes.length > capacity ) {
+        try {
+          lock.wait();
+        } catch( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+      if( !abandoned ) {
+        chunks.add( bytes );
+        buffered += bytes.length;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Called by the producer once all of the content has been written.
+   */
+  void finish() {
+    synchronized( lock ) {
+      finished = true;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Called by the producer if the content can't be completed.  The consumer sees the failure once it has read
+   * the content written before.
+   */
+  void fail( IOException e ) {
+    synchronized( lock ) {
+      if( failure == null ) {
+        failure = e;
+      }
+      finished = true;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Called if the content will not be read to the end.  A consumer blocked in a read fails and a producer
+   * waiting for room is released.
+   */
+  void abandon() {
+    synchronized( lock ) {
+      abandoned = true;
+      chunks.clear();
+      buffered = 0;
+      lock.notifyAll();
+    }
+  }
+
+  private boolean fill() throws IOException {
+    if( chunk != null && offset < chunk.length ) {
+      return true;
+    }
+    chunk = null;
+    offset = 0;
+    synchronized( lock ) {
+      while( true ) {
+        if( abandoned ) {
+          throw new IOException( "Response content abandoned" );
+        }
+        if( !chunks.isEmpty() ) {
+          chunk = chunks.removeFirst();
+          buffered -= chunk.length;
+          lock.notifyAll();
+          return true;
+        }
+        if( failure != null ) {
+          throw failure;
+        }
+        if( finished ) {
+          return false;
+        }
+        try {
+          lock.wait();
+        } catch( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    if( !fill() ) {
+      return -1;
+    }
+    return chunk[ offset++ ] & 0xFF;
+  }
+
+  @Override
+  public int read( byte[] buffer, int off, int len ) throws IOException {
+    if( len == 0 ) {
+      return 0;
+    }
+    if( !fill() ) {
+      return -1;
+    }
+    int count = Math.min( len, chunk.length - offset );
+    System.arraycopy( chunk, offset, buffer, off, count );
+    offset += count;
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return chunk == null ? 0 : chunk.length - offset;
+  }
+
+  @Override
+  public void close() {
+    synchronized( lock ) {
+      if( !finished || !chunks.isEmpty() ) {
+        abandon();
+      }
+    }
+  }
+
+}
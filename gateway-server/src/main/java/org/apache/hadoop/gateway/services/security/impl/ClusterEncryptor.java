@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.services.security.impl;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.hadoop.gateway.services.security.EncryptionResult;
+
+/**
+ * Encrypts and decrypts with the keys derived from the password of one cluster alias.
+ * <p>
+ * Deriving a key from a password is deliberately expensive so the key is derived once with a salt chosen when
+ * the encryptor is created and reused for every encryption.  Tokens carry their salt so tokens encrypted
+ * before a restart or by another gateway instance are decrypted with a key derived from their own salt.
+ * Those keys are kept in a small LRU map.  Instances are thread safe.
+ */
+class ClusterEncryptor {
+
+  private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+  private static final int SALT_LENGTH = 8;
+  private static final int MAX_PEER_KEYS = 64;
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private static final ThreadLocal<Cipher> CIPHER = new ThreadLocal<Cipher>();
+
+  private final char[] password;
+  private final byte[] salt;
+  private final SecretKey key;
+  private final Map<SaltKey, SecretKey> peerKeys = new LinkedHashMap<SaltKey, SecretKey>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<SaltKey, SecretKey> eldest) {
+      return size() > MAX_PEER_KEYS;
+    }
+  };
+
+  ClusterEncryptor(char[] password) throws GeneralSecurityException {
+    this.password = password.clone();
+    this.salt = new byte[SALT_LENGTH];
+    RANDOM.nextBytes(salt);
+    this.key = deriveKey(this.password, salt);
+  }
+
+  /**
+   * Returns true if this encryptor was created for the given password.
+   * A different password means the alias was changed and a new encryptor is required.
+   */
+  boolean isFor(char[] password) {
+    return Arrays.equals(this.password, password);
+  }
+
+  EncryptionResult encrypt(byte[] clear) throws GeneralSecurityException {
+    Cipher cipher = getCipher();
+    // Initializing without parameters picks a new random IV for every message.
+    cipher.init(Cipher.ENCRYPT_MODE, key, RANDOM);
+    byte[] encrypted = cipher.doFinal(clear);
+    return new EncryptionResult(salt.clone(), cipher.getIV(), encrypted);
+  }
+
+  byte[] decrypt(byte[] salt, byte[] iv, byte[] encrypted) throws GeneralSecurityException {
+    Cipher cipher = getCipher();
+    cipher.init(Cipher.DECRYPT_MODE, getKey(salt), new IvParameterSpec(iv));
+    return cipher.doFinal(encrypted);
+  }
+
+  private SecretKey getKey(byte[] salt) throws GeneralSecurityException {
+    if (Arrays.equals(this.salt, salt)) {
+      return key;
+    }
+    SaltKey saltKey = new SaltKey(salt);
+    SecretKey peerKey;
+    synchronized (peerKeys) {
+      peerKey = peerKeys.get(saltKey);
+    }
+    if (peerKey == null) {
+      peerKey = deriveKey(password, salt);
+      synchronized (peerKeys) {
+        peerKeys.put(saltKey, peerKey);
+      }
+    }
+    return peerKey;
+  }
+
+  private static SecretKey deriveKey(char[] password, byte[] salt) throws GeneralSecurityException {
+    return new SecretKeySpec(AESEncryptor.deriveKey(password, salt).getEncoded(), "AES");
+  }
+
+  // Ciphers are not thread safe but are expensive enough to look up that each thread keeps its own.
+  private static Cipher getCipher() throws GeneralSecurityException {
+    Cipher cipher = CIPHER.get();
+    if (cipher == null) {
+      cipher = Cipher.getInstance(TRANSFORMATION);
+      CIPHER.set(cipher);
+    }
+    return cipher;
+  }
+
+  private static final class SaltKey {
+
+    private final byte[] salt;
+    private final int hash;
+
+    private SaltKey(byte[] salt) {
+      this.salt = salt.clone();
+      this.hash = Arrays.hashCode(salt);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      return object instanceof SaltKey && Arrays.equals(salt, ((SaltKey)object).salt);
+    }
+
+  }
+
+}
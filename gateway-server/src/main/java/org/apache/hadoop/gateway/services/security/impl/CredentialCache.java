@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.services.security.impl;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.gateway.util.ExpiringCache;
+
+/**
+ * A bounded cache of credentials keyed by cluster and alias.
+ * <p>
+ * Entries expire after a fixed time so that changes made to the credential stores by other processes are
+ * eventually seen.  Cached values are copied in and out so callers can not modify them, and values are zeroed
+ * once they are evicted, expire or are invalidated.
+ */
+class CredentialCache {
+
+  private final ExpiringCache<String, char[]> cache;
+  private final long timeToLive;
+
+  /**
+   * @param maxEntries the maximum number of cached credentials
+   * @param timeToLive the time in milliseconds after which an entry expires
+   */
+  CredentialCache(int maxEntries, long timeToLive) {
+    this.timeToLive = timeToLive;
+    this.cache = new ExpiringCache<String, char[]>(maxEntries) {
+      @Override
+      protected char[] copy(char[] value) {
+        return value.clone();
+      }
+      @Override
+      protected void removed(char[] value) {
+        Arrays.fill(value, '\0');
+      }
+    };
+  }
+
+  /**
+   * Returns a copy of the cached credential or null if it is not cached or has expired.
+   */
+  char[] get(String clusterName, String alias) {
+    return cache.get(key(clusterName, alias));
+  }
+
+  void put(String clusterName, String alias, char[] value) {
+    cache.put(key(clusterName, alias), value.clone(), System.currentTimeMillis() + timeToLive);
+  }
+
+  void invalidate(String clusterName, String alias) {
+    cache.remove(key(clusterName, alias));
+  }
+
+  void clear() {
+    cache.clear();
+  }
+
+  long getHitCount() {
+    return cache.getHitCount();
+  }
+
+  long getMissCount() {
+    return cache.getMissCount();
+  }
+
+  private static String key(String clusterName, String alias) {
+    return clusterName + "/" + alias;
+  }
+
+}
@@ -43,7 +43,13 @@ public class DefaultAliasService implements AliasService {
   'M', 'N', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z',
   '2', '3', '4', '5', '6', '7', '8', '9',};
 
+  public static final int DEFAULT_CREDENTIAL_CACHE_SIZE = 256;
+  public static final long DEFAULT_CREDENTIAL_CACHE_TTL = 5 * 60 * 1000; // 5 minutes
+
   private KeystoreService keystoreService;
+  private int credentialCacheSize = DEFAULT_CREDENTIAL_CACHE_SIZE;
+  private long credentialCacheTtl = DEFAULT_CREDENTIAL_CACHE_TTL;
+  private volatile CredentialCache credentialCache;
 
   @Override
   public void init(GatewayConfig config, Map<String, String> options)
@@ -56,6 +62,59 @@ public class DefaultAliasService implements AliasService {
 
   @Override
   public void stop() throws ServiceLifecycleException {
+    invalidateCredentialCache();
+  }
+
+  /**
+   * Sets the maximum number of credentials cached.  Zero disables the cache.
+   */
+  public void setCredentialCacheSize(int credentialCacheSize) {
+    this.credentialCacheSize = credentialCacheSize;
+    invalidateCredentialCache();
+  }
+
+  /**
+   * Sets the time in milliseconds a cached credential is used before it is read from the credential store again.
+   * This bounds how long a change made by another process, for example the CLI, can go unnoticed.
+   */
+  public void setCredentialCacheTtl(long credentialCacheTtl) {
+    this.credentialCacheTtl = credentialCacheTtl;
+    invalidateCredentialCache();
+  }
+
+  /**
+   * Discards and zeroes all cached credentials.
+   */
+  public void invalidateCredentialCache() {
+    CredentialCache cache = credentialCache;
+    credentialCache = null;
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+  public long getCredentialCacheHitCount() {
+    CredentialCache cache = credentialCache;
+    return cache == null ? 0 : cache.getHitCount();
+  }
+
+  public long getCredentialCacheMissCount() {
+    CredentialCache cache = credentialCache;
+    return cache == null ? 0 : cache.getMissCount();
+  }
+
+  private CredentialCache getCredentialCache() {
+    CredentialCache cache = credentialCache;
+    if (cache == null && credentialCacheSize > 0 && credentialCacheTtl > 0) {
+      synchronized (this) {
+        cache = credentialCache;
+        if (cache == null) {
+          cache = new CredentialCache(credentialCacheSize, credentialCacheTtl);
+          credentialCache = cache;
+        }
+      }
+    }
+    return cache;
   }
   
   /* (non-Javadoc)
@@ -71,7 +130,14 @@ public class DefaultAliasService implements AliasService {
    */
   @Override
   public char[] getPasswordFromAliasForCluster(String clusterName, String alias, boolean generate) {
+    CredentialCache cache = getCredentialCache();
     char[] credential = null;
+    if (cache != null) {
+      credential = cache.get(clusterName, alias);
+      if (credential != null) {
+        return credential;
+      }
+    }
     try {
       credential = keystoreService.getCredentialForCluster(clusterName, alias);
       if (credential == null) {
@@ -80,6 +146,9 @@ public class DefaultAliasService implements AliasService {
           credential = keystoreService.getCredentialForCluster(clusterName, alias);
         }
       }
+      if (credential != null && cache != null) {
+        cache.put(clusterName, alias, credential);
+      }
     } catch (KeystoreServiceException e) {
       LOG.failedToGetCredentialForCluster(clusterName, e);
     }
@@ -119,12 +188,26 @@ public class DefaultAliasService implements AliasService {
       keystoreService.addCredentialForCluster(clusterName, alias, value);
     } catch (KeystoreServiceException e) {
       LOG.failedToAddCredentialForCluster(clusterName, e);
+    } finally {
+      invalidateCredential(clusterName, alias);
     }
   }
 
   @Override
   public void removeAliasForCluster(String clusterName, String alias) {
-    keystoreService.removeCredentialForCluster(clusterName, alias);
+    try {
+      keystoreService.removeCredentialForCluster(clusterName, alias);
+    } finally {
+      invalidateCredential(clusterName, alias);
+    }
+  }
+
+  // Only invalidate once the keystore has changed, otherwise a concurrent lookup could cache the old value again.
+  private void invalidateCredential(String clusterName, String alias) {
+    CredentialCache cache = credentialCache;
+    if (cache != null) {
+      cache.invalidate(clusterName, alias);
+    }
   }
 
   @Override
@@ -18,13 +18,20 @@
 package org.apache.hadoop.gateway.services.security.impl;
 
 import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
+import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.security.cert.Certificate;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.hadoop.gateway.GatewayMessages;
 import org.apache.hadoop.gateway.config.GatewayConfig;
@@ -38,10 +45,22 @@ import org.apache.hadoop.gateway.services.ServiceLifecycleException;
 
 public class DefaultCryptoService implements CryptoService {
   private static final String GATEWAY_IDENTITY_PASSPHRASE = "gateway-identity-passphrase";
+  private static final int MAX_TOKEN_KEYS = 4;
   private static final GatewayMessages LOG = MessagesFactory.get( GatewayMessages.class ); 
 
   private AliasService as = null;
   private KeystoreService ks = null;
+  private final Map<String, ClusterEncryptor> encryptors = new ConcurrentHashMap<String, ClusterEncryptor>();
+  private final Map<String, TokenKey[]> tokenKeys = new ConcurrentHashMap<String, TokenKey[]>();
+  private final Map<String, LoadedKey<PrivateKey>> privateKeys = new ConcurrentHashMap<String, LoadedKey<PrivateKey>>();
+  private final Map<String, LoadedKey<PublicKey>> publicKeys = new ConcurrentHashMap<String, LoadedKey<PublicKey>>();
+  private final ThreadLocal<Map<String, InitializedSignature>> signatures =
+      new ThreadLocal<Map<String, InitializedSignature>>() {
+        @Override
+        protected Map<String, InitializedSignature> initialValue() {
+          return new HashMap<String, InitializedSignature>();
+        }
+      };
 
   public void setKeystoreService(KeystoreService ks) {
     this.ks = ks;
@@ -68,8 +87,7 @@ public class DefaultCryptoService implements CryptoService {
 
   @Override
   public void stop() throws ServiceLifecycleException {
-    // TODO Auto-generated method stub
-
+    reloadSigningKeys();
   }
 
   @Override
@@ -81,15 +99,11 @@ public class DefaultCryptoService implements CryptoService {
   public EncryptionResult encryptForCluster(String clusterName, String alias, byte[] clear) {
     char[] password = as.getPasswordFromAliasForCluster(clusterName, alias);
     if (password != null) {
-      AESEncryptor aes = null;
       try {
-        aes = new AESEncryptor(new String(password));
-        return aes.encrypt(clear);
-      } catch (NoSuchAlgorithmException e1) {
-        LOG.failedToEncryptPasswordForCluster( clusterName, e1 );
-      } catch (InvalidKeyException e) {
+        return getEncryptor(clusterName, alias, password).encrypt(clear);
+      } catch (GeneralSecurityException e) {
         LOG.failedToEncryptPasswordForCluster( clusterName, e );
-      } catch (Exception e) {
+      } catch (RuntimeException e) {
         LOG.failedToEncryptPasswordForCluster( clusterName, e );
       }
     }
@@ -108,11 +122,10 @@ public class DefaultCryptoService implements CryptoService {
 
   @Override
   public byte[] decryptForCluster(String clusterName, String alias, byte[] cipherText, byte[] iv, byte[] salt) {
-  char[] password = as.getPasswordFromAliasForCluster(clusterName, alias);
+    char[] password = as.getPasswordFromAliasForCluster(clusterName, alias);
     if (password != null) {
-      AESEncryptor aes = new AESEncryptor(new String(password));
       try {
-        return aes.decrypt(salt, iv, cipherText);
+        return getEncryptor(clusterName, alias, password).decrypt(salt, iv, cipherText);
       } catch (Exception e) {
         LOG.failedToDecryptPasswordForCluster( clusterName, e );
       }
@@ -123,15 +136,112 @@ public class DefaultCryptoService implements CryptoService {
     return null;
   }
 
+  @Override
+  public byte[] encryptTokenForCluster(String clusterName, String alias, byte[] clear) {
+    char[] password = as.getPasswordFromAliasForCluster(clusterName, alias);
+    if (password != null) {
+      try {
+        return getTokenKeys(clusterName, alias, password)[0].encrypt(clear);
+      } catch (GeneralSecurityException e) {
+        LOG.failedToEncryptPasswordForCluster( clusterName, e );
+      } catch (RuntimeException e) {
+        LOG.failedToEncryptPasswordForCluster( clusterName, e );
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public byte[] decryptTokenForCluster(String clusterName, String alias, byte[] token) {
+    return decryptTokenForCluster(clusterName, alias, token, false);
+  }
+
+  @Override
+  public byte[] decryptTokenForCluster(String clusterName, String alias, byte[] token, boolean acceptLegacy) {
+    if (!TokenKey.isToken(token)) {
+      if (!acceptLegacy) {
+        LOG.notATokenForCluster( clusterName );
+        return null;
+      }
+      EncryptionResult result;
+      try {
+        result = EncryptionResult.fromByteArray(token);
+      } catch (RuntimeException e) {
+        LOG.failedToDecryptPasswordForCluster( clusterName, e );
+        return null;
+      }
+      return decryptForCluster(clusterName, alias, result.cipher, result.iv, result.salt);
+    }
+    char[] password = as.getPasswordFromAliasForCluster(clusterName, alias);
+    if (password == null) {
+      LOG.failedToDecryptCipherForClusterNullPassword( clusterName );
+      return null;
+    }
+    try {
+      int keyId = TokenKey.getKeyId(token);
+      for (TokenKey key : getTokenKeys(clusterName, alias, password)) {
+        if (key != null && key.getId() == keyId) {
+          return key.decrypt(token);
+        }
+      }
+      LOG.unknownTokenKeyForCluster( clusterName, keyId );
+    } catch (GeneralSecurityException e) {
+      LOG.failedToDecryptPasswordForCluster( clusterName, e );
+    }
+    return null;
+  }
+
+  /**
+   * Returns the token keys for the alias of a cluster with the key for the current password first.
+   * The keys of a few previous passwords are kept so tokens issued before the password changed still decrypt.
+   */
+  private TokenKey[] getTokenKeys(String clusterName, String alias, char[] password) throws GeneralSecurityException {
+    String name = clusterName + "/" + alias;
+    TokenKey[] keys = tokenKeys.get(name);
+    if (keys == null || !keys[0].isFor(password)) {
+      synchronized (tokenKeys) {
+        keys = tokenKeys.get(name);
+        if (keys == null || !keys[0].isFor(password)) {
+          TokenKey[] rotated = new TokenKey[keys == null ? 1 : Math.min(keys.length + 1, MAX_TOKEN_KEYS)];
+          rotated[0] = new TokenKey(clusterName, alias, password);
+          if (keys != null) {
+            System.arraycopy(keys, 0, rotated, 1, rotated.length - 1);
+          }
+          keys = rotated;
+          tokenKeys.put(name, keys);
+        }
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Returns the encryptor for the alias of a cluster, replacing it if the password of the alias has changed.
+   */
+  private ClusterEncryptor getEncryptor(String clusterName, String alias, char[] password) throws GeneralSecurityException {
+    String key = clusterName + "/" + alias;
+    ClusterEncryptor encryptor = encryptors.get(key);
+    if (encryptor == null || !encryptor.isFor(password)) {
+      synchronized (encryptors) {
+        encryptor = encryptors.get(key);
+        if (encryptor == null || !encryptor.isFor(password)) {
+          encryptor = new ClusterEncryptor(password);
+          encryptors.put(key, encryptor);
+        }
+      }
+    }
+    return encryptor;
+  }
+
   @Override
   public boolean verify(String algorithm, String alias, String signed, byte[] signature) {
     boolean verified = false;
     try {
-      Signature sig=Signature.getInstance(algorithm);
-      sig.initVerify(ks.getKeystoreForGateway().getCertificate(alias).getPublicKey());
+      Signature sig = getSignature(algorithm, alias, getPublicKey(alias));
       sig.update(signed.getBytes("UTF-8"));
       verified = sig.verify(signature);
     } catch (SignatureException e) {
+      discardSignature(algorithm, alias);
       LOG.failedToVerifySignature( e );
     } catch (NoSuchAlgorithmException e) {
       LOG.failedToVerifySignature( e );
@@ -151,10 +261,7 @@ public class DefaultCryptoService implements CryptoService {
   @Override
   public byte[] sign(String algorithm, String alias, String payloadToSign) {
     try {
-      char[] passphrase = as.getPasswordFromAliasForGateway(GATEWAY_IDENTITY_PASSPHRASE);
-      PrivateKey privateKey = (PrivateKey) ks.getKeyForGateway(alias, passphrase);
-      Signature signature = Signature.getInstance(algorithm);
-      signature.initSign(privateKey);
+      Signature signature = getSignature(algorithm, alias, getPrivateKey(alias));
       signature.update(payloadToSign.getBytes("UTF-8"));
       return signature.sign();
     } catch (NoSuchAlgorithmException e) {
@@ -162,6 +269,7 @@ public class DefaultCryptoService implements CryptoService {
     } catch (InvalidKeyException e) {
       LOG.failedToSignData( e );
     } catch (SignatureException e) {
+      discardSignature(algorithm, alias);
       LOG.failedToSignData( e );
     } catch (UnsupportedEncodingException e) {
       LOG.failedToSignData( e );
@@ -170,4 +278,108 @@ public class DefaultCryptoService implements CryptoService {
     }
     return null;
   }
+
+  /**
+   * Discards the cached signing and verification keys so that they are read from the gateway keystore again.
+   * Keys are reloaded by themselves whenever the keystore service loads a changed keystore so this is only
+   * needed if the keystore service can't notice the change.
+   */
+  public void reloadSigningKeys() {
+    privateKeys.clear();
+    publicKeys.clear();
+  }
+
+  // The keystore service returns the same instance until the keystore changes so a key is only reused while it
+  // was loaded from the current instance.  The instance is looked up before the key so a change made while the
+  // key is loaded causes another reload.
+  private PrivateKey getPrivateKey(String alias) throws KeystoreServiceException, InvalidKeyException {
+    KeyStore keystore = ks.getKeystoreForGateway();
+    LoadedKey<PrivateKey> loaded = privateKeys.get(alias);
+    if (loaded == null || loaded.keystore != keystore) {
+      char[] passphrase = as.getPasswordFromAliasForGateway(GATEWAY_IDENTITY_PASSPHRASE);
+      PrivateKey key = (PrivateKey) ks.getKeyForGateway(alias, passphrase);
+      if (key == null) {
+        throw new InvalidKeyException("No private key for alias " + alias);
+      }
+      loaded = new LoadedKey<PrivateKey>(keystore, key);
+      privateKeys.put(alias, loaded);
+    }
+    return loaded.key;
+  }
+
+  private PublicKey getPublicKey(String alias) throws KeystoreServiceException, KeyStoreException, InvalidKeyException {
+    KeyStore keystore = ks.getKeystoreForGateway();
+    if (keystore == null) {
+      throw new KeyStoreException("Gateway keystore is not available");
+    }
+    LoadedKey<PublicKey> loaded = publicKeys.get(alias);
+    if (loaded == null || loaded.keystore != keystore) {
+      Certificate cert = keystore.getCertificate(alias);
+      if (cert == null) {
+        throw new InvalidKeyException("No certificate for alias " + alias);
+      }
+      loaded = new LoadedKey<PublicKey>(keystore, cert.getPublicKey());
+      publicKeys.put(alias, loaded);
+    }
+    return loaded.key;
+  }
+
+  /**
+   * Returns a signature of the calling thread initialized with the key.
+   * A signature returns to its initialized state once it has signed or verified so it is only initialized again
+   * when the key changes.
+   */
+  private Signature getSignature(String algorithm, String alias, Key key)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+    Map<String, InitializedSignature> cache = signatures.get();
+    String name = (key instanceof PrivateKey ? "sign:" : "verify:") + algorithm + ":" + alias;
+    InitializedSignature signature = cache.get(name);
+    if (signature == null) {
+      signature = new InitializedSignature(Signature.getInstance(algorithm));
+      cache.put(name, signature);
+    }
+    if (signature.key != key) {
+      signature.key = null;
+      if (key instanceof PrivateKey) {
+        signature.signature.initSign((PrivateKey) key);
+      } else {
+        signature.signature.initVerify((PublicKey) key);
+      }
+      signature.key = key;
+    }
+    return signature.signature;
+  }
+
+  /**
+   * Drops the signature of the calling thread after a failure since its state is then unknown.
+   */
+  private void discardSignature(String algorithm, String alias) {
+    Map<String, InitializedSignature> cache = signatures.get();
+    cache.remove("sign:" + algorithm + ":" + alias);
+    cache.remove("verify:" + algorithm + ":" + alias);
+  }
+
+  private static final class LoadedKey<K extends Key> {
+
+    private final KeyStore keystore;
+    private final K key;
+
+    private LoadedKey(KeyStore keystore, K key) {
+      this.keystore = keystore;
+      this.key = key;
+    }
+
+  }
+
+  private static final class InitializedSignature {
+
+    private final Signature signature;
+    private Key key;
+
+    private InitializedSignature(Signature signature) {
+      this.signature = signature;
+    }
+
+  }
+
 }
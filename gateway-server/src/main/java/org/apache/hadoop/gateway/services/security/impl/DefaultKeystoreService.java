@@ -112,7 +112,7 @@ public class DefaultKeystoreService extends BaseKeystoreService implements Keyst
         cert = generateCertificate(dn, KPair, 365, "SHA1withRSA");
       }
 
-      KeyStore privateKS = getKeystoreForGateway();
+      KeyStore privateKS = getKeystoreForUpdate(new File( keyStoreDir + GATEWAY_KEYSTORE  ), "JKS");
       privateKS.setKeyEntry(alias, KPair.getPrivate(),  
           passphrase,  
           new java.security.cert.Certificate[]{cert});  
@@ -193,9 +193,9 @@ public class DefaultKeystoreService extends BaseKeystoreService implements Keyst
   }
 
   public void addCredentialForCluster(String clusterName, String alias, String value) {
-    KeyStore ks = getCredentialStoreForCluster(clusterName);
-    addCredential(alias, value, ks);
     final File  keyStoreFile = new File( keyStoreDir + clusterName + CREDENTIALS_SUFFIX  );
+    KeyStore ks = getKeystoreForUpdate(keyStoreFile, "JCEKS");
+    addCredential(alias, value, ks);
     try {
       writeKeystoreToFile(ks, keyStoreFile);
     } catch (KeyStoreException e) {
@@ -238,9 +238,9 @@ public class DefaultKeystoreService extends BaseKeystoreService implements Keyst
    */
   @Override
   public void removeCredentialForCluster(String clusterName, String alias) {
-    KeyStore ks = getCredentialStoreForCluster(clusterName);
-    removeCredential(alias, ks);
     final File  keyStoreFile = new File( keyStoreDir + clusterName + CREDENTIALS_SUFFIX  );
+    KeyStore ks = getKeystoreForUpdate(keyStoreFile, "JCEKS");
+    removeCredential(alias, ks);
     try {
       writeKeystoreToFile(ks, keyStoreFile);
     } catch (KeyStoreException e) {
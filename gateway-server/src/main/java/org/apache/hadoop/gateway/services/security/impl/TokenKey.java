@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.services.security.impl;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The key of a cluster alias used for compact, authenticated tokens.
+ * <p>
+ * A token is a single binary frame: a version byte, a four byte key id, a twelve byte random nonce, the
+ * AES/CTR cipher text and a sixteen byte HMAC-SHA256 tag computed over everything before it.
+ * The key is derived from the alias password with a salt that only depends on the cluster and alias names,
+ * so every gateway instance sharing the password derives the same key and can decrypt the others' tokens.
+ * The key id is derived from the key and identifies which password a token was encrypted with after the
+ * password is changed.  Instances are thread safe.
+ */
+class TokenKey {
+
+  static final byte VERSION = 1;
+
+  private static final int KEY_ID_LENGTH = 4;
+  private static final int NONCE_LENGTH = 12;
+  private static final int TAG_LENGTH = 16;
+  private static final int HEADER_LENGTH = 1 + KEY_ID_LENGTH + NONCE_LENGTH;
+  private static final String CIPHER_TRANSFORMATION = "AES/CTR/NoPadding";
+  private static final String MAC_ALGORITHM = "HmacSHA256";
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+  private static final ThreadLocal<Cipher> CIPHER = new ThreadLocal<Cipher>();
+  private static final ThreadLocal<Mac> MAC = new ThreadLocal<Mac>();
+
+  private final char[] password;
+  private final int id;
+  private final SecretKey encryptionKey;
+  private final SecretKey macKey;
+
+  TokenKey(String clusterName, String alias, char[] password) throws GeneralSecurityException {
+    this.password = password.clone();
+    byte[] master = AESEncryptor.deriveKey(this.password, salt(clusterName, alias)).getEncoded();
+    this.encryptionKey = new SecretKeySpec(expand(master, "encrypt", 16), "AES");
+    this.macKey = new SecretKeySpec(expand(master, "authenticate", 32), MAC_ALGORITHM);
+    this.id = ByteBuffer.wrap(expand(master, "key-id", KEY_ID_LENGTH)).getInt();
+  }
+
+  boolean isFor(char[] password) {
+    return Arrays.equals(this.password, password);
+  }
+
+  int getId() {
+    return id;
+  }
+
+  /**
+   * Returns true if the bytes have the framing of a token rather than a legacy encryption result.
+   * Legacy results start with the four byte salt length so their first byte is always zero.
+   */
+  static boolean isToken(byte[] bytes) {
+    return bytes.length >= HEADER_LENGTH + TAG_LENGTH && bytes[0] == VERSION;
+  }
+
+  static int getKeyId(byte[] token) {
+    return ByteBuffer.wrap(token, 1, KEY_ID_LENGTH).getInt();
+  }
+
+  byte[] encrypt(byte[] clear) throws GeneralSecurityException {
+    byte[] token = new byte[HEADER_LENGTH + clear.length + TAG_LENGTH];
+    ByteBuffer buffer = ByteBuffer.wrap(token);
+    buffer.put(VERSION);
+    buffer.putInt(id);
+    byte[] nonce = new byte[NONCE_LENGTH];
+    RANDOM.nextBytes(nonce);
+    buffer.put(nonce);
+    Cipher cipher = getCipher();
+    cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, counter(nonce));
+    cipher.doFinal(clear, 0, clear.length, token, HEADER_LENGTH);
+    Mac mac = getMac();
+    mac.init(macKey);
+    mac.update(token, 0, HEADER_LENGTH + clear.length);
+    System.arraycopy(mac.doFinal(), 0, token, HEADER_LENGTH + clear.length, TAG_LENGTH);
+    return token;
+  }
+
+  byte[] decrypt(byte[] token) throws GeneralSecurityException {
+    if (!isToken(token) || getKeyId(token) != id) {
+      throw new GeneralSecurityException("Token was not encrypted with this key");
+    }
+    int length = token.length - HEADER_LENGTH - TAG_LENGTH;
+    Mac mac = getMac();
+    mac.init(macKey);
+    mac.update(token, 0, HEADER_LENGTH + length);
+    byte[] expected = Arrays.copyOf(mac.doFinal(), TAG_LENGTH);
+    byte[] actual = Arrays.copyOfRange(token, HEADER_LENGTH + length, token.length);
+    if (!MessageDigest.isEqual(expected, actual)) {
+      throw new GeneralSecurityException("Token failed authentication");
+    }
+    Cipher cipher = getCipher();
+    cipher.init(Cipher.DECRYPT_MODE, encryptionKey, counter(Arrays.copyOfRange(token, 1 + KEY_ID_LENGTH, HEADER_LENGTH)));
+    return cipher.doFinal(token, HEADER_LENGTH, length);
+  }
+
+  // The initial counter block is the nonce followed by a 32 bit block counter starting at zero.
+  private static IvParameterSpec counter(byte[] nonce) {
+    return new IvParameterSpec(Arrays.copyOf(nonce, 16));
+  }
+
+  private static byte[] salt(String clusterName, String alias) throws GeneralSecurityException {
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    try {
+      digest.update(("secure-token:" + clusterName + ":" + alias).getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new GeneralSecurityException(e);
+    }
+    return Arrays.copyOf(digest.digest(), 16);
+  }
+
+  private static byte[] expand(byte[] master, String label, int length) throws GeneralSecurityException {
+    Mac mac = Mac.getInstance(MAC_ALGORITHM);
+    mac.init(new SecretKeySpec(master, MAC_ALGORITHM));
+    try {
+      return Arrays.copyOf(mac.doFinal(label.getBytes("UTF-8")), length);
+    } catch (UnsupportedEncodingException e) {
+      throw new GeneralSecurityException(e);
+    }
+  }
+
+  private static Cipher getCipher() throws GeneralSecurityException {
+    Cipher cipher = CIPHER.get();
+    if (cipher == null) {
+      cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+      CIPHER.set(cipher);
+    }
+    return cipher;
+  }
+
+  private static Mac getMac() throws GeneralSecurityException {
+    Mac mac = MAC.get();
+    if (mac == null) {
+      mac = Mac.getInstance(MAC_ALGORITHM);
+      MAC.set(mac);
+    }
+    return mac;
+  }
+
+}
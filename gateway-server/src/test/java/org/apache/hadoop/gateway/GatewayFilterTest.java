@@ -28,6 +28,11 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 
 /**
  *
@@ -84,4 +89,63 @@ public class GatewayFilterTest {
 
   }
 
+  private static class RecordingFilter implements Filter {
+    private final String name;
+    private final List<String> calls;
+    private RecordingFilter( String name, List<String> calls ) {
+      this.name = name;
+      this.calls = calls;
+    }
+    @Override
+    public void init( FilterConfig filterConfig ) throws ServletException {
+      calls.add( "init:" + name );
+    }
+    @Override
+    public void doFilter( ServletRequest request, ServletResponse response, FilterChain chain ) throws IOException, ServletException {
+      calls.add( name );
+      chain.doFilter( request, response );
+    }
+    @Override
+    public void destroy() {
+    }
+  }
+
+  @Test
+  public void testChainOrderAndTimer() throws ServletException, IOException, URISyntaxException {
+
+    FilterConfig config = EasyMock.createNiceMock( FilterConfig.class );
+    EasyMock.replay( config );
+
+    HttpServletRequest request = EasyMock.createNiceMock( HttpServletRequest.class );
+    EasyMock.expect( request.getPathInfo() ).andReturn( "source" ).anyTimes();
+    EasyMock.replay( request );
+
+    HttpServletResponse response = EasyMock.createNiceMock( HttpServletResponse.class );
+    EasyMock.replay( response );
+
+    FilterChain chain = EasyMock.createNiceMock( FilterChain.class );
+    EasyMock.replay( chain );
+
+    final List<String> calls = new ArrayList<String>();
+    final List<String> timed = new ArrayList<String>();
+
+    GatewayFilter gateway = new GatewayFilter();
+    gateway.addFilter( "source", "first", new RecordingFilter( "first", calls ), null, "role" );
+    gateway.addFilter( "source", "second", new RecordingFilter( "second", calls ), null, "role" );
+    gateway.addFilter( "source", "third", new RecordingFilter( "third", calls ), null, "role" );
+    gateway.setFilterTimer( new FilterTimer() {
+      @Override
+      public void filterCompleted( String resourceRole, String filterName, long elapsedNanos ) {
+        timed.add( resourceRole + ":" + filterName );
+      }
+    } );
+    gateway.init( config );
+    gateway.doFilter( request, response, chain );
+    gateway.doFilter( request, response, chain );
+    gateway.destroy();
+
+    assertThat( calls, contains( "first", "second", "third", "first", "second", "third" ) );
+    assertThat( timed, contains( "role:third", "role:second", "role:first", "role:third", "role:second", "role:first" ) );
+  }
+
 }
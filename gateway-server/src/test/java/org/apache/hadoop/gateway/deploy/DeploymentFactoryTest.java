@@ -66,6 +66,21 @@ public class DeploymentFactoryTest {
     assertThat( gateway, hasXPath( "/gateway" ) );
   }
 
+  @Test
+  public void testFilterTimerPassedToServlet() throws IOException, SAXException, ParserConfigurationException {
+    GatewayConfigImpl config = new GatewayConfigImpl();
+    config.set( GatewayConfig.FILTER_TIMER, "org.apache.hadoop.gateway.TestFilterTimer" );
+
+    Topology topology = new Topology();
+    topology.setName( "test-cluster" );
+
+    WebArchive war = DeploymentFactory.createDeployment( config, topology );
+
+    Document wad = parse( war.get( "WEB-INF/web.xml" ).getAsset().openStream() );
+    assertThat( wad, hasXPath( "/web-app/servlet/init-param[param-name='filterTimer']/param-value",
+        equalTo( "org.apache.hadoop.gateway.TestFilterTimer" ) ) );
+  }
+
   private Document parse( InputStream stream ) throws IOException, SAXException, ParserConfigurationException {
     DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
     DocumentBuilder builder = factory.newDocumentBuilder();
@@ -0,0 +1,317 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.dispatch;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.gateway.security.PrimaryPrincipal;
+import org.apache.hadoop.gateway.security.SubjectUtils;
+import org.apache.hadoop.test.category.MediumTests;
+import org.apache.hadoop.test.category.UnitTests;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.security.auth.Subject;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertThat;
+
+@Category( { UnitTests.class, MediumTests.class } )
+public class AsyncHttpClientDispatchTest {
+
+  private static final String USER = "test-user";
+  private static final int PIPE_CAPACITY = 16 * 1024;
+  private static final int REQUEST_BUFFER_SIZE = 64 * 1024;
+  private static final int LARGE_CONTENT_SIZE = 16 * 1024 * 1024;
+
+  private Server backend;
+  private Server gateway;
+  private int backendPort;
+  private int gatewayPort;
+  private CountDownLatch slowBackend;
+  private static volatile String streamedAs;
+
+  @Before
+  public void setUp() throws Exception {
+    slowBackend = new CountDownLatch( 1 );
+    streamedAs = null;
+
+    backend = new Server( 0 );
+    ServletContextHandler backendContext = new ServletContextHandler();
+    backendContext.addServlet( new ServletHolder( new BackendServlet() ), "/*" );
+    backend.setHandler( backendContext );
+    backend.start();
+    backendPort = backend.getConnectors()[ 0 ].getLocalPort();
+
+    gateway = new Server( 0 );
+    ServletContextHandler gatewayContext = new ServletContextHandler();
+    FilterHolder identity = new FilterHolder( new IdentityFilter() );
+    identity.setAsyncSupported( true );
+    gatewayContext.addFilter( identity, "/*", EnumSet.of( DispatcherType.REQUEST ) );
+    FilterHolder dispatch = new FilterHolder( new TestDispatch() );
+    dispatch.setAsyncSupported( true );
+    dispatch.setInitParameter( AsyncHttpClientDispatch.ASYNC_TIMEOUT_PARAM, "500" );
+    dispatch.setInitParameter( AsyncHttpClientDispatch.PIPE_CAPACITY_PARAM, Integer.toString( PIPE_CAPACITY ) );
+    dispatch.setInitParameter( AsyncHttpClientDispatch.REQUEST_BUFFER_SIZE_PARAM, Integer.toString( REQUEST_BUFFER_SIZE ) );
+    gatewayContext.addFilter( dispatch, "/*", EnumSet.of( DispatcherType.REQUEST ) );
+    ServletHolder notFound = new ServletHolder( new HttpServlet() {} );
+    notFound.setAsyncSupported( true );
+    gatewayContext.addServlet( notFound, "/*" );
+    gateway.setHandler( gatewayContext );
+    gateway.start();
+    gatewayPort = gateway.getConnectors()[ 0 ].getLocalPort();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    slowBackend.countDown();
+    gateway.stop();
+    backend.stop();
+  }
+
+  @Test
+  public void testResponseStreamedFromBackend() throws Exception {
+    HttpURLConnection connection = open( "/ok" );
+    assertThat( connection.getResponseCode(), is( HttpServletResponse.SC_OK ) );
+    assertThat( connection.getContentType(), containsString( "text/plain" ) );
+    assertThat( connection.getHeaderField( "Set-Cookie" ), is( (String)null ) );
+    InputStream input = connection.getInputStream();
+    assertThat( IOUtils.toString( input, "UTF-8" ), is( "backend-content" ) );
+    input.close();
+    // The response is streamed on a container thread but within the identity of the request.
+    assertThat( streamedAs, is( USER ) );
+  }
+
+  @Test
+  public void testResponseLargerThanPipeStreamedToSlowClient() throws Exception {
+    HttpURLConnection connection = open( "/large" );
+    assertThat( connection.getResponseCode(), is( HttpServletResponse.SC_OK ) );
+    InputStream input = connection.getInputStream();
+    // Stall for longer than the async timeout so the pipe and the socket buffers fill up behind the client.
+    Thread.sleep( 1000 );
+    byte[] buffer = new byte[ 8 * 1024 ];
+    long total = 0;
+    int count;
+    while( ( count = input.read( buffer ) ) >= 0 ) {
+      for( int i = 0; i < count; i++ ) {
+        assertThat( buffer[ i ], is( largeContentByte( total + i ) ) );
+      }
+      total += count;
+    }
+    input.close();
+    assertThat( total, is( (long)LARGE_CONTENT_SIZE ) );
+  }
+
+  @Test
+  public void testRequestContentSentToBackend() throws Exception {
+    // Sent chunked, the whole body is buffered so it is forwarded with a length.
+    assertThat( put( "small-request-content".getBytes( "UTF-8" ), true ), is( "small-request-content".length() ) );
+  }
+
+  @Test
+  public void testRequestContentLargerThanBufferSentToBackend() throws Exception {
+    byte[] content = new byte[ REQUEST_BUFFER_SIZE * 4 ];
+    for( int i = 0; i < content.length; i++ ) {
+      content[ i ] = largeContentByte( i );
+    }
+    assertThat( put( content, false ), is( content.length ) );
+  }
+
+  @Test
+  public void testBackendErrorStatusPassedThrough() throws Exception {
+    HttpURLConnection connection = open( "/error" );
+    assertThat( connection.getResponseCode(), is( HttpServletResponse.SC_SERVICE_UNAVAILABLE ) );
+  }
+
+  @Test
+  public void testSlowBackendTimesOut() throws Exception {
+    HttpURLConnection connection = open( "/slow" );
+    assertThat( connection.getResponseCode(), is( HttpServletResponse.SC_GATEWAY_TIMEOUT ) );
+  }
+
+  @Test
+  public void testUnreachableBackendFails() throws Exception {
+    backend.stop();
+    HttpURLConnection connection = open( "/ok" );
+    assertThat( connection.getResponseCode(), is( HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) );
+    // Make sure Hadoop cluster topology isn't exposed to client when there is a connectivity issue, see KNOX-58.
+    InputStream error = connection.getErrorStream();
+    if( error != null ) {
+      assertThat( IOUtils.toString( error, "UTF-8" ), not( containsString( Integer.toString( backendPort ) ) ) );
+      error.close();
+    }
+  }
+
+  private static byte largeContentByte( long position ) {
+    return (byte)( position % 251 );
+  }
+
+  // Returns the number of bytes the backend received after checking they were the ones sent.
+  private int put( byte[] content, boolean chunked ) throws IOException {
+    HttpURLConnection connection = open( "/echo" );
+    connection.setRequestMethod( "PUT" );
+    connection.setDoOutput( true );
+    if( chunked ) {
+      connection.setChunkedStreamingMode( 4096 );
+    } else {
+      connection.setFixedLengthStreamingMode( content.length );
+    }
+    OutputStream output = connection.getOutputStream();
+    output.write( content );
+    output.close();
+    assertThat( connection.getResponseCode(), is( HttpServletResponse.SC_OK ) );
+    InputStream input = connection.getInputStream();
+    byte[] echo = IOUtils.toByteArray( input );
+    input.close();
+    assertThat( Arrays.equals( echo, content ), is( true ) );
+    return echo.length;
+  }
+
+  private HttpURLConnection open( String path ) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection)new URL( "http://localhost:" + gatewayPort + path ).openConnection();
+    connection.setReadTimeout( 10000 );
+    return connection;
+  }
+
+  private class TestDispatch extends AsyncHttpClientDispatch {
+
+    // The gateway would have rewritten the request URL to the backend.
+    @Override
+    public void doGet( URI url, HttpServletRequest request, HttpServletResponse response )
+        throws IOException, URISyntaxException {
+      super.doGet( new URI( "http", null, "localhost", backendPort, url.getPath(), null, null ), request, response );
+    }
+
+    @Override
+    public void doPut( URI url, HttpServletRequest request, HttpServletResponse response )
+        throws IOException, URISyntaxException {
+      super.doPut( new URI( "http", null, "localhost", backendPort, url.getPath(), null, null ), request, response );
+    }
+
+    @Override
+    protected void writeResponse( HttpServletRequest request, HttpServletResponse response, InputStream stream )
+        throws IOException {
+      Subject subject = SubjectUtils.getCurrentSubject();
+      streamedAs = subject == null ? null : SubjectUtils.getPrimaryPrincipalName( subject );
+      super.writeResponse( request, response, stream );
+    }
+
+  }
+
+  private static class IdentityFilter implements Filter {
+
+    @Override
+    public void init( FilterConfig filterConfig ) throws ServletException {
+    }
+
+    @Override
+    public void doFilter( final ServletRequest request, final ServletResponse response, final FilterChain chain )
+        throws IOException, ServletException {
+      Subject subject = new Subject();
+      subject.getPrincipals().add( new PrimaryPrincipal( USER ) );
+      try {
+        Subject.doAs( subject, new PrivilegedExceptionAction<Object>() {
+          @Override
+          public Object run() throws Exception {
+            chain.doFilter( request, response );
+            return null;
+          }
+        } );
+      } catch( PrivilegedActionException e ) {
+        throw new ServletException( e.getCause() );
+      }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+  }
+
+  private class BackendServlet extends HttpServlet {
+
+    @Override
+    protected void doGet( HttpServletRequest request, HttpServletResponse response ) throws ServletException, IOException {
+      String path = request.getPathInfo();
+      if( "/slow".equals( path ) ) {
+        try {
+          slowBackend.await( 10, TimeUnit.SECONDS );
+        } catch( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+        }
+      } else if( "/error".equals( path ) ) {
+        response.sendError( HttpServletResponse.SC_SERVICE_UNAVAILABLE );
+      } else if( "/large".equals( path ) ) {
+        response.setStatus( HttpServletResponse.SC_OK );
+        response.setContentType( "application/octet-stream" );
+        byte[] buffer = new byte[ 64 * 1024 ];
+        OutputStream output = response.getOutputStream();
+        for( int written = 0; written < LARGE_CONTENT_SIZE; written += buffer.length ) {
+          for( int i = 0; i < buffer.length; i++ ) {
+            buffer[ i ] = largeContentByte( written + i );
+          }
+          output.write( buffer );
+        }
+      } else {
+        response.setStatus( HttpServletResponse.SC_OK );
+        response.setContentType( "text/plain" );
+        response.addHeader( "Set-Cookie", "backend=secret" );
+        response.getOutputStream().write( "backend-content".getBytes( "UTF-8" ) );
+      }
+    }
+
+    @Override
+    protected void doPut( HttpServletRequest request, HttpServletResponse response ) throws ServletException, IOException {
+      response.setStatus( HttpServletResponse.SC_OK );
+      response.setContentType( "application/octet-stream" );
+      IOUtils.copy( request.getInputStream(), response.getOutputStream() );
+    }
+
+  }
+
+}
@@ -28,6 +28,7 @@ import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
@@ -38,7 +39,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.hadoop.gateway.config.GatewayConfig;
+import org.apache.hadoop.test.mock.MockServer;
 import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.params.BasicHttpParams;
 import org.easymock.EasyMock;
@@ -87,6 +90,41 @@ public class HttpClientDispatchTest {
     }
   }
 
+  // A response that can't be fully streamed must not leave its connection leased from the pool.
+  @Test
+  public void testConnectionAbortedWhenResponseNotConsumed() throws Exception {
+    MockServer backend = new MockServer( "BACKEND", true );
+    try {
+      backend.expect().method( "GET" ).respond().status( 200 ).content( "content".getBytes( "UTF-8" ) );
+      final boolean[] aborted = { false };
+      HttpGet outboundRequest = new HttpGet( "http://localhost:" + backend.getPort() + "/" ) {
+        @Override
+        public void abort() {
+          aborted[ 0 ] = true;
+          super.abort();
+        }
+      };
+      HttpServletRequest inboundRequest = EasyMock.createNiceMock( HttpServletRequest.class );
+      HttpServletResponse outboundResponse = EasyMock.createNiceMock( HttpServletResponse.class );
+      EasyMock.replay( inboundRequest, outboundResponse );
+
+      HttpClientDispatch dispatch = new HttpClientDispatch() {
+        @Override
+        protected void writeResponse( HttpServletRequest request, HttpServletResponse response, InputStream stream ) {
+          throw new IllegalStateException( "rewrite-failure" );
+        }
+      };
+      try {
+        dispatch.executeRequest( outboundRequest, inboundRequest, outboundResponse );
+        fail( "Should have thrown IllegalStateException" );
+      } catch( IllegalStateException e ) {
+        assertTrue( aborted[ 0 ] );
+      }
+    } finally {
+      backend.stop();
+    }
+  }
+
   @Test
   public void testCallToSecureClusterWithDelegationTpken() throws URISyntaxException, IOException {
     System.setProperty(GatewayConfig.HADOOP_KERBEROS_SECURED, "true");
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.dispatch;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Test;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class HttpClientPoolTest {
+
+  private static ServletContext createContext() {
+    final Map<String,Object> attributes = new HashMap<String,Object>();
+    ServletContext context = EasyMock.createNiceMock( ServletContext.class );
+    EasyMock.expect( context.getAttribute( EasyMock.<String>anyObject() ) ).andAnswer( new IAnswer<Object>() {
+      @Override
+      public Object answer() throws Throwable {
+        return attributes.get( EasyMock.getCurrentArguments()[ 0 ] );
+      }
+    } ).anyTimes();
+    context.setAttribute( EasyMock.<String>anyObject(), EasyMock.anyObject() );
+    EasyMock.expectLastCall().andAnswer( new IAnswer<Object>() {
+      @Override
+      public Object answer() throws Throwable {
+        Object[] args = EasyMock.getCurrentArguments();
+        attributes.put( (String)args[ 0 ], args[ 1 ] );
+        return null;
+      }
+    } ).anyTimes();
+    EasyMock.replay( context );
+    return context;
+  }
+
+  private static FilterConfig createConfig( ServletContext context, String serviceRole ) {
+    FilterConfig config = EasyMock.createNiceMock( FilterConfig.class );
+    EasyMock.expect( config.getServletContext() ).andReturn( context ).anyTimes();
+    EasyMock.expect( config.getInitParameter( HttpClientPool.SERVICE_ROLE_PARAM ) ).andReturn( serviceRole ).anyTimes();
+    EasyMock.expect( config.getInitParameter( HttpClientPool.MAX_TOTAL_CONNECTIONS_PARAM ) ).andReturn( "10" ).anyTimes();
+    EasyMock.replay( config );
+    return config;
+  }
+
+  @Test
+  public void testPoolSharedPerServiceWithinTopology() {
+    ServletContext topology = createContext();
+    HttpClientPool first = HttpClientPool.acquire( createConfig( topology, "WEBHDFS" ) );
+    HttpClientPool second = HttpClientPool.acquire( createConfig( topology, "WEBHDFS" ) );
+    HttpClientPool other = HttpClientPool.acquire( createConfig( topology, "OOZIE" ) );
+    assertThat( second, sameInstance( first ) );
+    assertThat( other, not( sameInstance( first ) ) );
+    assertThat( first.createClient().getConnectionManager(), sameInstance( first.getConnectionManager() ) );
+
+    HttpClientPool otherTopology = HttpClientPool.acquire( createConfig( createContext(), "WEBHDFS" ) );
+    assertThat( otherTopology, not( sameInstance( first ) ) );
+
+    first.release();
+    second.release();
+    other.release();
+    otherTopology.release();
+  }
+
+  @Test
+  public void testPoolRecreatedAfterLastRelease() {
+    ServletContext topology = createContext();
+    HttpClientPool first = HttpClientPool.acquire( createConfig( topology, "WEBHDFS" ) );
+    HttpClientPool second = HttpClientPool.acquire( createConfig( topology, "WEBHDFS" ) );
+    first.release();
+    HttpClientPool third = HttpClientPool.acquire( createConfig( topology, "WEBHDFS" ) );
+    assertThat( third, sameInstance( second ) );
+    second.release();
+    third.release();
+    HttpClientPool fourth = HttpClientPool.acquire( createConfig( topology, "WEBHDFS" ) );
+    assertThat( fourth, not( sameInstance( first ) ) );
+    fourth.release();
+  }
+
+}
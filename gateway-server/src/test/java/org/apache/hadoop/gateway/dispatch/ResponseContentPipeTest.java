@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.dispatch;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ResponseContentPipeTest {
+
+  @Test
+  public void testContentStreamedAcrossThreads() throws Exception {
+    final ResponseContentPipe pipe = new ResponseContentPipe( 1024 );
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for( int i = 0; i < 100; i++ ) {
+            pipe.write( ( "chunk" + i + ";" ).getBytes( "UTF-8" ) );
+          }
+          pipe.finish();
+        } catch( IOException e ) {
+          pipe.fail( e );
+        }
+      }
+    };
+    producer.start();
+    String content = IOUtils.toString( pipe, "UTF-8" );
+    producer.join();
+    StringBuilder expect = new StringBuilder();
+    for( int i = 0; i < 100; i++ ) {
+      expect.append( "chunk" ).append( i ).append( ';' );
+    }
+    assertThat( content, is( expect.toString() ) );
+    assertThat( pipe.read(), is( -1 ) );
+  }
+
+  @Test
+  public void testFailureSeenByConsumer() throws Exception {
+    ResponseContentPipe pipe = new ResponseContentPipe( 1024 );
+    pipe.write( new byte[]{ 'a' } );
+    pipe.fail( new IOException( "backend-failure" ) );
+    assertThat( pipe.read(), is( (int)'a' ) );
+    try {
+      pipe.read();
+      fail( "Expected IOException" );
+    } catch( IOException e ) {
+      assertThat( e.getMessage(), is( "backend-failure" ) );
+    }
+  }
+
+  @Test
+  public void testWriteBeyondCapacityWaitsForConsumer() throws Exception {
+    final ResponseContentPipe pipe = new ResponseContentPipe( 4 );
+    pipe.write( new byte[]{ 'a', 'b', 'c' } );
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          pipe.write( new byte[]{ 'd', 'e' } );
+          pipe.finish();
+        } catch( IOException e ) {
+          pipe.fail( e );
+        }
+      }
+    };
+    producer.start();
+    producer.join( 200 );
+    assertThat( producer.isAlive(), is( true ) );
+    // Reading frees capacity again.
+    assertThat( pipe.read(), is( (int)'a' ) );
+    assertThat( pipe.read(), is( (int)'b' ) );
+    assertThat( pipe.read(), is( (int)'c' ) );
+    producer.join( 5000 );
+    assertThat( producer.isAlive(), is( false ) );
+    assertThat( IOUtils.toString( pipe, "UTF-8" ), is( "de" ) );
+  }
+
+  @Test
+  public void testChunkLargerThanCapacityAcceptedWhenEmpty() throws Exception {
+    ResponseContentPipe pipe = new ResponseContentPipe( 2 );
+    pipe.write( new byte[]{ 'a', 'b', 'c' } );
+    pipe.finish();
+    assertThat( IOUtils.toString( pipe, "UTF-8" ), is( "abc" ) );
+  }
+
+  @Test
+  public void testAbandonReleasesWaitingProducer() throws Exception {
+    final ResponseContentPipe pipe = new ResponseContentPipe( 1 );
+    pipe.write( new byte[]{ 'a' } );
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          pipe.write( new byte[]{ 'b' } );
+          pipe.write( new byte[]{ 'c' } );
+          pipe.finish();
+        } catch( IOException e ) {
+          pipe.fail( e );
+        }
+      }
+    };
+    producer.start();
+    producer.join( 200 );
+    assertThat( producer.isAlive(), is( true ) );
+    pipe.abandon();
+    // Content written after the pipe is abandoned is discarded without waiting.
+    producer.join( 5000 );
+    assertThat( producer.isAlive(), is( false ) );
+    try {
+      pipe.read();
+      fail( "Expected IOException" );
+    } catch( IOException e ) {
+      // expected
+    }
+  }
+
+}
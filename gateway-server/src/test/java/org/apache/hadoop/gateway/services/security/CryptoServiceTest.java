@@ -27,11 +27,15 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.nio.ByteBuffer;
 import java.security.cert.Certificate;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 @Category( { ManualTests.class, MediumTests.class } )
@@ -153,4 +157,50 @@ public class CryptoServiceTest {
     byte[] decryptedQueryString = cs.decryptForCluster("Test", alias, result.cipher, result.iv, result.salt);
     assertEquals(queryString.getBytes("UTF8").length, decryptedQueryString.length);
   }
+
+  @Test
+  public void testDerivedKeyReusedAndPeerTokensDecrypted() throws Exception {
+    String alias = "encrypt-url";
+    String queryString = "url=http://localhost:50070/api/v1/blahblah";
+
+    // The key is derived once per cluster alias so the salt is shared but every message gets its own IV.
+    EncryptionResult one = cs.encryptForCluster("Test", alias, queryString.getBytes("UTF8"));
+    EncryptionResult two = cs.encryptForCluster("Test", alias, queryString.getBytes("UTF8"));
+    assertTrue(Arrays.equals(one.salt, two.salt));
+    assertFalse(Arrays.equals(one.iv, two.iv));
+    assertEquals(queryString, new String(cs.decryptForCluster("Test", alias, two.cipher, two.iv, two.salt), "UTF8"));
+
+    // A token from another gateway instance or from before a restart has a different salt.
+    EncryptionResult peer = new AESEncryptor("password").encrypt(queryString.getBytes("UTF8"));
+    assertEquals(queryString, new String(cs.decryptForCluster("Test", alias, peer.cipher, peer.iv, peer.salt), "UTF8"));
+  }
+
+  @Test
+  public void testTokenEncryption() throws Exception {
+    String alias = "encrypt-url";
+    String queryString = "url=http://localhost:50070/api/v1/blahblah";
+    byte[] clear = queryString.getBytes("UTF8");
+
+    byte[] token = cs.encryptTokenForCluster("Test", alias, clear);
+    EncryptionResult legacy = cs.encryptForCluster("Test", alias, clear);
+    assertTrue("Token should be smaller than the legacy format", token.length < legacy.toByteAray().length);
+    assertEquals(queryString, new String(cs.decryptTokenForCluster("Test", alias, token), "UTF8"));
+
+    // Another gateway instance with the same alias password can decrypt the token.
+    CryptoService peer = new DefaultCryptoService().setAliasService(as);
+    assertEquals(queryString, new String(peer.decryptTokenForCluster("Test", alias, token), "UTF8"));
+
+    // Legacy tokens are only accepted when asked for.
+    assertNull(cs.decryptTokenForCluster("Test", alias, legacy.toByteAray()));
+    assertEquals(queryString, new String(cs.decryptTokenForCluster("Test", alias, legacy.toByteAray(), true), "UTF8"));
+
+    // Sizes of a legacy token are checked before anything is allocated.
+    byte[] forged = ByteBuffer.allocate(16).putInt(Integer.MAX_VALUE).putInt(16).putInt(16).array();
+    assertNull(cs.decryptTokenForCluster("Test", alias, forged, true));
+    assertNull(cs.decryptTokenForCluster("Test", alias, Arrays.copyOf(legacy.toByteAray(), 20), true));
+
+    // Tampering is detected.
+    token[token.length / 2] ^= 1;
+    assertNull(cs.decryptTokenForCluster("Test", alias, token));
+  }
 }
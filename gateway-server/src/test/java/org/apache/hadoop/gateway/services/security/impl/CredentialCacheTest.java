@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.services.security.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CredentialCacheTest {
+
+  @Test
+  public void testGetReturnsCopy() {
+    CredentialCache cache = new CredentialCache(16, 60000);
+    char[] secret = "secret".toCharArray();
+    cache.put("cluster", "alias", secret);
+    secret[0] = 'X';
+    char[] cached = cache.get("cluster", "alias");
+    assertEquals("secret", new String(cached));
+    cached[0] = 'Y';
+    assertEquals("secret", new String(cache.get("cluster", "alias")));
+    assertNull(cache.get("other", "alias"));
+    assertEquals(2, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void testInvalidateAndClear() {
+    CredentialCache cache = new CredentialCache(16, 60000);
+    cache.put("cluster", "one", "1".toCharArray());
+    cache.put("cluster", "two", "2".toCharArray());
+    cache.invalidate("cluster", "one");
+    assertNull(cache.get("cluster", "one"));
+    assertEquals("2", new String(cache.get("cluster", "two")));
+    cache.clear();
+    assertNull(cache.get("cluster", "two"));
+  }
+
+  @Test
+  public void testExpiry() throws InterruptedException {
+    CredentialCache cache = new CredentialCache(16, 10);
+    cache.put("cluster", "alias", "secret".toCharArray());
+    Thread.sleep(50);
+    assertNull(cache.get("cluster", "alias"));
+  }
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.services.security.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DefaultAliasServiceTest {
+
+  private Map<String, String> credentials;
+  private DefaultAliasService aliases;
+
+  @Before
+  public void setup() {
+    credentials = new HashMap<String, String>();
+    aliases = new DefaultAliasService();
+    // Simulates a lookup racing with the update by reading through the alias service before the store changes.
+    aliases.setKeystoreService(new DefaultKeystoreService() {
+      @Override
+      public char[] getCredentialForCluster(String clusterName, String alias) {
+        String value = credentials.get(clusterName + "/" + alias);
+        return value == null ? null : value.toCharArray();
+      }
+      @Override
+      public void addCredentialForCluster(String clusterName, String alias, String value) {
+        aliases.getPasswordFromAliasForCluster(clusterName, alias);
+        credentials.put(clusterName + "/" + alias, value);
+      }
+      @Override
+      public void removeCredentialForCluster(String clusterName, String alias) {
+        aliases.getPasswordFromAliasForCluster(clusterName, alias);
+        credentials.remove(clusterName + "/" + alias);
+      }
+    });
+  }
+
+  @Test
+  public void testConcurrentLookupDoesNotCacheReplacedCredential() {
+    aliases.addAliasForCluster("cluster", "alias", "old");
+    assertEquals("old", new String(aliases.getPasswordFromAliasForCluster("cluster", "alias")));
+
+    aliases.addAliasForCluster("cluster", "alias", "new");
+    assertEquals("new", new String(aliases.getPasswordFromAliasForCluster("cluster", "alias")));
+
+    aliases.removeAliasForCluster("cluster", "alias");
+    assertNull(aliases.getPasswordFromAliasForCluster("cluster", "alias"));
+  }
+
+}
@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.services.security.impl;
+
+import org.apache.hadoop.gateway.services.security.KeystoreService;
+import org.apache.hadoop.gateway.services.security.KeystoreServiceException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class DefaultCryptoServiceTest {
+
+  private volatile KeyPair keyPair;
+  private volatile KeyStore keystore;
+  private AtomicInteger keyLoads;
+  private DefaultCryptoService crypto;
+
+  @Before
+  public void setup() throws Exception {
+    replaceIdentity();
+    keyLoads = new AtomicInteger();
+    KeystoreService ks = new DefaultKeystoreService() {
+      @Override
+      public KeyStore getKeystoreForGateway() {
+        return keystore;
+      }
+      @Override
+      public Key getKeyForGateway(String alias, char[] passphrase) throws KeystoreServiceException {
+        keyLoads.incrementAndGet();
+        return "gateway-identity".equals(alias) ? keyPair.getPrivate() : null;
+      }
+    };
+    crypto = new DefaultCryptoService();
+    crypto.setKeystoreService(ks);
+    crypto.setAliasService(new DefaultAliasService() {
+      @Override
+      public char[] getPasswordFromAliasForGateway(String alias) {
+        return "passphrase".toCharArray();
+      }
+    });
+  }
+
+  // Like the keystore service does when the keystore file changes, a new keystore instance is returned.
+  private void replaceIdentity() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(1024);
+    KeyPair pair = generator.generateKeyPair();
+    KeyStore store = KeyStore.getInstance("JKS");
+    store.load(null, null);
+    store.setCertificateEntry("gateway-identity", new TestCertificate(pair.getPublic()));
+    keyPair = pair;
+    keystore = store;
+  }
+
+  @Test
+  public void testSigningKeysLoadedOnce() {
+    for (int i = 0; i < 10; i++) {
+      String payload = "payload-" + i;
+      byte[] signature = crypto.sign("SHA256withRSA", "gateway-identity", payload);
+      assertNotNull(signature);
+      assertTrue(crypto.verify("SHA256withRSA", "gateway-identity", payload, signature));
+      assertFalse(crypto.verify("SHA256withRSA", "gateway-identity", payload + "x", signature));
+    }
+    assertEquals(1, keyLoads.get());
+
+    crypto.reloadSigningKeys();
+    byte[] signature = crypto.sign("SHA256withRSA", "gateway-identity", "payload");
+    assertTrue(crypto.verify("SHA256withRSA", "gateway-identity", "payload", signature));
+    assertEquals(2, keyLoads.get());
+  }
+
+  @Test
+  public void testReplacedKeystoreUsedForSigning() throws Exception {
+    byte[] before = crypto.sign("SHA256withRSA", "gateway-identity", "payload");
+    assertTrue(crypto.verify("SHA256withRSA", "gateway-identity", "payload", before));
+    PublicKey oldKey = keyPair.getPublic();
+
+    replaceIdentity();
+    byte[] after = crypto.sign("SHA256withRSA", "gateway-identity", "payload");
+    assertEquals(2, keyLoads.get());
+
+    // Signed with the new key and verified against the new certificate.
+    Signature check = Signature.getInstance("SHA256withRSA");
+    check.initVerify(keyPair.getPublic());
+    check.update("payload".getBytes("UTF-8"));
+    assertTrue(check.verify(after));
+    check.initVerify(oldKey);
+    check.update("payload".getBytes("UTF-8"));
+    assertFalse(check.verify(after));
+    assertTrue(crypto.verify("SHA256withRSA", "gateway-identity", "payload", after));
+    assertFalse(crypto.verify("SHA256withRSA", "gateway-identity", "payload", before));
+  }
+
+  @Test
+  public void testUnknownAlias() {
+    assertEquals(null, crypto.sign("SHA256withRSA", "unknown", "payload"));
+    assertFalse(crypto.verify("SHA256withRSA", "unknown", "payload", new byte[128]));
+  }
+
+  private static class TestCertificate extends Certificate {
+
+    private final PublicKey key;
+
+    private TestCertificate(PublicKey key) {
+      super("X.509");
+      this.key = key;
+    }
+
+    @Override
+    public byte[] getEncoded() {
+      return key.getEncoded();
+    }
+
+    @Override
+    public void verify(PublicKey key) {
+    }
+
+    @Override
+    public void verify(PublicKey key, String sigProvider) {
+    }
+
+    @Override
+    public String toString() {
+      return "TestCertificate";
+    }
+
+    @Override
+    public PublicKey getPublicKey() {
+      return key;
+    }
+
+  }
+
+}
@@ -36,6 +36,7 @@ public interface GatewayConfig {
   public static final String KRB5_DEBUG = "sun.security.krb5.debug";
   public static final String KRB5_LOGIN_CONFIG = "java.security.auth.login.config";
   public static final String KRB5_USE_SUBJECT_CREDS_ONLY = "javax.security.auth.useSubjectCredsOnly";
+  public static final String FILTER_TIMER = "gateway.filter.timer";
 
   /**
    * The location of the gateway configuration.
@@ -77,4 +78,10 @@ public interface GatewayConfig {
   
   String getKerberosLoginConfig();
 
+  /**
+   * The class of an optional org.apache.hadoop.gateway.FilterTimer notified as each filter of a topology returns.
+   * @return The class name of the filter timer or null if filters are not timed.
+   */
+  String getFilterTimer();
+
 }
@@ -29,6 +29,25 @@ public interface CryptoService extends Service {
 
   public byte[] decryptForCluster(String clusterName, String alias, byte[] cipherText, byte[] iv, byte[] salt);
 
+  /**
+   * Encrypts into a single self describing token that can be decrypted by any gateway sharing the alias password.
+   */
+  public byte[] encryptTokenForCluster(String clusterName, String alias, byte[] clear);
+
+  /**
+   * Decrypts a token created by {@link #encryptTokenForCluster}, anything else is rejected.
+   * @return the clear text or null if the token could not be authenticated and decrypted
+   */
+  public byte[] decryptTokenForCluster(String clusterName, String alias, byte[] token);
+
+  /**
+   * Decrypts a token created by {@link #encryptTokenForCluster} or, only if acceptLegacy is true, the byte array
+   * form of an {@link EncryptionResult}.  The legacy form is not authenticated so only callers that must still
+   * read data issued before tokens existed should accept it.
+   * @return the clear text or null if the token could not be decrypted
+   */
+  public byte[] decryptTokenForCluster(String clusterName, String alias, byte[] token, boolean acceptLegacy);
+
   public boolean verify(String algorithm, String alias, String payloadToSign, byte[] signaturePayload);
 
   public byte[] sign(String algorithm, String alias, String payloadToSign);
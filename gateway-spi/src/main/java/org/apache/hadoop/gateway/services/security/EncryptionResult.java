@@ -56,6 +56,11 @@ public class EncryptionResult {
     int saltSize = bb.getInt();
     int ivSize = bb.getInt();
     int cipherSize = bb.getInt();
+    // the sizes are not authenticated, check them before allocating anything
+    if (saltSize < 0 || ivSize < 0 || cipherSize < 0
+        || (long) saltSize + ivSize + cipherSize != bb.remaining()) {
+      throw new IllegalArgumentException("Malformed encryption result");
+    }
 
     result.salt = new byte[saltSize];
     result.iv = new byte[ivSize];
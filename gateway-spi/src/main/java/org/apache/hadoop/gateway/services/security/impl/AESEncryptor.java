@@ -106,12 +106,9 @@ public class AESEncryptor {
   }
   
   public SecretKey getKeyFromPassword(String passPhrase, byte[] salt) {
-    SecretKeyFactory factory;
     SecretKey key = null;
     try {
-      factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-      KeySpec spec = new PBEKeySpec(passPhrase.toCharArray(), salt, ITERATION_COUNT, KEY_LENGTH);
-      key = factory.generateSecret(spec);
+      key = deriveKey(passPhrase.toCharArray(), salt);
     } catch (NoSuchAlgorithmException e) {
       LOG.failedToGenerateKeyFromPassword( e );
     } catch (InvalidKeySpecException e) {
@@ -121,6 +118,16 @@ public class AESEncryptor {
     return key;
   }
 
+  /**
+   * Derives the PBKDF2 key for a pass phrase and salt.
+   * Derivation is deliberately slow so callers that encrypt repeatedly with the same pass phrase should keep the key.
+   */
+  public static SecretKey deriveKey(char[] passPhrase, byte[] salt) throws NoSuchAlgorithmException, InvalidKeySpecException {
+    SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+    KeySpec spec = new PBEKeySpec(passPhrase, salt, ITERATION_COUNT, KEY_LENGTH);
+    return factory.generateSecret(spec);
+  }
+
   public EncryptionResult encrypt(String encrypt) throws Exception {
       byte[] bytes = encrypt.getBytes("UTF8");
       EncryptionResult atom = encrypt(bytes);
@@ -42,6 +42,8 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class BaseKeystoreService {
   private static GatewaySpiMessages LOG = MessagesFactory.get( GatewaySpiMessages.class );
@@ -49,6 +51,10 @@ public class BaseKeystoreService {
   protected MasterService masterService;
   protected String keyStoreDir;
 
+  // Loaded keystores by absolute path.  Loading means reading the file and checking its integrity with the
+  // master secret so the loaded stores are reused until the file changes on disk.
+  private final Map<String, CachedKeyStore> keyStores = new ConcurrentHashMap<String, CachedKeyStore>();
+
   private static KeyStore loadKeyStore(final File keyStoreFile, final char[] masterPassword, String storeType)
       throws CertificateException, IOException, KeyStoreException,
       NoSuchAlgorithmException {     
@@ -135,7 +141,12 @@ public class BaseKeystoreService {
       FileOutputStream out = createKeyStoreFile( filename );
       KeyStore ks = KeyStore.getInstance(keystoreType);  
       ks.load( null, null );  
-      ks.store( out, masterService.getMasterSecret() );
+      try {
+        ks.store( out, masterService.getMasterSecret() );
+      } finally {
+        out.close();
+      }
+      invalidateKeystore( new File( filename ) );
     } catch (KeyStoreException e) {
       LOG.failedToCreateKeystore( filename, keystoreType, e );
       throw new KeystoreServiceException(e);
@@ -185,7 +196,30 @@ public class BaseKeystoreService {
     return false;
   }
 
+  /**
+   * Returns the keystore, reusing the previously loaded instance unless the file has changed since.
+   * The returned instance is shared and must not be modified, use {@link #getKeystoreForUpdate} instead.
+   */
   protected KeyStore getKeystore(final File keyStoreFile, String storeType) {
+    String path = keyStoreFile.getAbsolutePath();
+    // The file is checked before loading so a change made while loading causes a reload next time.
+    long modified = keyStoreFile.lastModified();
+    long length = keyStoreFile.length();
+    CachedKeyStore cached = keyStores.get( path );
+    if( cached != null && cached.isCurrent( storeType, modified, length ) ) {
+      return cached.keyStore;
+    }
+    KeyStore credStore = getKeystoreForUpdate( keyStoreFile, storeType );
+    if( credStore != null && keyStoreFile.exists() ) {
+      keyStores.put( path, new CachedKeyStore( credStore, storeType, modified, length ) );
+    }
+    return credStore;
+  }
+
+  /**
+   * Loads a private copy of the keystore that may be modified and then saved with {@link #writeKeystoreToFile}.
+   */
+  protected KeyStore getKeystoreForUpdate(final File keyStoreFile, String storeType) {
     KeyStore credStore = null;
     try {
       credStore = loadKeyStore( keyStoreFile, masterService.getMasterSecret(), storeType);
@@ -245,10 +279,15 @@ public class BaseKeystoreService {
     return credential;
   }
 
+  /**
+   * Saves the keystore and makes it the cached instance for the file.
+   * The keystore is written to a temporary file that then replaces the original so that readers,
+   * including other processes, never see a partially written file.
+   */
   protected void writeKeystoreToFile(final KeyStore keyStore, final File file)
       throws KeyStoreException, IOException, NoSuchAlgorithmException, CertificateException {
-     // TODO: backup the keystore on disk before attempting a write and restore on failure
-     final FileOutputStream  out = new FileOutputStream(file);
+     File temp = new File( file.getAbsolutePath() + ".tmp" );
+     final FileOutputStream  out = new FileOutputStream(temp);
      try
      {
          keyStore.store( out, masterService.getMasterSecret());
@@ -257,9 +296,53 @@ public class BaseKeystoreService {
      {
          out.close();
      }
+     if( !temp.renameTo( file ) ) {
+       // Some platforms will not rename over an existing file.
+       if( !file.delete() || !temp.renameTo( file ) ) {
+         temp.delete();
+         throw new IOException( file.getAbsolutePath() );
+       }
+     }
+     keyStores.put( file.getAbsolutePath(), new CachedKeyStore( keyStore, keyStore.getType(), file.lastModified(), file.length() ) );
+  }
+
+  /**
+   * Discards the cached instance of a keystore so that it is loaded again on next use.
+   */
+  protected void invalidateKeystore(final File file) {
+    keyStores.remove( file.getAbsolutePath() );
+  }
+
+  /**
+   * Discards all cached keystores, for example after the keystores have been changed by another process
+   * within the granularity of the file modification time.
+   */
+  public void invalidateKeystores() {
+    keyStores.clear();
   }
 
   public void setMasterService(MasterService ms) {
     this.masterService = ms;
+    invalidateKeystores();
+  }
+
+  private static final class CachedKeyStore {
+
+    private final KeyStore keyStore;
+    private final String type;
+    private final long modified;
+    private final long length;
+
+    private CachedKeyStore( KeyStore keyStore, String type, long modified, long length ) {
+      this.keyStore = keyStore;
+      this.type = type;
+      this.modified = modified;
+      this.length = length;
+    }
+
+    private boolean isCurrent( String type, long modified, long length ) {
+      return this.type.equalsIgnoreCase( type ) && this.modified == modified && this.length == length;
+    }
+
   }
 }
\ No newline at end of file
@@ -72,7 +72,7 @@ public class CMFKeystoreService extends BaseKeystoreService {
       KeyPair KPair = keyPairGenerator.generateKeyPair();
       X509Certificate cert = generateCertificate(TEST_CERT_DN, KPair, 365, "SHA1withRSA");
 
-      KeyStore privateKS = getKeystore();
+      KeyStore privateKS = getKeystoreForUpdate(new File( keyStoreDir + serviceName  ), "JKS");
       privateKS.setKeyEntry(alias, KPair.getPrivate(),  
           passphrase,  
           new java.security.cert.Certificate[]{cert});  
@@ -138,9 +138,9 @@ public class CMFKeystoreService extends BaseKeystoreService {
   }
 
   public void addCredential(String alias, String value) {
-    KeyStore ks = getCredentialStore();
-    addCredential(alias, value, ks);
     final File  keyStoreFile = new File( keyStoreDir + serviceName + CREDENTIALS_SUFFIX  );
+    KeyStore ks = getKeystoreForUpdate(keyStoreFile, "JCEKS");
+    addCredential(alias, value, ks);
     try {
       writeKeystoreToFile(ks, keyStoreFile);
     } catch (KeyStoreException e) {
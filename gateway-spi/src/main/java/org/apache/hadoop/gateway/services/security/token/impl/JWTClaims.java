@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.services.security.token.impl;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * The claims of a JWT, parsed once from their JSON form.
+ * <p>
+ * The registered claims used by the gateway are read in a single streaming pass when the claims are created.
+ * The remaining claims are only collected into a map the first time one of them is requested.  The JSON must
+ * be a single object with no duplicate claims.  Claims whose values are objects or arrays are not available
+ * as strings and are ignored.
+ */
+public final class JWTClaims {
+
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  private final String json;
+  private final String issuer;
+  private final String principal;
+  private final String audience;
+  private final String expires;
+  private volatile Map<String, String> claims;
+
+  private JWTClaims(String json, Map<String, String> registered) {
+    this.json = json;
+    this.issuer = registered.get(JWTToken.ISSUER);
+    this.principal = registered.get(JWTToken.PRINCIPAL);
+    this.audience = registered.get(JWTToken.AUDIENCE);
+    this.expires = registered.get(JWTToken.EXPIRES);
+  }
+
+  /**
+   * Parses the JSON form of the claims of a token.
+   *
+   * @throws IllegalArgumentException if the claims are not a valid JSON object
+   */
+  public static JWTClaims parse(String json) {
+    Map<String, String> registered = new HashMap<String, String>(8);
+    parse(json, registered, true);
+    return new JWTClaims(json, registered);
+  }
+
+  public String getIssuer() {
+    return issuer;
+  }
+
+  public String getPrincipal() {
+    return principal;
+  }
+
+  public String getAudience() {
+    return audience;
+  }
+
+  public String getExpires() {
+    return expires;
+  }
+
+  /**
+   * Returns the value of a claim or null if the token does not have the claim.
+   */
+  public String getClaim(String name) {
+    if (JWTToken.ISSUER.equals(name)) {
+      return issuer;
+    } else if (JWTToken.PRINCIPAL.equals(name)) {
+      return principal;
+    } else if (JWTToken.AUDIENCE.equals(name)) {
+      return audience;
+    } else if (JWTToken.EXPIRES.equals(name)) {
+      return expires;
+    }
+    return getClaims().get(name);
+  }
+
+  /**
+   * Returns all of the claims with string, number or boolean values.
+   */
+  public Map<String, String> getClaims() {
+    Map<String, String> map = claims;
+    if (map == null) {
+      map = new HashMap<String, String>();
+      parse(json, map, false);
+      map = Collections.unmodifiableMap(map);
+      claims = map;
+    }
+    return map;
+  }
+
+  private static void parse(String json, Map<String, String> claims, boolean registeredOnly) {
+    try {
+      JsonParser parser = FACTORY.createParser(json);
+      try {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+          throw new IllegalArgumentException("JWT claims are not a JSON object");
+        }
+        Set<String> seen = new HashSet<String>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String name = parser.getCurrentName();
+          if (!seen.add(name)) {
+            throw new IllegalArgumentException("Duplicate JWT claim " + name);
+          }
+          JsonToken value = parser.nextToken();
+          if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+            parser.skipChildren();
+          } else if (value != JsonToken.VALUE_NULL && (!registeredOnly || isRegistered(name))) {
+            claims.put(name, parser.getText());
+          }
+        }
+        if (parser.getCurrentToken() != JsonToken.END_OBJECT || parser.nextToken() != null) {
+          throw new IllegalArgumentException("Invalid JWT claims");
+        }
+      } finally {
+        parser.close();
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid JWT claims", e);
+    }
+  }
+
+  private static boolean isRegistered(String name) {
+    return JWTToken.ISSUER.equals(name) || JWTToken.PRINCIPAL.equals(name)
+        || JWTToken.AUDIENCE.equals(name) || JWTToken.EXPIRES.equals(name);
+  }
+
+}
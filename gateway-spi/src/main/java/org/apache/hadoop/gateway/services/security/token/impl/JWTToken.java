@@ -17,17 +17,17 @@
    */
 package org.apache.hadoop.gateway.services.security.token.impl;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
-import java.text.MessageFormat;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.hadoop.gateway.i18n.messages.MessagesFactory;
 
-import com.jayway.jsonpath.JsonPath;
-
 public class JWTToken {
-  private static final String headerTemplate = "'{'\"alg\": \"{0}\"'}'";
-  private static final String claimTemplate = "'{'\"iss\": \"{0}\", \"prn\": \"{1}\", \"aud\": \"{2}\", \"exp\": \"{3}\"'}'";
+  private static final JsonFactory FACTORY = new JsonFactory();
   public static final String PRINCIPAL = "prn";
   public static final String ISSUER = "iss";
   public static final String AUDIENCE = "aud";
@@ -38,25 +38,51 @@ public class JWTToken {
   public String claims = null;
   
   byte[] payload = null;
+  private JWTClaims claimSet = null;
   
   private JWTToken(byte[] header, byte[] claims, byte[] signature) {
     try {
       this.header = new String(header, "UTF-8");
       this.claims = new String(claims, "UTF-8");
       this.payload = signature;
+      this.claimSet = JWTClaims.parse(this.claims);
     } catch (UnsupportedEncodingException e) {
       log.unsupportedEncoding( e );
     }
   }
 
+  /**
+   * Creates an unsigned token.
+   *
+   * @param claimsArray the issuer, principal, audience and expiration time, in that order
+   */
   public JWTToken(String alg, String[] claimsArray) {
-    MessageFormat headerFormatter = new MessageFormat(headerTemplate);
-    String[] algArray = new String[1];
-    algArray[0] = alg;
-    header = headerFormatter.format(algArray);
+    header = toJson(new String[] { "alg" }, new String[] { alg });
+    claims = toJson(new String[] { ISSUER, PRINCIPAL, AUDIENCE, EXPIRES }, claimsArray);
+    claimSet = JWTClaims.parse(claims);
+  }
 
-    MessageFormat claimsFormatter = new MessageFormat(claimTemplate);
-    claims = claimsFormatter.format(claimsArray);
+  /**
+   * Writes the names and values as a JSON object of string fields, escaping the values as needed.
+   * Fields with a null value are left out, as they would be dropped when the claims are parsed anyway.
+   */
+  private static String toJson(String[] names, String[] values) {
+    StringWriter writer = new StringWriter();
+    try {
+      JsonGenerator generator = FACTORY.createGenerator(writer);
+      generator.writeStartObject();
+      for (int i = 0; i < names.length; i++) {
+        if (values[i] != null) {
+          generator.writeStringField(names[i], values[i]);
+        }
+      }
+      generator.writeEndObject();
+      generator.close();
+    } catch (IOException e) {
+      // writing to a StringWriter does not fail
+      throw new IllegalStateException(e);
+    }
+    return writer.toString();
   }
   
   public String getPayloadToSign() {
@@ -97,39 +123,45 @@ public class JWTToken {
     return this.payload;
   }
 
+  /**
+   * Parses a token in its wire form.  The claims are parsed once so reading them later is cheap.
+   *
+   * @throws IllegalArgumentException if the token is not made of three parts or its claims are not valid JSON
+   */
   public static JWTToken parseToken(String wireToken) {
-    JWTToken token = null;
     log.parsingToken(wireToken);
-    String[] parts = wireToken.split("\\.");
-    token = new JWTToken(Base64.decodeBase64(parts[0]), Base64.decodeBase64(parts[1]), Base64.decodeBase64(parts[2]));
-//    System.out.println("header: " + token.header);
-//    System.out.println("claims: " + token.claims);
-//    System.out.println("payload: " + new String(token.payload));
-    
-    return token;
+    int first = wireToken.indexOf('.');
+    int second = first < 0 ? -1 : wireToken.indexOf('.', first + 1);
+    if (second < 0 || wireToken.indexOf('.', second + 1) >= 0) {
+      throw new IllegalArgumentException("JWT must have three parts");
+    }
+    return new JWTToken(
+        Base64.decodeBase64(wireToken.substring(0, first)),
+        Base64.decodeBase64(wireToken.substring(first + 1, second)),
+        Base64.decodeBase64(wireToken.substring(second + 1)));
   }
   
   public String getClaim(String claimName) {
-    String claim = null;
-    
-    claim = JsonPath.read(claims, "$." + claimName);
-    
-    return claim;
+    return claimSet.getClaim(claimName);
+  }
+
+  public JWTClaims getClaims() {
+    return claimSet;
   }
 
   public String getPrincipal() {
-    return getClaim(JWTToken.PRINCIPAL);
+    return claimSet.getPrincipal();
   }
 
   public String getIssuer() {
-    return getClaim(JWTToken.ISSUER);
+    return claimSet.getIssuer();
   }
 
   public String getAudience() {
-    return getClaim(JWTToken.AUDIENCE);
+    return claimSet.getAudience();
   }
 
   public String getExpires() {
-    return getClaim(JWTToken.EXPIRES);
+    return claimSet.getExpires();
   }
 }
@@ -18,6 +18,7 @@
 package org.apache.hadoop.gateway.services.security.impl;
 
 import java.io.File;
+import java.security.KeyStore;
 import java.util.Map;
 
 import org.apache.hadoop.gateway.config.GatewayConfig;
@@ -30,6 +31,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -97,4 +100,33 @@ public class CMFKeystoreServiceTest {
       fail();
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testCredentialStoreCachedUntilChanged() throws Exception {
+    ks.createCredentialStore();
+    ks.addCredential("aliasName", "secretValue");
+    KeyStore first = ks.getCredentialStore();
+    assertSame(first, ks.getCredentialStore());
+
+    // A change made through another service instance, as the CLI would, is seen once the file changes.
+    CMFKeystoreService other = new CMFKeystoreService(".", "ambari");
+    other.setMasterService(new MasterService() {
+      public void init(GatewayConfig config, Map<String, String> options) {
+      }
+      public void start() {
+      }
+      public void stop() {
+      }
+      public char[] getMasterSecret() {
+        return "testmaster".toCharArray();
+      }
+    });
+    other.addCredential("otherAlias", "otherValue");
+    assertTrue(new String(ks.getCredential("otherAlias")).equals("otherValue"));
+    assertNotSame(first, ks.getCredentialStore());
+
+    File file = new File("ambari-credentials.jceks");
+    assertTrue(file.exists());
+    file.delete();
+  }
+}
@@ -18,6 +18,9 @@
 package org.apache.hadoop.gateway.security.ldap;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.directory.api.ldap.codec.api.LdapApiService;
+import org.apache.directory.api.ldap.codec.controls.search.pagedSearch.PagedResultsFactory;
+import org.apache.directory.api.ldap.model.message.controls.PagedResults;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.partition.Partition;
@@ -50,6 +53,13 @@ public class SimpleLdapDirectoryServer {
     factory.init( UUID.randomUUID().toString() );
     service = factory.getDirectoryService();
 
+    // The standalone codec only knows the controls listed in system properties, register paged results
+    // so that paged searches are answered instead of failing.
+    LdapApiService codec = service.getLdapCodecService();
+    if( !codec.isControlRegistered( PagedResults.OID ) ) {
+      codec.registerControl( new PagedResultsFactory( codec ) );
+    }
+
     Partition partition = factory.getPartitionFactory().createPartition(
         service.getSchemaManager(), "users", rootDn, 500, service.getInstanceLayout().getInstanceDirectory() );
     service.addPartition( partition );
@@ -149,5 +149,10 @@ public class GatewayTestConfig implements GatewayConfig {
 //  public void setKerberosLoginConfig(String kerberosLoginConfig) {
 //   this.kerberosLoginConfig = kerberosLoginConfig;
 //  }
+
+  @Override
+  public String getFilterTimer() {
+    return null;
+  }
   
 }
@@ -36,6 +36,13 @@ public interface CorrelationService {
    */
   CorrelationContext createContext();
 
+  /**
+   * Creates a new request ID using the service's request ID generator.
+   *
+   * @return A new request ID.  Will not be null.
+   */
+  String createRequestId();
+
   /**
    * Returns the current attached correlation context if any.
    *
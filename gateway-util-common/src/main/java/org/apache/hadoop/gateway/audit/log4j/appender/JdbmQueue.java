@@ -26,7 +26,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.Properties;
 
-public class JdbmQueue<E> {
+public class JdbmQueue<E> implements StoreAndForwardQueue<E> {
 
   private static final String STAT_NAME = "stat";
   private static final String DATA_TREE = "data";
@@ -45,6 +45,7 @@ public class JdbmQueue<E> {
     open = true;
   }
 
+  @Override
   public synchronized void enqueue( E e ) throws IOException {
     boolean committed = false;
     try {
@@ -62,6 +63,7 @@ public class JdbmQueue<E> {
     }
   }
 
+  @Override
   public synchronized E dequeue() throws InterruptedException, IOException {
     boolean committed = false;
     try {
@@ -89,7 +91,8 @@ public class JdbmQueue<E> {
     }
   }
 
-  public synchronized boolean process( Consumer<E> consumer ) throws IOException {
+  @Override
+  public synchronized boolean process( StoreAndForwardQueue.Consumer<E> consumer ) throws IOException {
     boolean committed = false;
     try {
       E e = dequeue();
@@ -112,6 +115,7 @@ public class JdbmQueue<E> {
     return committed;
   }
 
+  @Override
   public synchronized void close() {
     open = false;
     notifyAll();
@@ -164,8 +168,7 @@ public class JdbmQueue<E> {
     }
   }
 
-  public interface Consumer<E> {
-    boolean consume( E e );
+  public interface Consumer<E> extends StoreAndForwardQueue.Consumer<E> {
   }
 
 }
@@ -29,9 +29,11 @@ public class JdbmStoreAndForwardAppender extends AppenderSkeleton {
 
   private File file;
   private Thread forwarder;
-  private JdbmQueue<LoggingEvent> queue;
+  private StoreAndForwardQueue<LoggingEvent> queue;
   private Logger forward;
   private boolean fetchLocationInfo = true;
+  private boolean segmented = false;
+  private int segmentSize = SegmentQueue.DEFAULT_SEGMENT_SIZE;
 
   @Override
   public boolean requiresLayout() {
@@ -50,10 +52,33 @@ public class JdbmStoreAndForwardAppender extends AppenderSkeleton {
     return fetchLocationInfo;
   }
 
+  /**
+   * Stores the events in a {@link SegmentQueue} in the directory named by the file option instead of a JDBM database.
+   */
+  public void setSegmented( boolean segmented ) {
+    this.segmented = segmented;
+  }
+
+  public boolean isSegmented() {
+    return segmented;
+  }
+
+  public void setSegmentSize( int segmentSize ) {
+    this.segmentSize = segmentSize;
+  }
+
+  public int getSegmentSize() {
+    return segmentSize;
+  }
+
   @Override
   public void activateOptions() {
     try {
-      queue = new JdbmQueue<LoggingEvent>( file );
+      if( segmented ) {
+        queue = new SegmentQueue<LoggingEvent>( file, segmentSize );
+      } else {
+        queue = new JdbmQueue<LoggingEvent>( file );
+      }
     } catch ( IOException e ) {
       throw new IllegalStateException( e );
     }
@@ -87,7 +112,7 @@ public class JdbmStoreAndForwardAppender extends AppenderSkeleton {
       final AtomicBoolean done = new AtomicBoolean( false );
       while( !done.get() ) {
         try {
-          queue.process( new JdbmQueue.Consumer<LoggingEvent>() {
+          queue.process( new StoreAndForwardQueue.Consumer<LoggingEvent>() {
             @Override
             public boolean consume( LoggingEvent event ) {
               try {
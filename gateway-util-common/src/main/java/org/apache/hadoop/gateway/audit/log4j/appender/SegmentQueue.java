@@ -0,0 +1,496 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.audit.log4j.appender;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.helpers.LogLog;
+
+/**
+ * A durable queue stored as a sequence of memory mapped, append only segment files in a directory.
+ * <p>
+ * Producers append serialized elements to the current segment and then wait for it to be forced to disk.
+ * Forcing is shared: a producer that finds its element already covered by another producer's force returns
+ * without forcing again, so concurrent producers pay for one force per group rather than one per element.
+ * The consumer reads the segments sequentially.  Once a segment has been consumed its file is kept as a spare
+ * and reused for a later segment.
+ * <p>
+ * Each segment starts with a header holding the segment id and the offset of the next unconsumed record.
+ * Each record holds its length, a CRC32 of the segment id and the record bytes, and the record bytes.
+ * On open the segments are scanned and the first record that fails its check marks the end of the segment.
+ * The consumed offset is written to the mapping without forcing, so elements may be delivered again after
+ * an operating system crash but are never lost.  A record that can't be deserialized is logged and skipped.
+ * <p>
+ * Any number of threads may enqueue but only one thread may dequeue or process at a time.
+ */
+public class SegmentQueue<E> implements StoreAndForwardQueue<E> {
+
+  public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final int HEADER_SIZE = 16;
+  private static final int HEADER_READ_OFFSET = 8;
+  private static final int RECORD_HEADER_SIZE = 8;
+  private static final int MAX_SPARE_SEGMENTS = 2;
+
+  private final File directory;
+  private final int segmentSize;
+  // Oldest first.  The first segment is being read and the last is being written.
+  private final LinkedList<Segment> segments = new LinkedList<Segment>();
+  private final LinkedList<File> spares = new LinkedList<File>();
+  private final Object flushLock = new Object();
+  private long written; // Guarded by this.
+  private long flushed; // Guarded by flushLock.
+  private int readOffset; // Guarded by this.
+  private Segment forcing; // Guarded by this.
+  private boolean open;
+
+  public SegmentQueue( File directory ) throws IOException {
+    this( directory, DEFAULT_SEGMENT_SIZE );
+  }
+
+  public SegmentQueue( File directory, int segmentSize ) throws IOException {
+    if( segmentSize < HEADER_SIZE + RECORD_HEADER_SIZE + 1 ) {
+      throw new IllegalArgumentException( "segmentSize=" + segmentSize );
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    if( !directory.isDirectory() && !directory.mkdirs() ) {
+      throw new IOException( "Failed to create queue directory " + directory.getAbsolutePath() );
+    }
+    recover();
+    open = true;
+  }
+
+  @Override
+  public void enqueue( E e ) throws IOException {
+    byte[] bytes = serialize( e );
+    if( RECORD_HEADER_SIZE + bytes.length > segmentSize - HEADER_SIZE ) {
+      throw new IOException( "Element of " + bytes.length + " bytes does not fit in a segment of " + segmentSize + " bytes" );
+    }
+    long sequence;
+    synchronized( this ) {
+      Segment segment = segments.getLast();
+      if( segment.limit + RECORD_HEADER_SIZE + bytes.length > segmentSize ) {
+        segment.force();
+        segment = roll();
+      }
+      segment.append( bytes );
+      sequence = ++written;
+      notifyAll();
+    }
+    flush( sequence );
+  }
+
+  @Override
+  public E dequeue() throws InterruptedException, IOException {
+    Record record = next();
+    if( record == null ) {
+      return null;
+    }
+    acknowledge( record );
+    return record.element;
+  }
+
+  @Override
+  public boolean process( StoreAndForwardQueue.Consumer<E> consumer ) throws IOException {
+    Record record;
+    try {
+      record = next();
+    } catch( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    boolean consumed = consumer.consume( record == null ? null : record.element );
+    if( consumed && record != null ) {
+      acknowledge( record );
+    }
+    return consumed;
+  }
+
+  @Override
+  public synchronized void close() {
+    if( open ) {
+      open = false;
+      segments.getLast().force();
+      notifyAll();
+    }
+  }
+
+  File getDirectory() {
+    return directory;
+  }
+
+  synchronized int getSegmentCount() {
+    return segments.size();
+  }
+
+  // Waits for the next record without removing it.
+  private synchronized Record next() throws InterruptedException, IOException {
+    while( true ) {
+      Segment segment = segments.getFirst();
+      if( readOffset < segment.limit ) {
+        int length = segment.buffer.getInt( readOffset );
+        byte[] bytes = new byte[ length ];
+        ByteBuffer view = segment.buffer.duplicate();
+        view.position( readOffset + RECORD_HEADER_SIZE );
+        view.get( bytes );
+        int next = readOffset + RECORD_HEADER_SIZE + length;
+        try {
+          return new Record( segment, next, deserialize( bytes ) );
+        } catch( IOException e ) {
+          skip( segment, next, e );
+        } catch( RuntimeException e ) {
+          skip( segment, next, e );
+        }
+        continue;
+      }
+      if( segment != segments.getLast() ) {
+        recycle( segments.removeFirst() );
+        readOffset = segments.getFirst().readOffset();
+      } else if( !open ) {
+        return null;
+      } else {
+        wait();
+      }
+    }
+  }
+
+  // Otherwise the record would block the queue forever.
+  private void skip( Segment segment, int next, Exception e ) {
+    LogLog.warn( "Skipping undeserializable record at offset " + readOffset + " of " + segment.file, e );
+    readOffset = next;
+    segment.buffer.putInt( HEADER_READ_OFFSET, readOffset );
+  }
+
+  private synchronized void acknowledge( Record record ) {
+    if( record.segment == segments.getFirst() && record.next > readOffset ) {
+      readOffset = record.next;
+      record.segment.buffer.putInt( HEADER_READ_OFFSET, readOffset );
+    }
+  }
+
+  private void flush( long sequence ) {
+    synchronized( flushLock ) {
+      if( flushed >= sequence ) {
+        return;
+      }
+      Segment segment;
+      long target;
+      synchronized( this ) {
+        segment = segments.getLast();
+        target = written;
+        forcing = segment;
+      }
+      // Segments other than the last were forced when they were rolled.
+      try {
+        segment.force();
+      } finally {
+        synchronized( this ) {
+          forcing = null;
+          if( segment.retired ) {
+            release( segment );
+          }
+        }
+      }
+      flushed = target;
+    }
+  }
+
+  private Segment roll() throws IOException {
+    long id = segments.getLast().id + 1;
+    File file = segmentFile( id );
+    File spare = spares.poll();
+    if( spare != null && !spare.renameTo( file ) ) {
+      spare.delete();
+    }
+    Segment segment = Segment.create( file, id, segmentSize );
+    segments.addLast( segment );
+    return segment;
+  }
+
+  // A segment that is still being forced is released once the force completes.
+  private void recycle( Segment segment ) {
+    if( segment == forcing ) {
+      segment.retired = true;
+    } else {
+      release( segment );
+    }
+  }
+
+  // The mapping must be gone before the file is renamed or deleted, some platforms refuse otherwise.
+  private void release( Segment segment ) {
+    segment.unmap();
+    if( spares.size() < MAX_SPARE_SEGMENTS ) {
+      spares.add( segment.file );
+    } else {
+      segment.file.delete();
+    }
+  }
+
+  private void recover() throws IOException {
+    File[] files = directory.listFiles( new FilenameFilter() {
+      @Override
+      public boolean accept( File dir, String name ) {
+        return name.startsWith( SEGMENT_PREFIX ) && name.endsWith( SEGMENT_SUFFIX );
+      }
+    } );
+    List<Long> ids = new ArrayList<Long>();
+    if( files != null ) {
+      for( File file : files ) {
+        String name = file.getName();
+        try {
+          ids.add( Long.valueOf( name.substring( SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length() ) ) );
+        } catch( NumberFormatException e ) {
+          // Not one of ours.
+        }
+      }
+    }
+    Collections.sort( ids );
+    for( int i = 0; i < ids.size(); i++ ) {
+      Segment segment = Segment.open( segmentFile( ids.get( i ) ), ids.get( i ), segmentSize );
+      boolean last = i == ids.size() - 1;
+      if( !last && segment.readOffset() >= segment.limit ) {
+        recycle( segment );
+      } else {
+        segments.addLast( segment );
+      }
+    }
+    if( segments.isEmpty() ) {
+      long id = ids.isEmpty() ? 1 : ids.get( ids.size() - 1 ) + 1;
+      segments.addLast( Segment.create( segmentFile( id ), id, segmentSize ) );
+    }
+    readOffset = segments.getFirst().readOffset();
+  }
+
+  private File segmentFile( long id ) {
+    return new File( directory, String.format( "%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX ) );
+  }
+
+  private static byte[] serialize( Object object ) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream output = new ObjectOutputStream( bytes );
+    output.writeObject( object );
+    output.close();
+    return bytes.toByteArray();
+  }
+
+  @SuppressWarnings("unchecked")
+  private E deserialize( byte[] bytes ) throws IOException {
+    ObjectInputStream input = new ObjectInputStream( new ByteArrayInputStream( bytes ) );
+    try {
+      return (E)input.readObject();
+    } catch( ClassNotFoundException e ) {
+      throw new IOException( e );
+    } finally {
+      input.close();
+    }
+  }
+
+  private static long checksum( long id, byte[] bytes, int offset, int length ) {
+    CRC32 crc = new CRC32();
+    for( int shift = 56; shift >= 0; shift -= 8 ) {
+      crc.update( (int)( id >>> shift ) );
+    }
+    crc.update( bytes, offset, length );
+    return crc.getValue();
+  }
+
+  private final class Record {
+
+    private final Segment segment;
+    private final int next;
+    private final E element;
+
+    private Record( Segment segment, int next, E element ) {
+      this.segment = segment;
+      this.next = next;
+      this.element = element;
+    }
+
+  }
+
+  private static final class Segment {
+
+    private static final Unmapper UNMAPPER = Unmapper.create();
+
+    private final File file;
+    private final long id;
+    private final MappedByteBuffer buffer;
+    private int limit;
+    private boolean retired;
+
+    private Segment( File file, long id, MappedByteBuffer buffer ) {
+      this.file = file;
+      this.id = id;
+      this.buffer = buffer;
+    }
+
+    private static MappedByteBuffer map( File file, int size ) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+      try {
+        if( raf.length() != size ) {
+          raf.setLength( size );
+        }
+        // The mapping remains valid after the file is closed.
+        return raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, size );
+      } finally {
+        raf.close();
+      }
+    }
+
+    // Creates a new segment, possibly in a recycled file.
+    // Stale records left in a recycled file fail the checksum since it includes the segment id.
+    private static Segment create( File file, long id, int size ) throws IOException {
+      Segment segment = new Segment( file, id, map( file, size ) );
+      segment.buffer.putLong( 0, id );
+      segment.buffer.putInt( HEADER_READ_OFFSET, HEADER_SIZE );
+      segment.buffer.putInt( HEADER_READ_OFFSET + 4, 0 );
+      segment.limit = HEADER_SIZE;
+      segment.force();
+      return segment;
+    }
+
+    // Opens an existing segment and finds the end of the records written to it.
+    private static Segment open( File file, long id, int size ) throws IOException {
+      if( file.length() > size ) {
+        size = (int)Math.min( file.length(), Integer.MAX_VALUE );
+      }
+      Segment segment = new Segment( file, id, map( file, size ) );
+      int offset = HEADER_SIZE;
+      if( segment.buffer.getLong( 0 ) == id ) {
+        byte[] bytes = new byte[ 0 ];
+        while( offset + RECORD_HEADER_SIZE <= size ) {
+          int length = segment.buffer.getInt( offset );
+          if( length <= 0 || offset + RECORD_HEADER_SIZE + length > size ) {
+            break;
+          }
+          if( bytes.length < length ) {
+            bytes = new byte[ length ];
+          }
+          ByteBuffer view = segment.buffer.duplicate();
+          view.position( offset + RECORD_HEADER_SIZE );
+          view.get( bytes, 0, length );
+          int crc = segment.buffer.getInt( offset + 4 );
+          if( crc != (int)checksum( id, bytes, 0, length ) ) {
+            break;
+          }
+          offset += RECORD_HEADER_SIZE + length;
+        }
+      } else {
+        segment.buffer.putLong( 0, id );
+        segment.buffer.putInt( HEADER_READ_OFFSET, HEADER_SIZE );
+      }
+      segment.limit = offset;
+      int read = segment.buffer.getInt( HEADER_READ_OFFSET );
+      if( read < HEADER_SIZE || read > segment.limit ) {
+        segment.buffer.putInt( HEADER_READ_OFFSET, HEADER_SIZE );
+      }
+      return segment;
+    }
+
+    private int readOffset() {
+      return buffer.getInt( HEADER_READ_OFFSET );
+    }
+
+    private void append( byte[] bytes ) {
+      ByteBuffer view = buffer.duplicate();
+      view.position( limit );
+      view.putInt( bytes.length );
+      view.putInt( (int)checksum( id, bytes, 0, bytes.length ) );
+      view.put( bytes );
+      limit = view.position();
+    }
+
+    private void force() {
+      buffer.force();
+    }
+
+    // The buffer must not be used afterwards.
+    private void unmap() {
+      UNMAPPER.unmap( buffer );
+    }
+
+  }
+
+  /**
+   * Releases a mapping without waiting for the buffer to be garbage collected.
+   * There is no public API for this so the JDK internals are used where they are available.
+   * Otherwise the mapping is released when the buffer is collected.
+   */
+  private static class Unmapper {
+
+    private final Object unsafe;
+    private final Method invokeCleaner;
+
+    private Unmapper( Object unsafe, Method invokeCleaner ) {
+      this.unsafe = unsafe;
+      this.invokeCleaner = invokeCleaner;
+    }
+
+    private static Unmapper create() {
+      try {
+        // Java 9 and later.
+        Class<?> type = Class.forName( "sun.misc.Unsafe" );
+        Method invokeCleaner = type.getMethod( "invokeCleaner", ByteBuffer.class );
+        Field field = type.getDeclaredField( "theUnsafe" );
+        field.setAccessible( true );
+        return new Unmapper( field.get( null ), invokeCleaner );
+      } catch( Exception e ) {
+        return new Unmapper( null, null );
+      }
+    }
+
+    private void unmap( MappedByteBuffer buffer ) {
+      try {
+        if( invokeCleaner != null ) {
+          invokeCleaner.invoke( unsafe, buffer );
+        } else {
+          Method cleanerMethod = buffer.getClass().getMethod( "cleaner" );
+          cleanerMethod.setAccessible( true );
+          Object cleaner = cleanerMethod.invoke( buffer );
+          if( cleaner != null ) {
+            cleaner.getClass().getMethod( "clean" ).invoke( cleaner );
+          }
+        }
+      } catch( Exception e ) {
+        // Left to the garbage collector.
+      }
+    }
+
+  }
+
+}
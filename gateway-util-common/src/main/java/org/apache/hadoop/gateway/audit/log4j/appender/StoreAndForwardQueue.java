@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.audit.log4j.appender;
+
+import java.io.IOException;
+
+/**
+ * A durable FIFO queue used by the store and forward appender.
+ */
+public interface StoreAndForwardQueue<E> {
+
+  /**
+   * Adds an element to the queue.  The element is durable once the method returns.
+   */
+  void enqueue( E e ) throws IOException;
+
+  /**
+   * Removes the next element from the queue, waiting for one if required.
+   * @return the next element or null once the queue has been closed and is empty
+   */
+  E dequeue() throws InterruptedException, IOException;
+
+  /**
+   * Passes the next element to the consumer and only removes it from the queue if it was consumed.
+   * The consumer is passed null once the queue has been closed and is empty.
+   * @return true if the element was consumed
+   */
+  boolean process( Consumer<E> consumer ) throws IOException;
+
+  void close();
+
+  interface Consumer<E> {
+    boolean consume( E e );
+  }
+
+}
@@ -0,0 +1,245 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.audit.log4j.audit;
+
+import org.apache.hadoop.gateway.i18n.GatewayUtilCommonMessages;
+import org.apache.hadoop.gateway.i18n.messages.MessagesFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves the delivery of audit events off of the request threads.
+ * Request threads publish records into a bounded ring buffer without taking any locks and a single
+ * background thread drains the buffer in batches and hands each record to the appenders of its logger.
+ * What happens when the buffer is full is controlled by the {@link OverflowPolicy}.
+ */
+public class AsyncAuditPipeline {
+
+  public enum OverflowPolicy {
+    /** Wait for the consumer to make room. No records are lost. */
+    BLOCK,
+    /** Discard the record and count it. The count is logged by the consumer. */
+    DROP,
+    /** Deliver the record synchronously on the publishing thread. */
+    SPILL
+  }
+
+  public static final int DEFAULT_CAPACITY = 8192;
+  public static final int DEFAULT_BATCH_SIZE = 256;
+  public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.BLOCK;
+
+  private static final GatewayUtilCommonMessages LOG = MessagesFactory.get( GatewayUtilCommonMessages.class );
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos( 100 );
+  private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos( 50 );
+
+  private final AtomicReferenceArray<AuditRecord> slots;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  private long head; // Only accessed by the consumer thread.
+
+  private final int batchSize;
+  private final AuditRecord[] batch;
+  private final OverflowPolicy overflowPolicy;
+  private final AtomicLong dropped = new AtomicLong();
+  private long reportedDropped; // Only accessed by the consumer thread.
+  private final Thread consumer;
+  private volatile boolean waiting;
+  private volatile boolean closed;
+
+  public AsyncAuditPipeline( int capacity, int batchSize, OverflowPolicy overflowPolicy ) {
+    int size = Integer.highestOneBit( Math.max( capacity, 2 ) - 1 ) << 1;
+    this.slots = new AtomicReferenceArray<AuditRecord>( size );
+    this.sequences = new AtomicLongArray( size );
+    for( int i = 0; i < size; i++ ) {
+      sequences.set( i, i );
+    }
+    this.mask = size - 1;
+    this.batchSize = Math.max( 1, Math.min( batchSize, size ) );
+    this.batch = new AuditRecord[ this.batchSize ];
+    this.overflowPolicy = overflowPolicy == null ? DEFAULT_OVERFLOW_POLICY : overflowPolicy;
+    this.consumer = new Thread( new Runnable() {
+      @Override
+      public void run() {
+        consume();
+      }
+    }, "audit-pipeline" );
+    this.consumer.setDaemon( true );
+    this.consumer.start();
+    LOG.startedAsyncAuditPipeline( size, this.batchSize, this.overflowPolicy.name() );
+  }
+
+  public int getCapacity() {
+    return mask + 1;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * Returns the number of records discarded because the buffer was full.
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Queues a record for delivery.
+   * Once the pipeline is closed records are delivered synchronously so that nothing is lost during shutdown.
+   * @return false if the record was dropped
+   */
+  boolean publish( AuditRecord record ) {
+    if( closed ) {
+      deliver( record );
+      return true;
+    }
+    while( !offer( record ) ) {
+      switch( overflowPolicy ) {
+        case DROP:
+          dropped.incrementAndGet();
+          return false;
+        case SPILL:
+          deliver( record );
+          return true;
+        default:
+          if( closed ) {
+            deliver( record );
+            return true;
+          }
+          LockSupport.unpark( consumer );
+          LockSupport.parkNanos( this, FULL_PARK_NANOS );
+      }
+    }
+    if( waiting ) {
+      LockSupport.unpark( consumer );
+    }
+    return true;
+  }
+
+  /**
+   * Stops accepting records, delivers everything already queued and waits for the consumer to finish.
+   */
+  public void close() {
+    closed = true;
+    LockSupport.unpark( consumer );
+    if( Thread.currentThread() != consumer ) {
+      try {
+        consumer.join();
+      } catch( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // Multiple producer claim of the next slot.  Each slot carries a sequence number that tells the
+  // producers whether the slot is free for the lap they are on and the consumer whether it has been filled.
+  private boolean offer( AuditRecord record ) {
+    long position = tail.get();
+    while( true ) {
+      int index = (int)position & mask;
+      long difference = sequences.get( index ) - position;
+      if( difference == 0 ) {
+        if( tail.compareAndSet( position, position + 1 ) ) {
+          slots.set( index, record );
+          sequences.set( index, position + 1 );
+          return true;
+        }
+        position = tail.get();
+      } else if( difference < 0 ) {
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  private AuditRecord poll() {
+    int index = (int)head & mask;
+    if( sequences.get( index ) != head + 1 ) {
+      return null;
+    }
+    AuditRecord record = slots.get( index );
+    slots.set( index, null );
+    sequences.lazySet( index, head + mask + 1 );
+    head++;
+    return record;
+  }
+
+  private boolean isEmpty() {
+    return sequences.get( (int)head & mask ) != head + 1;
+  }
+
+  private void consume() {
+    while( true ) {
+      int count = drain();
+      reportDropped();
+      if( count == 0 ) {
+        if( closed ) {
+          if( isEmpty() ) {
+            break;
+          }
+          continue;
+        }
+        waiting = true;
+        if( isEmpty() && !closed ) {
+          LockSupport.parkNanos( this, IDLE_PARK_NANOS );
+        }
+        waiting = false;
+      }
+    }
+  }
+
+  private int drain() {
+    int count = 0;
+    AuditRecord record;
+    while( count < batchSize && ( record = poll() ) != null ) {
+      batch[ count++ ] = record;
+    }
+    for( int i = 0; i < count; i++ ) {
+      deliver( batch[ i ] );
+      batch[ i ] = null;
+    }
+    return count;
+  }
+
+  private void reportDropped() {
+    long total = dropped.get();
+    if( total != reportedDropped ) {
+      LOG.droppedAuditRecords( total - reportedDropped );
+      reportedDropped = total;
+    }
+  }
+
+  private static void deliver( AuditRecord record ) {
+    try {
+      record.getLogger().callAppenders( record.toLoggingEvent() );
+    } catch( RuntimeException e ) {
+      LOG.failedToDeliverAuditRecord( e );
+    }
+  }
+
+}
@@ -32,4 +32,10 @@ public class AuditConstants {
   public static final String DEFAULT_AUDITOR_NAME = "audit";
   public static final String KNOX_SERVICE_NAME = "knox";
   public static final String KNOX_COMPONENT_NAME = "knox";
+
+  // System properties that enable and tune asynchronous auditing.
+  public static final String ASYNC_PROPERTY = "gateway.audit.async";
+  public static final String ASYNC_CAPACITY_PROPERTY = "gateway.audit.async.capacity";
+  public static final String ASYNC_BATCH_SIZE_PROPERTY = "gateway.audit.async.batchSize";
+  public static final String ASYNC_OVERFLOW_PROPERTY = "gateway.audit.async.overflow";
 }
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.audit.log4j.audit;
+
+import org.apache.hadoop.gateway.audit.api.AuditContext;
+import org.apache.hadoop.gateway.audit.api.CorrelationContext;
+import org.apache.hadoop.gateway.audit.log4j.correlation.Log4jCorrelationContext;
+import org.apache.hadoop.gateway.audit.log4j.correlation.Log4jCorrelationService;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An audit event captured on the request thread for asynchronous delivery.
+ * The contexts are copied when the record is created since the request goes on to modify them.
+ */
+class AuditRecord {
+
+  private final Logger logger;
+  private final long timestamp;
+  private final String threadName;
+  private final String action;
+  private final String resourceName;
+  private final String resourceType;
+  private final String outcome;
+  private final String message;
+  private final String serviceName;
+  private final String componentName;
+  private final CorrelationContext correlationContext;
+  private final AuditContext auditContext;
+
+  AuditRecord( Logger logger, String serviceName, String componentName,
+      CorrelationContext correlationContext, AuditContext auditContext,
+      String action, String resourceName, String resourceType, String outcome, String message ) {
+    this.logger = logger;
+    this.timestamp = System.currentTimeMillis();
+    this.threadName = Thread.currentThread().getName();
+    this.serviceName = serviceName;
+    this.componentName = componentName;
+    this.correlationContext = copy( correlationContext );
+    this.auditContext = copy( auditContext );
+    this.action = action;
+    this.resourceName = resourceName;
+    this.resourceType = resourceType;
+    this.outcome = outcome;
+    this.message = message;
+  }
+
+  Logger getLogger() {
+    return logger;
+  }
+
+  /**
+   * Creates the same logging event that logging the record synchronously would have created.
+   */
+  LoggingEvent toLoggingEvent() {
+    Map<String,Object> properties = new HashMap<String,Object>();
+    put( properties, AuditConstants.MDC_ACTION_KEY, action );
+    put( properties, AuditConstants.MDC_RESOURCE_NAME_KEY, resourceName );
+    put( properties, AuditConstants.MDC_RESOURCE_TYPE_KEY, resourceType );
+    put( properties, AuditConstants.MDC_OUTCOME_KEY, outcome );
+    put( properties, AuditConstants.MDC_SERVICE_KEY, serviceName );
+    put( properties, AuditConstants.MDC_COMPONENT_KEY, componentName );
+    put( properties, Log4jCorrelationService.MDC_CORRELATION_CONTEXT_KEY, correlationContext );
+    put( properties, Log4jAuditService.MDC_AUDIT_CONTEXT_KEY, auditContext );
+    return new LoggingEvent(
+        Logger.class.getName(), logger, timestamp, Level.INFO, message, threadName, null, null, null, properties );
+  }
+
+  private static void put( Map<String,Object> map, String key, Object value ) {
+    if( value != null ) {
+      map.put( key, value );
+    }
+  }
+
+  private static CorrelationContext copy( CorrelationContext context ) {
+    if( context == null ) {
+      return null;
+    }
+    return new Log4jCorrelationContext(
+        context.getRequestId(), context.getParentRequestId(), context.getRootRequestId() );
+  }
+
+  private static AuditContext copy( AuditContext context ) {
+    if( context == null ) {
+      return null;
+    }
+    Log4jAuditContext copy = new Log4jAuditContext();
+    copy.setUsername( context.getUsername() );
+    copy.setProxyUsername( context.getProxyUsername() );
+    copy.setSystemUsername( context.getSystemUsername() );
+    copy.setTargetServiceName( context.getTargetServiceName() );
+    copy.setRemoteIp( context.getRemoteIp() );
+    copy.setRemoteHostname( context.getRemoteHostname() );
+    return copy;
+  }
+
+}
@@ -24,11 +24,15 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.apache.hadoop.gateway.audit.api.AuditContext;
 import org.apache.hadoop.gateway.audit.api.AuditService;
 import org.apache.hadoop.gateway.audit.api.Auditor;
+import org.apache.hadoop.gateway.i18n.GatewayUtilCommonMessages;
+import org.apache.hadoop.gateway.i18n.messages.MessagesFactory;
 import org.apache.log4j.MDC;
 
 public class Log4jAuditService implements AuditService {
 
   public static final String MDC_AUDIT_CONTEXT_KEY = "audit_context";
+  private static final GatewayUtilCommonMessages LOG = MessagesFactory.get( GatewayUtilCommonMessages.class );
+  private static AsyncAuditPipeline pipeline;
   private Map<String, Auditor> auditors = new ConcurrentHashMap<String, Auditor>();
 
   @Override
@@ -75,10 +79,43 @@ public class Log4jAuditService implements AuditService {
     String key = auditorName + componentName + serviceName;
     Auditor auditor = auditors.get( key );
     if( auditor == null ) {
-      auditor = new Log4jAuditor( auditorName, componentName, serviceName );
+      auditor = new Log4jAuditor( auditorName, componentName, serviceName, getPipeline() );
       auditors.put( key, auditor );
     }
     return auditor;
   }
 
+  /**
+   * Returns the pipeline shared by all auditors or null if auditing is synchronous.
+   * Asynchronous auditing is enabled with the {@link AuditConstants#ASYNC_PROPERTY} system property.
+   */
+  static synchronized AsyncAuditPipeline getPipeline() {
+    if( pipeline == null && Boolean.getBoolean( AuditConstants.ASYNC_PROPERTY ) ) {
+      int capacity = Integer.getInteger( AuditConstants.ASYNC_CAPACITY_PROPERTY, AsyncAuditPipeline.DEFAULT_CAPACITY );
+      int batchSize = Integer.getInteger( AuditConstants.ASYNC_BATCH_SIZE_PROPERTY, AsyncAuditPipeline.DEFAULT_BATCH_SIZE );
+      pipeline = new AsyncAuditPipeline( capacity, batchSize, getOverflowPolicy() );
+      final AsyncAuditPipeline target = pipeline;
+      Runtime.getRuntime().addShutdownHook( new Thread( new Runnable() {
+        @Override
+        public void run() {
+          target.close();
+        }
+      }, "audit-pipeline-shutdown" ) );
+    }
+    return pipeline;
+  }
+
+  private static AsyncAuditPipeline.OverflowPolicy getOverflowPolicy() {
+    String value = System.getProperty( AuditConstants.ASYNC_OVERFLOW_PROPERTY );
+    if( value == null ) {
+      return AsyncAuditPipeline.DEFAULT_OVERFLOW_POLICY;
+    }
+    try {
+      return AsyncAuditPipeline.OverflowPolicy.valueOf( value.trim().toUpperCase() );
+    } catch( IllegalArgumentException e ) {
+      LOG.invalidAuditOverflowPolicy( value, AsyncAuditPipeline.DEFAULT_OVERFLOW_POLICY.name() );
+      return AsyncAuditPipeline.DEFAULT_OVERFLOW_POLICY;
+    }
+  }
+
 }
@@ -35,16 +35,34 @@ public class Log4jAuditor implements Auditor {
   private String serviceName;
   private AuditService auditService = new Log4jAuditService();
   private CorrelationService correlationService = new Log4jCorrelationService();
+  private AsyncAuditPipeline pipeline;
 
   public Log4jAuditor( String loggerName, String componentName, String serviceName ) {
+    this( loggerName, componentName, serviceName, null );
+  }
+
+  /**
+   * @param pipeline the pipeline that delivers the audit events or null to deliver them on the calling thread
+   */
+  public Log4jAuditor( String loggerName, String componentName, String serviceName, AsyncAuditPipeline pipeline ) {
     logger = Logger.getLogger( loggerName );
     logger.setAdditivity( false );
     this.componentName = componentName;
     this.serviceName = serviceName;
+    this.pipeline = pipeline;
   }
 
   @Override
   public void audit( CorrelationContext correlationContext, AuditContext auditContext, String action, String resourceName, String resourceType, String outcome, String message ) {
+    if ( pipeline != null ) {
+      if ( logger.isInfoEnabled() ) {
+        pipeline.publish( new AuditRecord( logger, serviceName, componentName,
+            correlationContext != null ? correlationContext : correlationService.getContext(),
+            auditContext != null ? auditContext : auditService.getContext(),
+            action, resourceName, resourceType, outcome, message ) );
+      }
+      return;
+    }
     CorrelationContext previousCorrelationContext = null;
     AuditContext previousAuditContext = null;
     try {
@@ -75,6 +93,12 @@ public class Log4jAuditor implements Auditor {
 
   private void auditLog( String action, String resourceName, String resourceType, String outcome, String message ) {
     if ( logger.isInfoEnabled() ) {
+      if ( pipeline != null ) {
+        pipeline.publish( new AuditRecord( logger, serviceName, componentName,
+            correlationService.getContext(), auditService.getContext(),
+            action, resourceName, resourceType, outcome, message ) );
+        return;
+      }
       MDC.put( AuditConstants.MDC_ACTION_KEY, action );
       MDC.put( AuditConstants.MDC_RESOURCE_NAME_KEY, resourceName );
       MDC.put( AuditConstants.MDC_RESOURCE_TYPE_KEY, resourceType );
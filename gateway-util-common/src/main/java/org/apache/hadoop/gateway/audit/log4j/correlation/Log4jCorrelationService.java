@@ -27,11 +27,14 @@ import java.util.concurrent.Callable;
 
 import org.apache.hadoop.gateway.audit.api.CorrelationContext;
 import org.apache.hadoop.gateway.audit.api.CorrelationService;
+import org.apache.hadoop.gateway.audit.api.RequestIdGenerator;
 import org.apache.log4j.MDC;
 
 public class Log4jCorrelationService implements CorrelationService {
   
   public static final String MDC_CORRELATION_CONTEXT_KEY = "correlation_context";
+
+  private volatile RequestIdGenerator requestIdGenerator = new TimeOrderedRequestIdGenerator();
   
   @Override
   public CorrelationContext createContext() {
@@ -43,6 +46,21 @@ public class Log4jCorrelationService implements CorrelationService {
     return context;
   }
 
+  @Override
+  public String createRequestId() {
+    return requestIdGenerator.createRequestId();
+  }
+
+  public RequestIdGenerator getRequestIdGenerator() {
+    return requestIdGenerator;
+  }
+
+  public void setRequestIdGenerator( RequestIdGenerator requestIdGenerator ) {
+    if ( requestIdGenerator != null ) {
+      this.requestIdGenerator = requestIdGenerator;
+    }
+  }
+
   @Override
   public CorrelationContext getContext() {
     return (CorrelationContext) MDC.get( MDC_CORRELATION_CONTEXT_KEY );
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.audit.log4j.correlation;
+
+import org.apache.hadoop.gateway.audit.api.RequestIdGenerator;
+
+import java.security.SecureRandom;
+
+/**
+ * Creates time ordered request IDs without any state shared between request threads.
+ * The IDs have the same 8-4-4-4-12 hex layout as a UUID and are made up of
+ * <ul>
+ *   <li>48 bits of milliseconds since the epoch so IDs created in different milliseconds sort by time,</li>
+ *   <li>32 bits identifying the gateway instance, chosen randomly at startup unless provided,</li>
+ *   <li>20 bits identifying the thread within the gateway instance and</li>
+ *   <li>28 bits of a counter private to the thread.</li>
+ * </ul>
+ * The time used by a thread never goes backwards even if the clock does, and moves forward a millisecond whenever
+ * the counter wraps, so the time and counter pair of a thread never repeats.  Once every thread slot has been handed
+ * out the slots are reused under a new randomly chosen instance identifier, so an ID only repeats if that identifier
+ * collides with an earlier one.
+ */
+public class TimeOrderedRequestIdGenerator implements RequestIdGenerator {
+
+  private static final int THREAD_BITS = 20;
+  private static final int COUNTER_BITS = 28;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private int node;
+  private int threads;
+  private final ThreadLocal<ThreadState> state = new ThreadLocal<ThreadState>() {
+    @Override
+    protected ThreadState initialValue() {
+      return createThreadState();
+    }
+  };
+
+  public TimeOrderedRequestIdGenerator() {
+    this( new SecureRandom().nextInt() );
+  }
+
+  public TimeOrderedRequestIdGenerator( int node ) {
+    this.node = node;
+  }
+
+  // Only called once per thread so the lock is not on the path of each request.
+  private synchronized ThreadState createThreadState() {
+    if( threads == 1 << THREAD_BITS ) {
+      node = new SecureRandom().nextInt();
+      threads = 0;
+    }
+    return new ThreadState( node, threads++ );
+  }
+
+  @Override
+  public String createRequestId() {
+    ThreadState s = state.get();
+    long now = System.currentTimeMillis();
+    if( now > s.time ) {
+      s.time = now;
+    }
+    s.counter = ( s.counter + 1 ) & ( ( 1 << COUNTER_BITS ) - 1 );
+    if( s.counter == 0 ) {
+      s.time++;
+    }
+    long low = ( (long)s.thread << COUNTER_BITS ) | s.counter;
+    char[] id = s.buffer;
+    hex( id, 0, s.time >>> 16, 8 );
+    id[ 8 ] = '-';
+    hex( id, 9, s.time, 4 );
+    id[ 13 ] = '-';
+    hex( id, 14, s.node >>> 16, 4 );
+    id[ 18 ] = '-';
+    hex( id, 19, s.node, 4 );
+    id[ 23 ] = '-';
+    hex( id, 24, low, 12 );
+    return new String( id );
+  }
+
+  private static void hex( char[] buffer, int offset, long value, int digits ) {
+    for( int i = offset + digits - 1; i >= offset; i-- ) {
+      buffer[ i ] = HEX[ (int)( value & 0xF ) ];
+      value >>>= 4;
+    }
+  }
+
+  private static class ThreadState {
+
+    private final int node;
+    private final int thread;
+    private final char[] buffer = new char[ 36 ];
+    private long time;
+    private int counter;
+
+    private ThreadState( int node, int thread ) {
+      this.node = node;
+      this.thread = thread;
+    }
+
+  }
+
+}
@@ -0,0 +1,35 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.audit.log4j.correlation;
+
+import org.apache.hadoop.gateway.audit.api.RequestIdGenerator;
+
+import java.util.UUID;
+
+/**
+ * Creates random type 4 UUID request IDs.
+ * This was the original request ID format.  The IDs are not ordered and every ID draws from a shared SecureRandom.
+ */
+public class UuidRequestIdGenerator implements RequestIdGenerator {
+
+  @Override
+  public String createRequestId() {
+    return UUID.randomUUID().toString();
+  }
+
+}
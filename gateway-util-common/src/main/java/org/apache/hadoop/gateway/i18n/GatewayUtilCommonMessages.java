@@ -33,4 +33,16 @@ public interface GatewayUtilCommonMessages {
   @Message( level = MessageLevel.ERROR, text = "Failed to get map from Json string {0}: {1}" )
   void failedToGetMapFromJsonString( String json, @StackTrace( level = MessageLevel.DEBUG ) Exception e );
 
+  @Message( level = MessageLevel.INFO, text = "Started asynchronous audit pipeline with capacity {0}, batch size {1} and overflow policy {2}" )
+  void startedAsyncAuditPipeline( int capacity, int batchSize, String overflowPolicy );
+
+  @Message( level = MessageLevel.WARN, text = "Dropped {0} audit records because the audit queue was full" )
+  void droppedAuditRecords( long count );
+
+  @Message( level = MessageLevel.ERROR, text = "Failed to deliver audit record: {0}" )
+  void failedToDeliverAuditRecord( @StackTrace( level = MessageLevel.DEBUG ) Exception e );
+
+  @Message( level = MessageLevel.ERROR, text = "Invalid audit overflow policy {0}, using {1}" )
+  void invalidAuditOverflowPolicy( String value, String defaultPolicy );
+
 }
@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache whose entries may expire.
+ * <p>
+ * The cache is split into partitions, each a small LRU map with its own lock, so that concurrent lookups of
+ * different keys rarely contend.  The maximum is divided between the partitions and each partition evicts its
+ * least recently used entry once it is full, so the total number of entries never exceeds the maximum.  Keys are
+ * assigned to partitions by hash code, so if the keys in use fall mostly into a few partitions entries are
+ * evicted before the cache as a whole is full.  Entries are given an expiry time when they are put and
+ * are removed once they are found to have expired.  Times are in milliseconds, normally as returned by
+ * {@link System#currentTimeMillis()}, but callers may supply their own clock.
+ * <p>
+ * Subclasses holding sensitive values can override {@link #removed} to destroy values the cache lets go of
+ * and {@link #copy} so that callers only ever see copies of them.
+ */
+public class ExpiringCache<K,V> {
+
+  /**
+   * The expiry time of entries that never expire.
+   */
+  public static final long NEVER = Long.MAX_VALUE;
+
+  private static final int MAX_PARTITIONS = 16;
+
+  private final Partition[] partitions;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param maxEntries the maximum number of entries, at least one
+   */
+  @SuppressWarnings("unchecked")
+  public ExpiringCache(int maxEntries) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("maxEntries=" + maxEntries);
+    }
+    int count = Math.min(MAX_PARTITIONS, maxEntries);
+    partitions = new ExpiringCache.Partition[count];
+    for (int i = 0; i < count; i++) {
+      // The first maxEntries % count partitions take one more entry so the sizes add up to maxEntries.
+      partitions[i] = new Partition(maxEntries / count + (i < maxEntries % count ? 1 : 0));
+    }
+  }
+
+  /**
+   * Returns the value for the key or null if it is not cached or has expired.
+   */
+  public V get(K key) {
+    return get(key, System.currentTimeMillis());
+  }
+
+  /**
+   * Returns the value for the key or null if it is not cached or has expired at the given time.
+   */
+  public V get(K key, long now) {
+    Partition partition = partition(key);
+    V value = null;
+    synchronized (partition) {
+      Entry<V> entry = partition.get(key);
+      if (entry != null) {
+        if (entry.expires - now > 0) {
+          value = copy(entry.value);
+        } else {
+          partition.remove(key);
+          removed(entry.value);
+        }
+      }
+    }
+    if (value == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return value;
+  }
+
+  /**
+   * Caches a value that never expires.
+   */
+  public void put(K key, V value) {
+    put(key, value, NEVER, System.currentTimeMillis());
+  }
+
+  /**
+   * Caches a value until the expiry time.
+   */
+  public void put(K key, V value, long expires) {
+    put(key, value, expires, System.currentTimeMillis());
+  }
+
+  /**
+   * Caches a value until the expiry time, replacing any value cached for the key.  Values that have already
+   * expired at the given time are not cached.  Expired entries at the least recently used end of the partition
+   * are removed at the same time.
+   */
+  public void put(K key, V value, long expires, long now) {
+    if (expires - now <= 0) {
+      return;
+    }
+    Partition partition = partition(key);
+    synchronized (partition) {
+      Iterator<Entry<V>> iterator = partition.values().iterator();
+      while (iterator.hasNext()) {
+        Entry<V> eldest = iterator.next();
+        if (eldest.expires - now > 0) {
+          break;
+        }
+        iterator.remove();
+        removed(eldest.value);
+      }
+      Entry<V> previous = partition.put(key, new Entry<V>(value, expires));
+      if (previous != null && previous.value != value) {
+        removed(previous.value);
+      }
+    }
+  }
+
+  /**
+   * Removes the value for the key.
+   */
+  public void remove(K key) {
+    Partition partition = partition(key);
+    synchronized (partition) {
+      Entry<V> entry = partition.remove(key);
+      if (entry != null) {
+        removed(entry.value);
+      }
+    }
+  }
+
+  /**
+   * Removes all values and resets the hit and miss counts.
+   */
+  public void clear() {
+    for (Partition partition : partitions) {
+      synchronized (partition) {
+        Iterator<Entry<V>> iterator = partition.values().iterator();
+        while (iterator.hasNext()) {
+          removed(iterator.next().value);
+          iterator.remove();
+        }
+      }
+    }
+    hits.set(0);
+    misses.set(0);
+  }
+
+  /**
+   * Returns the number of cached values, including any that have expired but have not been removed yet.
+   */
+  public int size() {
+    int size = 0;
+    for (Partition partition : partitions) {
+      synchronized (partition) {
+        size += partition.size();
+      }
+    }
+    return size;
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Returns what {@link #get} returns for a cached value.  Called with the lock of the partition held.
+   */
+  protected V copy(V value) {
+    return value;
+  }
+
+  /**
+   * Called with the lock of the partition held whenever a value is evicted, expires, is replaced by another value
+   * or is removed.
+   */
+  protected void removed(V value) {
+  }
+
+  private Partition partition(K key) {
+    int hash = key.hashCode();
+    // Spread the high bits since string hash codes of similar keys mostly differ in the low ones.
+    hash ^= (hash >>> 16);
+    return partitions[(hash & 0x7fffffff) % partitions.length];
+  }
+
+  private static final class Entry<V> {
+
+    private final V value;
+    private final long expires;
+
+    private Entry(V value, long expires) {
+      this.value = value;
+      this.expires = expires;
+    }
+
+  }
+
+  private final class Partition extends LinkedHashMap<K, Entry<V>> {
+
+    private static final long serialVersionUID = 1L;
+    private final int maxEntries;
+
+    private Partition(int maxEntries) {
+      super(16, 0.75f, true);
+      this.maxEntries = maxEntries;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+      if (size() > maxEntries) {
+        removed(eldest.getValue().value);
+        return true;
+      }
+      return false;
+    }
+
+  }
+
+}
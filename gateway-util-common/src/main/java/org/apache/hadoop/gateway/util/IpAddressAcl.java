@@ -0,0 +1,397 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A compiled list of IP address patterns that checks addresses in time proportional to the address width
+ * rather than to the number of patterns.
+ * <p>
+ * The patterns are comma separated and may be any mix of
+ * <ul>
+ *   <li>single IPv4 or IPv6 addresses, e.g. 127.0.0.1 or ::1</li>
+ *   <li>CIDR blocks, e.g. 10.0.0.0/8 or 2001:db8::/32</li>
+ *   <li>ranges, e.g. 10.0.0.1-10.0.0.20</li>
+ *   <li>wildcards, e.g. 192.168.* or *, which match any address starting with the text before the '*'</li>
+ * </ul>
+ * Addresses, blocks, ranges and wildcards ending at an octet boundary are compiled into binary tries over the
+ * address bits, one for IPv4 and one for IPv6, so a lookup walks at most 32 or 128 nodes.  IPv4 mapped IPv6
+ * addresses are matched as IPv4 addresses.  Anything else, such as host names or wildcards within an octet,
+ * is matched as text the way {@link IpAddressValidator} always has.
+ */
+public class IpAddressAcl {
+
+  private final Node ipv4 = new Node();
+  private final Node ipv6 = new Node();
+  private final Set<String> names = new HashSet<String>();
+  private final List<String> prefixes = new ArrayList<String>();
+  private boolean anyIP;
+
+  private IpAddressAcl() {
+  }
+
+  /**
+   * Compiles the comma separated patterns.  A null list allows any address.
+   */
+  public static IpAddressAcl compile(String commaSeparatedPatterns) {
+    IpAddressAcl acl = new IpAddressAcl();
+    if (commaSeparatedPatterns == null) {
+      acl.anyIP = true;
+    } else {
+      for (String pattern : commaSeparatedPatterns.split(",")) {
+        acl.add(pattern.trim());
+      }
+    }
+    return acl;
+  }
+
+  /**
+   * @return true if the patterns include '*' or the list was null
+   */
+  public boolean allowsAnyIP() {
+    return anyIP;
+  }
+
+  public boolean matches(String addr) {
+    if (addr == null) {
+      return false;
+    }
+    if (anyIP) {
+      return true;
+    }
+    byte[] address = parseAddress(addr);
+    if (address != null && (address.length == 4 ? ipv4 : ipv6).contains(address)) {
+      return true;
+    }
+    if (!names.isEmpty() && names.contains(addr)) {
+      return true;
+    }
+    for (String prefix : prefixes) {
+      if (addr.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void add(String pattern) {
+    if (pattern.length() == 0) {
+      return;
+    }
+    if (pattern.equals("*")) {
+      anyIP = true;
+    } else if (pattern.contains("*")) {
+      addWildcard(pattern);
+    } else if (pattern.indexOf('/') > 0) {
+      addBlock(pattern);
+    } else if (pattern.indexOf('-') > 0) {
+      addRange(pattern);
+    } else {
+      byte[] address = parseAddress(pattern);
+      if (address != null) {
+        root(address).insertBlock(address, address.length * 8);
+      } else {
+        names.add(pattern);
+      }
+    }
+  }
+
+  private void addWildcard(String pattern) {
+    String prefix = pattern.substring(0, pattern.lastIndexOf('*'));
+    if (prefix.endsWith(".")) {
+      // 192.168.* is the block 192.168.0.0/16
+      String[] octets = prefix.substring(0, prefix.length() - 1).split("\\.", -1);
+      if (octets.length < 4) {
+        byte[] address = new byte[4];
+        boolean valid = true;
+        for (int i = 0; i < octets.length && valid; i++) {
+          int octet = parseOctet(octets[i]);
+          valid = octet >= 0;
+          address[i] = (byte) octet;
+        }
+        if (valid) {
+          ipv4.insertBlock(address, octets.length * 8);
+          return;
+        }
+      }
+    }
+    prefixes.add(prefix);
+  }
+
+  private void addBlock(String pattern) {
+    int slash = pattern.indexOf('/');
+    byte[] address = parseAddress(pattern.substring(0, slash));
+    int length = -1;
+    try {
+      length = Integer.parseInt(pattern.substring(slash + 1));
+    } catch (NumberFormatException e) {
+      // not a block, matched as text below
+    }
+    if (address != null && length >= 0 && length <= address.length * 8) {
+      root(address).insertBlock(address, length);
+    } else {
+      names.add(pattern);
+    }
+  }
+
+  private void addRange(String pattern) {
+    int dash = pattern.indexOf('-');
+    byte[] low = parseAddress(pattern.substring(0, dash).trim());
+    byte[] high = parseAddress(pattern.substring(dash + 1).trim());
+    if (low != null && high != null && low.length == high.length && compare(low, high) <= 0) {
+      root(low).insertRange(low, high, 0, true, true);
+    } else {
+      names.add(pattern);
+    }
+  }
+
+  private Node root(byte[] address) {
+    return address.length == 4 ? ipv4 : ipv6;
+  }
+
+  private static int compare(byte[] a, byte[] b) {
+    for (int i = 0; i < a.length; i++) {
+      int diff = (a[i] & 0xff) - (b[i] & 0xff);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return 0;
+  }
+
+  private static int bit(byte[] address, int index) {
+    return (address[index >> 3] >> (7 - (index & 7))) & 1;
+  }
+
+  /**
+   * Parses an IPv4 or IPv6 address literal without any name lookup.
+   * IPv4 mapped IPv6 addresses are returned as IPv4 addresses.
+   *
+   * @return the 4 or 16 bytes of the address or null if the text is not an address literal
+   */
+  public static byte[] parseAddress(String text) {
+    if (text == null || text.length() == 0) {
+      return null;
+    }
+    if (text.indexOf(':') < 0) {
+      return parseIpv4(text);
+    }
+    if (text.charAt(0) == '[' && text.charAt(text.length() - 1) == ']') {
+      text = text.substring(1, text.length() - 1);
+    }
+    int zone = text.indexOf('%');
+    if (zone >= 0) {
+      text = text.substring(0, zone);
+    }
+    byte[] address = parseIpv6(text);
+    if (address != null && isIpv4Mapped(address)) {
+      byte[] ipv4 = new byte[4];
+      System.arraycopy(address, 12, ipv4, 0, 4);
+      return ipv4;
+    }
+    return address;
+  }
+
+  private static byte[] parseIpv4(String text) {
+    String[] octets = text.split("\\.", -1);
+    if (octets.length != 4) {
+      return null;
+    }
+    byte[] address = new byte[4];
+    for (int i = 0; i < 4; i++) {
+      int octet = parseOctet(octets[i]);
+      if (octet < 0) {
+        return null;
+      }
+      address[i] = (byte) octet;
+    }
+    return address;
+  }
+
+  private static int parseOctet(String text) {
+    int length = text.length();
+    if (length == 0 || length > 3) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value <= 255 ? value : -1;
+  }
+
+  private static byte[] parseIpv6(String text) {
+    byte[] address = new byte[16];
+    int compress = text.indexOf("::");
+    if (compress >= 0 && text.indexOf("::", compress + 1) >= 0) {
+      return null;
+    }
+    String head = compress >= 0 ? text.substring(0, compress) : text;
+    String tail = compress >= 0 ? text.substring(compress + 2) : "";
+    int[] headGroups = parseGroups(head, compress < 0);
+    int[] tailGroups = parseGroups(tail, true);
+    if (headGroups == null || tailGroups == null) {
+      return null;
+    }
+    int groups = headGroups.length + tailGroups.length;
+    if (compress < 0 ? groups != 8 : groups > 7) {
+      return null;
+    }
+    for (int i = 0; i < headGroups.length; i++) {
+      address[i * 2] = (byte) (headGroups[i] >> 8);
+      address[i * 2 + 1] = (byte) headGroups[i];
+    }
+    int offset = 8 - tailGroups.length;
+    for (int i = 0; i < tailGroups.length; i++) {
+      address[(offset + i) * 2] = (byte) (tailGroups[i] >> 8);
+      address[(offset + i) * 2 + 1] = (byte) tailGroups[i];
+    }
+    return address;
+  }
+
+  /**
+   * Parses colon separated 16 bit hex groups, the last of which may be a dotted IPv4 address if allowed.
+   */
+  private static int[] parseGroups(String text, boolean allowIpv4) {
+    if (text.length() == 0) {
+      return new int[0];
+    }
+    String[] parts = text.split(":", -1);
+    byte[] ipv4 = null;
+    if (allowIpv4 && parts[parts.length - 1].indexOf('.') >= 0) {
+      ipv4 = parseIpv4(parts[parts.length - 1]);
+      if (ipv4 == null) {
+        return null;
+      }
+    }
+    int count = ipv4 == null ? parts.length : parts.length + 1;
+    int[] groups = new int[count];
+    int hexParts = ipv4 == null ? parts.length : parts.length - 1;
+    for (int i = 0; i < hexParts; i++) {
+      String part = parts[i];
+      if (part.length() == 0 || part.length() > 4) {
+        return null;
+      }
+      try {
+        groups[i] = Integer.parseInt(part, 16);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+      if (groups[i] < 0) {
+        return null;
+      }
+    }
+    if (ipv4 != null) {
+      groups[count - 2] = ((ipv4[0] & 0xff) << 8) | (ipv4[1] & 0xff);
+      groups[count - 1] = ((ipv4[2] & 0xff) << 8) | (ipv4[3] & 0xff);
+    }
+    return groups;
+  }
+
+  private static boolean isIpv4Mapped(byte[] address) {
+    for (int i = 0; i < 10; i++) {
+      if (address[i] != 0) {
+        return false;
+      }
+    }
+    return address[10] == (byte) 0xff && address[11] == (byte) 0xff;
+  }
+
+  /**
+   * A node of a binary trie over address bits.  A terminal node matches every address below it.
+   */
+  private static final class Node {
+
+    private Node zero;
+    private Node one;
+    private boolean terminal;
+
+    private Node child(int bit, boolean create) {
+      Node child = bit == 0 ? zero : one;
+      if (child == null && create) {
+        child = new Node();
+        if (bit == 0) {
+          zero = child;
+        } else {
+          one = child;
+        }
+      }
+      return child;
+    }
+
+    private void cover() {
+      terminal = true;
+      zero = null;
+      one = null;
+    }
+
+    private void insertBlock(byte[] address, int length) {
+      Node node = this;
+      for (int i = 0; i < length; i++) {
+        if (node.terminal) {
+          return;
+        }
+        node = node.child(bit(address, i), true);
+      }
+      node.cover();
+    }
+
+    /**
+     * Covers the addresses from low to high, the node is bounded by low and high as far as indicated.
+     */
+    private void insertRange(byte[] low, byte[] high, int index, boolean lowBound, boolean highBound) {
+      if (terminal) {
+        return;
+      }
+      if ((!lowBound && !highBound) || index == low.length * 8) {
+        cover();
+        return;
+      }
+      int first = lowBound ? bit(low, index) : 0;
+      int last = highBound ? bit(high, index) : 1;
+      for (int b = first; b <= last; b++) {
+        child(b, true).insertRange(low, high, index + 1, lowBound && b == first, highBound && b == last);
+      }
+    }
+
+    private boolean contains(byte[] address) {
+      Node node = this;
+      int width = address.length * 8;
+      for (int i = 0; i < width; i++) {
+        if (node.terminal) {
+          return true;
+        }
+        node = node.child(bit(address, i), false);
+        if (node == null) {
+          return false;
+        }
+      }
+      return node.terminal;
+    }
+
+  }
+
+}
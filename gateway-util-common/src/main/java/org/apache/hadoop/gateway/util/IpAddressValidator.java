@@ -22,6 +22,7 @@ import java.util.Collections;
 
 /**
  * Validate a given IP Address against a list of comma separated list of addresses.
+ * The addresses may be given as any of the patterns understood by {@link IpAddressAcl}.
  */
 public class IpAddressValidator {
   
@@ -31,80 +32,29 @@ public class IpAddressValidator {
   private ArrayList<String> ipaddr = new ArrayList<String>();
   
   /**
-   * IP addresses from the ipaddr list that contain a wildcard character '*'
+   * The ip addresses compiled for lookups
    */
-  private ArrayList<String> wildCardIPs = new ArrayList<String>();
-  
-  /**
-   * Optimization based on empty IP address list or an explicit '*' wildcard
-   */
-  private boolean anyIP = true;
+  private IpAddressAcl acl;
 
   /**
    * ctor - initialize an instance with the given ip address list
    */
   public IpAddressValidator(String commaSeparatedIpAddresses) {
-    if (commaSeparatedIpAddresses == null) {
-      anyIP = true;
-      return;
-    }
-    
-    parseIpAddesses(commaSeparatedIpAddresses);
-  }
-
-  /**
-   * @param commaSeparatedIpAddresses
-   */
-  private void parseIpAddesses(String commaSeparatedIpAddresses) {
-    String[] ips = commaSeparatedIpAddresses.split(",");
-    ipaddr = new ArrayList<String>();
-    wildCardIPs = new ArrayList<String>();
-    Collections.addAll(ipaddr, ips);
-    if (!ipaddr.contains("*")) {
-      anyIP = false;
-      // check whether there are any wildcarded ip's - example: 192.* or 192.168.* or 192.168.1.*
-      for (String addr : ipaddr) {
-        if (addr.contains("*")) {
-          wildCardIPs.add(addr);
-        }
-      }
+    acl = IpAddressAcl.compile(commaSeparatedIpAddresses);
+    if (commaSeparatedIpAddresses != null) {
+      Collections.addAll(ipaddr, commaSeparatedIpAddresses.split(","));
     }
   }
   
   public boolean validateIpAddress(String addr) {
-    boolean valid = false;
-    if (addr == null) {
-      // LJM TODO: log as possible programming error
-      return false;
-    }
-    
-    if (anyIP) {
-      valid = true;
-    }
-    else {
-      if (ipaddr.contains(addr)) {
-        valid = true;
-      }
-      else {
-        // check for wildcards if there are wildcardIP acls configured
-        if (wildCardIPs.size() > 0) {
-          for (String ip : wildCardIPs) {
-            if (addr.startsWith(ip.substring(0, ip.lastIndexOf('*')))) {
-              valid = true;
-              break;
-            }
-          }
-        }
-      }
-    }
-    return valid;
+    return acl.matches(addr);
   }
 
   /**
    * @return
    */
   public boolean allowsAnyIP() {
-    return anyIP;
+    return acl.allowsAnyIP();
   }
 
   /**
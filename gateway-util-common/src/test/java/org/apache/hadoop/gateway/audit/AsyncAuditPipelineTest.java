@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.audit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.gateway.audit.api.AuditContext;
+import org.apache.hadoop.gateway.audit.api.Auditor;
+import org.apache.hadoop.gateway.audit.api.CorrelationContext;
+import org.apache.hadoop.gateway.audit.log4j.audit.AsyncAuditPipeline;
+import org.apache.hadoop.gateway.audit.log4j.audit.AuditConstants;
+import org.apache.hadoop.gateway.audit.log4j.audit.Log4jAuditContext;
+import org.apache.hadoop.gateway.audit.log4j.audit.Log4jAuditService;
+import org.apache.hadoop.gateway.audit.log4j.audit.Log4jAuditor;
+import org.apache.hadoop.gateway.audit.log4j.correlation.Log4jCorrelationContext;
+import org.apache.hadoop.gateway.audit.log4j.correlation.Log4jCorrelationService;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+public class AsyncAuditPipelineTest {
+
+  @Test
+  public void testEventsDeliveredInOrderWithContexts() {
+    String loggerName = "audit.async.order";
+    RecordingAppender appender = new RecordingAppender( null );
+    Logger.getLogger( loggerName ).addAppender( appender );
+    Logger.getLogger( loggerName ).setLevel( Level.INFO );
+    AsyncAuditPipeline pipeline = new AsyncAuditPipeline( 64, 16, AsyncAuditPipeline.OverflowPolicy.BLOCK );
+    Auditor auditor = new Log4jAuditor( loggerName, AuditConstants.KNOX_COMPONENT_NAME, AuditConstants.KNOX_SERVICE_NAME, pipeline );
+
+    Log4jAuditContext ac = new Log4jAuditContext();
+    ac.setUsername( "user" );
+    ac.setRemoteIp( "127.0.0.1" );
+    CorrelationContext cc = new Log4jCorrelationContext( "request", "parent", "root" );
+
+    int iterations = 1000;
+    for( int i = 0; i < iterations; i++ ) {
+      auditor.audit( cc, ac, "action" + i, "resource" + i, "resource type", "outcome", "message" + i );
+    }
+    // Changes made after the audit call must not leak into the queued events.
+    ac.setUsername( "other" );
+    pipeline.close();
+
+    List<LoggingEvent> events = appender.getEvents();
+    assertThat( events.size(), is( iterations ) );
+    for( int i = 0; i < iterations; i++ ) {
+      LoggingEvent event = events.get( i );
+      assertThat( (String)event.getMDC( AuditConstants.MDC_ACTION_KEY ), is( "action" + i ) );
+      assertThat( (String)event.getMDC( AuditConstants.MDC_RESOURCE_NAME_KEY ), is( "resource" + i ) );
+      assertThat( (String)event.getMDC( AuditConstants.MDC_SERVICE_KEY ), is( AuditConstants.KNOX_SERVICE_NAME ) );
+      assertThat( (String)event.getMDC( AuditConstants.MDC_COMPONENT_KEY ), is( AuditConstants.KNOX_COMPONENT_NAME ) );
+      assertThat( event.getRenderedMessage(), is( "message" + i ) );
+      assertThat( event.getThreadName(), is( Thread.currentThread().getName() ) );
+      AuditContext context = (AuditContext)event.getMDC( Log4jAuditService.MDC_AUDIT_CONTEXT_KEY );
+      assertThat( context.getUsername(), is( "user" ) );
+      assertThat( context.getRemoteIp(), is( "127.0.0.1" ) );
+      CorrelationContext correlation = (CorrelationContext)event.getMDC( Log4jCorrelationService.MDC_CORRELATION_CONTEXT_KEY );
+      assertThat( correlation.getRequestId(), is( "request" ) );
+      assertThat( correlation.getParentRequestId(), is( "parent" ) );
+      assertThat( correlation.getRootRequestId(), is( "root" ) );
+    }
+  }
+
+  @Test
+  public void testDropPolicyCountsDiscardedEvents() throws InterruptedException {
+    String loggerName = "audit.async.drop";
+    CountDownLatch release = new CountDownLatch( 1 );
+    RecordingAppender appender = new RecordingAppender( release );
+    Logger.getLogger( loggerName ).addAppender( appender );
+    Logger.getLogger( loggerName ).setLevel( Level.INFO );
+    AsyncAuditPipeline pipeline = new AsyncAuditPipeline( 4, 4, AsyncAuditPipeline.OverflowPolicy.DROP );
+    Auditor auditor = new Log4jAuditor( loggerName, AuditConstants.KNOX_COMPONENT_NAME, AuditConstants.KNOX_SERVICE_NAME, pipeline );
+
+    // The first event holds the consumer in the appender so the following ones fill the buffer.
+    auditor.audit( "action", "resource", "resource type", "outcome", "first" );
+    assertThat( appender.entered.await( 10, TimeUnit.SECONDS ), is( true ) );
+    for( int i = 0; i < 10; i++ ) {
+      auditor.audit( "action", "resource", "resource type", "outcome", "message" + i );
+    }
+    assertThat( pipeline.getDroppedCount(), is( 6L ) );
+
+    release.countDown();
+    pipeline.close();
+    List<LoggingEvent> events = appender.getEvents();
+    assertThat( events.size(), is( 5 ) );
+    assertThat( events.get( 4 ).getRenderedMessage(), is( "message3" ) );
+  }
+
+  private static class RecordingAppender extends AppenderSkeleton {
+
+    private final List<LoggingEvent> events = new ArrayList<LoggingEvent>();
+    private final CountDownLatch entered = new CountDownLatch( 1 );
+    private final CountDownLatch release;
+
+    private RecordingAppender( CountDownLatch release ) {
+      this.release = release;
+    }
+
+    @Override
+    protected void append( LoggingEvent event ) {
+      entered.countDown();
+      if( release != null ) {
+        try {
+          release.await( 10, TimeUnit.SECONDS );
+        } catch( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      events.add( event );
+    }
+
+    private synchronized List<LoggingEvent> getEvents() {
+      return new ArrayList<LoggingEvent>( events );
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean requiresLayout() {
+      return false;
+    }
+
+  }
+
+}
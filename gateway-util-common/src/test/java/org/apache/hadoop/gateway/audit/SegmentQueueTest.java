@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.audit;
+
+import org.apache.hadoop.gateway.audit.log4j.appender.SegmentQueue;
+import org.apache.hadoop.gateway.audit.log4j.appender.StoreAndForwardQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SegmentQueueTest {
+
+  private File directory;
+  private SegmentQueue<String> queue;
+
+  @Before
+  public void setup() throws IOException {
+    directory = new File( "target/SegmentQueueTest" );
+    cleanup();
+    queue = new SegmentQueue<String>( directory, 1024 );
+  }
+
+  @After
+  public void cleanup() {
+    if( queue != null ) {
+      queue.close();
+    }
+    File[] files = directory.listFiles();
+    if( files != null ) {
+      for( File file : files ) {
+        assertThat( file.delete(), is( true ) );
+      }
+    }
+  }
+
+  @Test
+  public void testSimple() throws IOException, InterruptedException {
+    String one = UUID.randomUUID().toString();
+    String two = UUID.randomUUID().toString();
+    String three = UUID.randomUUID().toString();
+    queue.enqueue( one );
+    assertThat( queue.dequeue(), is( one ) );
+    queue.enqueue( two );
+    queue.enqueue( three );
+    assertThat( queue.dequeue(), is( two ) );
+    assertThat( queue.dequeue(), is( three ) );
+    queue.close();
+    assertThat( queue.dequeue(), nullValue() );
+  }
+
+  @Test
+  public void testUnconsumedElementIsProcessedAgain() throws IOException {
+    queue.enqueue( "one" );
+    final Set<String> seen = new HashSet<String>();
+    StoreAndForwardQueue.Consumer<String> reject = new StoreAndForwardQueue.Consumer<String>() {
+      @Override
+      public boolean consume( String s ) {
+        seen.add( s );
+        return false;
+      }
+    };
+    assertThat( queue.process( reject ), is( false ) );
+    assertThat( seen.contains( "one" ), is( true ) );
+    queue.enqueue( "two" );
+    final StringBuilder consumed = new StringBuilder();
+    StoreAndForwardQueue.Consumer<String> accept = new StoreAndForwardQueue.Consumer<String>() {
+      @Override
+      public boolean consume( String s ) {
+        consumed.append( s );
+        return true;
+      }
+    };
+    assertThat( queue.process( accept ), is( true ) );
+    assertThat( queue.process( accept ), is( true ) );
+    assertThat( consumed.toString(), is( "onetwo" ) );
+  }
+
+  @Test
+  public void testRecoveryAfterReopen() throws IOException, InterruptedException {
+    for( int i = 0; i < 50; i++ ) {
+      queue.enqueue( "element" + i );
+    }
+    for( int i = 0; i < 20; i++ ) {
+      assertThat( queue.dequeue(), is( "element" + i ) );
+    }
+    queue.close();
+    queue = new SegmentQueue<String>( directory, 1024 );
+    for( int i = 20; i < 50; i++ ) {
+      assertThat( queue.dequeue(), is( "element" + i ) );
+    }
+    queue.enqueue( "last" );
+    assertThat( queue.dequeue(), is( "last" ) );
+  }
+
+  @Test
+  public void testCorruptRecordEndsSegment() throws IOException, InterruptedException {
+    queue.enqueue( "one" );
+    queue.enqueue( "two" );
+    queue.close();
+    File[] files = directory.listFiles();
+    assertThat( files.length, is( 1 ) );
+    RandomAccessFile raf = new RandomAccessFile( files[ 0 ], "rw" );
+    try {
+      // Damage the last byte of the second record as a torn write would.
+      int offset = 16;
+      raf.seek( offset );
+      offset += 8 + raf.readInt();
+      raf.seek( offset );
+      offset += 8 + raf.readInt();
+      raf.seek( offset - 1 );
+      int value = raf.read();
+      raf.seek( offset - 1 );
+      raf.write( value ^ 0xFF );
+    } finally {
+      raf.close();
+    }
+    queue = new SegmentQueue<String>( directory, 1024 );
+    assertThat( queue.dequeue(), is( "one" ) );
+    queue.enqueue( "three" );
+    assertThat( queue.dequeue(), is( "three" ) );
+  }
+
+  @Test
+  public void testUndeserializableRecordIsSkipped() throws IOException, InterruptedException {
+    queue.close();
+    SegmentQueue<Object> objects = new SegmentQueue<Object>( directory, 1024 );
+    try {
+      objects.enqueue( new Unreadable() );
+      objects.enqueue( "good" );
+      assertThat( objects.dequeue(), is( (Object)"good" ) );
+    } finally {
+      objects.close();
+    }
+    // The skipped record stays consumed.
+    queue = new SegmentQueue<String>( directory, 1024 );
+    queue.close();
+    assertThat( queue.dequeue(), nullValue() );
+  }
+
+  @Test
+  public void testSegmentsAreRecycled() throws IOException, InterruptedException {
+    for( int i = 0; i < 1000; i++ ) {
+      queue.enqueue( "element" + i );
+      assertThat( queue.dequeue(), is( "element" + i ) );
+    }
+    // The current segment plus at most two spares.
+    assertThat( directory.listFiles().length <= 3, is( true ) );
+  }
+
+  @Test( timeout = 120000 )
+  public void testConcurrentProducers() throws InterruptedException {
+    final int iterations = 500;
+    final Set<String> consumed = Collections.synchronizedSet( new HashSet<String>() );
+    Thread processor = new Thread() {
+      public void run() {
+        try {
+          final AtomicBoolean done = new AtomicBoolean( false );
+          while( !done.get() ) {
+            queue.process( new StoreAndForwardQueue.Consumer<String>() {
+              @Override
+              public boolean consume( String s ) {
+                if( s == null ) {
+                  done.set( true );
+                } else {
+                  assertThat( consumed.add( s ), is( true ) );
+                }
+                return true;
+              }
+            } );
+          }
+        } catch( Throwable t ) {
+          t.printStackTrace();
+        }
+      }
+    };
+    processor.start();
+    Thread[] producers = new Thread[ 4 ];
+    for( int i = 0; i < producers.length; i++ ) {
+      producers[ i ] = new Thread() {
+        public void run() {
+          try {
+            for( int i = 0; i < iterations; i++ ) {
+              queue.enqueue( UUID.randomUUID().toString() );
+            }
+          } catch( Throwable t ) {
+            t.printStackTrace();
+          }
+        }
+      };
+      producers[ i ].start();
+    }
+    for( Thread producer : producers ) {
+      producer.join();
+    }
+    while( consumed.size() < iterations * producers.length ) {
+      Thread.sleep( 5 );
+    }
+    queue.close();
+    processor.join();
+    assertThat( consumed.size(), is( iterations * producers.length ) );
+  }
+
+  private static class Unreadable implements Serializable {
+    private void readObject( ObjectInputStream input ) throws IOException {
+      throw new InvalidObjectException( "unreadable" );
+    }
+  }
+
+}
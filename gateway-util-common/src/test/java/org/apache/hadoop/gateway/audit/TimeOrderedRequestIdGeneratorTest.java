@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.audit;
+
+import org.apache.hadoop.gateway.audit.log4j.correlation.TimeOrderedRequestIdGenerator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TimeOrderedRequestIdGeneratorTest {
+
+  @Test
+  public void testFormat() {
+    String id = new TimeOrderedRequestIdGenerator( 0x12345678 ).createRequestId();
+    assertThat( id, id.matches( "[0-9a-f]{8}-[0-9a-f]{4}-1234-5678-[0-9a-f]{12}" ), is( true ) );
+  }
+
+  @Test
+  public void testUniqueAcrossThreads() throws InterruptedException {
+    final TimeOrderedRequestIdGenerator generator = new TimeOrderedRequestIdGenerator();
+    final int perThread = 10000;
+    final List<String> ids = Collections.synchronizedList( new ArrayList<String>() );
+    Thread[] threads = new Thread[ 8 ];
+    for( int i = 0; i < threads.length; i++ ) {
+      threads[ i ] = new Thread() {
+        @Override
+        public void run() {
+          List<String> local = new ArrayList<String>( perThread );
+          for( int j = 0; j < perThread; j++ ) {
+            local.add( generator.createRequestId() );
+          }
+          ids.addAll( local );
+        }
+      };
+      threads[ i ].start();
+    }
+    for( Thread thread : threads ) {
+      thread.join();
+    }
+    Set<String> unique = new HashSet<String>( ids );
+    assertThat( unique.size(), is( threads.length * perThread ) );
+  }
+
+  @Test
+  public void testOrderedByTime() throws InterruptedException {
+    TimeOrderedRequestIdGenerator first = new TimeOrderedRequestIdGenerator( 0xFFFFFFFF );
+    TimeOrderedRequestIdGenerator second = new TimeOrderedRequestIdGenerator( 0 );
+    String earlier = first.createRequestId();
+    Thread.sleep( 5 );
+    String later = second.createRequestId();
+    assertThat( earlier.compareTo( later ) < 0, is( true ) );
+    assertThat( earlier.substring( 14, 23 ), not( later.substring( 14, 23 ) ) );
+  }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ExpiringCacheTest {
+
+  private static final long NOW = 1000000L;
+
+  private static class RecordingCache extends ExpiringCache<String,String> {
+    private final List<String> removed = new ArrayList<String>();
+    RecordingCache( int maxEntries ) {
+      super( maxEntries );
+    }
+    @Override
+    protected void removed( String value ) {
+      removed.add( value );
+    }
+  }
+
+  @Test
+  public void testGetAndCounts() {
+    ExpiringCache<String,String> cache = new ExpiringCache<String,String>( 16 );
+    assertThat( cache.get( "key" ), nullValue() );
+    cache.put( "key", "value" );
+    assertThat( cache.get( "key" ), is( "value" ) );
+    assertThat( cache.get( "key" ), is( "value" ) );
+    assertThat( cache.size(), is( 1 ) );
+    assertThat( cache.getHitCount(), is( 2L ) );
+    assertThat( cache.getMissCount(), is( 1L ) );
+    cache.clear();
+    assertThat( cache.size(), is( 0 ) );
+    assertThat( cache.getHitCount(), is( 0L ) );
+    assertThat( cache.getMissCount(), is( 0L ) );
+  }
+
+  @Test
+  public void testExpiry() {
+    RecordingCache cache = new RecordingCache( 16 );
+    cache.put( "key", "value", NOW + 100, NOW );
+    assertThat( cache.get( "key", NOW + 99 ), is( "value" ) );
+    assertThat( cache.get( "key", NOW + 100 ), nullValue() );
+    assertThat( cache.size(), is( 0 ) );
+    assertThat( cache.removed.size(), is( 1 ) );
+    // Already expired values are not cached at all.
+    cache.put( "key", "value", NOW, NOW );
+    assertThat( cache.size(), is( 0 ) );
+  }
+
+  @Test
+  public void testExpiredEntriesPurgedOnPut() {
+    // A single partition makes the order of the entries deterministic.
+    RecordingCache cache = new RecordingCache( 1 );
+    cache.put( "old", "old-value", NOW + 10, NOW );
+    cache.put( "new", "new-value", NOW + 100, NOW + 20 );
+    assertThat( cache.removed.get( 0 ), is( "old-value" ) );
+    assertThat( cache.get( "new", NOW + 20 ), is( "new-value" ) );
+  }
+
+  @Test
+  public void testBounded() {
+    ExpiringCache<String,String> cache = new ExpiringCache<String,String>( 8 );
+    for( int i = 0; i < 1000; i++ ) {
+      cache.put( "key" + i, "value" + i );
+    }
+    assertThat( cache.size() <= 8, is( true ) );
+    int cached = 0;
+    for( int i = 0; i < 1000; i++ ) {
+      if( cache.get( "key" + i ) != null ) {
+        cached++;
+      }
+    }
+    assertThat( cached <= 8, is( true ) );
+    assertThat( cache.get( "key999" ), is( "value999" ) );
+  }
+
+  @Test
+  public void testBoundedWhenMaximumNotMultipleOfPartitions() {
+    ExpiringCache<String,String> cache = new ExpiringCache<String,String>( 17 );
+    for( int i = 0; i < 1000; i++ ) {
+      cache.put( "key" + i, "value" + i );
+    }
+    assertThat( cache.size(), is( 17 ) );
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEvicted() {
+    RecordingCache cache = new RecordingCache( 1 );
+    cache.put( "a", "a-value" );
+    cache.put( "b", "b-value" );
+    assertThat( cache.get( "a" ), nullValue() );
+    assertThat( cache.get( "b" ), is( "b-value" ) );
+    assertThat( cache.removed.get( 0 ), is( "a-value" ) );
+  }
+
+  @Test
+  public void testRemovedValuesReported() {
+    RecordingCache cache = new RecordingCache( 16 );
+    cache.put( "one", "1" );
+    cache.put( "one", "replaced" );
+    cache.put( "two", "2" );
+    cache.remove( "two" );
+    cache.remove( "missing" );
+    cache.clear();
+    assertThat( cache.removed.size(), is( 3 ) );
+    assertThat( cache.removed.contains( "1" ), is( true ) );
+    assertThat( cache.removed.contains( "2" ), is( true ) );
+    assertThat( cache.removed.contains( "replaced" ), is( true ) );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testEmptyCacheRejected() {
+    new ExpiringCache<String,String>( 0 );
+  }
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.util;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class IpAddressAclTest {
+
+  @Test
+  public void testExplicitAddresses() {
+    IpAddressAcl acl = IpAddressAcl.compile( "127.0.0.1,::1,2001:db8::17" );
+    assertThat( acl.matches( "127.0.0.1" ), is( true ) );
+    assertThat( acl.matches( "127.0.0.2" ), is( false ) );
+    assertThat( acl.matches( "0:0:0:0:0:0:0:1" ), is( true ) );
+    assertThat( acl.matches( "2001:DB8:0:0:0:0:0:17" ), is( true ) );
+    assertThat( acl.matches( "2001:db8::18" ), is( false ) );
+    assertThat( acl.matches( null ), is( false ) );
+  }
+
+  @Test
+  public void testCidrBlocks() {
+    IpAddressAcl acl = IpAddressAcl.compile( "10.0.0.0/8,192.168.4.0/22,2001:db8::/32" );
+    assertThat( acl.matches( "10.255.1.2" ), is( true ) );
+    assertThat( acl.matches( "11.0.0.1" ), is( false ) );
+    assertThat( acl.matches( "192.168.7.255" ), is( true ) );
+    assertThat( acl.matches( "192.168.8.0" ), is( false ) );
+    assertThat( acl.matches( "192.168.3.255" ), is( false ) );
+    assertThat( acl.matches( "2001:db8:ffff::1" ), is( true ) );
+    assertThat( acl.matches( "2001:db9::1" ), is( false ) );
+    assertThat( acl.matches( "::ffff:10.1.2.3" ), is( true ) );
+  }
+
+  @Test
+  public void testRanges() {
+    IpAddressAcl acl = IpAddressAcl.compile( "10.0.0.5-10.0.1.20,fe80::10-fe80::1f" );
+    assertThat( acl.matches( "10.0.0.4" ), is( false ) );
+    assertThat( acl.matches( "10.0.0.5" ), is( true ) );
+    assertThat( acl.matches( "10.0.0.255" ), is( true ) );
+    assertThat( acl.matches( "10.0.1.0" ), is( true ) );
+    assertThat( acl.matches( "10.0.1.20" ), is( true ) );
+    assertThat( acl.matches( "10.0.1.21" ), is( false ) );
+    assertThat( acl.matches( "fe80::f" ), is( false ) );
+    assertThat( acl.matches( "fe80::15" ), is( true ) );
+    assertThat( acl.matches( "fe80::20" ), is( false ) );
+  }
+
+  @Test
+  public void testWildcards() {
+    IpAddressAcl acl = IpAddressAcl.compile( "193.*,192.168.1.*,29*" );
+    assertThat( acl.matches( "193.168.1.1" ), is( true ) );
+    assertThat( acl.matches( "192.168.1.1" ), is( true ) );
+    assertThat( acl.matches( "192.168.2.1" ), is( false ) );
+    assertThat( acl.matches( "29.1.1.1" ), is( true ) );
+    assertThat( acl.matches( "30.1.1.1" ), is( false ) );
+    assertThat( acl.allowsAnyIP(), is( false ) );
+    assertThat( IpAddressAcl.compile( "10.0.0.1,*" ).allowsAnyIP(), is( true ) );
+    assertThat( IpAddressAcl.compile( null ).matches( "1.2.3.4" ), is( true ) );
+  }
+
+  @Test
+  public void testNames() {
+    IpAddressAcl acl = IpAddressAcl.compile( "localhost,10.0.0.0/40" );
+    assertThat( acl.matches( "localhost" ), is( true ) );
+    assertThat( acl.matches( "10.0.0.0/40" ), is( true ) );
+    assertThat( acl.matches( "10.0.0.1" ), is( false ) );
+  }
+
+  @Test
+  public void testParseAddress() {
+    assertThat( IpAddressAcl.parseAddress( "1.2.3.4" ).length, is( 4 ) );
+    assertThat( IpAddressAcl.parseAddress( "[::1]" ).length, is( 16 ) );
+    assertThat( IpAddressAcl.parseAddress( "fe80::1%eth0" ).length, is( 16 ) );
+    assertThat( IpAddressAcl.parseAddress( "::ffff:1.2.3.4" ).length, is( 4 ) );
+    assertThat( IpAddressAcl.parseAddress( "1.2.3.256" ), nullValue() );
+    assertThat( IpAddressAcl.parseAddress( "1.2.3" ), nullValue() );
+    assertThat( IpAddressAcl.parseAddress( "1::2::3" ), nullValue() );
+    assertThat( IpAddressAcl.parseAddress( "1:2:3:4:5:6:7" ), nullValue() );
+    assertThat( IpAddressAcl.parseAddress( "12345::" ), nullValue() );
+    assertThat( IpAddressAcl.parseAddress( "example.com" ), nullValue() );
+  }
+
+}
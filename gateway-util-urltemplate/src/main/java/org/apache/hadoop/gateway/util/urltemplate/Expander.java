@@ -25,12 +25,17 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class Expander {
 
   private static Params EMPTY_PARAMS = new EmptyParams();
 
+  // Buffers larger than this aren't kept for reuse so that one huge value doesn't pin memory to a thread.
+  private static final int MAX_REUSED_BUFFER_CAPACITY = 4 * 1024;
+
+  // The buffer is removed while in use so that an evaluator that expands another template gets its own.
+  private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>();
+
   public static URI expand( Template template, Params params, Evaluator evaluator ) throws URISyntaxException {
     return new Expander().expandToUri( template, params, evaluator );
   }
@@ -39,217 +44,411 @@ public class Expander {
     return new URI( expandToString( template, params, evaluator ) );
   }
 
+  /**
+   * Expands the template directly into a new template.
+   * The result is the same as parsing the string produced by expandToString.  The parse is only actually done when
+   * one of the expanded values contains characters that the parser would interpret such as / in a path value.
+   */
   public Template expandToTemplate( Template template, Params params, Evaluator evaluator ) throws URISyntaxException {
-    //TODO: This could be much more efficient if it didn't create and then parse a string.
-    return Parser.parse( expandToString( template, params, evaluator ) );
+    StringBuilder buffer = acquireBuffer();
+    try {
+      Builder builder = new Builder();
+      Expansion expansion = new Expansion( params, evaluator, buffer, builder );
+      expansion.expand( template );
+      if( expansion.builder != null ) {
+        return builder.build();
+      } else {
+        return Parser.parse( buffer.toString() );
+      }
+    } finally {
+      releaseBuffer( buffer );
+    }
   }
 
   public String expandToString( Template template, Params params, Evaluator evaluator ) {
-    StringBuilder builder = new StringBuilder();
-    if( params == null ) {
-      params = EMPTY_PARAMS;
+    StringBuilder buffer = acquireBuffer();
+    try {
+      new Expansion( params, evaluator, buffer, null ).expand( template );
+      return buffer.toString();
+    } finally {
+      releaseBuffer( buffer );
     }
-    Set<String> names = new HashSet<String>( params.getNames() );
-    expandScheme( template, names, params, evaluator, builder );
-    expandAuthority( template, names, params, evaluator, builder );
-    expandPath( template, names, params, evaluator, builder );
-    expandQuery( template, names, params, evaluator, builder );
-    expandFragment( template, names, params, evaluator, builder );
-    return builder.toString();
   }
 
-  private static void expandScheme( Template template, Set<String> names, Params params, Evaluator evaluator, StringBuilder builder ) {
-    Segment segment = template.getScheme();
-    if( segment != null ) {
-      expandSingleValue( template.getScheme(), names, params, evaluator, builder );
-      builder.append( ":" );
+  private static StringBuilder acquireBuffer() {
+    StringBuilder buffer = BUFFER.get();
+    if( buffer == null ) {
+      buffer = new StringBuilder();
+    } else {
+      BUFFER.set( null );
+      buffer.setLength( 0 );
     }
+    return buffer;
   }
 
-  private static void expandAuthority( Template template, Set<String> names, Params params, Evaluator evaluator, StringBuilder builder ) {
-    if( template.hasAuthority() ) {
-      builder.append( "//" );
-      Segment username = template.getUsername();
-      Segment password = template.getPassword();
-      Segment host = template.getHost();
-      Segment port = template.getPort();
-      expandSingleValue( username, names, params, evaluator, builder );
-      if( password != null ) {
-        builder.append( ":" );
-        expandSingleValue( password, names, params, evaluator, builder );
+  private static void releaseBuffer( StringBuilder buffer ) {
+    if( buffer.capacity() <= MAX_REUSED_BUFFER_CAPACITY ) {
+      BUFFER.set( buffer );
+    }
+  }
+
+  // True if the parser would turn the value back into a single anonymous segment with the value as its pattern.
+  private static boolean isVerbatim( String value, String delimiters ) {
+    int length = ( value == null ) ? 0 : value.length();
+    if( length == 0 ||
+        value.charAt( 0 ) == Parser.TEMPLATE_OPEN_MARKUP ||
+        value.charAt( length - 1 ) == Parser.TEMPLATE_CLOSE_MARKUP ) {
+      return false;
+    }
+    for( int i = 0; i < length; i++ ) {
+      if( delimiters.indexOf( value.charAt( i ) ) >= 0 ) {
+        return false;
       }
-      if( username != null || password != null ) {
-        builder.append( "@" );
+    }
+    return true;
+  }
+
+  // Writes the expanded template to the buffer and, while possible, builds the same template the parser would
+  // produce from the buffer.  The builder is dropped as soon as any part of the output wouldn't parse verbatim.
+  private static class Expansion {
+
+    private static final String SCHEME_DELIMITERS = ":/?#";
+    private static final String AUTHORITY_DELIMITERS = ":@/?#";
+    private static final String PATH_DELIMITERS = "/?#";
+    private static final String RELATIVE_PATH_DELIMITERS = ":/?#";
+    private static final String QUERY_NAME_DELIMITERS = "=&?#";
+    private static final String QUERY_VALUE_DELIMITERS = "&?#";
+    private static final String FRAGMENT_DELIMITERS = "\n\r\u0085\u2028\u2029";
+
+    private Params params;
+    private Evaluator evaluator;
+    private Set<String> names;
+    private StringBuilder buffer;
+    private Builder builder;
+    private int queryCount;
+
+    private Expansion( Params params, Evaluator evaluator, StringBuilder buffer, Builder builder ) {
+      if( params == null ) {
+        params = EMPTY_PARAMS;
       }
-      if( host != null ) {
-        expandSingleValue( host, names, params, evaluator, builder );
+      this.params = params;
+      this.evaluator = evaluator;
+      this.names = new HashSet<String>( params.getNames() );
+      this.buffer = buffer;
+      this.builder = builder;
+      this.queryCount = 0;
+    }
+
+    private void expand( Template template ) {
+      // A scheme without an authority may be parsed as host:port and a fragment without a # ends up in the query.
+      if( ( template.getScheme() != null && !template.hasAuthority() ) ||
+          ( template.getFragment() != null && !template.hasFragment() ) ) {
+        builder = null;
       }
-      if( port != null ) {
-        builder.append( ":" );
-        expandSingleValue( port, names, params, evaluator, builder );
+      expandScheme( template );
+      expandAuthority( template );
+      expandPath( template );
+      expandQuery( template );
+      expandFragment( template );
+    }
+
+    private void expandScheme( Template template ) {
+      Segment segment = template.getScheme();
+      if( segment != null ) {
+        String value = expandSingleValue( segment );
+        buffer.append( ":" );
+        if( builder != null ) {
+          if( isVerbatim( value, SCHEME_DELIMITERS ) ) {
+            builder.setScheme( Segment.ANONYMOUS_PARAM, value );
+          } else {
+            builder = null;
+          }
+        }
       }
     }
-  }
 
-  private static void expandPath( Template template, Set<String> names, Params params, Evaluator evaluator, StringBuilder builder ) {
-    if( template.isAbsolute() ) {
-      builder.append( "/" );
+    private void expandAuthority( Template template ) {
+      if( template.hasAuthority() ) {
+        buffer.append( "//" );
+        if( builder != null ) {
+          builder.setHasAuthority( true );
+        }
+        Segment username = template.getUsername();
+        Segment password = template.getPassword();
+        Segment host = template.getHost();
+        Segment port = template.getPort();
+        String user = null, pass = null;
+        if( username != null ) {
+          user = expandSingleValue( username );
+        }
+        if( password != null ) {
+          buffer.append( ":" );
+          pass = expandSingleValue( password );
+        }
+        if( username != null || password != null ) {
+          buffer.append( "@" );
+        }
+        if( builder != null && username != null ) {
+          if( isVerbatim( user, AUTHORITY_DELIMITERS ) ) {
+            builder.setUsername( Segment.ANONYMOUS_PARAM, user );
+          } else {
+            builder = null;
+          }
+        }
+        if( builder != null && password != null ) {
+          if( isVerbatim( pass, AUTHORITY_DELIMITERS ) ) {
+            builder.setPassword( Segment.ANONYMOUS_PARAM, pass );
+          } else {
+            builder = null;
+          }
+        }
+        if( host != null ) {
+          String value = expandSingleValue( host );
+          if( builder != null ) {
+            if( isVerbatim( value, AUTHORITY_DELIMITERS ) ) {
+              builder.setHost( Segment.ANONYMOUS_PARAM, value );
+            } else {
+              builder = null;
+            }
+          }
+        }
+        if( port != null ) {
+          buffer.append( ":" );
+          String value = expandSingleValue( port );
+          if( builder != null ) {
+            if( isVerbatim( value, AUTHORITY_DELIMITERS ) ) {
+              builder.setPort( Segment.ANONYMOUS_PARAM, value );
+            } else {
+              builder = null;
+            }
+          }
+        }
+      }
     }
-    List<Path> path = template.getPath();
-    for( int i=0, n=path.size(); i<n; i++ ) {
-      if( i > 0 ) {
-        builder.append( "/" );
+
+    private void expandPath( Template template ) {
+      List<Path> path = template.getPath();
+      if( template.isAbsolute() ) {
+        buffer.append( "/" );
+      } else if( template.hasAuthority() && !path.isEmpty() ) {
+        // The first path segment would run into the authority.
+        builder = null;
       }
-      Path segment = path.get( i );
-      String name = segment.getParamName();
-      Function function = new Function( name );
-      names.remove( function.getParameterName() );
-      Segment.Value value = segment.getFirstValue();
-      switch( value.getType() ) {
-        case( Segment.STATIC ):
-          String pattern = value.getPattern();
-          builder.append( pattern );
-          break;
-        case( Segment.DEFAULT ):
-        case( Segment.STAR ):
-        case( Segment.GLOB ):
-        case( Segment.REGEX ):
-          List<String> values = function.evaluate( params, evaluator );
-          expandPathValues( segment, values, builder );
-          break;
+      // Without a leading / a : in the first segment would make it look like a scheme.
+      String delimiters = template.isAbsolute() ? PATH_DELIMITERS : RELATIVE_PATH_DELIMITERS;
+      for( int i=0, n=path.size(); i<n; i++ ) {
+        if( i > 0 ) {
+          buffer.append( "/" );
+          delimiters = PATH_DELIMITERS;
+        }
+        Path segment = path.get( i );
+        String name = segment.getParamName();
+        Function function = new Function( name );
+        names.remove( function.getParameterName() );
+        Segment.Value value = segment.getFirstValue();
+        switch( value.getType() ) {
+          case( Segment.STATIC ):
+            String pattern = value.getPattern();
+            appendPathValue( pattern, delimiters );
+            break;
+          case( Segment.DEFAULT ):
+          case( Segment.STAR ):
+          case( Segment.GLOB ):
+          case( Segment.REGEX ):
+            List<String> values = function.evaluate( params, evaluator );
+            expandPathValues( segment, values, delimiters );
+            break;
+          default:
+            builder = null;
+        }
+      }
+      if( template.isDirectory() && path.size() > 0 ) {
+        buffer.append( "/" );
+      }
+      if( builder != null ) {
+        builder.setIsAbsolute( template.isAbsolute() );
+        // A lone / is both absolute and a directory once parsed.
+        builder.setIsDirectory( path.isEmpty() ? template.isAbsolute() : template.isDirectory() );
       }
     }
-    if( template.isDirectory() && path.size() > 0 ) {
-      builder.append( "/" );
-    }
-  }
 
-  //TODO: This needs to handle multiple values but only to the limit of the segment.
-  private static void expandPathValues( Path segment, List<String> values, StringBuilder builder ) {
-    if( values != null && values.size() > 0 ) {
-      int type = segment.getFirstValue().getType();
-      if( type == Segment.GLOB || type == Segment.DEFAULT ) {
-        for( int i=0, n=values.size(); i<n; i++ ) {
-          if( i > 0 ) {
-            builder.append( "/" );
+    //TODO: This needs to handle multiple values but only to the limit of the segment.
+    private void expandPathValues( Path segment, List<String> values, String delimiters ) {
+      if( values != null && values.size() > 0 ) {
+        int type = segment.getFirstValue().getType();
+        if( type == Segment.GLOB || type == Segment.DEFAULT ) {
+          for( int i=0, n=values.size(); i<n; i++ ) {
+            if( i > 0 ) {
+              buffer.append( "/" );
+              delimiters = PATH_DELIMITERS;
+            }
+            appendPathValue( values.get( i ), delimiters );
           }
-          builder.append( values.get( i ) );
+        } else {
+          appendPathValue( values.get( 0 ), delimiters );
         }
       } else {
-        builder.append( values.get( 0 ) );
+        appendPathValue( segment.getFirstValue().getPattern(), delimiters );
       }
-    } else {
-      builder.append( segment.getFirstValue().getPattern() );
     }
-  }
-
-  private static void expandQuery( Template template, Set<String> names, Params params, Evaluator evaluator, StringBuilder builder ) {
-    AtomicInteger index = new AtomicInteger( 0 );
-    expandExplicitQuery( template, names, params, evaluator, builder, index );
-    expandExtraQuery( template, names, params, builder, index );
-    //Kevin: I took this out because it causes '?' to be added to expanded templates when there are not query params.
-//    if( template.hasQuery() && index.get() == 0 ) {
-//      builder.append( '?' );
-//    }
-  }
 
-  private static void expandExplicitQuery( Template template, Set<String> names, Params params, Evaluator evaluator, StringBuilder builder, AtomicInteger index ) {
-    Collection<Query> query = template.getQuery().values();
-    if( !query.isEmpty() ) {
-      Iterator<Query> iterator = query.iterator();
-      while( iterator.hasNext() ) {
-        int i = index.incrementAndGet();
-        if( i == 1 ) {
-          builder.append( "?" );
+    private void appendPathValue( String value, String delimiters ) {
+      buffer.append( value );
+      if( builder != null ) {
+        if( isVerbatim( value, delimiters ) ) {
+          builder.addPath( Segment.ANONYMOUS_PARAM, value );
         } else {
-          builder.append( "&" );
+          builder = null;
         }
-        Query segment = iterator.next();
-        String queryName = segment.getQueryName();
-        String paramName = segment.getParamName();
-        Function function = new Function( paramName );
-        names.remove( function.getParameterName() );
-        for( Segment.Value value: segment.getValues() ) {
-          switch( value.getType() ) {
-            case( Segment.STATIC ):
-              String pattern = value.getPattern();
-              builder.append( queryName );
-              if( pattern != null ) {
-                builder.append( "=" );
-                builder.append( pattern );
-              }
-              break;
-            case( Segment.DEFAULT ):
-            case( Segment.GLOB ):
-            case( Segment.STAR ):
-            case( Segment.REGEX ):
-              List<String> values = function.evaluate( params, evaluator );
-              expandQueryValues( segment, queryName, values, builder );
-              break;
-            default:
+      }
+    }
+
+    private void expandQuery( Template template ) {
+      expandExplicitQuery( template );
+      expandExtraQuery( template );
+      //Kevin: I took this out because it causes '?' to be added to expanded templates when there are not query params.
+//      if( template.hasQuery() && queryCount == 0 ) {
+//        buffer.append( '?' );
+//      }
+      if( builder != null ) {
+        builder.setHasQuery( queryCount > 0 );
+      }
+    }
+
+    private void expandExplicitQuery( Template template ) {
+      Collection<Query> query = template.getQuery().values();
+      if( !query.isEmpty() ) {
+        Iterator<Query> iterator = query.iterator();
+        while( iterator.hasNext() ) {
+          appendQuerySeparator();
+          Query segment = iterator.next();
+          String queryName = segment.getQueryName();
+          String paramName = segment.getParamName();
+          Function function = new Function( paramName );
+          names.remove( function.getParameterName() );
+          // Multiple values are written without separators between them.
+          if( segment.getValueCount() > 1 ) {
+            builder = null;
+          }
+          for( Segment.Value value: segment.getValues() ) {
+            switch( value.getType() ) {
+              case( Segment.STATIC ):
+                String pattern = value.getPattern();
+                buffer.append( queryName );
+                if( pattern != null ) {
+                  buffer.append( "=" );
+                  buffer.append( pattern );
+                }
+                addQueryValue( queryName, pattern );
+                break;
+              case( Segment.DEFAULT ):
+              case( Segment.GLOB ):
+              case( Segment.STAR ):
+              case( Segment.REGEX ):
+                List<String> values = function.evaluate( params, evaluator );
+                expandQueryValues( segment, queryName, values );
+                break;
+              default:
+                builder = null;
+            }
           }
         }
       }
     }
-  }
 
-  private static void expandExtraQuery( Template template, Set<String> names, Params params, StringBuilder builder, AtomicInteger index ) {
-    Query extra = template.getExtra();
-    if( extra != null ) {
-      // Need to copy to an array because we are going to modify the set while iterating.
-      String[] array = new String[ names.size() ];
-      names.toArray( array );
-      for( String name: array ) {
-        names.remove( name );
-        List<String> values = params.resolve( name );
-        if( values != null ) {
-          for( String value: values ) {
-            int i = index.incrementAndGet();
-            if( i == 1 ) {
-              builder.append( "?" );
-            } else {
-              builder.append( "&" );
+    private void expandExtraQuery( Template template ) {
+      Query extra = template.getExtra();
+      if( extra != null ) {
+        // Need to copy to an array because we are going to modify the set while iterating.
+        String[] array = new String[ names.size() ];
+        names.toArray( array );
+        for( String name: array ) {
+          names.remove( name );
+          List<String> values = params.resolve( name );
+          if( values != null ) {
+            for( String value: values ) {
+              appendQuerySeparator();
+              appendQueryValue( name, value );
             }
-            builder.append( name );
-            builder.append( "=" );
-            builder.append( value );
           }
         }
       }
     }
-  }
 
-  private static void expandQueryValues( Query segment, String queryName, List<String> values, StringBuilder builder ) {
-    if( values == null || values.size() == 0 ) {
-      builder.append( queryName );
-    } else {
-      int type = segment.getFirstValue().getType();
-      if( type == Segment.GLOB || type == Segment.DEFAULT ) {
-        for( int i=0, n=values.size(); i<n; i++ ) {
-          if( i > 0 ) {
-            builder.append( "&" );
+    private void expandQueryValues( Query segment, String queryName, List<String> values ) {
+      if( values == null || values.size() == 0 ) {
+        buffer.append( queryName );
+        addQueryValue( queryName, null );
+      } else {
+        int type = segment.getFirstValue().getType();
+        if( type == Segment.GLOB || type == Segment.DEFAULT ) {
+          for( int i=0, n=values.size(); i<n; i++ ) {
+            if( i > 0 ) {
+              buffer.append( "&" );
+            }
+            appendQueryValue( queryName, values.get( i ) );
           }
-          builder.append( queryName );
-          builder.append( "=" );
-          builder.append( values.get( i ) );
+        } else {
+          appendQueryValue( queryName, values.get( 0 ) );
         }
+      }
+    }
+
+    private void appendQuerySeparator() {
+      queryCount++;
+      if( queryCount == 1 ) {
+        buffer.append( "?" );
       } else {
-        builder.append( queryName );
-        builder.append( "=" );
-        builder.append( values.get( 0 ) );
+        buffer.append( "&" );
       }
     }
-  }
 
-  private static void expandFragment( Template template, Set<String> names, Params params, Evaluator evaluator, StringBuilder builder ) {
-    if( template.hasFragment() ) {
-      builder.append( "#" );
+    private void appendQueryValue( String queryName, String value ) {
+      buffer.append( queryName );
+      buffer.append( "=" );
+      buffer.append( value );
+      if( value == null ) {
+        // The parser would see the string "null".
+        builder = null;
+      } else {
+        addQueryValue( queryName, value );
+      }
     }
-    expandSingleValue( template.getFragment(), names, params, evaluator, builder );
-  }
 
-  private static void expandSingleValue( Segment segment, Set<String> names, Params params, Evaluator evaluator, StringBuilder builder ) {
-    if( segment != null ) {
+    private void addQueryValue( String queryName, String value ) {
+      if( builder != null ) {
+        if( isVerbatim( queryName, QUERY_NAME_DELIMITERS ) &&
+            !Segment.STAR_PATTERN.equals( queryName ) &&
+            !Segment.GLOB_PATTERN.equals( queryName ) &&
+            ( value == null || value.length() == 0 || isVerbatim( value, QUERY_VALUE_DELIMITERS ) ) ) {
+          builder.addQuery( queryName, Segment.ANONYMOUS_PARAM, ( value == null || value.length() == 0 ) ? null : value );
+        } else {
+          builder = null;
+        }
+      }
+    }
+
+    private void expandFragment( Template template ) {
+      if( template.hasFragment() ) {
+        buffer.append( "#" );
+        if( builder != null ) {
+          builder.setHasFragment( true );
+        }
+      }
+      Segment segment = template.getFragment();
+      if( segment != null ) {
+        String value = expandSingleValue( segment );
+        if( builder != null ) {
+          if( isVerbatim( value, FRAGMENT_DELIMITERS ) ) {
+            builder.setFragment( Segment.ANONYMOUS_PARAM, value );
+          } else {
+            builder = null;
+          }
+        }
+      }
+    }
+
+    private String expandSingleValue( Segment segment ) {
       String paramName = segment.getParamName();
       Function function = new Function( paramName );
       names.remove( function.getParameterName() );
@@ -273,8 +472,10 @@ public class Expander {
           str = value.getPattern();
           break;
       }
-      builder.append( str );
+      buffer.append( str );
+      return str;
     }
+
   }
 
   private static class EmptyParams implements Params {
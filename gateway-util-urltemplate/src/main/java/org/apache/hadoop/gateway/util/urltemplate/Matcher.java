@@ -18,6 +18,7 @@
 package org.apache.hadoop.gateway.util.urltemplate;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -51,14 +52,31 @@ import java.util.Set;
        {queryParam=*:other-parm} -> {queryParam=*:otherparam}
        {queryParam=**:other-parm} -> {queryParam=**:otherparam}
  */
+/**
+ * Matches templates against input templates.
+ * A matcher is built by adding all of its templates and is then only read, match may be called from many threads
+ * once adding is done but adding while other threads match is not safe.
+ */
 public class Matcher<V> {
 
+  // Per thread state of compiled matching, shared by all matchers and cleared after each match.
+  private static final ThreadLocal<CompiledStatus> SCRATCH = new ThreadLocal<CompiledStatus>() {
+    @Override
+    protected CompiledStatus initialValue() {
+      return new CompiledStatus();
+    }
+  };
+
   private Map<Template,V> map;
-  private PathNode root;
+  private PathNode<V> root;
+  private volatile boolean compiled;
+  private volatile boolean stale;
 
   public Matcher() {
     map = new LinkedHashMap<Template,V>();
-    root = new PathNode( null, null );
+    root = new PathNode<V>( null, null );
+    compiled = false;
+    stale = false;
   }
 
   public Matcher( Template template, V value ) {
@@ -70,9 +88,30 @@ public class Matcher<V> {
     return map.get( template );
   }
 
+  /**
+   * Switches the matcher to the compiled mode.
+   * In compiled mode the static children of each node are indexed by value so that matching a segment is a hash
+   * lookup plus a scan of only the wildcard, glob and regex children.  Matching also reuses per thread state so
+   * that an input that doesn't match allocates nothing.  The results are the same as the uncompiled mode.
+   * Templates added after compilation are indexed lazily by the next match, like any template they must not be
+   * added while other threads match.
+   */
+  public synchronized void compile() {
+    compileNode( root );
+    stale = false;
+    compiled = true;
+  }
+
+  public boolean isCompiled() {
+    return compiled;
+  }
+
   public void add( Template template, V value ) {
+    if( compiled ) {
+      stale = true;
+    }
     map.put( template, value );
-    PathNode node = root;
+    PathNode<V> node = root;
 
     // Add the scheme segment to the tree (if any) while descending.
     node = add( node, template.getScheme() );
@@ -107,8 +146,8 @@ public class Matcher<V> {
     }
   }
 
-  private PathNode add( PathNode parent, Segment segment ) {
-    PathNode child = parent;
+  private PathNode<V> add( PathNode<V> parent, Segment segment ) {
+    PathNode<V> child = parent;
     if( segment != null ) {
       if( ( parent.children != null ) && ( parent.children.containsKey( segment ) ) ) {
         child = parent.children.get( segment );
@@ -120,6 +159,9 @@ public class Matcher<V> {
   }
 
   public Match match( Template input ) {
+    if( compiled ) {
+      return matchCompiled( input );
+    }
     Status status = new Status();
     status.candidates.add( new MatchSegment( null, root, null, null ) );
     boolean matches = true;
@@ -172,7 +214,7 @@ public class Matcher<V> {
           status.matches.add( new MatchSegment( parent, parent.pathNode, parent.pathNode.segment, segment ) );
         }
         if( parent.pathNode.children != null ) {
-          for( PathNode node : parent.pathNode.children.values() ) {
+          for( PathNode<V> node : nodeOf( parent ).children.values() ) {
             if( node.matches( segment ) ) {
               status.matches.add( new MatchSegment( parent, node, node.segment, segment ) );
             }
@@ -185,11 +227,11 @@ public class Matcher<V> {
 
   private Match pickBestMatch( Template input, Status status ) {
     Match bestMatch = new Match( null, null );
-    PathNode bestPath = null;
-    QueryNode bestQuery = null;
+    PathNode<V> bestPath = null;
+    QueryNode<V> bestQuery = null;
     MatchSegment bestMatchSegment = null;
     for( MatchSegment matchSegment: status.candidates ) {
-      PathNode pathNode = matchSegment.pathNode;
+      PathNode<V> pathNode = nodeOf( matchSegment );
       if( ( bestPath == null ) || // If we don't have anything at all pick the pathNode.
           ( pathNode.depth > bestPath.depth ) || // If the pathNode is deeper than the best pathNode, pick it.
           // If the pathNode is the same depth as current best but is static and the best isn't then pick it.
@@ -218,10 +260,10 @@ public class Matcher<V> {
     return match;
   }
 
-  private QueryNode pickBestQueryMatch( Template input, PathNode pathNode ) {
-    QueryNode bestNode = null;
+  private QueryNode<V> pickBestQueryMatch( Template input, PathNode<V> pathNode ) {
+    QueryNode<V> bestNode = null;
     int bestMatchCount = 0;
-    for( QueryNode node : pathNode.queries ) {
+    for( QueryNode<V> node : pathNode.queries ) {
       Query extra = node.template.getExtra();
       int nodeQuerySize = node.template.getQuery().size();
       int queryMatchCount = calcQueryMatchCount( node, input );
@@ -238,7 +280,7 @@ public class Matcher<V> {
     return bestNode;
   }
 
-  private int calcQueryMatchCount( QueryNode node, Template input ) {
+  private int calcQueryMatchCount( QueryNode<V> node, Template input ) {
     int matchCount = 0;
     Map<String,Query> inputQuery = input.getQuery();
     Map<String,Query> templateQuery = node.template.getQuery();
@@ -254,7 +296,7 @@ public class Matcher<V> {
     return matchCount;
   }
 
-  private Match createMatch( MatchSegment bestMatchSegment, PathNode bestPath, QueryNode bestQuery, Template input ) {
+  private Match createMatch( MatchSegment bestMatchSegment, PathNode<V> bestPath, QueryNode<V> bestQuery, Template input ) {
     Match match = null;
 
     if( bestPath != null ) { //&& ( bestQuery != null || !bestPath.hasQueries() ) ) {
@@ -319,6 +361,217 @@ public class Matcher<V> {
     }
   }
 
+  // The match segments are shared by the matchers of a thread so they only know the node type.
+  @SuppressWarnings( "unchecked" )
+  private PathNode<V> nodeOf( MatchSegment matchSegment ) {
+    return (PathNode<V>)matchSegment.pathNode;
+  }
+
+  private synchronized void recompile() {
+    if( stale ) {
+      compileNode( root );
+      stale = false;
+    }
+  }
+
+  private void compileNode( PathNode<V> node ) {
+    node.compile();
+    if( node.children != null ) {
+      for( PathNode<V> child : node.children.values() ) {
+        compileNode( child );
+      }
+    }
+  }
+
+  private Match matchCompiled( Template input ) {
+    if( stale ) {
+      recompile();
+    }
+    CompiledStatus status = SCRATCH.get();
+    status.start( root );
+    try {
+      boolean matches =
+          pickCompiledChildren( input.getScheme(), status ) &&
+          pickCompiledChildren( input.getUsername(), status ) &&
+          pickCompiledChildren( input.getPassword(), status ) &&
+          pickCompiledChildren( input.getHost(), status ) &&
+          pickCompiledChildren( input.getPort(), status );
+      List<Path> path = input.getPath();
+      for( int i = 0, n = path.size(); matches && i < n; i++ ) {
+        matches = pickCompiledChildren( path.get( i ), status );
+      }
+      matches = matches && pickCompiledChildren( input.getFragment(), status );
+      return matches ? pickBestCompiledMatch( input, status ) : null;
+    } finally {
+      status.finish();
+    }
+  }
+
+  private boolean pickCompiledChildren( Segment segment, CompiledStatus status ) {
+    if( segment != null ) {
+      Segment.Value value = ( segment.getValueCount() == 1 ) ? segment.getFirstValue() : null;
+      for( int c = 0, cn = status.candidateCount; c < cn; c++ ) {
+        MatchSegment parent = status.candidates[ c ];
+        PathNode<V> parentNode = nodeOf( parent );
+        if( parentNode.glob ) {
+          status.addMatch( parent, parentNode, parentNode.segment, segment );
+        }
+        if( parentNode.childArray == null ) {
+          continue;
+        }
+        if( value == null ) {
+          // Multi-valued input segments are rare so just test every child.
+          for( PathNode<V> node : parentNode.childArray ) {
+            if( node.matches( segment ) ) {
+              status.addMatch( parent, node, node.segment, segment );
+            }
+          }
+        } else {
+          // Merge the static hits and the dynamic children in their original order to keep tie breaking the same.
+          PathNode<V>[] statics = parentNode.staticChildren.get( value.getPattern() );
+          PathNode<V>[] dynamics = parentNode.dynamicChildren;
+          int s = 0, sn = ( statics == null ) ? 0 : statics.length;
+          int d = 0, dn = dynamics.length;
+          while( s < sn || d < dn ) {
+            if( d >= dn || ( s < sn && statics[ s ].ordinal < dynamics[ d ].ordinal ) ) {
+              PathNode<V> node = statics[ s++ ];
+              if( node.segment.getClass().isInstance( segment ) ) {
+                status.addMatch( parent, node, node.segment, segment );
+              }
+            } else {
+              PathNode<V> node = dynamics[ d++ ];
+              if( node.matches( segment ) ) {
+                status.addMatch( parent, node, node.segment, segment );
+              }
+            }
+          }
+        }
+      }
+      status.swapMatchesToCandidates();
+    }
+    return status.candidateCount > 0;
+  }
+
+  // Same selection rules as pickBestMatch but without allocating when nothing is selected.
+  private Match pickBestCompiledMatch( Template input, CompiledStatus status ) {
+    PathNode<V> bestPath = null;
+    QueryNode<V> bestQuery = null;
+    MatchSegment bestMatchSegment = null;
+    for( int c = 0, cn = status.candidateCount; c < cn; c++ ) {
+      MatchSegment matchSegment = status.candidates[ c ];
+      PathNode<V> pathNode = nodeOf( matchSegment );
+      if( ( bestPath == null ) ||
+          ( pathNode.depth > bestPath.depth ) ||
+          ( ( pathNode.depth == bestPath.depth ) && ( pathNode.type < bestPath.type ) ) ) {
+        if( pathNode.template != null ) {
+          bestPath = pathNode;
+          bestQuery = null;
+          bestMatchSegment = matchSegment;
+        }
+        if( pathNode.queryArray != null ) {
+          bestQuery = pickBestCompiledQueryMatch( input, pathNode );
+          if( bestQuery != null && bestQuery.template != null ) {
+            bestPath = pathNode;
+            bestMatchSegment = matchSegment;
+          }
+        }
+      }
+    }
+    return createMatch( bestMatchSegment, bestPath, bestQuery, input );
+  }
+
+  private QueryNode<V> pickBestCompiledQueryMatch( Template input, PathNode<V> pathNode ) {
+    QueryNode<V> bestNode = null;
+    int bestMatchCount = 0;
+    Map<String,Query> inputQuery = input.getQuery();
+    for( QueryNode<V> node : pathNode.queryArray ) {
+      Query extra = node.template.getExtra();
+      int nodeQuerySize = node.queryArray.length;
+      int queryMatchCount = 0;
+      for( Query templateSegment : node.queryArray ) {
+        Query inputSegment = inputQuery.get( templateSegment.getQueryName() );
+        if( inputSegment != null && templateSegment.matches( inputSegment ) ) {
+          queryMatchCount++ ;
+        } else {
+          queryMatchCount = 0;
+          break;
+        }
+      }
+      boolean matchesNamedQueries = queryMatchCount >= nodeQuerySize;
+      boolean matchesExtraQuery =
+          ( ( extra == null ) ||
+            ( Segment.GLOB_PATTERN.equals( extra.getQueryName() ) ) ||
+            ( inputQuery.size() > nodeQuerySize ) );
+      if( ( bestNode == null || queryMatchCount > bestMatchCount ) && ( matchesNamedQueries && matchesExtraQuery ) ) {
+        bestMatchCount = queryMatchCount;
+        bestNode = node;
+      }
+    }
+    return bestNode;
+  }
+
+  private static class CompiledStatus {
+
+    MatchSegment[] candidates = new MatchSegment[ 8 ];
+    int candidateCount;
+    MatchSegment[] matches = new MatchSegment[ 8 ];
+    int matchCount;
+    List<MatchSegment> pool = new ArrayList<MatchSegment>();
+    int used;
+
+    private void start( PathNode<?> root ) {
+      candidateCount = 0;
+      matchCount = 0;
+      used = 0;
+      addMatch( null, root, null, null );
+      swapMatchesToCandidates();
+    }
+
+    private void addMatch( MatchSegment parent, PathNode<?> node, Segment templateSegment, Segment inputSegment ) {
+      MatchSegment match;
+      if( used < pool.size() ) {
+        match = pool.get( used );
+        match.parentMatch = parent;
+        match.pathNode = node;
+        match.templateSegment = templateSegment;
+        match.inputSegment = inputSegment;
+      } else {
+        match = new MatchSegment( parent, node, templateSegment, inputSegment );
+        pool.add( match );
+      }
+      used++;
+      if( matchCount == matches.length ) {
+        MatchSegment[] grown = new MatchSegment[ matches.length * 2 ];
+        System.arraycopy( matches, 0, grown, 0, matchCount );
+        matches = grown;
+      }
+      matches[ matchCount++ ] = match;
+    }
+
+    private void swapMatchesToCandidates() {
+      MatchSegment[] temp = candidates;
+      candidates = matches;
+      candidateCount = matchCount;
+      matches = temp;
+      matchCount = 0;
+    }
+
+    // Don't hold on to the input segments or the matcher's tree between requests.
+    private void finish() {
+      for( int i = 0; i < used; i++ ) {
+        MatchSegment match = pool.get( i );
+        match.parentMatch = null;
+        match.pathNode = null;
+        match.templateSegment = null;
+        match.inputSegment = null;
+      }
+      used = 0;
+      candidateCount = 0;
+      matchCount = 0;
+    }
+
+  }
+
   private class Status {
 
     List<MatchSegment> candidates = new ArrayList<MatchSegment>();
@@ -335,13 +588,13 @@ public class Matcher<V> {
     }
   }
 
-  private class MatchSegment {
+  private static class MatchSegment {
     private MatchSegment parentMatch;
-    private PathNode pathNode;
+    private PathNode<?> pathNode;
     private Segment templateSegment;
     private Segment inputSegment;
 
-    private MatchSegment( MatchSegment parent, PathNode node, Segment templateSegment, Segment inputSegment ) {
+    private MatchSegment( MatchSegment parent, PathNode<?> node, Segment templateSegment, Segment inputSegment ) {
       this.parentMatch = parent;
       this.pathNode = node;
       this.templateSegment = templateSegment;
@@ -407,14 +660,23 @@ public class Matcher<V> {
     }
   }
 
-  private class PathNode extends Node {
+  private static class PathNode<V> extends Node<V> {
 
     int depth; // Zero based depth of the pathNode for "best pathNode" calculation.
+    int ordinal; // Position of the pathNode within its parent's children.
     Segment segment;
-    Map<Segment,PathNode> children;
-    Set<QueryNode> queries;
-
-    private PathNode( PathNode parent, Segment segment ) {
+    Map<Segment,PathNode<V>> children;
+    Set<QueryNode<V>> queries;
+
+    // Built by compile().
+    int type;
+    boolean glob;
+    PathNode<V>[] childArray;
+    Map<String,PathNode<V>[]> staticChildren;
+    PathNode<V>[] dynamicChildren;
+    QueryNode<V>[] queryArray;
+
+    private PathNode( PathNode<V> parent, Segment segment ) {
       super( null, null );
       this.depth = ( parent == null ) ? 0 : parent.depth+1;
       this.segment = segment;
@@ -422,20 +684,77 @@ public class Matcher<V> {
       this.queries = null;
     }
 
-    private PathNode addPath( Segment path ) {
+    private PathNode<V> addPath( Segment path ) {
       if( children == null ) {
-        children = new LinkedHashMap<Segment,PathNode>();
+        children = new LinkedHashMap<Segment,PathNode<V>>();
       }
-      PathNode child = new PathNode( this, path );
+      PathNode<V> child = new PathNode<V>( this, path );
+      child.ordinal = children.size();
       children.put( path, child );
       return child;
     }
 
-    private QueryNode addQuery( Template template, V value ) {
+    @SuppressWarnings( "unchecked" )
+    private void compile() {
+      type = getType();
+      glob = hasGlob();
+      if( children != null && !children.isEmpty() ) {
+        Map<String,List<PathNode<V>>> statics = new HashMap<String,List<PathNode<V>>>();
+        List<PathNode<V>> dynamics = new ArrayList<PathNode<V>>();
+        for( PathNode<V> child : children.values() ) {
+          if( child.isStatic() ) {
+            for( Segment.Value value : child.segment.getValues() ) {
+              List<PathNode<V>> list = statics.get( value.getPattern() );
+              if( list == null ) {
+                list = new ArrayList<PathNode<V>>( 1 );
+                statics.put( value.getPattern(), list );
+              }
+              list.add( child );
+            }
+          } else {
+            dynamics.add( child );
+          }
+        }
+        Map<String,PathNode<V>[]> index = new HashMap<String,PathNode<V>[]>();
+        for( Map.Entry<String,List<PathNode<V>>> entry : statics.entrySet() ) {
+          index.put( entry.getKey(), entry.getValue().toArray( new PathNode[ 0 ] ) );
+        }
+        childArray = children.values().toArray( new PathNode[ 0 ] );
+        staticChildren = index;
+        dynamicChildren = dynamics.toArray( new PathNode[ 0 ] );
+      } else {
+        childArray = null;
+        staticChildren = null;
+        dynamicChildren = null;
+      }
+      if( hasQueries() ) {
+        QueryNode<V>[] array = new QueryNode[ queries.size() ];
+        int i = 0;
+        for( QueryNode<V> query : queries ) {
+          query.compile();
+          array[ i++ ] = query;
+        }
+        queryArray = array;
+      } else {
+        queryArray = null;
+      }
+    }
+
+    // A node can be found by hash lookup if every value it accepts is a literal.
+    private boolean isStatic() {
+      for( Segment.Value value : segment.getValues() ) {
+        if( value.getType() != Segment.STATIC || value.getPattern() == null ) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private QueryNode<V> addQuery( Template template, V value ) {
       if( queries == null ) {
-        queries = new LinkedHashSet<QueryNode>();
+        queries = new LinkedHashSet<QueryNode<V>>();
       }
-      QueryNode query = new QueryNode( template, value );
+      QueryNode<V> query = new QueryNode<V>( template, value );
       queries.add( query );
       return query;
     }
@@ -476,15 +795,23 @@ public class Matcher<V> {
 
   }
 
-  private class QueryNode extends Node {
+  private static class QueryNode<V> extends Node<V> {
+
+    // Built by compile().
+    Query[] queryArray;
 
     private QueryNode( Template template, V value ) {
       super( template, value );
     }
 
+    private void compile() {
+      Collection<Query> values = template.getQuery().values();
+      queryArray = values.toArray( new Query[ values.size() ] );
+    }
+
   }
 
-  private class Node {
+  private static class Node<V> {
 
     Template template;
     V value;
@@ -20,9 +20,6 @@ package org.apache.hadoop.gateway.util.urltemplate;
 import org.apache.hadoop.gateway.i18n.resources.ResourcesFactory;
 
 import java.net.URISyntaxException;
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 //NOTE: Instances Not thread safe but reusable.  Static parse method is thread safe.
 //NOTE: Ignores matrix parameters at this point.
@@ -32,34 +29,21 @@ public class Parser {
       ^(([^:/?#]+):)?(//([^/?#]*))?([^?#]*)(\?([^#]*))?(#(.*))?
        12            3  4          5       6  7        8 9
 
-   The numbers in the second line above are only to assist readability;
-   they indicate the reference points for each subexpression (i.e., each
-   paired parenthesis).  We refer to the value matched for subexpression
-   <n> as $<n>.  For example, matching the above expression to
+   The template is split into components as described by the regular expression above from RFC 3986.
+   For example
 
       http://www.ics.uci.edu/pub/ietf/uri/#Related
 
-   results in the following subexpression matches:
+   results in the following components:
 
-      $1 = http:
-      $2 = http
-      $3 = //www.ics.uci.edu
-      $4 = www.ics.uci.edu
-      $5 = /pub/ietf/uri/
-      $6 = <undefined>
-      $7 = <undefined>
-      $8 = #Related
-      $9 = Related
+      scheme    = http
+      authority = www.ics.uci.edu
+      path      = /pub/ietf/uri/
+      query     = <undefined>
+      fragment  = Related
 
-   where <undefined> indicates that the component is not present, as is
-   the case for the query component in the above example.  Therefore, we
-   can determine the value of the five components as
-
-      scheme    = $2
-      authority = $4
-      path      = $5
-      query     = $7
-      fragment  = $9
+   The components are found by scanning the characters of the template once instead of evaluating the regular
+   expression.  Only the names and patterns that end up in the template's segments are extracted as strings.
    */
 
   private static final Resources RES = ResourcesFactory.get( Resources.class );
@@ -68,21 +52,13 @@ public class Parser {
   public static final char TEMPLATE_CLOSE_MARKUP = '}';
   public static final char NAME_PATTERN_SEPARATOR = '=';
 
-  private static final int MATCH_GROUP_SCHEME = 1;
-  private static final int MATCH_GROUP_SCHEME_NAKED = 2;
-  private static final int MATCH_GROUP_AUTHORITY = 3;
-  private static final int MATCH_GROUP_AUTHORITY_NAKED = 4;
-  private static final int MATCH_GROUP_PATH = 5;
-  private static final int MATCH_GROUP_QUERY = 6;
-  private static final int MATCH_GROUP_QUERY_NAKED = 7;
-  private static final int MATCH_GROUP_FRAGMENT = 8;
-  private static final int MATCH_GROUP_FRAGMENT_NAKED = 9;
-
-  private static Pattern PATTERN = Pattern.compile( "^(([^:/?#]+):)?(//([^/?#]*))?([^?#]*)(\\?([^#]*))?(#(.*))?" );
-
   private String template; // Kept this for debugging.
   private Builder builder;
 
+  // The result of the last parseTemplateToken call.
+  private String tokenName;
+  private String tokenPattern;
+
   public static Template parse( String template ) throws URISyntaxException {
     return new Parser().parseTemplate( template );
   }
@@ -97,20 +73,32 @@ public class Parser {
     builder.setIsDirectory( false ); // Assume a file path until found otherwise.  If true, will cause trailing / in output URL.
     builder.setHasQuery( false ); // Assume no ? until found otherwise.  If true, will cause ? in output URL.
     builder.setHasFragment( false ); // Assume no # until found otherwise.  If true, will cause # in output URL.
-    Matcher match = PATTERN.matcher( template );
-    if( match.matches() ) {
-      consumeSchemeMatch( match );
-      consumeAuthorityMatch( match );
-      consumePathMatch( match );
-      consumeQueryMatch( match );
-      consumeFragmentMatch( match );
-      fixNakedAuthority();
-    } else {
-      throw new URISyntaxException( template, RES.parseTemplateFailureReason( template ) );
-    }
+    int length = template.length();
+    int pos = consumeScheme( template, length );
+    pos = consumeAuthority( template, pos, length );
+    pos = consumePath( template, pos, length );
+    pos = consumeQuery( template, pos, length );
+    consumeFragment( template, pos, length );
+    fixNakedAuthority();
     return builder.build();
   }
 
+  // Parses the query and fragment of the template, from pos on, onto a template parsed from everything before pos.
+  // The prefix must end where the path ends, at the first ? or #, and must not be a naked authority.
+  Template parseQueryAndFragment( Template prefix, String template, int pos ) throws URISyntaxException {
+    this.template = template;
+    builder = new Builder( prefix );
+    int length = template.length();
+    pos = consumeQuery( template, pos, length );
+    consumeFragment( template, pos, length );
+    return builder.build();
+  }
+
+  // Returns the index of the ? or # that ends the path or the length of the template if there is neither.
+  static int findQueryOrFragment( String template ) {
+    return scan( template, 0, template.length(), '?', '#', '#' );
+  }
+
   private void fixNakedAuthority() {
     if( builder.getHashScheme() &&
         !builder.getHasAuthority() &&
@@ -135,180 +123,183 @@ public class Parser {
     return pattern;
   }
 
-  private void consumeSchemeMatch( Matcher match ) {
-    if( match.group( MATCH_GROUP_SCHEME ) != null ) {
-      builder.setHasScheme( true );
-      consumeSchemeToken( match.group( MATCH_GROUP_SCHEME_NAKED ) );
-    }
-  }
-
-  private void consumeSchemeToken( String token ) {
-    if( token != null ) {
-      String[] pair = parseTemplateToken( token, Segment.STAR_PATTERN );
-      builder.setScheme( pair[0], pair[1] );
+  // Scheme is ([^:/?#]+): at the start of the template.
+  private int consumeScheme( String t, int length ) {
+    int i = 0;
+    while( i < length ) {
+      char c = t.charAt( i );
+      if( c == ':' ) {
+        if( i > 0 ) {
+          builder.setHasScheme( true );
+          parseTemplateToken( t, 0, i, Segment.STAR_PATTERN );
+          builder.setScheme( tokenName, tokenPattern );
+          return i + 1;
+        }
+        break;
+      } else if( c == '/' || c == '?' || c == '#' ) {
+        break;
+      }
+      i++;
     }
+    return 0;
   }
 
-  private void consumeAuthorityMatch( Matcher match ) {
-    if( match.group( MATCH_GROUP_AUTHORITY ) != null ) {
+  // Authority is //([^/?#]*) and is split into [username[:password]@]host[:port] at the first @ and :.
+  private int consumeAuthority( String t, int pos, int length ) {
+    if( pos + 1 < length && t.charAt( pos ) == '/' && t.charAt( pos + 1 ) == '/' ) {
       builder.setHasAuthority( true );
-      consumeAuthorityToken( match.group( MATCH_GROUP_AUTHORITY_NAKED ) );
-    }
-  }
-
-  private void consumeAuthorityToken( String token ) {
-    if( token != null ) {
-      String[] usernamePassword=null, hostPort=null, paramPattern=null;
-      String[] userAddr = split( token, '@' );
-      if( userAddr.length == 1 ) {
-        hostPort = split( userAddr[ 0 ], ':' );
-      } else {
-        usernamePassword = split( userAddr[ 0 ], ':' );
-        hostPort = split( userAddr[ 1 ], ':' );
-      }
-      if( usernamePassword != null ) {
-        if( usernamePassword[ 0 ].length() > 0 ) {
-          paramPattern = parseTemplateToken( usernamePassword[ 0 ], Segment.STAR_PATTERN );
-          builder.setUsername( paramPattern[ 0 ], paramPattern[ 1 ] );
+      int start = pos + 2;
+      int end = scan( t, start, length, '/', '?', '#' );
+      int at = t.indexOf( '@', start );
+      int hostStart = start;
+      if( at >= 0 && at < end ) {
+        int colon = indexOf( t, ':', start, at );
+        int userEnd = colon < 0 ? at : colon;
+        if( userEnd > start ) {
+          parseTemplateToken( t, start, userEnd, Segment.STAR_PATTERN );
+          builder.setUsername( tokenName, tokenPattern );
         }
-        if( usernamePassword.length > 1 && usernamePassword[ 1 ].length() > 0 ) {
-          paramPattern = parseTemplateToken( usernamePassword[ 1 ], Segment.STAR_PATTERN );
-          builder.setPassword( paramPattern[ 0 ], paramPattern[ 1 ] );
+        if( colon >= 0 && at > colon + 1 ) {
+          parseTemplateToken( t, colon + 1, at, Segment.STAR_PATTERN );
+          builder.setPassword( tokenName, tokenPattern );
         }
+        hostStart = at + 1;
       }
-      if( hostPort[ 0 ].length() > 0 ) {
-        paramPattern = parseTemplateToken( hostPort[ 0 ], Segment.STAR_PATTERN );
-        builder.setHost( paramPattern[ 0 ], paramPattern[1] );
+      int colon = indexOf( t, ':', hostStart, end );
+      int hostEnd = colon < 0 ? end : colon;
+      if( hostEnd > hostStart ) {
+        parseTemplateToken( t, hostStart, hostEnd, Segment.STAR_PATTERN );
+        builder.setHost( tokenName, tokenPattern );
       }
-      if( hostPort.length > 1 && hostPort[ 1 ].length() > 0 ) {
-        paramPattern = parseTemplateToken( hostPort[ 1 ], Segment.STAR_PATTERN );
-        builder.setPort( paramPattern[ 0 ], paramPattern[ 1 ] );
+      if( colon >= 0 && end > colon + 1 ) {
+        parseTemplateToken( t, colon + 1, end, Segment.STAR_PATTERN );
+        builder.setPort( tokenName, tokenPattern );
       }
+      return end;
     }
+    return pos;
   }
 
-  private void consumePathMatch( Matcher match ) {
-    String path = match.group( MATCH_GROUP_PATH );
-    if( path != null ) {
-      builder.setIsAbsolute( path.startsWith( "/" ) );
-      builder.setIsDirectory( path.endsWith( "/" ) );
-      consumePathToken( path );
+  // Path is ([^?#]*) and is always present even if empty.  Empty path segments are ignored.
+  private int consumePath( String t, int pos, int length ) {
+    int end = scan( t, pos, length, '?', '#', '#' );
+    if( end > pos ) {
+      builder.setIsAbsolute( t.charAt( pos ) == '/' );
+      builder.setIsDirectory( t.charAt( end - 1 ) == '/' );
     }
-  }
-
-  private void consumePathToken( String token ) {
-    if( token != null ) {
-      StringTokenizer tokenizer = new StringTokenizer( token, "/" );
-      while( tokenizer.hasMoreTokens() ) {
-        consumePathSegment( tokenizer.nextToken() );
+    int start = pos;
+    for( int i = pos; i <= end; i++ ) {
+      if( i == end || t.charAt( i ) == '/' ) {
+        if( i > start ) {
+          parseTemplateToken( t, start, i, Segment.GLOB_PATTERN );
+          builder.addPath( tokenName, tokenPattern );
+        }
+        start = i + 1;
       }
     }
+    return end;
   }
 
-  private void consumePathSegment( String token ) {
-    if( token != null ) {
-      String[] pair = parseTemplateToken( token, Segment.GLOB_PATTERN );
-      builder.addPath( pair[ 0 ], pair[ 1 ] );
-    }
-  }
-
-  private void consumeQueryMatch( Matcher match ) {
-    if( match.group( MATCH_GROUP_QUERY ) != null ) {
+  // Query is \?([^#]*) and is split on both ? and &.  Empty query segments are ignored.
+  private int consumeQuery( String t, int pos, int length ) {
+    if( pos < length && t.charAt( pos ) == '?' ) {
       builder.setHasQuery( true );
-      consumeQueryToken( match.group( MATCH_GROUP_QUERY_NAKED ) );
-    }
-  }
-
-  private void consumeQueryToken( String token ) {
-    if( token != null ) {
-      StringTokenizer tokenizer = new StringTokenizer( token, "?&" );
-      while( tokenizer.hasMoreTokens() ) {
-        consumeQuerySegment( tokenizer.nextToken() );
+      int end = scan( t, pos + 1, length, '#', '#', '#' );
+      int start = pos + 1;
+      for( int i = start; i <= end; i++ ) {
+        if( i == end || t.charAt( i ) == '?' || t.charAt( i ) == '&' ) {
+          if( i > start ) {
+            consumeQuerySegment( t, start, i );
+          }
+          start = i + 1;
+        }
       }
+      return end;
     }
+    return pos;
   }
 
-  private void consumeQuerySegment( String token ) {
-    if( token != null && token.length() > 0 ) {
-      // Shorthand format {queryParam} == queryParam={queryParam=*}
-      if( TEMPLATE_OPEN_MARKUP == token.charAt( 0 ) ) {
-        String[] paramPattern = parseTemplateToken( token, Segment.GLOB_PATTERN );
-        if( paramPattern.length == 1 ) {
-          String paramName = paramPattern[ 0 ];
-          builder.addQuery( paramName, paramName, Segment.STAR_PATTERN );
-        } else {
-          String paramName = paramPattern[ 0 ];
-          builder.addQuery( paramName, paramName, paramPattern[ 1 ] );
-        }
+  private void consumeQuerySegment( String t, int start, int end ) {
+    // Shorthand format {queryParam} == queryParam={queryParam=*}
+    if( TEMPLATE_OPEN_MARKUP == t.charAt( start ) ) {
+      parseTemplateToken( t, start, end, Segment.GLOB_PATTERN );
+      builder.addQuery( tokenName, tokenName, tokenPattern );
+    } else {
+      int equals = indexOf( t, '=', start, end );
+      if( equals < 0 ) {
+        builder.addQuery( t.substring( start, end ), Segment.ANONYMOUS_PARAM, null );
       } else {
-        String nameValue[] = split( token, '=' );
-        if( nameValue.length == 1 ) {
-          String queryName = nameValue[ 0 ];
-          builder.addQuery( queryName, Segment.ANONYMOUS_PARAM, null );
-        } else {
-          String queryName = nameValue[ 0 ];
-          String[] paramPattern = parseTemplateToken( nameValue[ 1 ], Segment.GLOB_PATTERN );
-          builder.addQuery( queryName, paramPattern[ 0 ], paramPattern[ 1 ] );
-        }
+        String queryName = t.substring( start, equals );
+        parseTemplateToken( t, equals + 1, end, Segment.GLOB_PATTERN );
+        builder.addQuery( queryName, tokenName, tokenPattern );
       }
     }
   }
 
-  private void consumeFragmentMatch( Matcher match ) {
-    if( match.group( MATCH_GROUP_FRAGMENT ) != null ) {
+  // Fragment is #(.*) where . doesn't match line terminators.
+  private void consumeFragment( String t, int pos, int length ) throws URISyntaxException {
+    if( pos < length ) {
+      // Anything left must start with # since the path and query stop only at ? and #.
+      for( int i = pos + 1; i < length; i++ ) {
+        if( isLineTerminator( t.charAt( i ) ) ) {
+          throw new URISyntaxException( t, RES.parseTemplateFailureReason( t ) );
+        }
+      }
       builder.setHasFragment( true );
-      consumeFragmentToken( match.group( MATCH_GROUP_FRAGMENT_NAKED ) );
-    }
-  }
-
-  private void consumeFragmentToken( String token ) {
-    if( token != null && token.length() > 0 ) {
-      String[] pair = parseTemplateToken( token, Segment.STAR_PATTERN );
-      builder.setFragment( pair[0], pair[1] );
+      if( length > pos + 1 ) {
+        parseTemplateToken( t, pos + 1, length, Segment.STAR_PATTERN );
+        builder.setFragment( tokenName, tokenPattern );
+      }
     }
   }
 
-  private static String[] parseTemplateToken( String t, String defaultPattern ) {
-    String[] a;
-    int l = t.length();
-    if( l > 0 ) {
-      int b = ( t.charAt( 0 ) == TEMPLATE_OPEN_MARKUP ? 1 : 0 );
-      int e = ( t.charAt( l-1 ) == TEMPLATE_CLOSE_MARKUP ? l-1 : l );
-      int i = t.indexOf( NAME_PATTERN_SEPARATOR, b );
+  // Sets tokenName and tokenPattern from the token t[s,l) which is either {name}, {name=pattern} or pattern.
+  private void parseTemplateToken( String t, int s, int l, String defaultPattern ) {
+    if( l > s ) {
+      int b = ( t.charAt( s ) == TEMPLATE_OPEN_MARKUP ? s + 1 : s );
+      int e = ( t.charAt( l - 1 ) == TEMPLATE_CLOSE_MARKUP ? l - 1 : l );
       // If this is a parameter template (ie {...}
-      if( b > 0 ) {
+      if( b > s ) {
+        int i = indexOf( t, NAME_PATTERN_SEPARATOR, b, l );
         if( i < 0 ) {
-          String n = t.substring( b, e );
-          String p;
-          if( Segment.GLOB_PATTERN.equals( n ) ) {
-            p = Segment.GLOB_PATTERN;
+          tokenName = t.substring( b, e );
+          if( Segment.GLOB_PATTERN.equals( tokenName ) ) {
+            tokenPattern = Segment.GLOB_PATTERN;
           } else {
-            p = defaultPattern; //Segment.STAR_PATTERN;
+            tokenPattern = defaultPattern;
           }
-          a = new String[]{ n, p };
         } else {
-          a = new String[]{ t.substring( b, i ), t.substring( i+1, e ) };
+          tokenName = t.substring( b, i );
+          tokenPattern = t.substring( i + 1, e );
         }
       // Otherwise this is an anonymous template
       } else {
-        a = new String[]{ Segment.ANONYMOUS_PARAM, t.substring( b, e ) };
+        tokenName = Segment.ANONYMOUS_PARAM;
+        tokenPattern = t.substring( b, e );
       }
     } else {
-      a = new String[]{ Segment.ANONYMOUS_PARAM, null };
+      tokenName = Segment.ANONYMOUS_PARAM;
+      tokenPattern = null;
     }
-    return a;
   }
 
-  // Using this because String.split is very inefficient.
-  private static String[] split( String s, char d ) {
-    String[] a;
-    int i = s.indexOf( d );
-    if( i < 0 ) {
-      a = new String[]{ s };
-    } else {
-      a = new String[]{ s.substring( 0, i ), s.substring( i + 1 ) };
+  private static int scan( String t, int start, int end, char a, char b, char c ) {
+    for( int i = start; i < end; i++ ) {
+      char ch = t.charAt( i );
+      if( ch == a || ch == b || ch == c ) {
+        return i;
+      }
     }
-    return a;
+    return end;
+  }
+
+  private static int indexOf( String t, char c, int start, int end ) {
+    int i = t.indexOf( c, start );
+    return ( i >= end ) ? -1 : i;
+  }
+
+  private static boolean isLineTerminator( char c ) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
   }
 
 }
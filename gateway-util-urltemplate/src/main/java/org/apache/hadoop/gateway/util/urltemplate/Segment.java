@@ -39,11 +39,13 @@ abstract class Segment {
 
   private String paramName; // ?queryName={paramName=value}
   private Map<String,Value> values;
+  private Value first;
 
   public Segment( String paramName, String valuePattern ) {
     this.paramName = paramName;
     this.values = new LinkedHashMap<String,Value>();
-    this.values.put( valuePattern, new Value( valuePattern ) );
+    this.first = new Value( valuePattern );
+    this.values.put( valuePattern, first );
   }
 
   protected Segment( Segment that ) {
@@ -52,6 +54,9 @@ abstract class Segment {
     for( Value thatValue : that.getValues() ) {
       Value thisValue = new Value( thatValue );
       this.values.put( thisValue.getPattern(), thisValue );
+      if( first == null ) {
+        first = thisValue;
+      }
     }
   }
 
@@ -88,13 +93,13 @@ abstract class Segment {
   }
 
   public Value getFirstValue() {
-    Value first = null;
-    if( !values.isEmpty() ) {
-      first = values.values().iterator().next();
-    }
     return first;
   }
 
+  int getValueCount() {
+    return values.size();
+  }
+
   public boolean matches( Segment that ) {
     if( getClass().isInstance( that ) ) {
       for( Value thisValue: this.values.values() ) {
@@ -111,6 +116,8 @@ abstract class Segment {
   void addValue( String valuePattern ) {
     Value value = new Value( valuePattern );
     values.put( valuePattern, value );
+    // Replacing an existing pattern keeps its position but not its value instance.
+    first = values.values().iterator().next();
   }
 
   public class Value {
@@ -311,7 +311,7 @@ public class Template {
       buildQuery( b );
       buildFragment( b );
       s = b.toString();
-      //image = s;
+      image = s;
     }
     return s;
   }
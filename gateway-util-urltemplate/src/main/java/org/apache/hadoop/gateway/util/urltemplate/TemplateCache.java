@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.gateway.util.urltemplate;
+
+import java.net.URISyntaxException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.gateway.util.ExpiringCache;
+
+/**
+ * A bounded cache of parsed templates keyed by the part of their source string before any query or fragment.
+ * The same request paths and response header values are parsed over and over by polling clients so this avoids
+ * rerunning the parser for them.  Queries are mostly unique and often carry tokens that shouldn't be kept around
+ * so they are parsed on each call onto a copy of the cached part.  Templates are never modified once they are built
+ * so the cached instances are safely shared between threads.
+ */
+public class TemplateCache {
+
+  public static final int DEFAULT_MAX_ENTRIES = 1024;
+  public static final int DEFAULT_MAX_KEY_LENGTH = 2048;
+
+  private static final TemplateCache DEFAULT = new TemplateCache( DEFAULT_MAX_ENTRIES, DEFAULT_MAX_KEY_LENGTH );
+
+  private final ExpiringCache<String,Template> cache;
+  private final int maxKeyLength;
+  private final AtomicLong uncached = new AtomicLong();
+
+  public TemplateCache( int maxEntries ) {
+    this( maxEntries, DEFAULT_MAX_KEY_LENGTH );
+  }
+
+  public TemplateCache( int maxEntries, int maxKeyLength ) {
+    this.cache = new ExpiringCache<String,Template>( maxEntries );
+    this.maxKeyLength = maxKeyLength;
+  }
+
+  /**
+   * The cache shared by the request and response processing code paths.
+   */
+  public static TemplateCache getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Returns the template for the string, parsing and caching the part before any query or fragment if it hasn't
+   * been seen recently.  Strings that fail to parse are not cached.  Strings whose cached part would be longer than
+   * the maximum key length are parsed but not cached so that they can't push the hot entries out.
+   */
+  public Template parse( String template ) throws URISyntaxException {
+    int split = Parser.findQueryOrFragment( template );
+    if( split > maxKeyLength ) {
+      uncached.incrementAndGet();
+      return Parser.parse( template );
+    }
+    String key = split == template.length() ? template : template.substring( 0, split );
+    Template parsed = cache.get( key );
+    if( parsed == null ) {
+      // Racing threads may both parse the same string which is harmless.
+      parsed = Parser.parse( key );
+      cache.put( key, parsed );
+    }
+    if( split == template.length() ) {
+      return parsed;
+    }
+    if( parsed.isAuthorityOnly() ) {
+      // A bare host:port is only treated as an authority when nothing follows it.
+      return Parser.parse( template );
+    }
+    return new Parser().parseQueryAndFragment( parsed, template, split );
+  }
+
+  public long getHitCount() {
+    return cache.getHitCount();
+  }
+
+  public long getMissCount() {
+    return cache.getMissCount() + uncached.get();
+  }
+
+  public int size() {
+    return cache.size();
+  }
+
+  public void clear() {
+    cache.clear();
+    uncached.set( 0 );
+  }
+
+}
@@ -316,4 +316,47 @@ public class ExpanderTest {
         equalTo( "schemeA://host/pathA/pathB?server=host&query=queryA&query=queryB&host=hostA&extra=extraA" ) );
   }
 
+  @Test
+  public void testExpandToTemplateSameAsParsedString() throws URISyntaxException {
+    String[] templates = {
+        "{scheme}://{username}:{password}@{host}:{port}/{path=**}?query={queryParam}#{fragment}",
+        "{scheme}://{host}:{port}/{path=**}/?{**}",
+        "{scheme}://{host}:{port}{path=**}",
+        "{scheme}:{path}",
+        "/{path=**}?{**}",
+        "{path}/{file}",
+        "/top/{path}?static=value&name&{queryParam}&other={queryParam=*}&glob={path=**}",
+        "/",
+        "/?{**}",
+        "?{**}",
+        "#{fragment}",
+        "//{host}/{path}?query={missing}" };
+    String[] values = { "value", "a/b", "a?b", "a#b", "a&b", "a=b", "a:b", "a@b", "{a}", "a}", "*", "**", "", "a\nb" };
+    Expander expander = new Expander();
+    for( String text : templates ) {
+      Template template = Parser.parse( text );
+      for( String value : values ) {
+        MockParams params = new MockParams();
+        for( String name : new String[]{ "scheme", "username", "password", "host", "port", "file", "queryParam", "fragment", "extra" } ) {
+          params.addValue( name, value );
+        }
+        params.addValue( "path", "top" );
+        params.addValue( "path", value );
+        params.addValue( "*", value );
+        String expect, actual;
+        try {
+          expect = ParserTest.describe( Parser.parse( expander.expandToString( template, params, null ) ) );
+        } catch( URISyntaxException e ) {
+          expect = e.getClass().getName();
+        }
+        try {
+          actual = ParserTest.describe( expander.expandToTemplate( template, params, null ) );
+        } catch( URISyntaxException e ) {
+          actual = e.getClass().getName();
+        }
+        assertThat( text + " with " + value, actual, equalTo( expect ) );
+      }
+    }
+  }
+
 }
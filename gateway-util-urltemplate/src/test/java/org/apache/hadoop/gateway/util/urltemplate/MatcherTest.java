@@ -822,4 +822,58 @@ public class MatcherTest {
     assertThat( params.getNames().size(), equalTo( 0 ) );
   }
 
+  @Test
+  public void testCompiledMatchesSameAsUncompiled() throws URISyntaxException {
+    String[] templates = {
+        "*://*:*/**/webhdfs/{version}/{path=**}?{**}",
+        "*://*:*/**/webhdfs/v1/?op=LISTSTATUS",
+        "*://*:*/**/hbase/{table}/{row}?{**}",
+        "/path/a",
+        "/path/{b}",
+        "/path/*",
+        "/path/**",
+        "/path/c?query={value}",
+        "/path/c?{**}",
+        "{scheme}://{host}:{port}/static/{**}",
+        "http://host:80/static/file",
+        "{path=**}" };
+    String[] inputs = {
+        "https://localhost:8443/gateway/sandbox/webhdfs/v1/tmp/file?op=CREATE",
+        "https://localhost:8443/gateway/sandbox/webhdfs/v1/?op=LISTSTATUS",
+        "https://localhost:8443/gateway/sandbox/hbase/table/row?v=1",
+        "/path/a",
+        "/path/x",
+        "/path/x/y",
+        "/path/c?query=q",
+        "/path/c?other=q",
+        "/path",
+        "http://host:80/static/file",
+        "http://host:80/static/other/file",
+        "/other/path" };
+
+    Matcher<String> uncompiled = new Matcher<String>();
+    Matcher<String> compiled = new Matcher<String>();
+    compiled.compile();
+    for( String template : templates ) {
+      addTemplate( uncompiled, template );
+      addTemplate( compiled, template );
+    }
+    assertThat( compiled.isCompiled(), is( true ) );
+    for( String input : inputs ) {
+      Matcher<String>.Match expect = uncompiled.match( Parser.parse( input ) );
+      Matcher<String>.Match actual = compiled.match( Parser.parse( input ) );
+      if( expect == null ) {
+        assertThat( input, actual, nullValue() );
+      } else {
+        assertThat( input, actual, notNullValue() );
+        assertThat( input, actual.getValue(), equalTo( expect.getValue() ) );
+        assertThat( input, actual.getParams().getNames(), equalTo( expect.getParams().getNames() ) );
+      }
+    }
+
+    // Templates added after compiling must be visible to the next match.
+    addTemplate( compiled, "/other/path" );
+    assertValidMatch( compiled, "/other/path", "/other/path" );
+  }
+
 }